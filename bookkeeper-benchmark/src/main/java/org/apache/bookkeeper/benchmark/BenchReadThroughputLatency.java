@@ -23,6 +23,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.HashSet;
@@ -73,13 +74,16 @@ public class BenchReadThroughputLatency {
         }
     };
 
-    private static void readLedger(ClientConfiguration conf, long ledgerId, byte[] passwd) {
+    private static void readLedger(ClientConfiguration conf, long ledgerId, byte[] passwd, int batchEntries) {
         LOG.info("Reading ledger {}", ledgerId);
         BookKeeper bk = null;
         long time = 0;
         long entriesRead = 0;
         long lastRead = 0;
         int nochange = 0;
+        // latency of each read request, in nanos
+        long[] latencies = new long[1024];
+        int numReads = 0;
 
         long absoluteLimit = 5000000;
         LedgerHandle lh = null;
@@ -103,9 +107,14 @@ public class BenchReadThroughputLatency {
                 long starttime = System.nanoTime();
 
                 while (lastRead < lastConfirmed) {
-                    long nextLimit = lastRead + 100000;
+                    long nextLimit = lastRead + batchEntries;
                     long readTo = Math.min(nextLimit, lastConfirmed);
+                    long readStartTime = System.nanoTime();
                     Enumeration<LedgerEntry> entries = lh.readEntries(lastRead + 1, readTo);
+                    if (numReads == latencies.length) {
+                        latencies = Arrays.copyOf(latencies, numReads * 2);
+                    }
+                    latencies[numReads++] = System.nanoTime() - readStartTime;
                     lastRead = readTo;
                     while (entries.hasMoreElements()) {
                         LedgerEntry e = entries.nextElement();
@@ -128,6 +137,13 @@ public class BenchReadThroughputLatency {
             LOG.error("Exception in reader", e);
         } finally {
             LOG.info("Read {} in {}ms", entriesRead, time / 1000 / 1000);
+            if (numReads > 0) {
+                long[] sorted = Arrays.copyOf(latencies, numReads);
+                Arrays.sort(sorted);
+                LOG.info("Read latency of {} requests of up to {} entries (ms): p50 {} p95 {} p99 {} p99.9 {} max {}",
+                        numReads, batchEntries, percentile(sorted, 50), percentile(sorted, 95),
+                        percentile(sorted, 99), percentile(sorted, 99.9), sorted[numReads - 1] / 1000000.0);
+            }
 
             try {
                 if (lh != null) {
@@ -142,6 +158,11 @@ public class BenchReadThroughputLatency {
         }
     }
 
+    private static double percentile(long[] sortedLatencies, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sortedLatencies.length) - 1;
+        return sortedLatencies[Math.max(0, index)] / 1000000.0;
+    }
+
     private static void usage(Options options) {
         HelpFormatter formatter = new HelpFormatter();
         formatter.printHelp("BenchReadThroughputLatency <options>", options);
@@ -157,6 +178,8 @@ public class BenchReadThroughputLatency {
         options.addOption("password", true, "Password used to access ledgers (default 'benchPasswd')");
         options.addOption("zookeeper", true, "Zookeeper ensemble, default \"localhost:2181\"");
         options.addOption("sockettimeout", true, "Socket timeout for bookkeeper client. In seconds. Default 5");
+        options.addOption("batchentries", true, "Number of entries to read with each read request, "
+                          + "latency percentiles are computed over these requests. Default 100000");
         options.addOption("help", false, "This message");
 
         CommandLineParser parser = new PosixParser();
@@ -170,6 +193,7 @@ public class BenchReadThroughputLatency {
         final String servers = cmd.getOptionValue("zookeeper", "localhost:2181");
         final byte[] passwd = cmd.getOptionValue("password", "benchPasswd").getBytes(UTF_8);
         final int sockTimeout = Integer.parseInt(cmd.getOptionValue("sockettimeout", "5"));
+        final int batchEntries = Integer.parseInt(cmd.getOptionValue("batchentries", "100000"));
         if (cmd.hasOption("ledger") && cmd.hasOption("listen")) {
             LOG.error("Cannot used -ledger and -listen together");
             usage(options);
@@ -205,7 +229,7 @@ public class BenchReadThroughputLatency {
                         try {
                             if (event.getType() == Event.EventType.NodeCreated
                                        && event.getPath().equals(nodepath)) {
-                                readLedger(conf, ledger.get(), passwd);
+                                readLedger(conf, ledger.get(), passwd, batchEntries);
                                 shutdownLatch.countDown();
                             } else if (event.getType() == Event.EventType.NodeChildrenChanged) {
                                 if (numLedgers.get() < 0) {
@@ -231,7 +255,7 @@ public class BenchReadThroughputLatency {
                                             Thread t = new Thread() {
                                                 @Override
                                                 public void run() {
-                                                    readLedger(conf, ledgerId, passwd);
+                                                    readLedger(conf, ledgerId, passwd, batchEntries);
                                                 }
                                             };
                                             t.start();
@@ -254,7 +278,7 @@ public class BenchReadThroughputLatency {
 
             if (ledger.get() != 0) {
                 if (zk.exists(nodepath, true) != null) {
-                    readLedger(conf, ledger.get(), passwd);
+                    readLedger(conf, ledger.get(), passwd, batchEntries);
                     shutdownLatch.countDown();
                 } else {
                     LOG.info("Watching for creation of" + nodepath);
@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.common.collections;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking queue whose consumer can take all the available items at once.
+ */
+public interface BatchedBlockingQueue<T> extends BlockingQueue<T> {
+
+    /**
+     * Move the available items into an array, waiting for at least one to be available.
+     *
+     * @param array the array to fill, from index 0
+     * @return the number of items moved, up to the array length
+     * @throws InterruptedException if interrupted while waiting
+     */
+    int takeAll(T[] array) throws InterruptedException;
+
+    /**
+     * Move the available items into an array, waiting up to the given time for at least one
+     * to be available.
+     *
+     * @param array the array to fill, from index 0
+     * @param timeout how long to wait before giving up
+     * @param unit the unit of the timeout
+     * @return the number of items moved, up to the array length, or 0 if the timeout elapsed
+     * @throws InterruptedException if interrupted while waiting
+     */
+    int pollAll(T[] array, long timeout, TimeUnit unit) throws InterruptedException;
+}
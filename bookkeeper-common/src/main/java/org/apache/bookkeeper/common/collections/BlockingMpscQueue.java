@@ -19,7 +19,6 @@
 package org.apache.bookkeeper.common.collections;
 
 import java.util.Collection;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
 
 import org.jctools.queues.MpscArrayQueue;
@@ -27,7 +26,7 @@ import org.jctools.queues.MpscArrayQueue;
 /**
  * Blocking queue optimized for multiple producers and single consumer.
  */
-public class BlockingMpscQueue<T> extends MpscArrayQueue<T> implements BlockingQueue<T> {
+public class BlockingMpscQueue<T> extends MpscArrayQueue<T> implements BatchedBlockingQueue<T> {
 
     public BlockingMpscQueue(int size) {
         super(size);
@@ -105,6 +104,57 @@ public class BlockingMpscQueue<T> extends MpscArrayQueue<T> implements BlockingQ
         }
     }
 
+    @Override
+    public int takeAll(T[] array) throws InterruptedException {
+        int idleCounter = 0;
+        while (true) {
+            int items = pollAll(array);
+            if (items == 0) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                idleCounter = WAIT_STRATEGY.idle(idleCounter);
+                continue;
+            }
+
+            return items;
+        }
+    }
+
+    @Override
+    public int pollAll(T[] array, long timeout, TimeUnit unit) throws InterruptedException {
+        long absoluteEndTime = System.nanoTime() + unit.toNanos(timeout);
+
+        int idleCounter = 0;
+        while (true) {
+            int items = pollAll(array);
+            if (items == 0) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+
+                if (System.nanoTime() > absoluteEndTime) {
+                    return 0;
+                } else {
+                    idleCounter = WAIT_STRATEGY.idle(idleCounter);
+                    continue;
+                }
+            }
+
+            return items;
+        }
+    }
+
+    private int pollAll(T[] array) {
+        int items = 0;
+        T item;
+        while (items < array.length && (item = relaxedPoll()) != null) {
+            array[items++] = item;
+        }
+        return items;
+    }
+
     @Override
     public int remainingCapacity() {
         return capacity() - size();
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.common.collections;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.jctools.queues.MpscArrayQueue;
+
+/**
+ * Blocking queue optimized for multiple producers and single consumer, which parks the consumer while
+ * the queue is empty instead of spinning.
+ *
+ * <p>Producers claim a slot of the underlying ring buffer without locking, and only unpark the consumer
+ * when it's waiting. Producers finding the queue full back off with a short park.
+ */
+public class ParkingMpscQueue<T> extends MpscArrayQueue<T> implements BatchedBlockingQueue<T> {
+
+    private static final long PRODUCER_BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    // The consumer thread while it's parked waiting for items, or null
+    private volatile Thread waitingConsumer = null;
+
+    public ParkingMpscQueue(int size) {
+        super(size);
+    }
+
+    @Override
+    public boolean offer(T e) {
+        if (super.offer(e)) {
+            Thread consumer = waitingConsumer;
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public void put(T e) throws InterruptedException {
+        while (!offer(e)) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(PRODUCER_BACKOFF_NANOS);
+        }
+    }
+
+    @Override
+    public boolean offer(T e, long timeout, TimeUnit unit) throws InterruptedException {
+        long absoluteEndTime = System.nanoTime() + unit.toNanos(timeout);
+
+        while (!offer(e)) {
+            if (System.nanoTime() > absoluteEndTime) {
+                return false;
+            }
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            LockSupport.parkNanos(PRODUCER_BACKOFF_NANOS);
+        }
+
+        return true;
+    }
+
+    @Override
+    public T take() throws InterruptedException {
+        while (true) {
+            T item = relaxedPoll();
+            if (item != null) {
+                return item;
+            }
+            awaitItems(Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long absoluteEndTime = System.nanoTime() + unit.toNanos(timeout);
+
+        while (true) {
+            T item = relaxedPoll();
+            if (item != null) {
+                return item;
+            }
+            if (System.nanoTime() > absoluteEndTime) {
+                return null;
+            }
+            awaitItems(absoluteEndTime);
+        }
+    }
+
+    @Override
+    public int takeAll(T[] array) throws InterruptedException {
+        while (true) {
+            int items = pollAll(array);
+            if (items > 0) {
+                return items;
+            }
+            awaitItems(Long.MAX_VALUE);
+        }
+    }
+
+    @Override
+    public int pollAll(T[] array, long timeout, TimeUnit unit) throws InterruptedException {
+        long absoluteEndTime = System.nanoTime() + unit.toNanos(timeout);
+
+        while (true) {
+            int items = pollAll(array);
+            if (items > 0) {
+                return items;
+            }
+            if (System.nanoTime() > absoluteEndTime) {
+                return 0;
+            }
+            awaitItems(absoluteEndTime);
+        }
+    }
+
+    private int pollAll(T[] array) {
+        int items = 0;
+        T item;
+        while (items < array.length && (item = relaxedPoll()) != null) {
+            array[items++] = item;
+        }
+        return items;
+    }
+
+    /**
+     * Park the consumer until the queue is not empty, the deadline is reached or the thread is unparked.
+     */
+    private void awaitItems(long absoluteEndTime) throws InterruptedException {
+        // Publish the consumer before checking the queue again, so that a producer adding an item
+        // after the check sees it and unparks it
+        waitingConsumer = Thread.currentThread();
+        try {
+            if (isEmpty()) {
+                if (absoluteEndTime == Long.MAX_VALUE) {
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, absoluteEndTime - System.nanoTime());
+                }
+            }
+        } finally {
+            waitingConsumer = null;
+        }
+
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        return capacity() - size();
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super T> c, int maxElements) {
+        return drain(c::add, maxElements);
+    }
+}
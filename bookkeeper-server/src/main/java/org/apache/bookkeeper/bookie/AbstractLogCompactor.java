@@ -40,8 +40,13 @@ public abstract class AbstractLogCompactor {
     protected final LogRemovalListener logRemovalListener;
 
     public AbstractLogCompactor(ServerConfiguration conf, LogRemovalListener logRemovalListener) {
+        this(conf, null, logRemovalListener);
+    }
+
+    public AbstractLogCompactor(ServerConfiguration conf, CompactionScheduler compactionScheduler,
+                                LogRemovalListener logRemovalListener) {
         this.conf = conf;
-        this.throttler = new Throttler(conf);
+        this.throttler = new Throttler(conf, compactionScheduler);
         this.logRemovalListener = logRemovalListener;
     }
 
@@ -63,16 +68,26 @@ public abstract class AbstractLogCompactor {
     public static class Throttler {
         private final RateLimiter rateLimiter;
         private final boolean isThrottleByBytes;
+        // bookie-wide budget shared with the other compactions, may be null
+        private final CompactionScheduler compactionScheduler;
 
         Throttler(ServerConfiguration conf) {
+            this(conf, null);
+        }
+
+        Throttler(ServerConfiguration conf, CompactionScheduler compactionScheduler) {
             this.isThrottleByBytes  = conf.getIsThrottleByBytes();
             this.rateLimiter = RateLimiter.create(this.isThrottleByBytes
                 ? conf.getCompactionRateByBytes() : conf.getCompactionRateByEntries());
+            this.compactionScheduler = compactionScheduler;
         }
 
         // acquire. if bybytes: bytes of this entry; if byentries: 1.
-        void acquire(int permits) {
+        public void acquire(int permits) {
             rateLimiter.acquire(this.isThrottleByBytes ? permits : 1);
+            if (compactionScheduler != null) {
+                compactionScheduler.acquireBytes(permits);
+            }
         }
     }
 
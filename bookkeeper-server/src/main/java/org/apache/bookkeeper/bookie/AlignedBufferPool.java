@@ -0,0 +1,105 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of native buffers allocated with posix_memalign, suitable for O_DIRECT writes.
+ *
+ * <p>Buffers are handed out as raw pointers. A released buffer is kept for the next
+ * acquirer, up to the pool capacity, and freed otherwise. Once the pool is closed, the
+ * buffers still in use are freed when they are released.
+ */
+class AlignedBufferPool implements AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(AlignedBufferPool.class);
+
+    // Some devices accept 512 bytes alignment for direct I/O, but others require 4096
+    static final int ALIGNMENT = 4096;
+
+    private final NativeIO nativeIO;
+    private final int bufferSize;
+    private final ArrayBlockingQueue<Long> pool;
+    private boolean closed = false;
+
+    AlignedBufferPool(NativeIO nativeIO, int bufferSize, int maxPoolSize) {
+        checkArgument(bufferSize > 0 && bufferSize % ALIGNMENT == 0,
+                "Buffer size %s must be a positive multiple of %s", bufferSize, ALIGNMENT);
+        this.nativeIO = nativeIO;
+        this.bufferSize = bufferSize;
+        this.pool = new ArrayBlockingQueue<>(maxPoolSize);
+    }
+
+    static int alignUp(int size) {
+        return (size + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    NativeIO getNativeIO() {
+        return nativeIO;
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * Get a buffer from the pool, or allocate a new one if the pool is empty.
+     *
+     * @return the address of a buffer of {@link #getBufferSize()} bytes
+     */
+    long acquire() throws NativeIOException {
+        Long pointer = pool.poll();
+        if (pointer != null) {
+            return pointer;
+        }
+        return nativeIO.posix_memalign(ALIGNMENT, bufferSize);
+    }
+
+    synchronized void release(long pointer) {
+        if (closed || !pool.offer(pointer)) {
+            free(pointer);
+        }
+    }
+
+    private void free(long pointer) {
+        try {
+            nativeIO.free(pointer);
+        } catch (NativeIOException e) {
+            LOG.warn("Failed to free aligned buffer", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        Long pointer;
+        while ((pointer = pool.poll()) != null) {
+            free(pointer);
+        }
+    }
+}
@@ -60,6 +60,11 @@ public interface BookKeeperServerStats {
     String READ_ENTRY_LONG_POLL_PRE_WAIT = "READ_ENTRY_LONG_POLL_PRE_WAIT";
     String READ_ENTRY_LONG_POLL_WAIT = "READ_ENTRY_LONG_POLL_WAIT";
     String READ_ENTRY_LONG_POLL_READ = "READ_ENTRY_LONG_POLL_READ";
+    String BATCH_READ_ENTRY_REQUEST = "BATCH_READ_ENTRY_REQUEST";
+    String BATCH_READ_ENTRY = "BATCH_READ_ENTRY";
+    String BATCH_READ_ENTRY_COUNT = "BATCH_READ_ENTRY_COUNT";
+    String MULTI_ADD_ENTRY_REQUEST = "MULTI_ADD_ENTRY_REQUEST";
+    String MULTI_ADD_ENTRY_COUNT = "MULTI_ADD_ENTRY_COUNT";
     String WRITE_LAC_REQUEST = "WRITE_LAC_REQUEST";
     String WRITE_LAC = "WRITE_LAC";
     String READ_LAC_REQUEST = "READ_LAC_REQUEST";
@@ -85,6 +90,7 @@ public interface BookKeeperServerStats {
     String BOOKIE_RECOVERY_ADD_ENTRY = "BOOKIE_RECOVERY_ADD_ENTRY";
     String BOOKIE_READ_ENTRY = "BOOKIE_READ_ENTRY";
     String BOOKIE_FORCE_LEDGER = "BOOKIE_FORCE_LEDGER";
+    String BOOKIE_ADD_ENTRY_SKIP_JOURNAL = "BOOKIE_ADD_ENTRY_SKIP_JOURNAL";
     String BOOKIE_READ_LAST_CONFIRMED = "BOOKIE_READ_LAST_CONFIRMED";
     String BOOKIE_ADD_ENTRY_BYTES = "BOOKIE_ADD_ENTRY_BYTES";
     String BOOKIE_READ_ENTRY_BYTES = "BOOKIE_READ_ENTRY_BYTES";
@@ -152,10 +158,14 @@ public interface BookKeeperServerStats {
     String RECLAIMED_COMPACTION_SPACE_BYTES = "RECLAIMED_COMPACTION_SPACE_BYTES";
     String RECLAIMED_DELETION_SPACE_BYTES = "RECLAIMED_DELETION_SPACE_BYTES";
     String THREAD_RUNTIME = "THREAD_RUNTIME";
+    String ENTRY_LOG_USAGE = "ENTRY_LOG_USAGE";
     String MAJOR_COMPACTION_COUNT = "MAJOR_COMPACTION_COUNT";
     String MINOR_COMPACTION_COUNT = "MINOR_COMPACTION_COUNT";
     String ACTIVE_LEDGER_COUNT = "ACTIVE_LEDGER_COUNT";
     String DELETED_LEDGER_COUNT = "DELETED_LEDGER_COUNT";
+    String RUNNING_COMPACTION_COUNT = "RUNNING_COMPACTION_COUNT";
+    String WAITING_COMPACTION_COUNT = "WAITING_COMPACTION_COUNT";
+    String COMPACTION_BACKOFF_LEVEL = "COMPACTION_BACKOFF_LEVEL";
 
     // Index Related Counters
     String INDEX_INMEM_ILLEGAL_STATE_RESET = "INDEX_INMEM_ILLEGAL_STATE_RESET";
@@ -183,6 +193,18 @@ public interface BookKeeperServerStats {
     String JOURNAL_FORCE_WRITE_GROUPING_COUNT = "JOURNAL_FORCE_WRITE_GROUPING_COUNT";
     String NUM_PENDING_READ = "NUM_PENDING_READ";
     String NUM_PENDING_ADD = "NUM_PENDING_ADD";
+    String JOURNAL_ROUTED_LEDGERS = "JOURNAL_ROUTED_LEDGERS";
+    String JOURNAL_ROUTED_BYTES_RATE = "JOURNAL_ROUTED_BYTES_RATE";
+    String JOURNAL_LEDGER_REASSIGNMENTS = "JOURNAL_LEDGER_REASSIGNMENTS";
+    String JOURNAL_REPLAY_ENTRIES = "JOURNAL_REPLAY_ENTRIES";
+    String JOURNAL_REPLAY_BYTES = "JOURNAL_REPLAY_BYTES";
+    String JOURNAL_REPLAY_REMAINING_BYTES = "JOURNAL_REPLAY_REMAINING_BYTES";
+    String JOURNAL_GROUP_COMMIT_WAIT_TIME = "JOURNAL_GROUP_COMMIT_WAIT_TIME";
+    String JOURNAL_GROUP_COMMIT_ENTRIES_THRESHOLD = "JOURNAL_GROUP_COMMIT_ENTRIES_THRESHOLD";
+    String JOURNAL_GROUP_COMMIT_BYTES_THRESHOLD = "JOURNAL_GROUP_COMMIT_BYTES_THRESHOLD";
+    String JOURNAL_GROUP_COMMIT_ADD_LATENCY_P99 = "JOURNAL_GROUP_COMMIT_ADD_LATENCY_P99";
+    String JOURNAL_GROUP_COMMIT_WAIT_INCREASES = "JOURNAL_GROUP_COMMIT_WAIT_INCREASES";
+    String JOURNAL_GROUP_COMMIT_WAIT_DECREASES = "JOURNAL_GROUP_COMMIT_WAIT_DECREASES";
 
     // LedgerDirs Stats
     String LD_LEDGER_SCOPE = "ledger";
@@ -197,4 +219,6 @@ public interface BookKeeperServerStats {
     String NUM_OF_WRITE_LEDGERS_REMOVED_CACHE_MAXSIZE = "NUM_OF_WRITE_LEDGERS_REMOVED_CACHE_MAXSIZE";
     String NUM_LEDGERS_HAVING_MULTIPLE_ENTRYLOGS = "NUM_LEDGERS_HAVING_MULTIPLE_ENTRYLOGS";
     String ENTRYLOGS_PER_LEDGER = "ENTRYLOGS_PER_LEDGER";
+    String NUM_OF_OPEN_WRITE_ENTRYLOGS = "NUM_OF_OPEN_WRITE_ENTRYLOGS";
+    String NUM_OF_IDLE_ENTRYLOG_GROUPS_ROTATED = "NUM_OF_IDLE_ENTRYLOG_GROUPS_ROTATED";
 }
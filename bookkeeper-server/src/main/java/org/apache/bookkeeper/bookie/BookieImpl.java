@@ -31,6 +31,7 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.FileRegion;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
@@ -95,6 +96,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
     final LedgerStorage ledgerStorage;
     final RegistrationManager registrationManager;
     final List<Journal> journals;
+    private final JournalRouter journalRouter;
 
     final HandleFactory handles;
     final boolean entryLogPerLedgerEnabled;
@@ -123,6 +125,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
     private final ByteBufAllocator allocator;
 
     private final boolean writeDataToJournal;
+    private final boolean journalBypassEnabled;
 
     // Write Callback do nothing
     static class NopWriteCallback implements WriteCallback {
@@ -398,6 +401,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         this.ledgerDirsManager = ledgerDirsManager;
         this.indexDirsManager = indexDirsManager;
         this.writeDataToJournal = conf.getJournalWriteData();
+        this.journalBypassEnabled = conf.getJournalBypassEnabled();
         this.allocator = allocator;
         this.registrationManager = registrationManager;
         stateManager = initializeStateManager();
@@ -431,6 +435,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
             journals.add(new Journal(i, journalDirectories.get(i),
                     conf, ledgerDirsManager, statsLogger.scope(JOURNAL_SCOPE), allocator));
         }
+        journalRouter = new JournalRouter(journals, conf, statsLogger.scope(JOURNAL_SCOPE));
 
         this.entryLogPerLedgerEnabled = conf.isEntryLogPerLedgerEnabled();
         CheckpointSource checkpointSource = new CheckpointSourceList(journals);
@@ -477,6 +482,9 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         ledgerStorage.setStateManager(stateManager);
         ledgerStorage.setCheckpointSource(checkpointSource);
         ledgerStorage.setCheckpointer(syncThread);
+        for (Journal journal : journals) {
+            journal.setSyncLatencyListener(ledgerStorage::onJournalSyncLatency);
+        }
 
         handles = new HandleFactoryImpl(ledgerStorage);
 
@@ -497,88 +505,21 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         }
 
         long startTs = System.currentTimeMillis();
-        JournalScanner scanner = new JournalScanner() {
-            @Override
-            public void process(int journalVersion, long offset, ByteBuffer recBuff) throws IOException {
-                long ledgerId = recBuff.getLong();
-                long entryId = recBuff.getLong();
-                try {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Replay journal - ledger id : {}, entry id : {}.", ledgerId, entryId);
-                    }
-                    if (entryId == METAENTRY_ID_LEDGER_KEY) {
-                        if (journalVersion >= JournalChannel.V3) {
-                            int masterKeyLen = recBuff.getInt();
-                            byte[] masterKey = new byte[masterKeyLen];
-
-                            recBuff.get(masterKey);
-                            masterKeyCache.put(ledgerId, masterKey);
-
-                            // Force to re-insert the master key in ledger storage
-                            handles.getHandle(ledgerId, masterKey);
-                        } else {
-                            throw new IOException("Invalid journal. Contains journalKey "
-                                    + " but layout version (" + journalVersion
-                                    + ") is too old to hold this");
-                        }
-                    } else if (entryId == METAENTRY_ID_FENCE_KEY) {
-                        if (journalVersion >= JournalChannel.V4) {
-                            byte[] key = masterKeyCache.get(ledgerId);
-                            if (key == null) {
-                                key = ledgerStorage.readMasterKey(ledgerId);
-                            }
-                            LedgerDescriptor handle = handles.getHandle(ledgerId, key);
-                            handle.setFenced();
-                        } else {
-                            throw new IOException("Invalid journal. Contains fenceKey "
-                                    + " but layout version (" + journalVersion
-                                    + ") is too old to hold this");
-                        }
-                    } else if (entryId == METAENTRY_ID_LEDGER_EXPLICITLAC) {
-                        if (journalVersion >= JournalChannel.V6) {
-                            int explicitLacBufLength = recBuff.getInt();
-                            ByteBuf explicitLacBuf = Unpooled.buffer(explicitLacBufLength);
-                            byte[] explicitLacBufArray = new byte[explicitLacBufLength];
-                            recBuff.get(explicitLacBufArray);
-                            explicitLacBuf.writeBytes(explicitLacBufArray);
-                            byte[] key = masterKeyCache.get(ledgerId);
-                            if (key == null) {
-                                key = ledgerStorage.readMasterKey(ledgerId);
-                            }
-                            LedgerDescriptor handle = handles.getHandle(ledgerId, key);
-                            handle.setExplicitLac(explicitLacBuf);
-                        } else {
-                            throw new IOException("Invalid journal. Contains explicitLAC " + " but layout version ("
-                                    + journalVersion + ") is too old to hold this");
-                        }
-                    } else if (entryId < 0) {
-                        /*
-                         * this is possible if bookie code binary is rolledback
-                         * to older version but when it is trying to read
-                         * Journal which was created previously using newer
-                         * code/journalversion, which introduced new special
-                         * entry. So in anycase, if we see unrecognizable
-                         * special entry while replaying journal we should skip
-                         * (ignore) it.
-                         */
-                        LOG.warn("Read unrecognizable entryId: {} for ledger: {} while replaying Journal. Skipping it",
-                                entryId, ledgerId);
-                    } else {
-                        byte[] key = masterKeyCache.get(ledgerId);
-                        if (key == null) {
-                            key = ledgerStorage.readMasterKey(ledgerId);
-                        }
-                        LedgerDescriptor handle = handles.getHandle(ledgerId, key);
+        if (conf.getJournalReplayThreads() > 1) {
+            new ParallelJournalReplayer(journals, conf,
+                    (journalVersion, offset, recBuff) -> replayJournalRecord(journalVersion, recBuff),
+                    statsLogger.scope(JOURNAL_SCOPE)).replay();
+            long elapsedTs = System.currentTimeMillis() - startTs;
+            LOG.info("Finished replaying journal in {} ms.", elapsedTs);
+            return;
+        }
 
-                        recBuff.rewind();
-                        handle.addEntry(Unpooled.wrappedBuffer(recBuff));
-                    }
-                } catch (NoLedgerException nsle) {
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug("Skip replaying entries of ledger {} since it was deleted.", ledgerId);
-                    }
-                } catch (BookieException be) {
-                    throw new IOException(be);
+        JournalScanner scanner = (journalVersion, offset, recBuff) -> {
+            try {
+                replayJournalRecord(journalVersion, recBuff);
+            } catch (NoLedgerException nsle) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Skip replaying entries of ledger {} since it was deleted.", nsle.getLedgerId());
                 }
             }
         };
@@ -591,13 +532,93 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
     }
 
     /**
-     * Replay journal files and updates journal's in-memory lastLogMark object.
+     * Apply a journal record to the ledger storage.
      *
-     * @param journal Journal object corresponding to a journalDir
-     * @param scanner Scanner to process replayed entries.
-     * @throws IOException
+     * @throws NoLedgerException if the master key of the ledger of the record is unknown
      */
-    private void replay(Journal journal, JournalScanner scanner) throws IOException {
+    private void replayJournalRecord(int journalVersion, ByteBuffer recBuff) throws IOException {
+        long ledgerId = recBuff.getLong();
+        long entryId = recBuff.getLong();
+        try {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Replay journal - ledger id : {}, entry id : {}.", ledgerId, entryId);
+            }
+            if (entryId == METAENTRY_ID_LEDGER_KEY) {
+                if (journalVersion >= JournalChannel.V3) {
+                    int masterKeyLen = recBuff.getInt();
+                    byte[] masterKey = new byte[masterKeyLen];
+
+                    recBuff.get(masterKey);
+                    masterKeyCache.put(ledgerId, masterKey);
+
+                    // Force to re-insert the master key in ledger storage
+                    handles.getHandle(ledgerId, masterKey);
+                } else {
+                    throw new IOException("Invalid journal. Contains journalKey "
+                            + " but layout version (" + journalVersion
+                            + ") is too old to hold this");
+                }
+            } else if (entryId == METAENTRY_ID_FENCE_KEY) {
+                if (journalVersion >= JournalChannel.V4) {
+                    byte[] key = masterKeyCache.get(ledgerId);
+                    if (key == null) {
+                        key = ledgerStorage.readMasterKey(ledgerId);
+                    }
+                    LedgerDescriptor handle = handles.getHandle(ledgerId, key);
+                    handle.setFenced();
+                } else {
+                    throw new IOException("Invalid journal. Contains fenceKey "
+                            + " but layout version (" + journalVersion
+                            + ") is too old to hold this");
+                }
+            } else if (entryId == METAENTRY_ID_LEDGER_EXPLICITLAC) {
+                if (journalVersion >= JournalChannel.V6) {
+                    int explicitLacBufLength = recBuff.getInt();
+                    ByteBuf explicitLacBuf = Unpooled.buffer(explicitLacBufLength);
+                    byte[] explicitLacBufArray = new byte[explicitLacBufLength];
+                    recBuff.get(explicitLacBufArray);
+                    explicitLacBuf.writeBytes(explicitLacBufArray);
+                    byte[] key = masterKeyCache.get(ledgerId);
+                    if (key == null) {
+                        key = ledgerStorage.readMasterKey(ledgerId);
+                    }
+                    LedgerDescriptor handle = handles.getHandle(ledgerId, key);
+                    handle.setExplicitLac(explicitLacBuf);
+                } else {
+                    throw new IOException("Invalid journal. Contains explicitLAC " + " but layout version ("
+                            + journalVersion + ") is too old to hold this");
+                }
+            } else if (entryId < 0) {
+                /*
+                 * this is possible if bookie code binary is rolledback
+                 * to older version but when it is trying to read
+                 * Journal which was created previously using newer
+                 * code/journalversion, which introduced new special
+                 * entry. So in anycase, if we see unrecognizable
+                 * special entry while replaying journal we should skip
+                 * (ignore) it.
+                 */
+                LOG.warn("Read unrecognizable entryId: {} for ledger: {} while replaying Journal. Skipping it",
+                        entryId, ledgerId);
+            } else {
+                byte[] key = masterKeyCache.get(ledgerId);
+                if (key == null) {
+                    key = ledgerStorage.readMasterKey(ledgerId);
+                }
+                LedgerDescriptor handle = handles.getHandle(ledgerId, key);
+
+                recBuff.rewind();
+                handle.addEntry(Unpooled.wrappedBuffer(recBuff));
+            }
+        } catch (BookieException be) {
+            throw new IOException(be);
+        }
+    }
+
+    /**
+     * Get the ids of the journal files to replay, from the last log mark of the journal.
+     */
+    static List<Long> listJournalIdsToReplay(Journal journal) throws IOException {
         final LogMark markedLog = journal.getLastLogMark().getCurMark();
         List<Long> logs = Journal.listJournalIds(journal.getJournalDirectory(), journalId ->
             journalId >= markedLog.getLogFileId());
@@ -608,6 +629,19 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
                 throw new IOException("Recovery log " + markedLog.getLogFileId() + " is missing");
             }
         }
+        return logs;
+    }
+
+    /**
+     * Replay journal files and updates journal's in-memory lastLogMark object.
+     *
+     * @param journal Journal object corresponding to a journalDir
+     * @param scanner Scanner to process replayed entries.
+     * @throws IOException
+     */
+    private void replay(Journal journal, JournalScanner scanner) throws IOException {
+        final LogMark markedLog = journal.getLastLogMark().getCurMark();
+        List<Long> logs = listJournalIdsToReplay(journal);
 
         // TODO: When reading in the journal logs that need to be synced, we
         // should use BufferedChannels instead to minimize the amount of
@@ -893,15 +927,15 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         return handles.getHandle(ledgerId, masterKey);
     }
 
-    private Journal getJournal(long ledgerId) {
-        return journals.get(MathUtils.signSafeMod(ledgerId, journals.size()));
+    private Journal getJournal(long ledgerId, int bytes) {
+        return journalRouter.getJournal(ledgerId, bytes);
     }
 
     /**
      * Add an entry to a ledger as specified by handle.
      */
-    private void addEntryInternal(LedgerDescriptor handle, ByteBuf entry,
-                                  boolean ackBeforeSync, WriteCallback cb, Object ctx, byte[] masterKey)
+    private void addEntryInternal(LedgerDescriptor handle, ByteBuf entry, boolean ackBeforeSync,
+                                  boolean skipJournal, WriteCallback cb, Object ctx, byte[] masterKey)
             throws IOException, BookieException, InterruptedException {
         long ledgerId = handle.getLedgerId();
         long entryId = handle.addEntry(entry);
@@ -910,31 +944,46 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
 
         // journal `addEntry` should happen after the entry is added to ledger storage.
         // otherwise the journal entry can potentially be rolled before the ledger is created in ledger storage.
+        boolean newLedger = false;
         if (masterKeyCache.get(ledgerId) == null) {
             // Force the load into masterKey cache
             byte[] oldValue = masterKeyCache.putIfAbsent(ledgerId, masterKey);
-            if (oldValue == null) {
-                // new handle, we should add the key to journal ensure we can rebuild
-                ByteBuffer bb = ByteBuffer.allocate(8 + 8 + 4 + masterKey.length);
-                bb.putLong(ledgerId);
-                bb.putLong(METAENTRY_ID_LEDGER_KEY);
-                bb.putInt(masterKey.length);
-                bb.put(masterKey);
-                bb.flip();
-
-                getJournal(ledgerId).logAddEntry(bb, false /* ackBeforeSync */, new NopWriteCallback(), null);
-            }
+            // new handle, we should add the key to journal ensure we can rebuild
+            newLedger = oldValue == null;
         }
+        boolean journalEntry = writeDataToJournal && !(skipJournal && journalBypassEnabled);
+        // the master key is also journaled again when the ledger moves to another journal
+        Journal journal = journalRouter.getJournalForEntry(ledgerId, journalEntry ? entry.readableBytes() : 0,
+                newLedger, newJournal -> logMasterKey(newJournal, ledgerId, masterKey));
 
         if (!writeDataToJournal) {
             cb.writeComplete(0, ledgerId, entryId, null, ctx);
             return;
         }
 
+        if (skipJournal && journalBypassEnabled) {
+            // the entry is only in the ledger storage, its replicas provide durability until it's flushed
+            bookieStats.getSkipJournalAddEntries().inc();
+            cb.writeComplete(0, ledgerId, entryId, null, ctx);
+            return;
+        }
+
         if (LOG.isTraceEnabled()) {
             LOG.trace("Adding {}@{}", entryId, ledgerId);
         }
-        getJournal(ledgerId).logAddEntry(entry, ackBeforeSync, cb, ctx);
+        journal.logAddEntry(entry, ackBeforeSync, cb, ctx);
+    }
+
+    private static void logMasterKey(Journal journal, long ledgerId, byte[] masterKey)
+            throws InterruptedException {
+        ByteBuffer bb = ByteBuffer.allocate(8 + 8 + 4 + masterKey.length);
+        bb.putLong(ledgerId);
+        bb.putLong(METAENTRY_ID_LEDGER_KEY);
+        bb.putInt(masterKey.length);
+        bb.put(masterKey);
+        bb.flip();
+
+        journal.logAddEntry(bb, false /* ackBeforeSync */, new NopWriteCallback(), null);
     }
 
     /**
@@ -952,7 +1001,8 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
             LedgerDescriptor handle = getLedgerForEntry(entry, masterKey);
             synchronized (handle) {
                 entrySize = entry.readableBytes();
-                addEntryInternal(handle, entry, false /* ackBeforeSync */, cb, ctx, masterKey);
+                addEntryInternal(handle, entry, false /* ackBeforeSync */, false /* skipJournal */, cb, ctx,
+                        masterKey);
             }
             success = true;
         } catch (NoWritableLedgerDirException e) {
@@ -991,7 +1041,8 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
                 handle.setExplicitLac(entry);
                 entry.resetReaderIndex();
                 ByteBuf explicitLACEntry = createExplicitLACEntry(ledgerId, entry);
-                getJournal(ledgerId).logAddEntry(explicitLACEntry, false /* ackBeforeSync */, writeCallback, ctx);
+                getJournal(ledgerId, explicitLACEntry.readableBytes())
+                        .logAddEntry(explicitLACEntry, false /* ackBeforeSync */, writeCallback, ctx);
             }
         } catch (NoWritableLedgerDirException e) {
             stateManager.transitionToReadOnlyMode();
@@ -1018,7 +1069,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         if (LOG.isTraceEnabled()) {
             LOG.trace("Forcing ledger {}", ledgerId);
         }
-        Journal journal = getJournal(ledgerId);
+        Journal journal = getJournal(ledgerId, 0);
         journal.forceLedger(ledgerId, cb, ctx);
         bookieStats.getForceLedgerOps().inc();
     }
@@ -1028,6 +1079,18 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
      */
     public void addEntry(ByteBuf entry, boolean ackBeforeSync, WriteCallback cb, Object ctx, byte[] masterKey)
             throws IOException, BookieException, InterruptedException {
+        addEntry(entry, ackBeforeSync, false /* skipJournal */, cb, ctx, masterKey);
+    }
+
+    /**
+     * Add entry to a ledger, optionally without writing it to the journal.
+     *
+     * <p>With skipJournal, the entry is acknowledged once it's added to the ledger storage, unless
+     * journal bypass is disabled on this bookie. The master key of the ledger is journaled anyway.
+     */
+    public void addEntry(ByteBuf entry, boolean ackBeforeSync, boolean skipJournal, WriteCallback cb, Object ctx,
+                         byte[] masterKey)
+            throws IOException, BookieException, InterruptedException {
         long requestNanos = MathUtils.nowInNano();
         boolean success = false;
         int entrySize = 0;
@@ -1039,7 +1102,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
                             .create(BookieException.Code.LedgerFencedException);
                 }
                 entrySize = entry.readableBytes();
-                addEntryInternal(handle, entry, ackBeforeSync, cb, ctx, masterKey);
+                addEntryInternal(handle, entry, ackBeforeSync, skipJournal, cb, ctx, masterKey);
             }
             success = true;
         } catch (NoWritableLedgerDirException e) {
@@ -1059,6 +1122,77 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         }
     }
 
+    /**
+     * Add a run of consecutive entries of the same ledger, looking up the ledger and checking its fencing once.
+     *
+     * <p>The entries are added in order and the callback is notified once per added entry. An entry that fails
+     * to be added stops the run: if it's the first one, the failure is thrown, otherwise the entries after it are
+     * left out and only the number of entries added so far is returned. All the entries are released.
+     *
+     * @return the number of entries added, from the first one
+     */
+    public int addEntries(List<ByteBuf> entries, boolean ackBeforeSync, WriteCallback cb, Object ctx,
+                          byte[] masterKey)
+            throws IOException, BookieException, InterruptedException {
+        long requestNanos = MathUtils.nowInNano();
+        int added = 0;
+        try {
+            if (entries.isEmpty()) {
+                return 0;
+            }
+            final long ledgerId = entries.get(0).getLong(entries.get(0).readerIndex());
+            for (ByteBuf entry : entries) {
+                if (entry.getLong(entry.readerIndex()) != ledgerId) {
+                    throw new IllegalArgumentException("Entries of ledger " + entry.getLong(entry.readerIndex())
+                            + " and " + ledgerId + " can't be added together");
+                }
+            }
+
+            LedgerDescriptor handle = getLedgerForEntry(entries.get(0), masterKey);
+            synchronized (handle) {
+                if (handle.isFenced()) {
+                    throw BookieException
+                            .create(BookieException.Code.LedgerFencedException);
+                }
+                for (ByteBuf entry : entries) {
+                    int entrySize = entry.readableBytes();
+                    try {
+                        addEntryInternal(handle, entry, ackBeforeSync, false /* skipJournal */, cb, ctx, masterKey);
+                    } catch (IOException | BookieException e) {
+                        if (added == 0) {
+                            throw e;
+                        }
+                        if (e instanceof NoWritableLedgerDirException) {
+                            stateManager.transitionToReadOnlyMode();
+                        }
+                        LOG.warn("Failed to add entry {}@{} after {} entries of a multi add",
+                                entry.getLong(entry.readerIndex() + 8), ledgerId, added, e);
+                        bookieStats.getAddEntryStats()
+                                .registerFailedEvent(MathUtils.elapsedNanos(requestNanos), TimeUnit.NANOSECONDS);
+                        bookieStats.getAddBytesStats().registerFailedValue(entrySize);
+                        break;
+                    }
+                    bookieStats.getAddEntryStats()
+                            .registerSuccessfulEvent(MathUtils.elapsedNanos(requestNanos), TimeUnit.NANOSECONDS);
+                    bookieStats.getAddBytesStats().registerSuccessfulValue(entrySize);
+                    added++;
+                }
+            }
+            return added;
+        } catch (NoWritableLedgerDirException e) {
+            stateManager.transitionToReadOnlyMode();
+            throw new IOException(e);
+        } finally {
+            if (added == 0 && !entries.isEmpty()) {
+                bookieStats.getAddEntryStats()
+                        .registerFailedEvent(MathUtils.elapsedNanos(requestNanos), TimeUnit.NANOSECONDS);
+            }
+            for (ByteBuf entry : entries) {
+                entry.release();
+            }
+        }
+    }
+
     /**
      * Fences a ledger. From this point on, clients will be unable to
      * write to this ledger. Only recoveryAddEntry will be
@@ -1070,7 +1204,7 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
     public CompletableFuture<Boolean> fenceLedger(long ledgerId, byte[] masterKey)
             throws IOException, BookieException {
         LedgerDescriptor handle = handles.getHandle(ledgerId, masterKey);
-        return handle.fenceAndLogInJournal(getJournal(ledgerId));
+        return handle.fenceAndLogInJournal(getJournal(ledgerId, 0));
     }
 
     public ByteBuf readEntry(long ledgerId, long entryId)
@@ -1100,6 +1234,29 @@ public class BookieImpl extends BookieCriticalThread implements Bookie {
         }
     }
 
+    public FileRegion readEntryRegion(long ledgerId, long entryId, int minEntrySize)
+            throws IOException, NoLedgerException, BookieException {
+        long requestNanos = MathUtils.nowInNano();
+        boolean success = false;
+        FileRegion region = null;
+        try {
+            LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
+            region = handle.readEntryRegion(entryId, minEntrySize);
+            success = true;
+            return region;
+        } finally {
+            // the entries which aren't read as a region are accounted for by readEntry()
+            long elapsedNanos = MathUtils.elapsedNanos(requestNanos);
+            if (!success) {
+                bookieStats.getReadEntryStats().registerFailedEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+            } else if (region != null) {
+                bookieStats.getReadBytes().add(region.count());
+                bookieStats.getReadEntryStats().registerSuccessfulEvent(elapsedNanos, TimeUnit.NANOSECONDS);
+                bookieStats.getReadBytesStats().registerSuccessfulValue(region.count());
+            }
+        }
+    }
+
     public long readLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         LedgerDescriptor handle = handles.getReadOnlyHandle(ledgerId);
         return handle.getLastAddConfirmed();
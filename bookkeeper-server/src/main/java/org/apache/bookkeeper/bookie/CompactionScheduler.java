@@ -0,0 +1,323 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.COMPACTION_BACKOFF_LEVEL;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RUNNING_COMPACTION_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.WAITING_COMPACTION_COUNT;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.RateLimiter;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules the entry log compactions of all the ledger directories of a bookie.
+ *
+ * <p>Each {@link GarbageCollectorThread} compacts the entry logs of its own directory one at a time,
+ * and asks the scheduler for a slot before each one. At most {@code compactionMaxConcurrency} compactions
+ * run together. When more are waiting, the entry log that reclaims the most bytes per byte of I/O goes
+ * first. The bytes read by all the running compactions share the {@code compactionIoBudgetBytesPerSecond}
+ * budget.
+ *
+ * <p>Journal sync and entry read latencies are reported to the scheduler. While their average stays above
+ * {@code compactionBackoffLatencyThresholdMillis}, the budget and the concurrency are halved every second,
+ * down to {@link #MAX_BACKOFF_LEVEL}, and they are doubled back once the latency recovers.
+ */
+@StatsDoc(
+    name = BOOKIE_SCOPE,
+    category = CATEGORY_SERVER,
+    help = "Compaction scheduler related stats"
+)
+public class CompactionScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(CompactionScheduler.class);
+
+    static final int MAX_BACKOFF_LEVEL = 4;
+    static final long BACKOFF_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long WAIT_INTERVAL_MILLIS = 1000;
+
+    private final int maxConcurrency;
+    private final long ioBudgetBytesPerSecond;
+    private final long backoffLatencyThresholdNanos;
+    private final Ticker ticker;
+
+    // Shared by all the compactions, null when there's no bookie-wide budget
+    private final RateLimiter ioBudget;
+
+    private final PriorityQueue<Ticket> waiting = new PriorityQueue<>();
+    private long nextTicketId = 0;
+    private int running = 0;
+    private int participants = 0;
+
+    private final Object backoffLock = new Object();
+    private volatile int backoffLevel = 0;
+    private volatile long lastBackoffCheckNanos;
+    private final LongAdder latencySumNanos = new LongAdder();
+    private final LongAdder latencyCount = new LongAdder();
+
+    @StatsDoc(
+        name = RUNNING_COMPACTION_COUNT,
+        help = "Current number of entry logs being compacted"
+    )
+    private final Gauge<Integer> runningCompactionsGauge;
+    @StatsDoc(
+        name = WAITING_COMPACTION_COUNT,
+        help = "Current number of entry log compactions waiting for a slot"
+    )
+    private final Gauge<Integer> waitingCompactionsGauge;
+    @StatsDoc(
+        name = COMPACTION_BACKOFF_LEVEL,
+        help = "Number of times the compaction budget and concurrency are currently halved due to high latency"
+    )
+    private final Gauge<Integer> backoffLevelGauge;
+
+    public CompactionScheduler(ServerConfiguration conf) {
+        this(conf, NullStatsLogger.INSTANCE);
+    }
+
+    public CompactionScheduler(ServerConfiguration conf, StatsLogger statsLogger) {
+        this(conf, statsLogger, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    CompactionScheduler(ServerConfiguration conf, StatsLogger statsLogger, Ticker ticker) {
+        this.maxConcurrency = conf.getCompactionMaxConcurrency();
+        this.ioBudgetBytesPerSecond = conf.getCompactionIoBudgetBytesPerSecond();
+        this.backoffLatencyThresholdNanos =
+                TimeUnit.MILLISECONDS.toNanos(conf.getCompactionBackoffLatencyThresholdMillis());
+        this.ioBudget = ioBudgetBytesPerSecond > 0 ? RateLimiter.create(ioBudgetBytesPerSecond) : null;
+        this.ticker = ticker;
+        this.lastBackoffCheckNanos = ticker.read();
+
+        this.runningCompactionsGauge = new Gauge<Integer>() {
+            @Override
+            public Integer getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSample() {
+                return getRunningCompactions();
+            }
+        };
+        statsLogger.registerGauge(RUNNING_COMPACTION_COUNT, runningCompactionsGauge);
+        this.waitingCompactionsGauge = new Gauge<Integer>() {
+            @Override
+            public Integer getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSample() {
+                return getWaitingCompactions();
+            }
+        };
+        statsLogger.registerGauge(WAITING_COMPACTION_COUNT, waitingCompactionsGauge);
+        this.backoffLevelGauge = new Gauge<Integer>() {
+            @Override
+            public Integer getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSample() {
+                return backoffLevel;
+            }
+        };
+        statsLogger.registerGauge(COMPACTION_BACKOFF_LEVEL, backoffLevelGauge);
+
+        LOG.info("Compaction scheduler : maxConcurrency={}, ioBudgetBytesPerSecond={}, backoffLatencyThreshold={}ms",
+                maxConcurrency, ioBudgetBytesPerSecond, conf.getCompactionBackoffLatencyThresholdMillis());
+    }
+
+    /**
+     * Register a garbage collector thread that compacts through this scheduler.
+     */
+    synchronized void register() {
+        participants++;
+    }
+
+    /**
+     * Unregister a garbage collector thread when it shuts down.
+     */
+    synchronized void unregister() {
+        participants--;
+        notifyAll();
+    }
+
+    /**
+     * Wait for a slot to compact the given entry log.
+     *
+     * <p>Waiting compactions are granted a slot by decreasing {@link #reclaimRatio(EntryLogMetadata)}.
+     * The caller must {@link #release()} the slot once the compaction is done.
+     *
+     * @param entryLogMeta metadata of the entry log to compact
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized void acquire(EntryLogMetadata entryLogMeta) throws InterruptedException {
+        Ticket ticket = new Ticket(reclaimRatio(entryLogMeta), nextTicketId++);
+        waiting.add(ticket);
+        boolean granted = false;
+        try {
+            while (waiting.peek() != ticket || running >= getConcurrencyLimit()) {
+                wait(WAIT_INTERVAL_MILLIS);
+                updateBackoff();
+            }
+            granted = true;
+        } finally {
+            waiting.remove(ticket);
+            if (granted) {
+                running++;
+            }
+            // the next waiting compaction might be able to start too
+            notifyAll();
+        }
+    }
+
+    /**
+     * Release a slot acquired with {@link #acquire(EntryLogMetadata)}.
+     */
+    public synchronized void release() {
+        running--;
+        notifyAll();
+    }
+
+    /**
+     * Take bytes read by a compaction out of the bookie-wide I/O budget, waiting if it's exhausted.
+     *
+     * @param bytes number of bytes read
+     */
+    public void acquireBytes(int bytes) {
+        updateBackoff();
+        if (ioBudget != null && bytes > 0) {
+            ioBudget.acquire(bytes);
+        }
+    }
+
+    /**
+     * Report the latency of a journal sync or an entry read.
+     *
+     * @param latencyNanos latency in nanoseconds
+     */
+    public void recordLatency(long latencyNanos) {
+        if (backoffLatencyThresholdNanos > 0) {
+            latencySumNanos.add(latencyNanos);
+            latencyCount.increment();
+        }
+    }
+
+    /**
+     * Get the ratio of bytes reclaimed over bytes read and written by the compaction of an entry log.
+     * Compaction reads the whole entry log and writes back its remaining entries.
+     */
+    static double reclaimRatio(EntryLogMetadata entryLogMeta) {
+        long totalSize = entryLogMeta.getTotalSize();
+        long remainingSize = entryLogMeta.getRemainingSize();
+        long ioCost = totalSize + remainingSize;
+        return ioCost > 0 ? (double) (totalSize - remainingSize) / ioCost : 0;
+    }
+
+    @VisibleForTesting
+    synchronized int getConcurrencyLimit() {
+        int level = backoffLevel;
+        if (maxConcurrency <= 0 && level == 0) {
+            return Integer.MAX_VALUE;
+        }
+        int limit = maxConcurrency > 0 ? maxConcurrency : participants;
+        return Math.max(1, limit >> level);
+    }
+
+    private void updateBackoff() {
+        if (backoffLatencyThresholdNanos <= 0
+                || ticker.read() - lastBackoffCheckNanos < BACKOFF_INTERVAL_NANOS) {
+            return;
+        }
+
+        synchronized (backoffLock) {
+            long nowNanos = ticker.read();
+            if (nowNanos - lastBackoffCheckNanos < BACKOFF_INTERVAL_NANOS) {
+                return;
+            }
+            lastBackoffCheckNanos = nowNanos;
+
+            long count = latencyCount.sumThenReset();
+            long sumNanos = latencySumNanos.sumThenReset();
+            int level = backoffLevel;
+            if (count > 0 && sumNanos / count > backoffLatencyThresholdNanos) {
+                level = Math.min(MAX_BACKOFF_LEVEL, level + 1);
+            } else {
+                level = Math.max(0, level - 1);
+            }
+
+            if (level != backoffLevel) {
+                LOG.info("Compaction backoff level changed from {} to {}, average latency {}ms",
+                        backoffLevel, level, count > 0 ? TimeUnit.NANOSECONDS.toMillis(sumNanos / count) : 0);
+                backoffLevel = level;
+                if (ioBudget != null) {
+                    ioBudget.setRate(Math.max(1, ioBudgetBytesPerSecond >> level));
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized int getRunningCompactions() {
+        return running;
+    }
+
+    @VisibleForTesting
+    synchronized int getWaitingCompactions() {
+        return waiting.size();
+    }
+
+    @VisibleForTesting
+    int getBackoffLevel() {
+        return backoffLevel;
+    }
+
+    private static final class Ticket implements Comparable<Ticket> {
+        private final double reclaimRatio;
+        private final long id;
+
+        Ticket(double reclaimRatio, long id) {
+            this.reclaimRatio = reclaimRatio;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Ticket other) {
+            int cmp = Double.compare(other.reclaimRatio, reclaimRatio);
+            return cmp != 0 ? cmp : Long.compare(id, other.id);
+        }
+    }
+}
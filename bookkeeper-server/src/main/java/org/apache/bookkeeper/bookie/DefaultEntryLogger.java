@@ -32,6 +32,8 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
 import io.netty.util.concurrent.FastThreadLocal;
 import java.io.BufferedReader;
 import java.io.File;
@@ -44,9 +46,11 @@ import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.AsynchronousCloseException;
 import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -62,6 +66,7 @@ import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
 import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
 import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.util.DiskChecker;
@@ -115,6 +120,10 @@ public class DefaultEntryLogger implements EntryLogger {
             return entryLogMetadata.getLedgersMap();
         }
 
+        public EntryLogMetadata getEntryLogMetadata() {
+            return entryLogMetadata;
+        }
+
         public Long getLedgerIdAssigned() {
             return ledgerIdAssigned;
         }
@@ -223,6 +232,8 @@ public class DefaultEntryLogger implements EntryLogger {
 
     final EntryLoggerAllocator entryLoggerAllocator;
     private final EntryLogManager entryLogManager;
+    // null unless the entry logs are placed by retention class
+    private final RetentionClassifier retentionClassifier;
 
     private final CopyOnWriteArrayList<EntryLogListener> listeners = new CopyOnWriteArrayList<EntryLogListener>();
 
@@ -352,7 +363,12 @@ public class DefaultEntryLogger implements EntryLogger {
         this.recentlyCreatedEntryLogsStatus = new RecentEntryLogsStatus(logId + 1);
         this.entryLoggerAllocator = new EntryLoggerAllocator(conf, ledgerDirsManager, recentlyCreatedEntryLogsStatus,
                 logId, allocator);
-        if (entryLogPerLedgerEnabled) {
+        this.retentionClassifier = entryLogPerLedgerEnabled && conf.getEntryLogRetentionClasses() > 0
+                ? new RetentionClassifier(conf) : null;
+        if (entryLogPerLedgerEnabled && (conf.getEntryLogPerLedgerGroups() > 0 || retentionClassifier != null)) {
+            this.entryLogManager = new EntryLogManagerForLedgerGroups(conf, ledgerDirsManager,
+                    entryLoggerAllocator, listeners, recentlyCreatedEntryLogsStatus, retentionClassifier, statsLogger);
+        } else if (entryLogPerLedgerEnabled) {
             this.entryLogManager = new EntryLogManagerForEntryLogPerLedger(conf, ledgerDirsManager,
                     entryLoggerAllocator, listeners, recentlyCreatedEntryLogsStatus, statsLogger);
         } else {
@@ -365,6 +381,15 @@ public class DefaultEntryLogger implements EntryLogger {
         return entryLogManager;
     }
 
+    /**
+     * Set the ledger manager to read the retention class hints of the ledgers from.
+     */
+    void setLedgerManager(LedgerManager ledgerManager) {
+        if (retentionClassifier != null) {
+            retentionClassifier.setLedgerManager(ledgerManager);
+        }
+    }
+
     void addListener(EntryLogListener listener) {
         if (null != listener) {
             listeners.add(listener);
@@ -455,6 +480,11 @@ public class DefaultEntryLogger implements EntryLogger {
         return recentlyCreatedEntryLogsStatus.getLeastUnflushedLogId();
     }
 
+    @Override
+    public Collection<EntryLogMetadata> drainFlushedLogsMetadata() {
+        return recentlyCreatedEntryLogsStatus.drainFlushedLogsMetadata();
+    }
+
     @Override
     public Set<Long> getFlushedLogIds() {
         Set<Long> logIds = new HashSet<>();
@@ -821,6 +851,54 @@ public class DefaultEntryLogger implements EntryLogger {
         return internalReadEntry(location, -1L, -1L, false /* validateEntry */);
     }
 
+    @Override
+    public FileRegion readEntryRegion(long ledgerId, long entryId, long entryLocation, int minEntrySize)
+            throws IOException, Bookie.NoEntryException {
+        long entryLogId = logIdForOffset(entryLocation);
+        long pos = posForOffset(entryLocation);
+
+        BufferedReadChannel fc;
+        int entrySize;
+        try {
+            fc = getFCForEntryInternal(ledgerId, entryId, entryLogId, pos);
+            ByteBuf sizeBuff = readEntrySize(ledgerId, entryId, entryLogId, pos, fc);
+            entrySize = sizeBuff.getInt(0);
+            validateEntry(ledgerId, entryId, entryLogId, pos, sizeBuff);
+        } catch (EntryLookupException.MissingEntryException entryLookupError) {
+            throw new Bookie.NoEntryException("Short read from entrylog " + entryLogId,
+                    ledgerId, entryId);
+        } catch (EntryLookupException e) {
+            throw new IOException(e.toString());
+        }
+        if (entrySize < minEntrySize) {
+            return null;
+        }
+
+        FileChannel logFc = fc.validateAndGetFileChannel();
+        if (logFc.size() < pos + entrySize) {
+            throw new Bookie.NoEntryException("Short read for " + ledgerId + "@"
+                                              + entryId + " in " + entryLogId + "@"
+                                              + pos + "(" + entrySize + ")", ledgerId, entryId);
+        }
+        return new LogFileRegion(logFc, pos, entrySize);
+    }
+
+    /**
+     * A region of an entry log sent through the channel cached for the log, which is closed by the entry logger
+     * rather than by the region once sent. If GC removes the log while the region is being sent, the write fails
+     * like on any other I/O error and the client reads the entry again.
+     */
+    private static class LogFileRegion extends DefaultFileRegion {
+        LogFileRegion(FileChannel logFc, long position, long count) {
+            super(logFc, position, count);
+        }
+
+        @Override
+        protected void deallocate() {
+            // the channel is shared with the other readers of the log
+        }
+    }
+
 
     private ByteBuf internalReadEntry(long ledgerId, long entryId, long location, boolean validateEntry)
             throws IOException, Bookie.NoEntryException {
@@ -1237,13 +1315,21 @@ public class DefaultEntryLogger implements EntryLogger {
      * < entryLogId, true > status will be removed from the sortedmap. So that way
      * we could get least unflushed LogId.
      *
+     * <p>It also keeps the metadata of the rotated logs which have been flushed,
+     * until the garbage collector takes it, so that the garbage collector doesn't
+     * have to read their ledgers maps back.
      */
     static class RecentEntryLogsStatus {
+        // Beyond that, the garbage collector reads the ledgers maps of the logs
+        static final int MAX_FLUSHED_LOGS_METADATA = 1000;
+
         private final SortedMap<Long, Boolean> entryLogsStatusMap;
+        private final Deque<EntryLogMetadata> flushedLogsMetadata;
         private long leastUnflushedLogId;
 
         RecentEntryLogsStatus(long leastUnflushedLogId) {
             entryLogsStatusMap = new TreeMap<>();
+            flushedLogsMetadata = new ArrayDeque<>();
             this.leastUnflushedLogId = leastUnflushedLogId;
         }
 
@@ -1251,6 +1337,20 @@ public class DefaultEntryLogger implements EntryLogger {
             entryLogsStatusMap.put(entryLogId, false);
         }
 
+        synchronized void flushRotatedEntryLog(BufferedLogChannel logChannel) {
+            if (flushedLogsMetadata.size() >= MAX_FLUSHED_LOGS_METADATA) {
+                flushedLogsMetadata.removeFirst();
+            }
+            flushedLogsMetadata.addLast(logChannel.getEntryLogMetadata());
+            flushRotatedEntryLog(logChannel.getLogId());
+        }
+
+        synchronized List<EntryLogMetadata> drainFlushedLogsMetadata() {
+            List<EntryLogMetadata> metadata = new ArrayList<>(flushedLogsMetadata);
+            flushedLogsMetadata.clear();
+            return metadata;
+        }
+
         synchronized void flushRotatedEntryLog(Long entryLogId) {
             entryLogsStatusMap.replace(entryLogId, true);
             while ((!entryLogsStatusMap.isEmpty()) && (entryLogsStatusMap.get(entryLogsStatusMap.firstKey()))) {
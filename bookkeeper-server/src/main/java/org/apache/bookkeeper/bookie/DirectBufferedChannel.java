@@ -0,0 +1,226 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.AlignedBufferPool.ALIGNMENT;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link BufferedChannel} that appends to a file opened with O_DIRECT and O_DSYNC.
+ *
+ * <p>Data is accumulated in an aligned native buffer and written with pwrite. On flush, the
+ * buffer is written up to the next alignment boundary, zero padded, and the last partial block
+ * is kept in the buffer to be written again with the data that follows it. Since the file is
+ * opened with O_DSYNC, flushed data is durable when the flush returns, and {@link #forceWrite(boolean)}
+ * only needs to sync the file when metadata is forced.
+ *
+ * <p>The file channel passed to the constructor is only used to read the bytes written before
+ * the channel was opened in the first block, e.g. the journal header.
+ */
+class DirectBufferedChannel extends BufferedChannel {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectBufferedChannel.class);
+
+    private final File file;
+    private final NativeIO nativeIO;
+    private final AlignedBufferPool bufferPool;
+    private final int fd;
+
+    private final long bufferPointer;
+    private final ByteBuf buffer;
+    // Aligned file offset of the first byte of the buffer
+    private long bufferFileOffset;
+    // Position up to which the data has been written to the disk
+    private volatile long flushedPosition;
+
+    private boolean closed = false;
+
+    DirectBufferedChannel(File file, FileChannel fc, AlignedBufferPool bufferPool) throws IOException {
+        // the write and read buffers of the parent channel are not used
+        super(UnpooledByteBufAllocator.DEFAULT, fc, 0, 0, 0L);
+        this.file = file;
+        this.nativeIO = bufferPool.getNativeIO();
+        this.bufferPool = bufferPool;
+
+        try {
+            this.fd = nativeIO.open(file.getPath(), NativeIO.O_WRONLY | NativeIO.O_DIRECT | NativeIO.O_DSYNC, 00644);
+        } catch (NativeIOException e) {
+            throw new IOException("Failed to open " + file + " for direct I/O, errno " + e.getErrno(), e);
+        }
+
+        try {
+            this.bufferPointer = bufferPool.acquire();
+        } catch (NativeIOException e) {
+            nativeIO.close(fd);
+            throw new IOException("Failed to allocate an aligned buffer for " + file + ", errno " + e.getErrno(), e);
+        }
+        this.buffer = Unpooled.wrappedBuffer(bufferPointer, bufferPool.getBufferSize(), false);
+        this.buffer.clear();
+
+        // Load what precedes the current position in its block, so that it's written back with it
+        this.bufferFileOffset = position & -ALIGNMENT;
+        int headLength = (int) (position - bufferFileOffset);
+        if (headLength > 0) {
+            ByteBuffer head = buffer.nioBuffer(0, headLength);
+            while (head.hasRemaining()) {
+                if (fc.read(head, bufferFileOffset + head.position()) < 0) {
+                    throw new IOException("Short read of the first block of " + file);
+                }
+            }
+            buffer.writerIndex(headLength);
+        }
+        this.flushedPosition = position;
+        this.writeBufferStartPosition.set(position);
+    }
+
+    @Override
+    public void write(ByteBuf src) throws IOException {
+        synchronized (this) {
+            int len = src.readableBytes();
+            int copied = 0;
+            while (copied < len) {
+                int bytesToCopy = Math.min(len - copied, buffer.writableBytes());
+                buffer.writeBytes(src, src.readerIndex() + copied, bytesToCopy);
+                copied += bytesToCopy;
+
+                if (!buffer.isWritable()) {
+                    // the buffer is aligned, so it can be written as a whole
+                    pwrite(buffer.writerIndex());
+                    bufferFileOffset += buffer.writerIndex();
+                    buffer.clear();
+                    flushedPosition = bufferFileOffset;
+                }
+            }
+            position += copied;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        int dataLength = buffer.writerIndex();
+        int tailStart = dataLength & -ALIGNMENT;
+        if (dataLength == tailStart) {
+            // nothing pending, or the data ends on a block boundary
+            if (dataLength > 0) {
+                pwrite(dataLength);
+                bufferFileOffset += dataLength;
+                buffer.clear();
+            }
+        } else {
+            int alignedLength = AlignedBufferPool.alignUp(dataLength);
+            buffer.setZero(dataLength, alignedLength - dataLength);
+            pwrite(alignedLength);
+
+            // keep the partial block, it will be written again with the following data
+            int tailLength = dataLength - tailStart;
+            if (tailStart > 0) {
+                buffer.setBytes(0, buffer, tailStart, tailLength);
+            }
+            bufferFileOffset += tailStart;
+            buffer.writerIndex(tailLength);
+        }
+        flushedPosition = position;
+        writeBufferStartPosition.set(position);
+    }
+
+    @Override
+    public long forceWrite(boolean forceMetadata) throws IOException {
+        // flushed data is already durable since the file is opened with O_DSYNC
+        long positionForceWrite = flushedPosition;
+        if (forceMetadata) {
+            try {
+                nativeIO.fsync(fd);
+            } catch (NativeIOException e) {
+                throw new IOException("Failed to sync " + file + ", errno " + e.getErrno(), e);
+            }
+            fileChannel.force(true);
+        }
+        return positionForceWrite;
+    }
+
+    /**
+     * Allocate the disk space of a range of the file, so that the following writes don't need to
+     * update the file size.
+     */
+    void preallocate(long offset, long length) throws IOException {
+        try {
+            nativeIO.fallocate(fd, 0, offset, length);
+        } catch (NativeIOException e) {
+            // fallocate isn't supported by every filesystem, fall back on writing zeros at the end
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Failed to fallocate {}, errno {}", file, e.getErrno());
+            }
+            ByteBuffer zeros = ByteBuffer.allocate(ALIGNMENT);
+            fileChannel.write(zeros, offset + length - ALIGNMENT);
+        }
+    }
+
+    @Override
+    public synchronized int read(ByteBuf dest, long pos, int length) throws IOException {
+        throw new IOException("Read is not supported on direct I/O channel of " + file);
+    }
+
+    @Override
+    public synchronized int getNumOfBytesInWriteBuffer() {
+        return (int) (position - flushedPosition);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            nativeIO.close(fd);
+        } catch (NativeIOException e) {
+            throw new IOException("Failed to close " + file + ", errno " + e.getErrno(), e);
+        } finally {
+            buffer.release();
+            bufferPool.release(bufferPointer);
+            super.close();
+        }
+    }
+
+    private void pwrite(int length) throws IOException {
+        try {
+            int written = nativeIO.pwrite(fd, bufferPointer, length, bufferFileOffset);
+            if (written != length) {
+                throw new IOException("Short write to " + file + " at offset " + bufferFileOffset
+                        + " : " + written + " of " + length + " bytes");
+            }
+        } catch (NativeIOException e) {
+            throw new IOException("Failed to write " + length + " bytes to " + file + " at offset "
+                    + bufferFileOffset + ", errno " + e.getErrno(), e);
+        }
+    }
+}
@@ -123,6 +123,18 @@ abstract class EntryLogManagerBase implements EntryLogManager {
         flushRotatedLogs();
     }
 
+    /*
+     * close a current log at shutdown. its ledgers map is appended first, so that
+     * its metadata can be read from the map rather than by scanning the whole log
+     * after restart.
+     */
+    void closeCurrentLog(BufferedLogChannel logChannel) throws IOException {
+        logChannel.flush();
+        logChannel.appendLedgersMap();
+        logChannel.forceWrite(false);
+        logChannel.close();
+    }
+
     void flushLogChannel(BufferedLogChannel logChannel, boolean forceMetadata) throws IOException {
         if (logChannel != null) {
             logChannel.flushAndForceWrite(forceMetadata);
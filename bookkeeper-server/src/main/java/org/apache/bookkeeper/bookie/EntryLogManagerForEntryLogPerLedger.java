@@ -588,7 +588,7 @@ class EntryLogManagerForEntryLogPerLedger extends EntryLogManagerBase {
         Set<BufferedLogChannelWithDirInfo> copyOfCurrentLogsWithDirInfo = getCopyOfCurrentLogs();
         for (BufferedLogChannelWithDirInfo currentLogWithDirInfo : copyOfCurrentLogsWithDirInfo) {
             if (currentLogWithDirInfo.getLogChannel() != null) {
-                currentLogWithDirInfo.getLogChannel().close();
+                closeCurrentLog(currentLogWithDirInfo.getLogChannel());
             }
         }
     }
@@ -690,7 +690,7 @@ class EntryLogManagerForEntryLogPerLedger extends EntryLogManagerBase {
             // we had to close the underlying file channel. Otherwise, we might end up
             // leaking fds which cause the disk spaces could not be reclaimed.
             channel.close();
-            recentlyCreatedEntryLogsStatus.flushRotatedEntryLog(channel.getLogId());
+            recentlyCreatedEntryLogsStatus.flushRotatedEntryLog(channel);
             rotatedLogChannels.remove(channel);
             log.info("Synced entry logger {} to disk.", channel.getLogId());
         }
@@ -0,0 +1,468 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ENTRYLOGGER_SCOPE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.NUM_OF_IDLE_ENTRYLOG_GROUPS_ROTATED;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.NUM_OF_OPEN_WRITE_ENTRYLOGS;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import io.netty.buffer.ByteBuf;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.bookie.DefaultEntryLogger.BufferedLogChannel;
+import org.apache.bookkeeper.bookie.LedgerDirsManager.LedgerDirsListener;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.apache.bookkeeper.util.IOUtils;
+import org.apache.bookkeeper.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.commons.lang3.mutable.MutableInt;
+
+/**
+ * Entry log manager that writes the entries of each group of ledgers to their own entry log.
+ *
+ * <p>Ledgers are assigned to one of {@code entryLogPerLedgerGroups} groups by ledger id. Each group has at most
+ * one entry log open for writes, so the number of open files doesn't depend on the number of ledgers written
+ * to, and an entry log only holds the entries of the ledgers of its group, which are more likely to be deleted
+ * together than the entries of all the ledgers of the bookie. The entry log of a group that hasn't been written
+ * to for {@code entrylogMapAccessExpiryTimeInSeconds} is rotated at the next checkpoint, so that it's synced and
+ * closed.
+ *
+ * <p>With {@code entryLogRetentionClasses}, each retention class given by the {@link RetentionClassifier} has
+ * its own set of groups, so that ledgers expected to be deleted at different times don't share entry logs.
+ * The group of a ledger is looked up with the lock of its current group held, so that its retention class
+ * can't change while its entry is being added.
+ *
+ * <p>The current entry logs are flushed together: the write buffers of all the groups are written first, then
+ * the files are synced, so that the syncs of the groups don't wait for each other's writes.
+ */
+@Slf4j
+@StatsDoc(
+    name = ENTRYLOGGER_SCOPE,
+    category = CATEGORY_SERVER,
+    help = "EntryLogger related stats"
+)
+class EntryLogManagerForLedgerGroups extends EntryLogManagerBase {
+
+    private static class LedgerGroup {
+        private final ReentrantLock lock = new ReentrantLock();
+        // only modified with the lock held
+        private volatile BufferedLogChannel logChannel;
+        private volatile boolean ledgerDirFull = false;
+        private volatile long lastWriteNanos;
+
+        LedgerGroup(long nowNanos) {
+            this.lastWriteNanos = nowNanos;
+        }
+    }
+
+    private final LedgerGroup[] groups;
+    private final int numHashGroups;
+    // null if the ledgers are only grouped by id
+    private final RetentionClassifier retentionClassifier;
+    // current log channels by log id, to find them without taking the group locks
+    private final ConcurrentLongHashMap<BufferedLogChannel> currentLogChannels;
+    private final DefaultEntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus;
+    private final long idleTimeoutNanos;
+    private final Ticker ticker;
+
+    @StatsDoc(
+        name = NUM_OF_OPEN_WRITE_ENTRYLOGS,
+        help = "Number of entry logs open for writes, including the rotated entry logs not synced yet"
+    )
+    private final Gauge<Integer> openWriteEntryLogsGauge;
+    @StatsDoc(
+        name = NUM_OF_IDLE_ENTRYLOG_GROUPS_ROTATED,
+        help = "Number of entry logs rotated because their ledger group wasn't written to"
+    )
+    private final Counter idleGroupsRotated;
+
+    EntryLogManagerForLedgerGroups(ServerConfiguration conf, LedgerDirsManager ledgerDirsManager,
+                                   EntryLoggerAllocator entryLoggerAllocator,
+                                   List<DefaultEntryLogger.EntryLogListener> listeners,
+                                   DefaultEntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus,
+                                   RetentionClassifier retentionClassifier,
+                                   StatsLogger statsLogger) {
+        this(conf, ledgerDirsManager, entryLoggerAllocator, listeners, recentlyCreatedEntryLogsStatus,
+                retentionClassifier, statsLogger, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    EntryLogManagerForLedgerGroups(ServerConfiguration conf, LedgerDirsManager ledgerDirsManager,
+                                   EntryLoggerAllocator entryLoggerAllocator,
+                                   List<DefaultEntryLogger.EntryLogListener> listeners,
+                                   DefaultEntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus,
+                                   RetentionClassifier retentionClassifier,
+                                   StatsLogger statsLogger, Ticker ticker) {
+        super(conf, ledgerDirsManager, entryLoggerAllocator, listeners);
+        this.ticker = ticker;
+        this.recentlyCreatedEntryLogsStatus = recentlyCreatedEntryLogsStatus;
+        this.rotatedLogChannels = new CopyOnWriteArrayList<BufferedLogChannel>();
+        this.currentLogChannels = ConcurrentLongHashMap.<BufferedLogChannel>newBuilder().build();
+        this.idleTimeoutNanos = TimeUnit.SECONDS.toNanos(conf.getEntrylogMapAccessExpiryTimeInSeconds());
+        this.retentionClassifier = retentionClassifier;
+        this.numHashGroups = Math.max(1, conf.getEntryLogPerLedgerGroups());
+        int numClasses = retentionClassifier == null ? 1 : retentionClassifier.getNumClasses();
+        this.groups = new LedgerGroup[numHashGroups * numClasses];
+        for (int i = 0; i < groups.length; i++) {
+            groups[i] = new LedgerGroup(ticker.read());
+        }
+
+        ledgerDirsManager.addLedgerDirsListener(getLedgerDirsListener());
+
+        this.openWriteEntryLogsGauge = new Gauge<Integer>() {
+            @Override
+            public Integer getDefaultValue() {
+                return 0;
+            }
+
+            @Override
+            public Integer getSample() {
+                return (int) currentLogChannels.size() + rotatedLogChannels.size();
+            }
+        };
+        statsLogger.registerGauge(NUM_OF_OPEN_WRITE_ENTRYLOGS, openWriteEntryLogsGauge);
+        this.idleGroupsRotated = statsLogger.getCounter(NUM_OF_IDLE_ENTRYLOG_GROUPS_ROTATED);
+        log.info("Writing entry logs for {} ledger groups in {} retention classes", numHashGroups, numClasses);
+    }
+
+    private LedgerGroup getGroup(long ledgerId) {
+        int index = MathUtils.signSafeMod(ledgerId, numHashGroups);
+        if (retentionClassifier != null) {
+            index += retentionClassifier.getRetentionClass(ledgerId) * numHashGroups;
+        }
+        return groups[index];
+    }
+
+    /*
+     * Lock the group of a ledger, after moving the ledger to the group of its
+     * current retention class.
+     */
+    private LedgerGroup lockGroup(long ledgerId) {
+        while (true) {
+            LedgerGroup group = getGroup(ledgerId);
+            group.lock.lock();
+            if (getGroup(ledgerId) == group
+                    && (retentionClassifier == null || !retentionClassifier.reclassify(ledgerId))) {
+                return group;
+            }
+            group.lock.unlock();
+        }
+    }
+
+    private LedgerDirsListener getLedgerDirsListener() {
+        return new LedgerDirsListener() {
+            @Override
+            public void diskFull(File disk) {
+                setLedgerDirFull(disk, true);
+            }
+
+            @Override
+            public void diskWritable(File disk) {
+                setLedgerDirFull(disk, false);
+            }
+        };
+    }
+
+    private void setLedgerDirFull(File disk, boolean ledgerDirFull) {
+        for (LedgerGroup group : groups) {
+            BufferedLogChannel logChannel = group.logChannel;
+            if (logChannel != null && disk.equals(logChannel.getLogFile().getParentFile())) {
+                group.ledgerDirFull = ledgerDirFull;
+            }
+        }
+    }
+
+    /*
+     * sets the logChannel of the group of the given ledgerId. The previous
+     * logChannel of the group is added to rotatedLogChannels.
+     */
+    @Override
+    void setCurrentLogForLedgerAndAddToRotate(long ledgerId, BufferedLogChannel logChannel) throws IOException {
+        LedgerGroup group = getGroup(ledgerId);
+        group.lock.lock();
+        try {
+            BufferedLogChannel hasToRotateLogChannel = group.logChannel;
+            group.logChannel = logChannel;
+            group.ledgerDirFull = false;
+            currentLogChannels.put(logChannel.getLogId(), logChannel);
+            if (hasToRotateLogChannel != null) {
+                currentLogChannels.remove(hasToRotateLogChannel.getLogId());
+                rotatedLogChannels.add(hasToRotateLogChannel);
+            }
+        } finally {
+            group.lock.unlock();
+        }
+    }
+
+    @Override
+    BufferedLogChannel getCurrentLogForLedger(long ledgerId) {
+        return getGroup(ledgerId).logChannel;
+    }
+
+    @Override
+    public BufferedLogChannel getCurrentLogIfPresent(long entryLogId) {
+        return currentLogChannels.get(entryLogId);
+    }
+
+    @Override
+    public long addEntry(long ledger, ByteBuf entry, boolean rollLog) throws IOException {
+        LedgerGroup group = lockGroup(ledger);
+        try {
+            group.lastWriteNanos = ticker.read();
+            return super.addEntry(ledger, entry, rollLog);
+        } finally {
+            group.lock.unlock();
+        }
+    }
+
+    @Override
+    void createNewLog(long ledgerId) throws IOException {
+        LedgerGroup group = lockGroup(ledgerId);
+        try {
+            super.createNewLog(ledgerId);
+        } finally {
+            group.lock.unlock();
+        }
+    }
+
+    @Override
+    BufferedLogChannel getCurrentLogForLedgerForAddEntry(long ledgerId, int entrySize, boolean rollLog)
+            throws IOException {
+        // called by addEntry, with the lock of the group held
+        LedgerGroup group = getGroup(ledgerId);
+        group.lock.lock();
+        try {
+            BufferedLogChannel logChannel = group.logChannel;
+            boolean reachEntryLogLimit = rollLog ? reachEntryLogLimit(logChannel, entrySize)
+                    : readEntryLogHardLimit(logChannel, entrySize);
+            // Create new log if logSizeLimit reached or current disk is full
+            boolean diskFull = (logChannel != null) && group.ledgerDirFull;
+            boolean allDisksFull = !ledgerDirsManager.hasWritableLedgerDirs();
+
+            /*
+             * If all the disks are full, proceed with the current logChannel, since
+             * the bookie must have turned to readonly mode and the addEntry traffic
+             * would be from GC.
+             */
+            if ((diskFull && (!allDisksFull)) || reachEntryLogLimit || (logChannel == null)) {
+                if (logChannel != null) {
+                    logChannel.flushAndForceWriteIfRegularFlush(false);
+                }
+                createNewLog(ledgerId,
+                    ": diskFull = " + diskFull + ", allDisksFull = " + allDisksFull
+                        + ", reachEntryLogLimit = " + reachEntryLogLimit + ", logChannel = " + logChannel);
+            }
+
+            return group.logChannel;
+        } finally {
+            group.lock.unlock();
+        }
+    }
+
+    /*
+     * Returns writable ledger dir with least number of current entrylogs.
+     */
+    @Override
+    public File getDirForNextEntryLog(List<File> writableLedgerDirs) {
+        Map<File, MutableInt> writableLedgerDirFrequency = new HashMap<File, MutableInt>();
+        writableLedgerDirs.forEach((ledgerDir) -> writableLedgerDirFrequency.put(ledgerDir, new MutableInt()));
+        for (BufferedLogChannel logChannel : currentLogChannels.values()) {
+            MutableInt frequency = writableLedgerDirFrequency.get(logChannel.getLogFile().getParentFile());
+            if (frequency != null) {
+                frequency.increment();
+            }
+        }
+        return writableLedgerDirFrequency.entrySet().stream()
+                .min(Map.Entry.comparingByValue()).get().getKey();
+    }
+
+    @Override
+    public void checkpoint() throws IOException {
+        rotateIdleGroups();
+        if (retentionClassifier != null) {
+            retentionClassifier.forEachIdleLedger(ledgerId -> {
+                LedgerGroup group = getGroup(ledgerId);
+                group.lock.lock();
+                try {
+                    retentionClassifier.removeIfIdle(ledgerId);
+                } finally {
+                    group.lock.unlock();
+                }
+            });
+        }
+        /*
+         * SyncThread periodically does checkpoint and at this time
+         * all the logs, current and rotated, should be flushed.
+         */
+        super.flush();
+    }
+
+    /*
+     * Rotate the entrylogs of the groups which haven't been written to for
+     * idleTimeoutNanos, so that they are synced and closed by the following
+     * flushRotatedLogs.
+     */
+    private void rotateIdleGroups() {
+        for (LedgerGroup group : groups) {
+            if (group.logChannel == null || ticker.read() - group.lastWriteNanos < idleTimeoutNanos) {
+                continue;
+            }
+            group.lock.lock();
+            try {
+                if (group.logChannel == null || ticker.read() - group.lastWriteNanos < idleTimeoutNanos) {
+                    continue;
+                }
+                rotateOut(group, "since its ledger group is idle");
+                idleGroupsRotated.inc();
+            } finally {
+                group.lock.unlock();
+            }
+        }
+    }
+
+    /*
+     * Close the current entrylog of a group for writes, the next entry added
+     * to the group creates a new one. Must be called with the group lock held.
+     */
+    private void rotateOut(LedgerGroup group, String reason) {
+        BufferedLogChannel logChannel = group.logChannel;
+        try {
+            // Append ledgers map at the end of entry log
+            logChannel.appendLedgersMap();
+        } catch (IOException e) {
+            log.error("Got IOException while trying to appendLedgersMap of entry log {}", logChannel.getLogId(), e);
+        }
+        group.logChannel = null;
+        currentLogChannels.remove(logChannel.getLogId());
+        rotatedLogChannels.add(logChannel);
+        log.info("Rotating entry log {} {}", logChannel.getLogId(), reason);
+    }
+
+    @Override
+    public void prepareSortedLedgerStorageCheckpoint(long numBytesFlushed) throws IOException {
+        // do nothing, SyncThread drives the checkpoints like with entrylog per ledger
+    }
+
+    @Override
+    public void prepareEntryMemTableFlush() {
+        // do nothing
+    }
+
+    @Override
+    public boolean commitEntryMemTableFlush() throws IOException {
+        for (LedgerGroup group : groups) {
+            if (reachEntryLogLimit(group.logChannel, 0L)) {
+                group.lock.lock();
+                try {
+                    if (reachEntryLogLimit(group.logChannel, 0L)) {
+                        rotateOut(group, "since it reached size limitation");
+                    }
+                } finally {
+                    group.lock.unlock();
+                }
+            }
+        }
+        /*
+         * SyncThread drives checkpoint logic for every flushInterval. So
+         * EntryMemtable doesn't need to call checkpoint.
+         */
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (BufferedLogChannel logChannel : getCurrentLogs()) {
+            closeCurrentLog(logChannel);
+        }
+    }
+
+    @Override
+    public void forceClose() {
+        for (BufferedLogChannel logChannel : getCurrentLogs()) {
+            IOUtils.close(log, logChannel);
+        }
+    }
+
+    @Override
+    void flushCurrentLogs() throws IOException {
+        List<BufferedLogChannel> logChannels = getCurrentLogs();
+        // write the buffers of all the groups before syncing any of them
+        for (BufferedLogChannel logChannel : logChannels) {
+            logChannel.flush();
+        }
+        for (BufferedLogChannel logChannel : logChannels) {
+            /*
+             * flushCurrentLogs method is called during checkpoint, so metadata
+             * of the file also should be force written.
+             */
+            logChannel.forceWrite(true);
+            log.debug("Flush and sync current entry logger {}", logChannel.getLogId());
+        }
+    }
+
+    @Override
+    public void flushRotatedLogs() throws IOException {
+        for (BufferedLogChannel channel : rotatedLogChannels) {
+            channel.flushAndForceWrite(true);
+            // since this channel is only used for writing, after flushing the channel,
+            // we had to close the underlying file channel. Otherwise, we might end up
+            // leaking fds which cause the disk spaces could not be reclaimed.
+            channel.close();
+            recentlyCreatedEntryLogsStatus.flushRotatedEntryLog(channel);
+            rotatedLogChannels.remove(channel);
+            log.info("Synced entry logger {} to disk.", channel.getLogId());
+        }
+    }
+
+    @Override
+    public BufferedLogChannel createNewLogForCompaction() throws IOException {
+        throw new UnsupportedOperationException(
+                "When entryLogPerLedger is enabled, transactional compaction should have been disabled");
+    }
+
+    @VisibleForTesting
+    List<BufferedLogChannel> getCurrentLogs() {
+        List<BufferedLogChannel> logChannels = new ArrayList<>(groups.length);
+        for (LedgerGroup group : groups) {
+            BufferedLogChannel logChannel = group.logChannel;
+            if (logChannel != null) {
+                logChannels.add(logChannel);
+            }
+        }
+        return logChannels;
+    }
+}
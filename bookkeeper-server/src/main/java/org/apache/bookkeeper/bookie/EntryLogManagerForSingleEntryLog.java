@@ -205,7 +205,7 @@ class EntryLogManagerForSingleEntryLog extends EntryLogManagerBase {
             // we had to close the underlying file channel. Otherwise, we might end up
             // leaking fds which cause the disk spaces could not be reclaimed.
             channel.close();
-            recentlyCreatedEntryLogsStatus.flushRotatedEntryLog(channel.getLogId());
+            recentlyCreatedEntryLogsStatus.flushRotatedEntryLog(channel);
             log.info("Synced entry logger {} to disk.", channel.getLogId());
         }
     }
@@ -213,7 +213,7 @@ class EntryLogManagerForSingleEntryLog extends EntryLogManagerBase {
     @Override
     public void close() throws IOException {
         if (activeLogChannel != null) {
-            activeLogChannel.close();
+            closeCurrentLog(activeLogChannel);
         }
     }
 
@@ -28,6 +28,9 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.util.concurrent.DefaultThreadFactory;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -48,7 +51,6 @@ import org.apache.bookkeeper.stats.StatsLogger;
 import org.apache.bookkeeper.util.MathUtils;
 import org.apache.bookkeeper.util.SafeRunnable;
 import org.apache.commons.lang3.mutable.MutableBoolean;
-import org.apache.commons.lang3.mutable.MutableLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -90,6 +92,7 @@ public class GarbageCollectorThread extends SafeRunnable {
     // Entry Logger Handle
     final EntryLogger entryLogger;
     final AbstractLogCompactor compactor;
+    final CompactionScheduler compactionScheduler;
 
     // Stats loggers for garbage collection operations
     private final GarbageCollectorStats gcStats;
@@ -137,7 +140,28 @@ public class GarbageCollectorThread extends SafeRunnable {
                                   EntryLogger entryLogger,
                                   StatsLogger statsLogger) throws IOException {
         this(conf, ledgerManager, ledgerDirsManager, ledgerStorage, entryLogger, statsLogger,
-                Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("GarbageCollectorThread")));
+                new CompactionScheduler(conf));
+    }
+
+    /**
+     * Create a garbage collector thread whose compactions are scheduled together with the
+     * ones of the other ledger directories.
+     *
+     * @param conf
+     *          Server Configuration Object.
+     * @param compactionScheduler
+     *          Scheduler shared by the garbage collector threads of the bookie.
+     * @throws IOException
+     */
+    public GarbageCollectorThread(ServerConfiguration conf, LedgerManager ledgerManager,
+                                  final LedgerDirsManager ledgerDirsManager,
+                                  final CompactableLedgerStorage ledgerStorage,
+                                  EntryLogger entryLogger,
+                                  StatsLogger statsLogger,
+                                  CompactionScheduler compactionScheduler) throws IOException {
+        this(conf, ledgerManager, ledgerDirsManager, ledgerStorage, entryLogger, statsLogger,
+                Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("GarbageCollectorThread")),
+                compactionScheduler);
     }
 
     /**
@@ -155,7 +179,30 @@ public class GarbageCollectorThread extends SafeRunnable {
                                   StatsLogger statsLogger,
                                   ScheduledExecutorService gcExecutor)
         throws IOException {
+        this(conf, ledgerManager, ledgerDirsManager, ledgerStorage, entryLogger, statsLogger, gcExecutor,
+                new CompactionScheduler(conf));
+    }
+
+    /**
+     * Create a garbage collector thread.
+     *
+     * @param conf
+     *          Server Configuration Object.
+     * @param compactionScheduler
+     *          Scheduler of the compactions, may be shared with other garbage collector threads.
+     * @throws IOException
+     */
+    public GarbageCollectorThread(ServerConfiguration conf,
+                                  LedgerManager ledgerManager,
+                                  final LedgerDirsManager ledgerDirsManager,
+                                  final CompactableLedgerStorage ledgerStorage,
+                                  EntryLogger entryLogger,
+                                  StatsLogger statsLogger,
+                                  ScheduledExecutorService gcExecutor,
+                                  CompactionScheduler compactionScheduler)
+        throws IOException {
         this.gcExecutor = gcExecutor;
+        this.compactionScheduler = compactionScheduler;
         this.conf = conf;
 
         this.ledgerDirsManager = ledgerDirsManager;
@@ -211,9 +258,10 @@ public class GarbageCollectorThread extends SafeRunnable {
             }
         };
         if (conf.getUseTransactionalCompaction()) {
-            this.compactor = new TransactionalEntryLogCompactor(conf, entryLogger, ledgerStorage, remover);
+            this.compactor = new TransactionalEntryLogCompactor(conf, entryLogger, ledgerStorage,
+                    compactionScheduler, remover);
         } else {
-            this.compactor = new EntryLogCompactor(conf, entryLogger, ledgerStorage, remover);
+            this.compactor = new EntryLogCompactor(conf, entryLogger, ledgerStorage, compactionScheduler, remover);
         }
 
         this.throttler = new AbstractLogCompactor.Throttler(conf);
@@ -266,6 +314,7 @@ public class GarbageCollectorThread extends SafeRunnable {
                + majorCompactionThreshold + ", interval=" + majorCompactionInterval);
 
         lastMinorCompactionTime = lastMajorCompactionTime = System.currentTimeMillis();
+        compactionScheduler.register();
     }
 
     private EntryLogMetadataMap createEntryLogMetadataMap() throws IOException {
@@ -530,9 +579,9 @@ public class GarbageCollectorThread extends SafeRunnable {
      * Compact entry logs if necessary.
      *
      * <p>
-     * Compaction will be executed from low unused space to high unused space.
-     * Those entry log files whose remaining size percentage is higher than threshold
-     * would not be compacted.
+     * Compaction will be executed from the entry log files that reclaim the most space
+     * per byte of I/O to the ones that reclaim the least. Those entry log files whose
+     * remaining size percentage is higher than threshold would not be compacted.
      * </p>
      */
     @VisibleForTesting
@@ -544,38 +593,43 @@ public class GarbageCollectorThread extends SafeRunnable {
         int[] compactedBuckets = new int[numBuckets];
 
         long start = System.currentTimeMillis();
-        MutableLong end = new MutableLong(start);
-        MutableLong timeDiff = new MutableLong(0);
+        long timeDiff = 0;
 
+        List<EntryLogMetadata> candidates = new ArrayList<>();
         entryLogMetaMap.forEach((entryLogId, meta) -> {
-            int bucketIndex = calculateUsageIndex(numBuckets, meta.getUsage());
-            entryLogUsageBuckets[bucketIndex]++;
+            entryLogUsageBuckets[calculateUsageIndex(numBuckets, meta.getUsage())]++;
+            gcStats.getEntryLogUsageStats().registerSuccessfulValue(Math.round(meta.getUsage() * 100));
+            if (meta.getUsage() < threshold) {
+                candidates.add(meta);
+            }
+        });
+        candidates.sort(Comparator.comparingDouble(CompactionScheduler::reclaimRatio).reversed());
 
-            if (timeDiff.getValue() < maxTimeMillis) {
-                end.setValue(System.currentTimeMillis());
-                timeDiff.setValue(end.getValue() - start);
+        for (EntryLogMetadata meta : candidates) {
+            if (timeDiff < maxTimeMillis) {
+                timeDiff = System.currentTimeMillis() - start;
             }
-            if (meta.getUsage() >= threshold || (maxTimeMillis > 0 && timeDiff.getValue() >= maxTimeMillis)
-                    || !running) {
-                // We allow the usage limit calculation to continue so that we get a accurate
-                // report of where the usage was prior to running compaction.
-                return;
+            if ((maxTimeMillis > 0 && timeDiff >= maxTimeMillis) || !running) {
+                break;
             }
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Compacting entry log {} with usage {} below threshold {}",
                         meta.getEntryLogId(), meta.getUsage(), threshold);
             }
 
+            int bucketIndex = calculateUsageIndex(numBuckets, meta.getUsage());
             long priorRemainingSize = meta.getRemainingSize();
-            compactEntryLog(meta);
+            if (!compactEntryLog(meta)) {
+                continue;
+            }
             gcStats.getReclaimedSpaceViaCompaction().add(meta.getTotalSize() - priorRemainingSize);
             compactedBuckets[bucketIndex]++;
-        });
+        }
         if (LOG.isDebugEnabled()) {
             if (!running) {
                 LOG.debug("Compaction exited due to gc not running");
             }
-            if (timeDiff.getValue() > maxTimeMillis) {
+            if (timeDiff > maxTimeMillis) {
                 LOG.debug("Compaction ran for {}ms but was limited by {}ms", timeDiff, maxTimeMillis);
             }
         }
@@ -617,6 +671,7 @@ public class GarbageCollectorThread extends SafeRunnable {
         this.running = false;
         // Interrupt GC executor thread
         gcExecutor.shutdownNow();
+        compactionScheduler.unregister();
         try {
             entryLogMetaMap.close();
         } catch (Exception e) {
@@ -640,30 +695,47 @@ public class GarbageCollectorThread extends SafeRunnable {
     }
 
     /**
-     * Compact an entry log.
+     * Compact an entry log, once the compaction scheduler gives it a slot.
      *
      * @param entryLogMeta
+     * @return false if the compaction didn't start
      */
-    protected void compactEntryLog(EntryLogMetadata entryLogMeta) {
-        // Similar with Sync Thread
-        // try to mark compacting flag to make sure it would not be interrupted
-        // by shutdown during compaction. otherwise it will receive
-        // ClosedByInterruptException which may cause index file & entry logger
-        // closed and corrupted.
-        if (!compacting.compareAndSet(false, true)) {
-            // set compacting flag failed, means compacting is true now
-            // indicates that compaction is in progress for this EntryLogId.
-            return;
+    protected boolean compactEntryLog(EntryLogMetadata entryLogMeta) {
+        // Wait for the slot before marking the compacting flag, so that
+        // shutdown can interrupt the wait.
+        try {
+            compactionScheduler.acquire(entryLogMeta);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOG.info("Interrupted while waiting to compact entry log {}", entryLogMeta.getEntryLogId());
+            return false;
         }
 
         try {
-            // Do the actual compaction
-            compactor.compact(entryLogMeta);
-        } catch (Exception e) {
-            LOG.error("Failed to compact entry log {} due to unexpected error", entryLogMeta.getEntryLogId(), e);
+            // Similar with Sync Thread
+            // try to mark compacting flag to make sure it would not be interrupted
+            // by shutdown during compaction. otherwise it will receive
+            // ClosedByInterruptException which may cause index file & entry logger
+            // closed and corrupted.
+            if (!running || !compacting.compareAndSet(false, true)) {
+                // set compacting flag failed, means compacting is true now
+                // indicates that compaction is in progress for this EntryLogId.
+                return false;
+            }
+
+            try {
+                // Do the actual compaction
+                compactor.compact(entryLogMeta);
+            } catch (Exception e) {
+                LOG.error("Failed to compact entry log {} due to unexpected error",
+                        entryLogMeta.getEntryLogId(), e);
+            } finally {
+                // Mark compaction done
+                compacting.set(false);
+            }
+            return true;
         } finally {
-            // Mark compaction done
-            compacting.set(false);
+            compactionScheduler.release();
         }
     }
 
@@ -671,9 +743,21 @@ public class GarbageCollectorThread extends SafeRunnable {
      * Method to read in all of the entry logs (those that we haven't done so yet),
      * and find the set of ledger ID's that make up each entry log file.
      *
+     * <p>The metadata of the logs flushed by the entry logger since the last run
+     * is taken as it was tracked while writing them. The other logs are read from
+     * their ledgers maps, falling back to scanning them.
+     *
      * @throws EntryLogMetadataMapException
      */
     protected void extractMetaFromEntryLogs() throws EntryLogMetadataMapException {
+        for (EntryLogMetadata entryLogMeta : entryLogger.drainFlushedLogsMetadata()) {
+            long entryLogId = entryLogMeta.getEntryLogId();
+            if (entryLogMetaMap.containsKey(entryLogId) || !entryLogger.logExists(entryLogId)) {
+                continue;
+            }
+            addEntryLogMetadata(entryLogId, entryLogMeta);
+        }
+
         for (long entryLogId : entryLogger.getFlushedLogIds()) {
             // Comb the current entry log file if it has not already been extracted.
             if (entryLogMetaMap.containsKey(entryLogId)) {
@@ -691,15 +775,7 @@ public class GarbageCollectorThread extends SafeRunnable {
             try {
                 // Read through the entry log file and extract the entry log meta
                 EntryLogMetadata entryLogMeta = entryLogger.getEntryLogMetadata(entryLogId, throttler);
-                removeIfLedgerNotExists(entryLogMeta);
-                if (entryLogMeta.isEmpty()) {
-                    entryLogger.removeEntryLog(entryLogId);
-                    // remove it from entrylogmetadata-map if it is present in
-                    // the map
-                    entryLogMetaMap.remove(entryLogId);
-                } else {
-                    entryLogMetaMap.put(entryLogId, entryLogMeta);
-                }
+                addEntryLogMetadata(entryLogId, entryLogMeta);
             } catch (IOException e) {
                 LOG.warn("Premature exception when processing " + entryLogId
                          + " recovery will take care of the problem", e);
@@ -707,6 +783,19 @@ public class GarbageCollectorThread extends SafeRunnable {
         }
     }
 
+    private void addEntryLogMetadata(long entryLogId, EntryLogMetadata entryLogMeta)
+            throws EntryLogMetadataMapException {
+        removeIfLedgerNotExists(entryLogMeta);
+        if (entryLogMeta.isEmpty()) {
+            entryLogger.removeEntryLog(entryLogId);
+            // remove it from entrylogmetadata-map if it is present in
+            // the map
+            entryLogMetaMap.remove(entryLogId);
+        } else {
+            entryLogMetaMap.put(entryLogId, entryLogMeta);
+        }
+    }
+
     CompactableLedgerStorage getLedgerStorage() {
         return ledgerStorage;
     }
@@ -0,0 +1,302 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_ADD_LATENCY_P99;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_BYTES_THRESHOLD;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_ENTRIES_THRESHOLD;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_WAIT_DECREASES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_WAIT_INCREASES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_WAIT_TIME;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SCOPE;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.apache.bookkeeper.util.MathUtils;
+
+/**
+ * Decides how long the journal groups entries before flushing them, from the measured add latency.
+ *
+ * <p>The controller is fed with the time from the enqueue of every entry to its acknowledgement, the latency
+ * of the journal syncs and the entries written by the journal. Every {@link #UPDATE_INTERVAL_NANOS}, it
+ * compares the 99th percentile of the acknowledgement latencies of the last {@link #MAX_SAMPLES} entries with
+ * {@code journalGroupCommitTargetLatencyMs}: the group wait is halved when it's above the target, and increased
+ * by a quarter when it's well below. The wait is bounded by {@code journalMaxGroupWaitMSec}, and by the part of
+ * the target not taken by a sync.
+ *
+ * <p>The batch thresholds are set to what is expected to arrive during the wait at the measured arrival rate,
+ * so that a full batch is flushed without waiting for the timeout, and the journal flushes when its queue is
+ * empty if less than 2 entries are expected to arrive during a wait and a sync, as grouping wouldn't pay off.
+ *
+ * <p>{@link #onEntry(int)}, {@link #update(long)} and the getters are called by the journal thread.
+ */
+@StatsDoc(
+    name = JOURNAL_SCOPE,
+    category = CATEGORY_SERVER,
+    help = "Journal group commit related stats"
+)
+class GroupCommitController {
+
+    static final long UPDATE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final long MIN_WAIT_STEP_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long MIN_BYTES_THRESHOLD = 4096;
+    // Below this many samples in an interval, the percentile isn't meaningful enough to move the wait
+    private static final int MIN_SAMPLES = 10;
+    static final int MAX_SAMPLES = 4096;
+    // The wait is increased when the latency is below this fraction of the target
+    private static final double INCREASE_THRESHOLD = 0.75;
+    // Weight of the last interval in the averages
+    private static final double SMOOTHING = 0.5;
+
+    private final long targetLatencyNanos;
+    private final long maxGroupWaitNanos;
+    private final long maxEntriesThreshold;
+    private final long maxBytesThreshold;
+
+    // latency samples of the current interval, the oldest ones overwritten when full
+    private final long[] samples = new long[MAX_SAMPLES];
+    private int numSamples = 0;
+
+    private volatile long syncLatencyNanos = 0;
+    private long entries = 0;
+    private long bytes = 0;
+    private double entriesRate = 0;
+    private double bytesRate = 0;
+    private long lastUpdateNanos;
+
+    private volatile long groupWaitNanos;
+    private volatile long entriesThreshold;
+    private volatile long bytesThreshold;
+    private volatile boolean flushWhenQueueEmpty = true;
+    private volatile long addLatencyP99Nanos = 0;
+
+    @StatsDoc(
+        name = JOURNAL_GROUP_COMMIT_WAIT_INCREASES,
+        help = "The number of times the journal group wait has been increased"
+    )
+    private final Counter waitIncreases;
+    @StatsDoc(
+        name = JOURNAL_GROUP_COMMIT_WAIT_DECREASES,
+        help = "The number of times the journal group wait has been decreased to meet the target latency"
+    )
+    private final Counter waitDecreases;
+    @StatsDoc(
+        name = JOURNAL_GROUP_COMMIT_WAIT_TIME,
+        help = "Current max time in microseconds the journal waits to group entries"
+    )
+    private final Gauge<Long> waitTimeGauge;
+    @StatsDoc(
+        name = JOURNAL_GROUP_COMMIT_ENTRIES_THRESHOLD,
+        help = "Current number of entries after which the journal flushes, 0 if unbounded"
+    )
+    private final Gauge<Long> entriesThresholdGauge;
+    @StatsDoc(
+        name = JOURNAL_GROUP_COMMIT_BYTES_THRESHOLD,
+        help = "Current number of bytes after which the journal flushes"
+    )
+    private final Gauge<Long> bytesThresholdGauge;
+    @StatsDoc(
+        name = JOURNAL_GROUP_COMMIT_ADD_LATENCY_P99,
+        help = "99th percentile in microseconds of the time from the enqueue of the journal entries to their"
+            + " acknowledgement, in the last interval"
+    )
+    private final Gauge<Long> addLatencyP99Gauge;
+
+    GroupCommitController(ServerConfiguration conf, StatsLogger statsLogger) {
+        this(conf, statsLogger, MathUtils.nowInNano());
+    }
+
+    @VisibleForTesting
+    GroupCommitController(ServerConfiguration conf, StatsLogger statsLogger, long startNanos) {
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(conf.getJournalGroupCommitTargetLatencyMs());
+        this.maxGroupWaitNanos = TimeUnit.MILLISECONDS.toNanos(conf.getJournalMaxGroupWaitMSec());
+        this.maxEntriesThreshold = conf.getJournalBufferedEntriesThreshold();
+        this.maxBytesThreshold = Math.max(MIN_BYTES_THRESHOLD, conf.getJournalBufferedWritesThreshold());
+        this.lastUpdateNanos = startNanos;
+
+        // start from the static settings
+        this.groupWaitNanos = Math.min(maxGroupWaitNanos, targetLatencyNanos);
+        this.entriesThreshold = maxEntriesThreshold;
+        this.bytesThreshold = maxBytesThreshold;
+        this.flushWhenQueueEmpty = groupWaitNanos <= 0 || conf.getJournalFlushWhenQueueEmpty();
+
+        this.waitIncreases = statsLogger.getCounter(JOURNAL_GROUP_COMMIT_WAIT_INCREASES);
+        this.waitDecreases = statsLogger.getCounter(JOURNAL_GROUP_COMMIT_WAIT_DECREASES);
+        this.waitTimeGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return TimeUnit.NANOSECONDS.toMicros(groupWaitNanos);
+            }
+        };
+        statsLogger.registerGauge(JOURNAL_GROUP_COMMIT_WAIT_TIME, waitTimeGauge);
+        this.entriesThresholdGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return entriesThreshold;
+            }
+        };
+        statsLogger.registerGauge(JOURNAL_GROUP_COMMIT_ENTRIES_THRESHOLD, entriesThresholdGauge);
+        this.bytesThresholdGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return bytesThreshold;
+            }
+        };
+        statsLogger.registerGauge(JOURNAL_GROUP_COMMIT_BYTES_THRESHOLD, bytesThresholdGauge);
+        this.addLatencyP99Gauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return TimeUnit.NANOSECONDS.toMicros(addLatencyP99Nanos);
+            }
+        };
+        statsLogger.registerGauge(JOURNAL_GROUP_COMMIT_ADD_LATENCY_P99, addLatencyP99Gauge);
+    }
+
+    /**
+     * Record the acknowledgement of an entry.
+     *
+     * @param enqueueTimeNanos enqueue time of the entry
+     * @param ackTimeNanos acknowledgement time, shared by the entries of a flush or force write
+     */
+    void onAcknowledged(long enqueueTimeNanos, long ackTimeNanos) {
+        long latencyNanos = ackTimeNanos - enqueueTimeNanos;
+        synchronized (samples) {
+            samples[numSamples % MAX_SAMPLES] = latencyNanos;
+            numSamples++;
+        }
+    }
+
+    /**
+     * Record the latency of a journal sync, called by the force write thread.
+     */
+    void onSync(long latencyNanos) {
+        syncLatencyNanos = (long) (SMOOTHING * latencyNanos + (1 - SMOOTHING) * syncLatencyNanos);
+    }
+
+    /**
+     * Record an entry written to the journal.
+     */
+    void onEntry(int size) {
+        entries++;
+        bytes += size;
+    }
+
+    /**
+     * Adjust the group wait and thresholds if the update interval has elapsed.
+     */
+    void update(long nowNanos) {
+        long elapsedNanos = nowNanos - lastUpdateNanos;
+        if (elapsedNanos < UPDATE_INTERVAL_NANOS) {
+            return;
+        }
+        lastUpdateNanos = nowNanos;
+
+        double intervalSeconds = (double) elapsedNanos / TimeUnit.SECONDS.toNanos(1);
+        entriesRate = SMOOTHING * entries / intervalSeconds + (1 - SMOOTHING) * entriesRate;
+        bytesRate = SMOOTHING * bytes / intervalSeconds + (1 - SMOOTHING) * bytesRate;
+        entries = 0;
+        bytes = 0;
+
+        long[] intervalSamples;
+        synchronized (samples) {
+            intervalSamples = Arrays.copyOf(samples, Math.min(numSamples, MAX_SAMPLES));
+            numSamples = 0;
+        }
+
+        long syncNanos = syncLatencyNanos;
+        long waitNanos = groupWaitNanos;
+        if (intervalSamples.length >= MIN_SAMPLES) {
+            Arrays.sort(intervalSamples);
+            long p99 = intervalSamples[(int) Math.ceil(0.99 * intervalSamples.length) - 1];
+            addLatencyP99Nanos = p99;
+            if (p99 > targetLatencyNanos) {
+                waitNanos = waitNanos / 2;
+                waitDecreases.inc();
+            } else if (p99 < INCREASE_THRESHOLD * targetLatencyNanos) {
+                waitNanos = waitNanos + Math.max(MIN_WAIT_STEP_NANOS, waitNanos / 4);
+                waitIncreases.inc();
+            }
+        }
+        // the entries of a group wait for it to be synced as well
+        waitNanos = Math.max(0, Math.min(waitNanos, Math.min(maxGroupWaitNanos, targetLatencyNanos - syncNanos)));
+        groupWaitNanos = waitNanos;
+
+        double waitSeconds = (double) waitNanos / TimeUnit.SECONDS.toNanos(1);
+        double syncSeconds = (double) syncNanos / TimeUnit.SECONDS.toNanos(1);
+        flushWhenQueueEmpty = waitNanos <= 0 || entriesRate * (waitSeconds + syncSeconds) < 2;
+
+        long expectedEntries = (long) Math.ceil(entriesRate * waitSeconds);
+        if (maxEntriesThreshold > 0) {
+            expectedEntries = Math.min(expectedEntries, maxEntriesThreshold);
+        }
+        entriesThreshold = Math.max(0, expectedEntries);
+        bytesThreshold = Math.max(MIN_BYTES_THRESHOLD, Math.min(maxBytesThreshold, (long) (bytesRate * waitSeconds)));
+    }
+
+    long getGroupWaitNanos() {
+        return groupWaitNanos;
+    }
+
+    long getEntriesThreshold() {
+        return entriesThreshold;
+    }
+
+    long getBytesThreshold() {
+        return bytesThreshold;
+    }
+
+    boolean shouldFlushWhenQueueEmpty() {
+        return flushWhenQueueEmpty;
+    }
+
+    @VisibleForTesting
+    long getAddLatencyP99Nanos() {
+        return addLatencyP99Nanos;
+    }
+}
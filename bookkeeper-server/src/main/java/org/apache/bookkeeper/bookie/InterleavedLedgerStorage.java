@@ -104,6 +104,7 @@ public class InterleavedLedgerStorage implements CompactableLedgerStorage, Entry
     // contain any active ledgers in them; and compacts the entry logs that
     // has lower remaining percentage to reclaim disk space.
     GarbageCollectorThread gcThread;
+    CompactionScheduler compactionScheduler;
 
     // this indicates that a write has happened since the last flush
     private final AtomicBoolean somethingWritten = new AtomicBoolean(false);
@@ -187,10 +188,12 @@ public class InterleavedLedgerStorage implements CompactableLedgerStorage, Entry
         checkNotNull(checkpointer, "invalid null checkpointer");
         this.entryLogger = (DefaultEntryLogger) entryLogger;
         this.entryLogger.addListener(this);
+        this.entryLogger.setLedgerManager(ledgerManager);
         ledgerCache = new LedgerCacheImpl(conf, activeLedgers,
                 null == indexDirsManager ? ledgerDirsManager : indexDirsManager, statsLogger);
+        compactionScheduler = new CompactionScheduler(conf, statsLogger.scope("gc"));
         gcThread = new GarbageCollectorThread(conf, ledgerManager, ledgerDirsManager,
-                                              this, entryLogger, statsLogger.scope("gc"));
+                                              this, entryLogger, statsLogger.scope("gc"), compactionScheduler);
         ledgerDirsManager.addLedgerDirsListener(getLedgerDirsListener());
         // Expose Stats
         getOffsetStats = statsLogger.getOpStatsLogger(STORAGE_GET_OFFSET);
@@ -418,7 +421,9 @@ public class InterleavedLedgerStorage implements CompactableLedgerStorage, Entry
             return retBytes;
         } finally {
             if (success) {
-                getEntryStats.registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+                long readLatencyNanos = MathUtils.elapsedNanos(startTimeNanos);
+                getEntryStats.registerSuccessfulEvent(readLatencyNanos, TimeUnit.NANOSECONDS);
+                compactionScheduler.recordLatency(readLatencyNanos);
             } else {
                 getEntryStats.registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
             }
@@ -662,6 +667,11 @@ public class InterleavedLedgerStorage implements CompactableLedgerStorage, Entry
         return Collections.singletonList(gcThread.getGarbageCollectionStatus());
     }
 
+    @Override
+    public void onJournalSyncLatency(long latencyNanos) {
+        compactionScheduler.recordLatency(latencyNanos);
+    }
+
     @Override
     public OfLong getListOfEntriesOfLedger(long ledgerId) throws IOException {
         return ledgerCache.getEntriesIterator(ledgerId);
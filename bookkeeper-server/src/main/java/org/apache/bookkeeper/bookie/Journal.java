@@ -47,14 +47,20 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 
 import org.apache.bookkeeper.bookie.LedgerDirsManager.NoWritableLedgerDirException;
 import org.apache.bookkeeper.bookie.stats.JournalStats;
+import org.apache.bookkeeper.common.collections.BatchedBlockingQueue;
 import org.apache.bookkeeper.common.collections.BlockingMpscQueue;
+import org.apache.bookkeeper.common.collections.ParkingMpscQueue;
 import org.apache.bookkeeper.common.collections.RecyclableArrayList;
 import org.apache.bookkeeper.common.util.MemoryLimitController;
 import org.apache.bookkeeper.common.util.affinity.CpuAffinity;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
 import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.proto.BatchedChannelFlusher;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
 import org.apache.bookkeeper.stats.Counter;
 import org.apache.bookkeeper.stats.NullStatsLogger;
@@ -383,16 +389,45 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             try {
                 if (shouldForceWrite) {
                     this.logFile.forceWrite(false);
+                    long syncLatencyNanos = MathUtils.elapsedNanos(startTime);
                     journalStats.getJournalSyncStats()
-                        .registerSuccessfulEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
+                        .registerSuccessfulEvent(syncLatencyNanos, TimeUnit.NANOSECONDS);
+                    if (groupCommitController != null) {
+                        groupCommitController.onSync(syncLatencyNanos);
+                    }
+                    LongConsumer listener = syncLatencyListener;
+                    if (listener != null) {
+                        listener.accept(syncLatencyNanos);
+                    }
                 }
                 lastLogMark.setCurLogMark(this.logId, this.lastFlushedPosition);
 
+                if (groupCommitController != null) {
+                    long ackTimeNanos = MathUtils.nowInNano();
+                    for (int i = 0; i < forceWriteWaiters.size(); i++) {
+                        QueueEntry qe = forceWriteWaiters.get(i);
+                        if (qe != null) {
+                            groupCommitController.onAcknowledged(qe.enqueueTime, ackTimeNanos);
+                        }
+                    }
+                }
+
                 // Notify the waiters that the force write succeeded
-                for (int i = 0; i < forceWriteWaiters.size(); i++) {
-                    QueueEntry qe = forceWriteWaiters.get(i);
-                    if (qe != null) {
-                        cbThreadPool.execute(qe);
+                if (batchedQueue != null) {
+                    RecyclableArrayList<QueueEntry> callbacks = entryListRecycler.newInstance();
+                    for (int i = 0; i < forceWriteWaiters.size(); i++) {
+                        QueueEntry qe = forceWriteWaiters.get(i);
+                        if (qe != null) {
+                            callbacks.add(qe);
+                        }
+                    }
+                    executeCallbacks(callbacks);
+                } else {
+                    for (int i = 0; i < forceWriteWaiters.size(); i++) {
+                        QueueEntry qe = forceWriteWaiters.get(i);
+                        if (qe != null) {
+                            cbThreadPool.execute(qe);
+                        }
                     }
                 }
 
@@ -641,6 +676,8 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
     final ServerConfiguration conf;
     final ForceWriteThread forceWriteThread;
     final FileChannelProvider fileChannelProvider;
+    // Aligned buffers to write the journal files with direct I/O, null if disabled
+    final AlignedBufferPool directBufferPool;
 
     // Time after which we will stop grouping and issue the flush
     private final long maxGroupWaitInNanos;
@@ -650,6 +687,8 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
     private final long bufferedWritesThreshold;
     // should we flush if the queue is empty
     private final boolean flushWhenQueueEmpty;
+    // adjusts the group wait and thresholds to the target latency, null if they are static
+    private final GroupCommitController groupCommitController;
     // should we hint the filesystem to remove pages from cache after force write
     private final boolean removePagesFromCache;
     private final int journalFormatVersionToWrite;
@@ -677,6 +716,12 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
     // journal entry queue to commit
     final BlockingQueue<QueueEntry> queue;
+    // same as queue when the batched ring buffer pipeline is enabled, null otherwise
+    private final BatchedBlockingQueue<QueueEntry> batchedQueue;
+    // entries drained from the batched queue and not yet processed, only accessed by the journal thread
+    private final QueueEntry[] localQueueEntries;
+    private int localQueueEntriesIdx = 0;
+    private int localQueueEntriesLen = 0;
     final BlockingQueue<ForceWriteRequest> forceWriteRequests;
 
     volatile boolean running = true;
@@ -687,6 +732,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
     // Expose Stats
     private final JournalStats journalStats;
 
+    // Notified of the latency of each journal sync
+    private volatile LongConsumer syncLatencyListener = null;
+
     public Journal(int journalIndex, File journalDirectory, ServerConfiguration conf,
             LedgerDirsManager ledgerDirsManager) {
         this(journalIndex, journalDirectory, conf, ledgerDirsManager, NullStatsLogger.INSTANCE,
@@ -695,17 +743,38 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
     public Journal(int journalIndex, File journalDirectory, ServerConfiguration conf,
             LedgerDirsManager ledgerDirsManager, StatsLogger statsLogger, ByteBufAllocator allocator) {
+        this(journalIndex, journalDirectory, conf, ledgerDirsManager, statsLogger, allocator, new NativeIOImpl());
+    }
+
+    @VisibleForTesting
+    Journal(int journalIndex, File journalDirectory, ServerConfiguration conf,
+            LedgerDirsManager ledgerDirsManager, StatsLogger statsLogger, ByteBufAllocator allocator,
+            NativeIO nativeIO) {
         super(journalThreadName + "-" + conf.getBookiePort());
         this.allocator = allocator;
 
         StatsLogger journalStatsLogger = statsLogger.scopeLabel("journalIndex", String.valueOf(journalIndex));
 
-        if (conf.isBusyWaitEnabled()) {
+        if (conf.getJournalRingBufferEnabled()) {
+            // Producers claim slots in a lock-free ring buffer, drained in batches by the journal thread
+            batchedQueue = conf.isBusyWaitEnabled()
+                    ? new BlockingMpscQueue<>(conf.getJournalQueueSize())
+                    : new ParkingMpscQueue<>(conf.getJournalQueueSize());
+            queue = batchedQueue;
+            localQueueEntries = new QueueEntry[conf.getJournalQueueSize()];
+        } else if (conf.isBusyWaitEnabled()) {
+            batchedQueue = null;
+            localQueueEntries = null;
             // To achieve lower latency, use busy-wait blocking queue implementation
             queue = new BlockingMpscQueue<>(conf.getJournalQueueSize());
-            forceWriteRequests = new BlockingMpscQueue<>(conf.getJournalQueueSize());
         } else {
+            batchedQueue = null;
+            localQueueEntries = null;
             queue = new ArrayBlockingQueue<>(conf.getJournalQueueSize());
+        }
+        if (conf.isBusyWaitEnabled()) {
+            forceWriteRequests = new BlockingMpscQueue<>(conf.getJournalQueueSize());
+        } else {
             forceWriteRequests = new ArrayBlockingQueue<>(conf.getJournalQueueSize());
         }
 
@@ -742,6 +811,11 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         // Unless there is a cap on the max wait (which requires group force writes)
         // we cannot skip flushing for queue empty
         this.flushWhenQueueEmpty = maxGroupWaitInNanos <= 0 || conf.getJournalFlushWhenQueueEmpty();
+        if (conf.getJournalGroupCommitTargetLatencyMs() > 0) {
+            this.groupCommitController = new GroupCommitController(conf, journalStatsLogger);
+        } else {
+            this.groupCommitController = null;
+        }
 
         this.removePagesFromCache = conf.getJournalRemovePagesFromCache();
         // read last log mark
@@ -762,6 +836,15 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             throw new RuntimeException(e);
         }
 
+        if (conf.getJournalDirectIOEnabled()) {
+            // one buffer for the journal file being written and one for the next file
+            this.directBufferPool = new AlignedBufferPool(nativeIO,
+                    AlignedBufferPool.alignUp(journalWriteBufferSize), 2);
+            LOG.info("Journal {} is written with direct I/O", journalDirectory);
+        } else {
+            this.directBufferPool = null;
+        }
+
         // Expose Stats
         this.journalStats = new JournalStats(journalStatsLogger, journalMaxMemory,
                 () -> memoryLimitController.currentUsage());
@@ -775,6 +858,13 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         return journalDirectory;
     }
 
+    /**
+     * Set the listener notified of the latency, in nanoseconds, of each journal sync.
+     */
+    public void setSyncLatencyListener(LongConsumer syncLatencyListener) {
+        this.syncLatencyListener = syncLatencyListener;
+    }
+
     public LastLogMark getLastLogMark() {
         return lastLogMark;
     }
@@ -958,6 +1048,65 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
         journalStats.getJournalCbQueueSize().inc();
     }
 
+    /**
+     * Take the next entry to write, waiting for one if there's none.
+     */
+    private QueueEntry takeQueueEntry() throws InterruptedException {
+        if (batchedQueue == null) {
+            return queue.take();
+        }
+        if (localQueueEntriesIdx == localQueueEntriesLen) {
+            localQueueEntriesLen = batchedQueue.takeAll(localQueueEntries);
+            localQueueEntriesIdx = 0;
+        }
+        return nextLocalQueueEntry();
+    }
+
+    /**
+     * Poll the next entry to write, waiting up to the given time for one if there's none.
+     */
+    private QueueEntry pollQueueEntry(long timeoutNanos) throws InterruptedException {
+        if (batchedQueue == null) {
+            return queue.poll(timeoutNanos, TimeUnit.NANOSECONDS);
+        }
+        if (localQueueEntriesIdx == localQueueEntriesLen) {
+            localQueueEntriesLen = batchedQueue.pollAll(localQueueEntries, timeoutNanos, TimeUnit.NANOSECONDS);
+            localQueueEntriesIdx = 0;
+            if (localQueueEntriesLen == 0) {
+                return null;
+            }
+        }
+        return nextLocalQueueEntry();
+    }
+
+    private QueueEntry nextLocalQueueEntry() {
+        QueueEntry qe = localQueueEntries[localQueueEntriesIdx];
+        localQueueEntries[localQueueEntriesIdx++] = null;
+        return qe;
+    }
+
+    /**
+     * Call back a batch of entries in a single callback thread task, flushing the responses
+     * sent to each client connection once.
+     */
+    private void executeCallbacks(RecyclableArrayList<QueueEntry> callbacks) {
+        if (callbacks.isEmpty()) {
+            callbacks.recycle();
+            return;
+        }
+        cbThreadPool.execute(() -> {
+            BatchedChannelFlusher.startBatch();
+            try {
+                for (int i = 0; i < callbacks.size(); i++) {
+                    callbacks.get(i).run();
+                }
+            } finally {
+                BatchedChannelFlusher.endBatch();
+                callbacks.recycle();
+            }
+        });
+    }
+
     /**
      * Get the length of journal entries queue.
      *
@@ -1031,7 +1180,7 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                     logFile = new JournalChannel(journalDirectory, logId, journalPreAllocSize, journalWriteBufferSize,
                                         journalAlignmentSize, removePagesFromCache,
                                         journalFormatVersionToWrite, getBufferedChannelBuilder(),
-                                        conf, fileChannelProvider);
+                                        conf, fileChannelProvider, directBufferPool);
 
                     journalStats.getJournalCreationStats().registerSuccessfulEvent(
                             journalCreationWatcher.stop().elapsed(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS);
@@ -1049,19 +1198,30 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
 
                     if (numEntriesToFlush == 0) {
                         journalTime.add(MathUtils.elapsedNanos(busyStartTime));
-                        qe = queue.take();
+                        qe = takeQueueEntry();
                         dequeueStartTime = MathUtils.nowInNano();
                         busyStartTime = dequeueStartTime;
                         journalStats.getJournalQueueSize().dec();
                         journalStats.getJournalQueueStats()
                             .registerSuccessfulEvent(MathUtils.elapsedNanos(qe.enqueueTime), TimeUnit.NANOSECONDS);
                     } else {
-                        long pollWaitTimeNanos = maxGroupWaitInNanos
+                        long groupWaitNanos = maxGroupWaitInNanos;
+                        long entriesThreshold = bufferedEntriesThreshold;
+                        long writesThreshold = bufferedWritesThreshold;
+                        boolean flushIfQueueEmpty = flushWhenQueueEmpty;
+                        if (groupCommitController != null) {
+                            groupCommitController.update(dequeueStartTime);
+                            groupWaitNanos = groupCommitController.getGroupWaitNanos();
+                            entriesThreshold = groupCommitController.getEntriesThreshold();
+                            writesThreshold = groupCommitController.getBytesThreshold();
+                            flushIfQueueEmpty = groupCommitController.shouldFlushWhenQueueEmpty();
+                        }
+                        long pollWaitTimeNanos = groupWaitNanos
                                 - MathUtils.elapsedNanos(toFlush.get(0).enqueueTime);
-                        if (flushWhenQueueEmpty || pollWaitTimeNanos < 0) {
+                        if (flushIfQueueEmpty || pollWaitTimeNanos < 0) {
                             pollWaitTimeNanos = 0;
                         }
-                        qe = queue.poll(pollWaitTimeNanos, TimeUnit.NANOSECONDS);
+                        qe = pollQueueEntry(pollWaitTimeNanos);
                         dequeueStartTime = MathUtils.nowInNano();
 
                         if (qe != null) {
@@ -1073,12 +1233,12 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                         boolean shouldFlush = false;
                         // We should issue a forceWrite if any of the three conditions below holds good
                         // 1. If the oldest pending entry has been pending for longer than the max wait time
-                        if (maxGroupWaitInNanos > 0 && !groupWhenTimeout && (MathUtils
-                                .elapsedNanos(toFlush.get(0).enqueueTime) > maxGroupWaitInNanos)) {
+                        if (groupWaitNanos > 0 && !groupWhenTimeout && (MathUtils
+                                .elapsedNanos(toFlush.get(0).enqueueTime) > groupWaitNanos)) {
                             groupWhenTimeout = true;
-                        } else if (maxGroupWaitInNanos > 0 && groupWhenTimeout
+                        } else if (groupWaitNanos > 0 && groupWhenTimeout
                             && (qe == null // no entry to group
-                                || MathUtils.elapsedNanos(qe.enqueueTime) < maxGroupWaitInNanos)) {
+                                || MathUtils.elapsedNanos(qe.enqueueTime) < groupWaitNanos)) {
                             // when group timeout, it would be better to look forward, as there might be lots of
                             // entries already timeout
                             // due to a previous slow write (writing to filesystem which impacted by force write).
@@ -1089,13 +1249,13 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                             shouldFlush = true;
                             journalStats.getFlushMaxWaitCounter().inc();
                         } else if (qe != null
-                                && ((bufferedEntriesThreshold > 0 && toFlush.size() > bufferedEntriesThreshold)
-                                || (bc.position() > lastFlushPosition + bufferedWritesThreshold))) {
+                                && ((entriesThreshold > 0 && toFlush.size() > entriesThreshold)
+                                || (bc.position() > lastFlushPosition + writesThreshold))) {
                             // 2. If we have buffered more than the buffWriteThreshold or bufferedEntriesThreshold
                             groupWhenTimeout = false;
                             shouldFlush = true;
                             journalStats.getFlushMaxOutstandingBytesCounter().inc();
-                        } else if (qe == null && flushWhenQueueEmpty) {
+                        } else if (qe == null && flushIfQueueEmpty) {
                             // We should get here only if we flushWhenQueueEmpty is true else we would wait
                             // for timeout that would put is past the maxWait threshold
                             // 3. If the queue is empty i.e. no benefit of grouping. This happens when we have one
@@ -1113,14 +1273,27 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                             journalFlushWatcher.reset().start();
                             bc.flush();
 
+                            RecyclableArrayList<QueueEntry> callbacks =
+                                    batchedQueue != null ? entryListRecycler.newInstance() : null;
+                            long ackTimeNanos = groupCommitController != null ? MathUtils.nowInNano() : 0;
                             for (int i = 0; i < toFlush.size(); i++) {
                                 QueueEntry entry = toFlush.get(i);
                                 if (entry != null && (!syncData || entry.ackBeforeSync)) {
+                                    if (groupCommitController != null) {
+                                        groupCommitController.onAcknowledged(entry.enqueueTime, ackTimeNanos);
+                                    }
                                     toFlush.set(i, null);
                                     numEntriesToFlush--;
-                                    cbThreadPool.execute(entry);
+                                    if (callbacks != null) {
+                                        callbacks.add(entry);
+                                    } else {
+                                        cbThreadPool.execute(entry);
+                                    }
                                 }
                             }
+                            if (callbacks != null) {
+                                executeCallbacks(callbacks);
+                            }
 
                             lastFlushPosition = bc.position();
                             journalStats.getJournalFlushStats().registerSuccessfulEvent(
@@ -1196,6 +1369,9 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
                 } else if (qe.entryId != BookieImpl.METAENTRY_ID_FORCE_LEDGER) {
                     int entrySize = qe.entry.readableBytes();
                     journalStats.getJournalWriteBytes().add(entrySize);
+                    if (groupCommitController != null) {
+                        groupCommitController.onEntry(entrySize);
+                    }
 
                     batchSize += (4 + entrySize);
 
@@ -1258,6 +1434,17 @@ public class Journal extends BookieCriticalThread implements CheckpointSource {
             running = false;
             this.interrupt();
             this.join();
+
+            // the journal thread may have rolled files after the force write thread exited, close them
+            // so that the last channels give their buffers back before the pool is closed
+            ForceWriteRequest req;
+            while ((req = forceWriteRequests.poll()) != null) {
+                req.closeFileIfNecessary();
+                req.recycle();
+            }
+            if (directBufferPool != null) {
+                directBufferPool.close();
+            }
             LOG.info("Finished Shutting down Journal thread");
         } catch (IOException | InterruptedException ie) {
             Thread.currentThread().interrupt();
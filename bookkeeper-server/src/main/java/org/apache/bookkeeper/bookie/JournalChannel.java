@@ -48,6 +48,8 @@ class JournalChannel implements Closeable {
     final int fd;
     final FileChannel fc;
     final BufferedChannel bc;
+    // Set when the journal is written with direct I/O
+    final DirectBufferedChannel directChannel;
     final int formatVersion;
     long nextPrealloc = 0;
 
@@ -105,7 +107,7 @@ class JournalChannel implements Closeable {
                    FileChannelProvider provider) throws IOException {
          this(journalDirectory, logId, preAllocSize, writeBufferSize, SECTOR_SIZE,
                  position, false, V5, Journal.BufferedChannelBuilder.DEFAULT_BCBUILDER,
-             conf, provider);
+             conf, provider, null);
     }
 
     // Open journal to write
@@ -123,7 +125,18 @@ class JournalChannel implements Closeable {
                    Journal.BufferedChannelBuilder bcBuilder, ServerConfiguration conf,
                    FileChannelProvider provider) throws IOException {
         this(journalDirectory, logId, preAllocSize, writeBufferSize, journalAlignSize,
-                START_OF_FILE, fRemoveFromPageCache, formatVersionToWrite, bcBuilder, conf, provider);
+                START_OF_FILE, fRemoveFromPageCache, formatVersionToWrite, bcBuilder, conf, provider, null);
+    }
+
+    // Open journal to write with direct I/O if a buffer pool is given
+    JournalChannel(File journalDirectory, long logId,
+                   long preAllocSize, int writeBufferSize, int journalAlignSize,
+                   boolean fRemoveFromPageCache, int formatVersionToWrite,
+                   Journal.BufferedChannelBuilder bcBuilder, ServerConfiguration conf,
+                   FileChannelProvider provider, AlignedBufferPool directBufferPool) throws IOException {
+        this(journalDirectory, logId, preAllocSize, writeBufferSize, journalAlignSize,
+                START_OF_FILE, fRemoveFromPageCache, formatVersionToWrite, bcBuilder, conf, provider,
+                directBufferPool);
     }
 
     /**
@@ -146,6 +159,8 @@ class JournalChannel implements Closeable {
      *          whether to remove cached pages from page cache.
      * @param formatVersionToWrite
      *          format version to write
+     * @param directBufferPool
+     *          pool of aligned buffers to write the journal with direct I/O, null to write through the file channel
      * @throws IOException
      */
     private JournalChannel(File journalDirectory, long logId,
@@ -153,11 +168,13 @@ class JournalChannel implements Closeable {
                            long position, boolean fRemoveFromPageCache,
                            int formatVersionToWrite, Journal.BufferedChannelBuilder bcBuilder,
                            ServerConfiguration conf,
-                           FileChannelProvider provider) throws IOException {
+                           FileChannelProvider provider,
+                           AlignedBufferPool directBufferPool) throws IOException {
         this.journalAlignSize = journalAlignSize;
         this.zeros = ByteBuffer.allocate(journalAlignSize);
         this.preAllocSize = preAllocSize - preAllocSize % journalAlignSize;
-        this.fRemoveFromPageCache = fRemoveFromPageCache;
+        // there is nothing to remove from the page cache with direct I/O
+        this.fRemoveFromPageCache = fRemoveFromPageCache && directBufferPool == null;
         this.configuration = conf;
 
         File fn = new File(journalDirectory, Long.toHexString(logId) + ".txn");
@@ -187,13 +204,20 @@ class JournalChannel implements Closeable {
             bb.clear();
             fc.write(bb);
 
-            bc = bcBuilder.create(fc, writeBufferSize);
+            if (directBufferPool != null) {
+                directChannel = new DirectBufferedChannel(fn, fc, directBufferPool);
+                bc = directChannel;
+            } else {
+                directChannel = null;
+                bc = bcBuilder.create(fc, writeBufferSize);
+            }
             forceWrite(true);
             nextPrealloc = this.preAllocSize;
-            fc.write(zeros, nextPrealloc - journalAlignSize);
+            preAlloc();
         } else {  // open an existing file
             fc = channel.getFileChannel();
             bc = null; // readonly
+            directChannel = null;
 
             ByteBuffer bb = ByteBuffer.allocate(VERSION_HEADER_SIZE);
             int c = fc.read(bb);
@@ -241,7 +265,7 @@ class JournalChannel implements Closeable {
                 throw e;
             }
         }
-        if (fRemoveFromPageCache) {
+        if (this.fRemoveFromPageCache) {
             this.fd = NativeIO.getSysFileDescriptor(channel.getFD());
         } else {
             this.fd = -1;
@@ -262,6 +286,14 @@ class JournalChannel implements Closeable {
     void preAllocIfNeeded(long size) throws IOException {
         if (bc.position() + size > nextPrealloc) {
             nextPrealloc += preAllocSize;
+            preAlloc();
+        }
+    }
+
+    private void preAlloc() throws IOException {
+        if (directChannel != null) {
+            directChannel.preallocate(nextPrealloc - preAllocSize, preAllocSize);
+        } else {
             zeros.clear();
             fc.write(zeros, nextPrealloc - journalAlignSize);
         }
@@ -0,0 +1,341 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_LEDGER_REASSIGNMENTS;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ROUTED_BYTES_RATE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_ROUTED_LEDGERS;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SCOPE;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.apache.bookkeeper.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Assigns ledgers to journals.
+ *
+ * <p>By default, a ledger is written to the journal given by its id modulo the number of journals.
+ * With {@code journalDynamicRoutingEnabled}, a ledger is assigned on its first write to the journal with the
+ * lowest load, where the load is the sum of the journal queue occupancy and its share of the bytes written
+ * to all the journals in the last seconds. The ledger keeps its journal as long as it's written to, so that
+ * its entries, explicit LACs, fencing and force requests are ordered in a single journal. Once it has been idle
+ * for {@code journalRoutingIdleLedgerTimeoutMs}, its assignment is dropped and its next write picks the least
+ * loaded journal again. Since the ledger may then move to another journal, its master key record is written again
+ * to every journal it's assigned to, ahead of its first entry there.
+ */
+@StatsDoc(
+    name = JOURNAL_SCOPE,
+    category = CATEGORY_SERVER,
+    help = "Journal routing related stats"
+)
+class JournalRouter {
+    private static final Logger LOG = LoggerFactory.getLogger(JournalRouter.class);
+
+    private static final long UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // Weight of the last interval in the bytes rate average
+    private static final double RATE_SMOOTHING = 0.5;
+
+    /**
+     * Writes the master key record of a ledger to a journal.
+     */
+    interface MasterKeyLogger {
+        void logMasterKey(Journal journal) throws InterruptedException;
+    }
+
+    private final List<Journal> journals;
+    private final boolean dynamic;
+    private final int journalQueueCapacity;
+    private final long idleLedgerTimeoutNanos;
+
+    private final ConcurrentLongHashMap<LedgerRoute> routes;
+    private final JournalLoad[] loads;
+
+    private final Object updateLock = new Object();
+    private volatile long lastUpdateNanos;
+    private long lastSweepNanos;
+
+    @StatsDoc(
+        name = JOURNAL_LEDGER_REASSIGNMENTS,
+        help = "The number of idle ledgers whose journal assignment has been dropped"
+    )
+    private final Counter ledgerReassignments;
+
+    JournalRouter(List<Journal> journals, ServerConfiguration conf, StatsLogger statsLogger) {
+        this.journals = journals;
+        this.dynamic = conf.getJournalDynamicRoutingEnabled() && journals.size() > 1;
+        this.journalQueueCapacity = Math.max(1, conf.getJournalQueueSize());
+        this.idleLedgerTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(conf.getJournalRoutingIdleLedgerTimeoutMs());
+        this.routes = ConcurrentLongHashMap.<LedgerRoute>newBuilder()
+                .expectedItems(256)
+                .concurrencyLevel(16)
+                .build();
+        this.lastUpdateNanos = MathUtils.nowInNano();
+        this.lastSweepNanos = lastUpdateNanos;
+
+        this.loads = new JournalLoad[journals.size()];
+        for (int i = 0; i < loads.length; i++) {
+            loads[i] = new JournalLoad(statsLogger.scopeLabel("journalIndex", String.valueOf(i)));
+        }
+        this.ledgerReassignments = statsLogger.getCounter(JOURNAL_LEDGER_REASSIGNMENTS);
+
+        if (dynamic) {
+            LOG.info("Dynamic journal routing enabled over {} journals, idle ledger timeout {}ms",
+                    journals.size(), conf.getJournalRoutingIdleLedgerTimeoutMs());
+        }
+    }
+
+    /**
+     * Get the journal to write a record of a ledger to.
+     *
+     * @param ledgerId ledger id
+     * @param bytes size of the record to write, or 0 if it's not a write
+     * @return the journal of the ledger
+     */
+    Journal getJournal(long ledgerId, int bytes) {
+        long now = MathUtils.nowInNano();
+        if (now - lastUpdateNanos >= UPDATE_INTERVAL_NANOS) {
+            update(now);
+        }
+
+        int journalIndex = dynamic ? getRoute(ledgerId, now).journalIndex : getStaticJournal(ledgerId);
+        if (bytes > 0) {
+            loads[journalIndex].bytes.add(bytes);
+        }
+        return journals.get(journalIndex);
+    }
+
+    /**
+     * Get the journal to write an entry of a ledger to.
+     *
+     * <p>The entries of a ledger can only be replayed from a journal holding the master key record of the ledger.
+     * {@code logMasterKey} is called with the journal before the entry is written to it, when the master key record
+     * must be written there first: if {@code newLedger} is set, i.e. it's the first entry of the ledger written by
+     * the bookie, or if the ledger was assigned to the journal since its last entry, since it may have been
+     * written to another journal before.
+     *
+     * <p>The callers must not write entries of the same ledger concurrently.
+     *
+     * @param ledgerId ledger id
+     * @param bytes size of the entry, or 0 if it's not written to the journal
+     * @param newLedger whether it's the first entry of the ledger written by the bookie
+     * @param logMasterKey writes the master key record of the ledger to the given journal
+     * @return the journal of the ledger
+     */
+    Journal getJournalForEntry(long ledgerId, int bytes, boolean newLedger, MasterKeyLogger logMasterKey)
+            throws InterruptedException {
+        if (!dynamic) {
+            Journal journal = getJournal(ledgerId, bytes);
+            if (newLedger) {
+                logMasterKey.logMasterKey(journal);
+            }
+            return journal;
+        }
+
+        long now = MathUtils.nowInNano();
+        if (now - lastUpdateNanos >= UPDATE_INTERVAL_NANOS) {
+            update(now);
+        }
+
+        LedgerRoute route = getRoute(ledgerId, now);
+        boolean masterKeyLogged;
+        synchronized (route) {
+            masterKeyLogged = route.masterKeyLogged;
+            route.masterKeyLogged = true;
+        }
+        Journal journal = journals.get(route.journalIndex);
+        // not written under the lock of the route, the journal may block on a full queue
+        if (!masterKeyLogged) {
+            logMasterKey.logMasterKey(journal);
+        }
+        if (bytes > 0) {
+            loads[route.journalIndex].bytes.add(bytes);
+        }
+        return journal;
+    }
+
+    private int getStaticJournal(long ledgerId) {
+        return MathUtils.signSafeMod(ledgerId, journals.size());
+    }
+
+    private LedgerRoute getRoute(long ledgerId, long now) {
+        LedgerRoute route = routes.get(ledgerId);
+        while (true) {
+            if (route == null) {
+                LedgerRoute newRoute = new LedgerRoute(getLeastLoadedJournal(), now);
+                route = routes.putIfAbsent(ledgerId, newRoute);
+                if (route == null) {
+                    route = newRoute;
+                    loads[route.journalIndex].ledgers.incrementAndGet();
+                }
+            }
+            synchronized (route) {
+                if (!route.removed) {
+                    route.lastAccessNanos = now;
+                    return route;
+                }
+            }
+            // the route was dropped by a sweep, the ledger needs a new one
+            route = routes.get(ledgerId);
+        }
+    }
+
+    private int getLeastLoadedJournal() {
+        long totalRate = 0;
+        for (JournalLoad load : loads) {
+            totalRate += load.bytesRate;
+        }
+
+        int leastLoaded = 0;
+        double leastLoad = Double.MAX_VALUE;
+        for (int i = 0; i < loads.length; i++) {
+            double load = (double) journals.get(i).getJournalQueueLength() / journalQueueCapacity;
+            if (totalRate > 0) {
+                load += (double) loads[i].bytesRate / totalRate;
+            }
+            if (load < leastLoad
+                    || (load == leastLoad && loads[i].ledgers.get() < loads[leastLoaded].ledgers.get())) {
+                leastLoaded = i;
+                leastLoad = load;
+            }
+        }
+        return leastLoaded;
+    }
+
+    private void update(long now) {
+        synchronized (updateLock) {
+            long elapsedNanos = now - lastUpdateNanos;
+            if (elapsedNanos < UPDATE_INTERVAL_NANOS) {
+                return;
+            }
+            lastUpdateNanos = now;
+
+            for (JournalLoad load : loads) {
+                double intervalRate = (double) load.bytes.sumThenReset() * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+                load.bytesRate = (long) (RATE_SMOOTHING * intervalRate + (1 - RATE_SMOOTHING) * load.bytesRate);
+            }
+
+            // No need to look for idle ledgers more often than a fraction of the timeout
+            if (dynamic && now - lastSweepNanos >= Math.max(UPDATE_INTERVAL_NANOS, idleLedgerTimeoutNanos / 4)) {
+                lastSweepNanos = now;
+                sweepIdleLedgers(now);
+            }
+        }
+    }
+
+    private void sweepIdleLedgers(long now) {
+        int removed = routes.removeIf((ledgerId, route) -> {
+            synchronized (route) {
+                if (now - route.lastAccessNanos < idleLedgerTimeoutNanos) {
+                    return false;
+                }
+                route.removed = true;
+            }
+            loads[route.journalIndex].ledgers.decrementAndGet();
+            return true;
+        });
+        if (removed > 0) {
+            ledgerReassignments.add(removed);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Dropped the journal assignment of {} idle ledgers", removed);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getRoutedLedgers(int journalIndex) {
+        return loads[journalIndex].ledgers.get();
+    }
+
+    @VisibleForTesting
+    long getRoutedBytesRate(int journalIndex) {
+        return loads[journalIndex].bytesRate;
+    }
+
+    private static final class LedgerRoute {
+        private final int journalIndex;
+        private long lastAccessNanos;
+        private boolean removed = false;
+        // whether the master key record of the ledger was written to the journal
+        private boolean masterKeyLogged = false;
+
+        LedgerRoute(int journalIndex, long nowNanos) {
+            this.journalIndex = journalIndex;
+            this.lastAccessNanos = nowNanos;
+        }
+    }
+
+    private final class JournalLoad {
+        private final LongAdder bytes = new LongAdder();
+        private volatile long bytesRate = 0;
+        private final AtomicInteger ledgers = new AtomicInteger();
+
+        @StatsDoc(
+            name = JOURNAL_ROUTED_LEDGERS,
+            help = "Current number of ledgers assigned to the journal by dynamic routing"
+        )
+        private final Gauge<Integer> ledgersGauge;
+        @StatsDoc(
+            name = JOURNAL_ROUTED_BYTES_RATE,
+            help = "Average number of bytes per second written to the journal in the last seconds"
+        )
+        private final Gauge<Long> bytesRateGauge;
+
+        JournalLoad(StatsLogger statsLogger) {
+            this.ledgersGauge = new Gauge<Integer>() {
+                @Override
+                public Integer getDefaultValue() {
+                    return 0;
+                }
+
+                @Override
+                public Integer getSample() {
+                    return ledgers.get();
+                }
+            };
+            statsLogger.registerGauge(JOURNAL_ROUTED_LEDGERS, ledgersGauge);
+            this.bytesRateGauge = new Gauge<Long>() {
+                @Override
+                public Long getDefaultValue() {
+                    return 0L;
+                }
+
+                @Override
+                public Long getSample() {
+                    return bytesRate;
+                }
+            };
+            statsLogger.registerGauge(JOURNAL_ROUTED_BYTES_RATE, bytesRateGauge);
+        }
+    }
+}
@@ -24,6 +24,7 @@ package org.apache.bookkeeper.bookie;
 import com.google.common.util.concurrent.RateLimiter;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.FileRegion;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -145,6 +146,17 @@ public interface LedgerStorage {
      */
     ByteBuf getEntry(long ledgerId, long entryId) throws IOException, BookieException;
 
+    /**
+     * Get the region of a file holding an entry, so that the entry can be sent without being read into memory.
+     * Only the entries of at least {@code minEntrySize} bytes which aren't cached are read as a region.
+     *
+     * @return the region of the entry, or null if the entry is to be read with {@link #getEntry(long, long)}
+     */
+    default FileRegion getEntryRegion(long ledgerId, long entryId, int minEntrySize)
+            throws IOException, BookieException {
+        return null;
+    }
+
     /**
      * Get last add confirmed.
      *
@@ -296,6 +308,14 @@ public interface LedgerStorage {
         return Collections.emptyList();
     }
 
+    /**
+     * Notify the storage of the latency of a journal sync, so that background
+     * work like compaction can back off when the bookie is under pressure.
+     *
+     * @param latencyNanos journal sync latency in nanoseconds
+     */
+    default void onJournalSyncLatency(long latencyNanos) {}
+
     /**
      * Returns the primitive long iterator for entries of the ledger, stored in
      * this LedgerStorage. The returned iterator provide weakly consistent state
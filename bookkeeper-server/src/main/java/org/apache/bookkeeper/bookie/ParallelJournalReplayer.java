@@ -0,0 +1,436 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_REPLAY_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_REPLAY_ENTRIES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_REPLAY_REMAINING_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_SCOPE;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.bookie.Bookie.NoLedgerException;
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.common.util.MemoryLimitController;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+import org.apache.bookkeeper.util.MathUtils;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Replays the journals of a bookie concurrently.
+ *
+ * <p>Each journal directory is read by its own thread, from its last log mark. The records read are handed
+ * to a pool of threads which decode them and apply them to the ledger storage. All the records of a ledger
+ * are applied by the same thread, in the order they were read. The memory held by the records read and not
+ * applied yet is bounded by {@code journalMaxMemorySizeMb}.
+ *
+ * <p>A ledger whose entries are in several journals can have its entries read before its master key. As the
+ * master key of a ledger is journaled ahead of its entries in each journal they are written to, it can then
+ * only come from another journal. The records of a ledger with no known master key are kept aside while
+ * another journal is still being read, until the master key is applied, and dropped otherwise, as the ledger
+ * was deleted. The later records of a deleted ledger are dropped too. The records kept aside still count against
+ * the memory bound, and the replay fails if they take more than half of it, as the readers would stall.
+ *
+ * <p>The log marks of the journals are only moved once all the records are applied, so that a checkpoint
+ * taken by the ledger storage during the replay doesn't skip records that are not applied yet.
+ */
+@StatsDoc(
+    name = JOURNAL_SCOPE,
+    category = CATEGORY_SERVER,
+    help = "Journal replay related stats"
+)
+class ParallelJournalReplayer {
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelJournalReplayer.class);
+
+    private static final long PROGRESS_INTERVAL_MILLIS = 10000;
+
+    private final List<Journal> journals;
+    private final int numThreads;
+    private final JournalScanner applier;
+    private final MemoryLimitController memoryLimitController;
+    private final long maxDeferredBytes;
+
+    private final AtomicLong remainingBytes = new AtomicLong();
+    // Records handed to the appliers and not processed yet, plus one until all the journals are read
+    private final AtomicLong pendingRecords = new AtomicLong(1);
+    private final CompletableFuture<Void> allApplied = new CompletableFuture<>();
+    private final AtomicInteger runningReaders = new AtomicInteger();
+    private final AtomicReference<IOException> failure = new AtomicReference<>();
+    // Records of the ledgers whose master key hasn't been applied yet, only accessed by the thread of the ledger
+    private final ConcurrentLongHashMap<List<Record>> deferredRecords =
+            ConcurrentLongHashMap.<List<Record>>newBuilder().build();
+    private final AtomicLong deferredBytes = new AtomicLong();
+    // Ledgers whose master key can't be found, only accessed by the thread of the ledger
+    private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
+
+    @StatsDoc(
+        name = JOURNAL_REPLAY_ENTRIES,
+        help = "The number of journal records applied to the ledger storage during replay"
+    )
+    private final Counter replayedEntries;
+    @StatsDoc(
+        name = JOURNAL_REPLAY_BYTES,
+        help = "The number of journal bytes read during replay"
+    )
+    private final Counter replayedBytes;
+    @StatsDoc(
+        name = JOURNAL_REPLAY_REMAINING_BYTES,
+        help = "The number of journal bytes left to read before the replay completes"
+    )
+    private final Gauge<Long> remainingBytesGauge;
+
+    /**
+     * @param journals the journals to replay
+     * @param conf the server configuration
+     * @param applier applies a journal record to the ledger storage, throwing {@link NoLedgerException}
+     *                if the master key of the ledger is unknown
+     * @param statsLogger the stats logger of the journals
+     */
+    ParallelJournalReplayer(List<Journal> journals, ServerConfiguration conf, JournalScanner applier,
+                            StatsLogger statsLogger) {
+        this.journals = journals;
+        this.numThreads = conf.getJournalReplayThreads();
+        this.applier = applier;
+        long maxMemoryBytes = conf.getJournalMaxMemorySizeMb() * 1024 * 1024;
+        this.memoryLimitController = new MemoryLimitController(maxMemoryBytes);
+        this.maxDeferredBytes = maxMemoryBytes > 0 ? maxMemoryBytes / 2 : Long.MAX_VALUE;
+
+        this.replayedEntries = statsLogger.getCounter(JOURNAL_REPLAY_ENTRIES);
+        this.replayedBytes = statsLogger.getCounter(JOURNAL_REPLAY_BYTES);
+        this.remainingBytesGauge = new Gauge<Long>() {
+            @Override
+            public Long getDefaultValue() {
+                return 0L;
+            }
+
+            @Override
+            public Long getSample() {
+                return remainingBytes.get();
+            }
+        };
+        statsLogger.registerGauge(JOURNAL_REPLAY_REMAINING_BYTES, remainingBytesGauge);
+    }
+
+    void replay() throws IOException {
+        List<List<Long>> journalIds = new ArrayList<>(journals.size());
+        long totalBytes = 0;
+        for (Journal journal : journals) {
+            List<Long> ids = BookieImpl.listJournalIdsToReplay(journal);
+            journalIds.add(ids);
+            totalBytes += getBytesToReplay(journal, ids);
+        }
+        remainingBytes.set(totalBytes);
+        LOG.info("Replaying {} MB of {} journals with {} threads",
+                totalBytes / 1024 / 1024, journals.size(), numThreads);
+
+        long startNanos = MathUtils.nowInNano();
+        ExecutorService readers = Executors.newFixedThreadPool(journals.size(),
+                new DefaultThreadFactory("journal-replay-reader"));
+        OrderedExecutor appliers = OrderedExecutor.newBuilder()
+                .name("journal-replay")
+                .numThreads(numThreads)
+                .build();
+        // file id and offset up to which each journal has been read
+        long[][] replayedMarks = new long[journals.size()][];
+        runningReaders.set(journals.size());
+        try {
+            List<Future<long[]>> readTasks = new ArrayList<>(journals.size());
+            for (int i = 0; i < journals.size(); i++) {
+                Journal journal = journals.get(i);
+                List<Long> ids = journalIds.get(i);
+                readTasks.add(readers.submit(() -> read(journal, ids, appliers)));
+            }
+
+            for (int i = 0; i < readTasks.size(); i++) {
+                replayedMarks[i] = waitFor(readTasks.get(i), totalBytes, startNanos);
+            }
+            // all the records are handed to the appliers, wait for them to be processed
+            recordProcessed();
+            waitFor(allApplied, totalBytes, startNanos);
+        } finally {
+            readers.shutdownNow();
+            appliers.shutdown();
+        }
+
+        IOException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+
+        dropDeferredRecords();
+        for (int i = 0; i < journals.size(); i++) {
+            if (replayedMarks[i] != null) {
+                journals.get(i).setLastLogMark(replayedMarks[i][0], replayedMarks[i][1]);
+            }
+        }
+        logProgress(totalBytes, startNanos);
+    }
+
+    private long getBytesToReplay(Journal journal, List<Long> ids) {
+        LogMark markedLog = journal.getLastLogMark().getCurMark();
+        long bytes = 0;
+        for (Long id : ids) {
+            bytes += new File(journal.getJournalDirectory(), Long.toHexString(id) + ".txn").length();
+            if (id == markedLog.getLogFileId()) {
+                bytes -= markedLog.getLogFileOffset();
+            }
+        }
+        return Math.max(0, bytes);
+    }
+
+    /**
+     * Read the journal files of a journal, and hand their records to the appliers.
+     *
+     * @return the id of the last journal file read and the offset up to which it has been read
+     */
+    private long[] read(Journal journal, List<Long> ids, OrderedExecutor appliers) throws IOException {
+        try {
+            return readJournalFiles(journal, ids, appliers);
+        } finally {
+            runningReaders.decrementAndGet();
+        }
+    }
+
+    private long[] readJournalFiles(Journal journal, List<Long> ids, OrderedExecutor appliers) throws IOException {
+        LogMark markedLog = journal.getLastLogMark().getCurMark();
+        long[] replayedMark = null;
+        for (Long id : ids) {
+            long logPosition = 0L;
+            if (id == markedLog.getLogFileId()) {
+                logPosition = markedLog.getLogFileOffset();
+            }
+            LOG.info("Replaying journal {} from position {}", id, logPosition);
+            long[] lastOffset = { logPosition };
+            long scanOffset = journal.scanJournal(id, logPosition, (journalVersion, offset, recBuff) -> {
+                if (failure.get() != null) {
+                    throw new IOException("Journal replay aborted", failure.get());
+                }
+                int len = recBuff.remaining();
+                try {
+                    memoryLimitController.reserveMemory(len);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while replaying journal " + id, e);
+                }
+                // the buffer is reused by the scanner
+                ByteBuffer copy = ByteBuffer.allocate(len);
+                copy.put(recBuff);
+                copy.flip();
+
+                long ledgerId = copy.getLong(0);
+                // The records of the journals which are done were handed to the appliers before this one. If all the
+                // other journals are done, a master key still missing when this record is applied won't come.
+                boolean mayGetMasterKey = runningReaders.get() > 1;
+                Record record = new Record(journalVersion, offset, copy, mayGetMasterKey);
+                pendingRecords.incrementAndGet();
+                appliers.executeOrdered(ledgerId, () -> apply(ledgerId, record));
+
+                // 4 bytes for the length of the record
+                long readBytes = offset + 4 + len - lastOffset[0];
+                lastOffset[0] = offset + 4 + len;
+                replayedBytes.add(readBytes);
+                remainingBytes.addAndGet(-readBytes);
+            });
+            replayedMark = new long[] { id, scanOffset };
+        }
+        return replayedMark;
+    }
+
+    private void apply(long ledgerId, Record record) {
+        boolean deferred = false;
+        try {
+            if (failure.get() != null) {
+                return;
+            }
+            if (record.isMasterKey()) {
+                deletedLedgers.remove(ledgerId);
+            } else if (deletedLedgers.contains(ledgerId)) {
+                return;
+            }
+            List<Record> waiting = deferredRecords.get(ledgerId);
+            if (waiting != null && !record.isMasterKey()) {
+                // keep the ledger records in order until its master key is applied
+                defer(ledgerId, record);
+                deferred = true;
+                return;
+            }
+            if (!tryApply(record)) {
+                if (record.mayGetMasterKey) {
+                    defer(ledgerId, record);
+                    deferred = true;
+                } else {
+                    dropDeletedLedger(ledgerId);
+                }
+                return;
+            }
+            if (waiting != null) {
+                // the master key is now known, apply the records that were waiting for it
+                deferredRecords.remove(ledgerId);
+                for (Record r : waiting) {
+                    try {
+                        if (!tryApply(r)) {
+                            throw new IOException("Unknown master key of ledger " + ledgerId + " after replaying it");
+                        }
+                    } finally {
+                        deferredBytes.addAndGet(-r.size());
+                        memoryLimitController.releaseMemory(r.size());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to replay a record of ledger {}", ledgerId, e);
+            failure.compareAndSet(null, e);
+        } finally {
+            if (!deferred) {
+                memoryLimitController.releaseMemory(record.size());
+            }
+            recordProcessed();
+        }
+    }
+
+    /**
+     * Apply a record to the ledger storage.
+     *
+     * @return false if the master key of the ledger of the record is unknown
+     */
+    private boolean tryApply(Record record) throws IOException {
+        try {
+            applier.process(record.journalVersion, record.offset, record.data.duplicate());
+            replayedEntries.inc();
+            return true;
+        } catch (NoLedgerException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Keep a record aside until the master key of its ledger is applied. The record keeps its memory reservation.
+     */
+    private void defer(long ledgerId, Record record) throws IOException {
+        if (deferredBytes.addAndGet(record.size()) > maxDeferredBytes) {
+            deferredBytes.addAndGet(-record.size());
+            throw new IOException("The records waiting for the master key of their ledger take more than half of "
+                    + "journalMaxMemorySizeMb, while deferring a record of ledger " + ledgerId);
+        }
+        deferredRecords.computeIfAbsent(ledgerId, k -> new ArrayList<>()).add(record);
+    }
+
+    private void dropDeletedLedger(long ledgerId) {
+        deletedLedgers.add(ledgerId);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Skip replaying entries of ledger {} since it was deleted.", ledgerId);
+        }
+    }
+
+    private void recordProcessed() {
+        if (pendingRecords.decrementAndGet() == 0) {
+            allApplied.complete(null);
+        }
+    }
+
+    private void dropDeferredRecords() {
+        deferredRecords.forEach((ledgerId, records) -> {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Skip replaying {} records of ledger {} since it was deleted.", records.size(), ledgerId);
+            }
+            for (Record r : records) {
+                deferredBytes.addAndGet(-r.size());
+                memoryLimitController.releaseMemory(r.size());
+            }
+        });
+        deferredRecords.clear();
+    }
+
+    private <T> T waitFor(Future<T> task, long totalBytes, long startNanos) throws IOException {
+        while (true) {
+            try {
+                return task.get(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                logProgress(totalBytes, startNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while replaying journals", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Failed to replay journal", e.getCause());
+            }
+        }
+    }
+
+    private void logProgress(long totalBytes, long startNanos) {
+        long readBytes = totalBytes - remainingBytes.get();
+        double elapsedSeconds = Math.max(1, MathUtils.elapsedMSec(startNanos)) / 1000.0;
+        LOG.info("Journal replay : read {} of {} MB ({}%) at {} MB/s, {} records applied, {} pending",
+                readBytes / 1024 / 1024, totalBytes / 1024 / 1024,
+                totalBytes > 0 ? readBytes * 100 / totalBytes : 100,
+                String.format("%.1f", readBytes / 1024.0 / 1024.0 / elapsedSeconds),
+                replayedEntries.get(), pendingRecords.get());
+    }
+
+    private static final class Record {
+        private final int journalVersion;
+        private final long offset;
+        private final ByteBuffer data;
+        // whether another journal was still being read when the record was read
+        private final boolean mayGetMasterKey;
+
+        Record(int journalVersion, long offset, ByteBuffer data, boolean mayGetMasterKey) {
+            this.journalVersion = journalVersion;
+            this.offset = offset;
+            this.data = data;
+            this.mayGetMasterKey = mayGetMasterKey;
+        }
+
+        boolean isMasterKey() {
+            return data.getLong(8) == BookieImpl.METAENTRY_ID_LEDGER_KEY;
+        }
+
+        int size() {
+            return data.capacity();
+        }
+    }
+}
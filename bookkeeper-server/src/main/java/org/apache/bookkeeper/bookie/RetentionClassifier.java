@@ -0,0 +1,208 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+
+package org.apache.bookkeeper.bookie;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+
+/**
+ * Assigns ledgers to retention classes, so that entries expected to be deleted at about the same time are
+ * written to the same entry logs.
+ *
+ * <p>A ledger whose custom metadata has a {@link #RETENTION_CLASS_METADATA_KEY} is in the class given by its
+ * value, 0 being the shortest retention. Otherwise, its class is learned from its age, the time since its
+ * first entry was written to this bookie: it's in class 0 until it's {@code entryLogRetentionClassBaseAgeSeconds}
+ * old, and moves to the next class each time its age is multiplied by {@link #AGE_MULTIPLIER}. Ledgers which
+ * are deleted young thus don't share entry logs with ledgers which live long.
+ *
+ * <p>The class of a ledger only changes in {@link #reclassify(long)}, which callers must serialize with the
+ * writes of the ledger. The ledgers which haven't been written to for longer than it takes to reach the last
+ * class are forgotten, as they would be classified again from their next write.
+ */
+@Slf4j
+class RetentionClassifier {
+
+    static final String RETENTION_CLASS_METADATA_KEY = "bookkeeper.retention.class";
+    static final int AGE_MULTIPLIER = 4;
+
+    private static final class LedgerRetention {
+        private final long firstWriteNanos;
+        private volatile long lastWriteNanos;
+        // class from the ledger metadata, -1 if unknown
+        private volatile int hintedClass = -1;
+        private volatile int retentionClass = 0;
+
+        LedgerRetention(long nowNanos) {
+            this.firstWriteNanos = nowNanos;
+            this.lastWriteNanos = nowNanos;
+        }
+    }
+
+    private final int numClasses;
+    private final long baseAgeNanos;
+    private final long idleTimeoutNanos;
+    private final ConcurrentLongHashMap<LedgerRetention> ledgers;
+    private final Ticker ticker;
+    private volatile LedgerManager ledgerManager = null;
+
+    RetentionClassifier(ServerConfiguration conf) {
+        this(conf, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    RetentionClassifier(ServerConfiguration conf, Ticker ticker) {
+        this.ticker = ticker;
+        this.numClasses = conf.getEntryLogRetentionClasses();
+        this.baseAgeNanos = TimeUnit.SECONDS.toNanos(conf.getEntryLogRetentionClassBaseAgeSeconds());
+        long lastClassAgeNanos = baseAgeNanos;
+        for (int i = 2; i < numClasses; i++) {
+            lastClassAgeNanos *= AGE_MULTIPLIER;
+        }
+        this.idleTimeoutNanos = lastClassAgeNanos;
+        this.ledgers = ConcurrentLongHashMap.<LedgerRetention>newBuilder()
+                .expectedItems(1024)
+                .concurrencyLevel(16)
+                .build();
+    }
+
+    /**
+     * Set the ledger manager to read the retention class hints from.
+     */
+    void setLedgerManager(LedgerManager ledgerManager) {
+        this.ledgerManager = ledgerManager;
+    }
+
+    int getNumClasses() {
+        return numClasses;
+    }
+
+    /**
+     * Get the current retention class of a ledger.
+     */
+    int getRetentionClass(long ledgerId) {
+        return getLedgerRetention(ledgerId).retentionClass;
+    }
+
+    /**
+     * Record a write to a ledger, and update its retention class.
+     *
+     * @return true if the retention class of the ledger changed
+     */
+    boolean reclassify(long ledgerId) {
+        LedgerRetention retention = getLedgerRetention(ledgerId);
+        long now = ticker.read();
+        retention.lastWriteNanos = now;
+        int retentionClass = retention.hintedClass;
+        if (retentionClass < 0) {
+            retentionClass = getClassOfAge(now - retention.firstWriteNanos);
+        }
+        if (retentionClass == retention.retentionClass) {
+            return false;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Ledger {} moves from retention class {} to {}", ledgerId, retention.retentionClass,
+                    retentionClass);
+        }
+        retention.retentionClass = retentionClass;
+        return true;
+    }
+
+    private int getClassOfAge(long ageNanos) {
+        long classAgeNanos = baseAgeNanos;
+        for (int i = 0; i < numClasses - 1; i++) {
+            if (ageNanos < classAgeNanos) {
+                return i;
+            }
+            classAgeNanos *= AGE_MULTIPLIER;
+        }
+        return numClasses - 1;
+    }
+
+    private LedgerRetention getLedgerRetention(long ledgerId) {
+        LedgerRetention retention = ledgers.get(ledgerId);
+        if (retention == null) {
+            LedgerRetention newRetention = new LedgerRetention(ticker.read());
+            retention = ledgers.putIfAbsent(ledgerId, newRetention);
+            if (retention == null) {
+                retention = newRetention;
+                readHint(ledgerId, retention);
+            }
+        }
+        return retention;
+    }
+
+    private void readHint(long ledgerId, LedgerRetention retention) {
+        LedgerManager lm = ledgerManager;
+        if (lm == null) {
+            return;
+        }
+        lm.readLedgerMetadata(ledgerId).whenComplete((metadata, cause) -> {
+            if (cause != null) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to read the metadata of ledger {} for its retention class", ledgerId, cause);
+                }
+                return;
+            }
+            byte[] hint = metadata.getValue().getCustomMetadata().get(RETENTION_CLASS_METADATA_KEY);
+            if (hint == null) {
+                return;
+            }
+            try {
+                int hintedClass = Integer.parseInt(new String(hint, UTF_8).trim());
+                retention.hintedClass = Math.max(0, Math.min(numClasses - 1, hintedClass));
+            } catch (NumberFormatException e) {
+                log.warn("Invalid retention class of ledger {} : {}", ledgerId, new String(hint, UTF_8));
+            }
+        });
+    }
+
+    /**
+     * Call the given consumer with each ledger which hasn't been written to for a long time. The consumer is
+     * expected to serialize with the writes of the ledger and call {@link #removeIfIdle(long)}.
+     */
+    void forEachIdleLedger(LongConsumer consumer) {
+        List<Long> idleLedgers = new ArrayList<>();
+        ledgers.forEach((ledgerId, retention) -> {
+            if (ticker.read() - retention.lastWriteNanos > idleTimeoutNanos) {
+                idleLedgers.add(ledgerId);
+            }
+        });
+        idleLedgers.forEach(consumer::accept);
+    }
+
+    void removeIfIdle(long ledgerId) {
+        LedgerRetention retention = ledgers.get(ledgerId);
+        if (retention != null && ticker.read() - retention.lastWriteNanos > idleTimeoutNanos) {
+            ledgers.remove(ledgerId, retention);
+        }
+    }
+}
@@ -60,7 +60,16 @@ public class TransactionalEntryLogCompactor extends AbstractLogCompactor {
             EntryLogger entryLogger,
             CompactableLedgerStorage ledgerStorage,
             LogRemovalListener logRemover) {
-        super(conf, logRemover);
+        this(conf, entryLogger, ledgerStorage, null, logRemover);
+    }
+
+    public TransactionalEntryLogCompactor(
+            ServerConfiguration conf,
+            EntryLogger entryLogger,
+            CompactableLedgerStorage ledgerStorage,
+            CompactionScheduler compactionScheduler,
+            LogRemovalListener logRemover) {
+        super(conf, compactionScheduler, logRemover);
         this.entryLogger = entryLogger;
         this.ledgerStorage = ledgerStorage;
     }
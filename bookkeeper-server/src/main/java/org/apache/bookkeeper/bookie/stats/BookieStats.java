@@ -22,6 +22,7 @@ package org.apache.bookkeeper.bookie.stats;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ADD_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_ADD_ENTRY;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_ADD_ENTRY_BYTES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_ADD_ENTRY_SKIP_JOURNAL;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_FORCE_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_GET_LIST_OF_ENTRIES_OF_LEDGER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_READ_ENTRY;
@@ -62,6 +63,8 @@ public class BookieStats {
     private final Counter readBytes;
     @StatsDoc(name = BOOKIE_FORCE_LEDGER, help = "total force operations occurred on a bookie")
     private final Counter forceLedgerOps;
+    @StatsDoc(name = BOOKIE_ADD_ENTRY_SKIP_JOURNAL, help = "total entries added to a bookie without journaling them")
+    private final Counter skipJournalAddEntries;
     // Bookie Operation Latency Stats
     @StatsDoc(
         name = BOOKIE_ADD_ENTRY,
@@ -98,6 +101,7 @@ public class BookieStats {
         writeBytes = statsLogger.getCounter(WRITE_BYTES);
         readBytes = statsLogger.getCounter(READ_BYTES);
         forceLedgerOps = statsLogger.getCounter(BOOKIE_FORCE_LEDGER);
+        skipJournalAddEntries = statsLogger.getCounter(BOOKIE_ADD_ENTRY_SKIP_JOURNAL);
         addEntryStats = statsLogger.getOpStatsLogger(BOOKIE_ADD_ENTRY);
         recoveryAddEntryStats = statsLogger.getOpStatsLogger(BOOKIE_RECOVERY_ADD_ENTRY);
         readEntryStats = statsLogger.getOpStatsLogger(BOOKIE_READ_ENTRY);
@@ -25,6 +25,7 @@ import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ACTIVE_LEDGER_C
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.DELETED_LEDGER_COUNT;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.ENTRY_LOG_USAGE;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MAJOR_COMPACTION_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.MINOR_COMPACTION_COUNT;
 import static org.apache.bookkeeper.bookie.BookKeeperServerStats.RECLAIMED_COMPACTION_SPACE_BYTES;
@@ -81,6 +82,11 @@ public class GarbageCollectorStats {
         help = "Operation stats of garbage collections"
     )
     private final OpStatsLogger gcThreadRuntime;
+    @StatsDoc(
+        name = ENTRY_LOG_USAGE,
+        help = "Distribution of the percentage of live data in the entry logs, sampled at each compaction"
+    )
+    private final OpStatsLogger entryLogUsageStats;
     @StatsDoc(
         name = ACTIVE_ENTRY_LOG_COUNT,
         help = "Current number of active entry log files"
@@ -108,6 +114,7 @@ public class GarbageCollectorStats {
         this.reclaimedSpaceViaCompaction = statsLogger.getCounter(RECLAIMED_COMPACTION_SPACE_BYTES);
         this.reclaimedSpaceViaDeletes = statsLogger.getCounter(RECLAIMED_DELETION_SPACE_BYTES);
         this.gcThreadRuntime = statsLogger.getOpStatsLogger(THREAD_RUNTIME);
+        this.entryLogUsageStats = statsLogger.getOpStatsLogger(ENTRY_LOG_USAGE);
         this.deletedLedgerCounter = statsLogger.getCounter(DELETED_LEDGER_COUNT);
 
         this.activeEntryLogCountGauge = new Gauge<Integer>() {
@@ -21,8 +21,10 @@
 package org.apache.bookkeeper.bookie.storage;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
 import org.apache.bookkeeper.bookie.AbstractLogCompactor;
 import org.apache.bookkeeper.bookie.Bookie.NoEntryException;
 import org.apache.bookkeeper.bookie.EntryLogMetadata;
@@ -67,6 +69,22 @@ public interface EntryLogger extends AutoCloseable {
     ByteBuf readEntry(long ledgerId, long entryId, long entryLocation)
             throws IOException, NoEntryException;
 
+    /**
+     * Get the region of the entry log file holding an entry, and verify that it
+     * matches the expected ledger and entry ID, so that the entry can be sent
+     * without being read into memory.
+     * @param ledgerId the ledgerID to match
+     * @param entryId the entryID to match
+     * @param entryLocation the location of the entry, which must have been flushed
+     * @param minEntrySize the minimum size of the entries to get the region of
+     * @return the region of the entry, or null if the entry is smaller than
+     *         minEntrySize or the entry logger can't provide regions
+     */
+    default FileRegion readEntryRegion(long ledgerId, long entryId, long entryLocation, int minEntrySize)
+            throws IOException, NoEntryException {
+        return null;
+    }
+
     /**
      * Flush any outstanding writes to disk.
      */
@@ -119,6 +137,16 @@ public interface EntryLogger extends AutoCloseable {
      */
     EntryLogMetadata getEntryLogMetadata(long entryLogId, AbstractLogCompactor.Throttler throttler) throws IOException;
 
+    /**
+     * Take the metadata of the logs which have been flushed since the last call.
+     * The metadata is the one tracked while writing the logs, so that it doesn't
+     * need to be read back from them. Logs whose metadata isn't returned here
+     * are still listed by {@link #getFlushedLogIds()}.
+     */
+    default Collection<EntryLogMetadata> drainFlushedLogsMetadata() {
+        return Collections.emptyList();
+    }
+
     /**
      * Check whether an entrylog with the given ID exists.
      */
@@ -0,0 +1,115 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_ADD_ENTRY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_READ_ENTRY;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.BOOKIE_SCOPE;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.CATEGORY_SERVER;
+
+import lombok.Getter;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.stats.annotations.StatsDoc;
+
+/**
+ * A umbrella class for direct entry logger stats.
+ */
+@StatsDoc(
+    name = BOOKIE_SCOPE,
+    category = CATEGORY_SERVER,
+    help = "Direct entry logger stats"
+)
+@Getter
+class DirectEntryLoggerStats {
+    private static final String ADD_ENTRY = "entrylog-add-entry";
+    private static final String READ_ENTRY = "entrylog-read-entry";
+    private static final String FLUSH = "entrylog-flush";
+    private static final String WRITER_FLUSH = "entrylog-writer-flush";
+    private static final String READ_BLOCK = "entrylog-read-block";
+    private static final String READER_OPEN = "entrylog-open-reader";
+    private static final String READER_CLOSE = "entrylog-close-reader";
+    private static final String CACHED_READER_SERVED_CLOSED = "entrylog-cached-reader-closed";
+
+    @StatsDoc(
+        name = ADD_ENTRY,
+        help = "Operation stats of adding entries to the entry log",
+        parent = BOOKIE_ADD_ENTRY
+    )
+    private final OpStatsLogger addEntryStats;
+
+    @StatsDoc(
+        name = READ_ENTRY,
+        help = "Operation stats of reading entries from the entry log",
+        parent = BOOKIE_READ_ENTRY
+    )
+    private final OpStatsLogger readEntryStats;
+
+    @StatsDoc(
+        name = FLUSH,
+        help = "Stats for persisting outstanding entrylog writes to disk"
+    )
+    private final OpStatsLogger flushStats;
+
+    @StatsDoc(
+        name = WRITER_FLUSH,
+        help = "Stats for persisting outstanding entrylog writes for a single writer"
+    )
+    private final OpStatsLogger writerFlushStats;
+
+    @StatsDoc(
+        name = READ_BLOCK,
+        help = "Stats for read blocks from the disk"
+    )
+    private final OpStatsLogger readBlockStats;
+
+    @StatsDoc(
+        name = READER_OPEN,
+        help = "Stats for reader open operations"
+    )
+    private final Counter openReaderCounter;
+
+    @StatsDoc(
+        name = READER_CLOSE,
+        help = "Stats for reader close operations"
+    )
+    private final Counter closeReaderCounter;
+
+    @StatsDoc(
+        name = CACHED_READER_SERVED_CLOSED,
+        help = "Stats for cached readers being served closed"
+    )
+    private final Counter cachedReadersServedClosedCounter;
+
+    DirectEntryLoggerStats(StatsLogger stats) {
+        addEntryStats = stats.getOpStatsLogger(ADD_ENTRY);
+
+        readEntryStats = stats.getOpStatsLogger(READ_ENTRY);
+        flushStats = stats.getOpStatsLogger(FLUSH);
+        writerFlushStats = stats.getOpStatsLogger(WRITER_FLUSH);
+        readBlockStats = stats.getOpStatsLogger(READ_BLOCK);
+
+        openReaderCounter = stats.getCounter(READER_OPEN);
+        closeReaderCounter = stats.getCounter(READER_CLOSE);
+        cachedReadersServedClosedCounter = stats.getCounter(CACHED_READER_SERVED_CLOSED);
+    }
+}
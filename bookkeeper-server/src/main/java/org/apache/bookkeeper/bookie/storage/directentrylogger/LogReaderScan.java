@@ -0,0 +1,74 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.IOException;
+import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
+
+/**
+ * Scans all the entries of a log through a {@link LogReader}.
+ */
+class LogReaderScan {
+    static void scan(ByteBufAllocator allocator, LogReader reader, EntryLogScanner scanner) throws IOException {
+        // Legacy logs start their entries right after the 1K header. Logs written with direct I/O
+        // have a dummy entry at that position which skips to the end of the aligned header block.
+        int offset = Header.LOGFILE_LEGACY_HEADER_SIZE;
+
+        // Start with a reasonably sized buffer size, it will grow as needed
+        ByteBuf entry = allocator.directBuffer(1024 * 1024);
+
+        try {
+            while (offset < reader.maxOffset()) {
+                int size = reader.readIntAt(offset);
+                if (size < 0) {
+                    // padding, skip it
+                    if (Buffer.isAligned(offset)) {
+                        // padding never starts on a block boundary, so this is the ledgers map
+                        // trailer or a corrupt entry. Either way, there are no more entries.
+                        break;
+                    }
+                    offset = Buffer.nextAlignment(offset);
+                    continue;
+                } else if (size == 0) {
+                    // preallocated space not yet written, we've reached the end of the log
+                    break;
+                } else if (offset + Integer.BYTES + (long) size > reader.maxOffset()) {
+                    // the entry is truncated, most likely the bookie crashed while writing it
+                    break;
+                }
+
+                long ledgerId = reader.readLongAt(offset + Integer.BYTES);
+                if (ledgerId == LogMetadata.INVALID_LID || !scanner.accept(ledgerId)) {
+                    offset += size + Integer.BYTES;
+                    continue;
+                }
+                entry.clear();
+                reader.readIntoBufferAt(entry, offset + Integer.BYTES, size);
+                scanner.process(ledgerId, offset, entry);
+                offset += size + Integer.BYTES;
+            }
+        } finally {
+            entry.release();
+        }
+    }
+}
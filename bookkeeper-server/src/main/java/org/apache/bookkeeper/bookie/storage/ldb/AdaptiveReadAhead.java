@@ -0,0 +1,136 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashMap;
+
+/**
+ * Sizes the read-ahead done after a read cache miss, based on how each ledger is being read.
+ *
+ * <p>A ledger whose reads keep following the previous one is read sequentially, and its
+ * read-ahead window doubles at every miss, up to the max batch size. A miss that does not
+ * follow the previous read is random access and resets the window to zero, so that random
+ * readers don't pay for reading entries they will not use. The next sequential miss
+ * restarts from the initial batch size.
+ */
+class AdaptiveReadAhead {
+
+    static final long STALE_TIME_NANOS =
+            TimeUnit.MINUTES.toNanos(TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES);
+
+    private final int initialBatchSize;
+    private final int maxBatchSize;
+    private final boolean adaptive;
+    private final Ticker ticker;
+
+    private final ConcurrentLongHashMap<ReadPattern> ledgers;
+
+    /**
+     * Access pattern of a single ledger.
+     */
+    private static class ReadPattern {
+        long lastEntryId;
+        int window;
+        long lastAccessedNanos;
+
+        ReadPattern(long entryId, int window) {
+            this.lastEntryId = entryId;
+            this.window = window;
+        }
+    }
+
+    AdaptiveReadAhead(int initialBatchSize, int maxBatchSize, boolean adaptive) {
+        this(initialBatchSize, maxBatchSize, adaptive, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    AdaptiveReadAhead(int initialBatchSize, int maxBatchSize, boolean adaptive, Ticker ticker) {
+        this.initialBatchSize = initialBatchSize;
+        this.maxBatchSize = Math.max(initialBatchSize, maxBatchSize);
+        this.adaptive = adaptive;
+        this.ticker = ticker;
+        this.ledgers = ConcurrentLongHashMap.<ReadPattern>newBuilder()
+                .expectedItems(1024)
+                .concurrencyLevel(Runtime.getRuntime().availableProcessors() * 2)
+                .build();
+    }
+
+    /**
+     * Record a read served by the read cache.
+     */
+    void recordHit(long ledgerId, long entryId) {
+        if (!adaptive) {
+            return;
+        }
+        ReadPattern pattern = ledgers.get(ledgerId);
+        if (pattern != null) {
+            synchronized (pattern) {
+                pattern.lastEntryId = Math.max(pattern.lastEntryId, entryId);
+                pattern.lastAccessedNanos = ticker.read();
+            }
+        }
+    }
+
+    /**
+     * Record a read that missed the read cache.
+     *
+     * @return the number of entries to read ahead after {@code entryId}
+     */
+    int recordMiss(long ledgerId, long entryId) {
+        if (!adaptive) {
+            return initialBatchSize;
+        }
+        ReadPattern pattern = ledgers.get(ledgerId);
+        if (pattern == null) {
+            // First read on this ledger, give it the benefit of the doubt
+            pattern = ledgers.computeIfAbsent(ledgerId, l -> new ReadPattern(entryId - 1, 0));
+        }
+
+        synchronized (pattern) {
+            pattern.lastAccessedNanos = ticker.read();
+            boolean sequential = entryId == pattern.lastEntryId + 1;
+            pattern.lastEntryId = entryId;
+            if (!sequential) {
+                pattern.window = 0;
+            } else if (pattern.window == 0) {
+                pattern.window = initialBatchSize;
+            } else {
+                pattern.window = (int) Math.min((long) pattern.window * 2, maxBatchSize);
+            }
+            return pattern.window;
+        }
+    }
+
+    void removeLedger(long ledgerId) {
+        ledgers.remove(ledgerId);
+    }
+
+    /**
+     * Forget the ledgers that were not read recently.
+     */
+    void removeStaleLedgers() {
+        long staleTimeNanos = ticker.read() - STALE_TIME_NANOS;
+        ledgers.removeIf((ledgerId, pattern) -> pattern.lastAccessedNanos - staleTimeNanos < 0);
+    }
+}
@@ -24,6 +24,7 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 import io.netty.util.internal.PlatformDependent;
 // CHECKSTYLE.ON: IllegalImport
 
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 /**
@@ -69,4 +70,24 @@ class ArrayUtil {
     public static final boolean isArrayAllZeros(final byte[] array) {
         return PlatformDependent.isZero(array, 0, array.length);
     }
+
+    /**
+     * Copy the remaining bytes of the buffer into a new array, leaving the buffer unchanged.
+     */
+    public static byte[] toArray(ByteBuffer buffer) {
+        byte[] array = new byte[buffer.remaining()];
+        buffer.duplicate().get(array);
+        return array;
+    }
+
+    /**
+     * Copy the array at the position of the buffer, setting the limit of the buffer to the end of
+     * the copied data. Only what fits in the buffer is copied.
+     */
+    static void copyTo(byte[] array, ByteBuffer buffer) {
+        int length = Math.min(array.length, buffer.remaining());
+        ByteBuffer dup = buffer.duplicate();
+        dup.put(array, 0, length);
+        buffer.limit(buffer.position() + length);
+    }
 }
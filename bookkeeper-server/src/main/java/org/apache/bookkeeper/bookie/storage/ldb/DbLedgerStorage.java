@@ -28,6 +28,7 @@ import com.google.common.collect.Lists;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.FileRegion;
 import io.netty.util.concurrent.DefaultThreadFactory;
 //CHECKSTYLE.OFF: IllegalImport
 import io.netty.util.internal.PlatformDependent;
@@ -39,6 +40,7 @@ import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.PrimitiveIterator.OfLong;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 
@@ -49,18 +51,26 @@ import org.apache.bookkeeper.bookie.BookieException;
 import org.apache.bookkeeper.bookie.CheckpointSource;
 import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
 import org.apache.bookkeeper.bookie.Checkpointer;
+import org.apache.bookkeeper.bookie.CompactionScheduler;
+import org.apache.bookkeeper.bookie.DefaultEntryLogger;
 import org.apache.bookkeeper.bookie.GarbageCollectionStatus;
 import org.apache.bookkeeper.bookie.LastAddConfirmedUpdateNotification;
 import org.apache.bookkeeper.bookie.LedgerCache;
 import org.apache.bookkeeper.bookie.LedgerDirsManager;
 import org.apache.bookkeeper.bookie.LedgerStorage;
 import org.apache.bookkeeper.bookie.StateManager;
+import org.apache.bookkeeper.bookie.storage.EntryLogIdsImpl;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.bookie.storage.directentrylogger.DirectEntryLogger;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
 import org.apache.bookkeeper.bookie.storage.ldb.SingleDirectoryDbLedgerStorage.LedgerLoggerProcessor;
 import org.apache.bookkeeper.common.util.MathUtils;
 import org.apache.bookkeeper.common.util.Watcher;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.slogger.Slogger;
+import org.apache.bookkeeper.slogger.slf4j.Slf4jSlogger;
 import org.apache.bookkeeper.stats.Gauge;
 import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.stats.StatsLogger;
@@ -88,8 +98,42 @@ public class DbLedgerStorage implements LedgerStorage {
     private static final long DEFAULT_READ_CACHE_MAX_SIZE_MB = (long) (0.25 * PlatformDependent.maxDirectMemory())
             / MB;
 
+    static final String ENTRY_LOCATION_CACHE_MAX_SIZE_MB = "dbStorage_entryLocationCacheMaxSizeMb";
+    private static final long DEFAULT_ENTRY_LOCATION_CACHE_MAX_SIZE_MB =
+            (long) (0.05 * PlatformDependent.maxDirectMemory()) / MB;
+
     static final String READ_AHEAD_CACHE_BATCH_SIZE = "dbStorage_readAheadCacheBatchSize";
     private static final int DEFAULT_READ_AHEAD_CACHE_BATCH_SIZE = 100;
+    static final String READ_AHEAD_CACHE_MAX_BATCH_SIZE = "dbStorage_readAheadCacheMaxBatchSize";
+    static final String READ_AHEAD_ADAPTIVE = "dbStorage_readAheadAdaptive";
+    static final String READ_AHEAD_THREADS = "dbStorage_readAheadThreads";
+    static final int DEFAULT_READ_AHEAD_THREADS = 1;
+    static final String READ_AHEAD_QUEUE_SIZE = "dbStorage_readAheadQueueSize";
+    static final int DEFAULT_READ_AHEAD_QUEUE_SIZE = 1024;
+
+    static final String WRITE_CACHE_GENERATIONS = "dbStorage_writeCacheGenerations";
+    static final int DEFAULT_WRITE_CACHE_GENERATIONS = 2;
+
+    static final String READ_CACHE_POLICY = "dbStorage_readCachePolicy";
+    static final String READ_CACHE_READ_AHEAD_FRACTION = "dbStorage_readCacheReadAheadFraction";
+    static final double DEFAULT_READ_CACHE_READ_AHEAD_FRACTION = 0.25;
+
+    static final String DIRECT_IO_ENTRYLOGGER = "dbStorage_directIOEntryLogger";
+    static final String DIRECT_IO_ENTRYLOGGER_TOTAL_WRITEBUFFER_SIZE_MB =
+            "dbStorage_directIOEntryLoggerTotalWriteBufferSizeMB";
+    static final String DIRECT_IO_ENTRYLOGGER_TOTAL_READBUFFER_SIZE_MB =
+            "dbStorage_directIOEntryLoggerTotalReadBufferSizeMB";
+    static final String DIRECT_IO_ENTRYLOGGER_READBUFFER_SIZE_MB =
+            "dbStorage_directIOEntryLoggerReadBufferSizeMB";
+    static final String DIRECT_IO_ENTRYLOGGER_MAX_FD_CACHE_TIME_SECONDS =
+            "dbStorage_directIOEntryLoggerMaxFdCacheTimeSeconds";
+
+    private static final long DEFAULT_DIRECT_IO_TOTAL_WRITEBUFFER_SIZE_MB =
+            (long) (0.125 * PlatformDependent.maxDirectMemory()) / MB;
+    private static final long DEFAULT_DIRECT_IO_TOTAL_READBUFFER_SIZE_MB =
+            (long) (0.125 * PlatformDependent.maxDirectMemory()) / MB;
+    private static final long DEFAULT_DIRECT_IO_READBUFFER_SIZE_MB = 8;
+    private static final int DEFAULT_DIRECT_IO_MAX_FD_CACHE_TIME_SECONDS = 300;
 
     // use the storage assigned to ledger 0 for flags.
     // if the storage configuration changes, the flags may be lost
@@ -101,6 +145,13 @@ public class DbLedgerStorage implements LedgerStorage {
     // Keep 1 single Bookie GC thread so the the compactions from multiple individual directories are serialized
     private ScheduledExecutorService gcExecutor;
 
+    // Shared by the garbage collector threads of all the ledger directories
+    private CompactionScheduler compactionScheduler;
+
+    // Shared by the direct I/O entry loggers of all the directories, if enabled
+    private ExecutorService entryLoggerWriteExecutor = null;
+    private ExecutorService entryLoggerFlushExecutor = null;
+
     protected ByteBufAllocator allocator;
 
     // parent DbLedgerStorage stats (not per directory)
@@ -127,6 +178,8 @@ public class DbLedgerStorage implements LedgerStorage {
                 DEFAULT_WRITE_CACHE_MAX_SIZE_MB) * MB;
         long readCacheMaxSize = getLongVariableOrDefault(conf, READ_AHEAD_CACHE_MAX_SIZE_MB,
                 DEFAULT_READ_CACHE_MAX_SIZE_MB) * MB;
+        long entryLocationCacheMaxSize = getLongVariableOrDefault(conf, ENTRY_LOCATION_CACHE_MAX_SIZE_MB,
+                DEFAULT_ENTRY_LOCATION_CACHE_MAX_SIZE_MB) * MB;
 
         this.allocator = allocator;
         this.numberOfDirs = ledgerDirsManager.getAllLedgerDirs().size();
@@ -135,16 +188,33 @@ public class DbLedgerStorage implements LedgerStorage {
         log.info(" - Number of directories: {}", numberOfDirs);
         log.info(" - Write cache size: {} MB", writeCacheMaxSize / MB);
         log.info(" - Read Cache: {} MB", readCacheMaxSize / MB);
+        log.info(" - Entry location cache: {} MB", entryLocationCacheMaxSize / MB);
+
+        boolean directIOEntryLogger = conf.getBoolean(DIRECT_IO_ENTRYLOGGER, false);
+        long directIOWriteBufferSize = getLongVariableOrDefault(conf,
+                DIRECT_IO_ENTRYLOGGER_TOTAL_WRITEBUFFER_SIZE_MB, DEFAULT_DIRECT_IO_TOTAL_WRITEBUFFER_SIZE_MB) * MB;
+        long directIOReadBufferSize = getLongVariableOrDefault(conf,
+                DIRECT_IO_ENTRYLOGGER_TOTAL_READBUFFER_SIZE_MB, DEFAULT_DIRECT_IO_TOTAL_READBUFFER_SIZE_MB) * MB;
+        if (directIOEntryLogger) {
+            log.info(" - Direct I/O entry logger write buffers: {} MB", directIOWriteBufferSize / MB);
+            log.info(" - Direct I/O entry logger read buffers: {} MB", directIOReadBufferSize / MB);
+        }
 
-        if (readCacheMaxSize + writeCacheMaxSize > PlatformDependent.maxDirectMemory()) {
+        long totalDirectMemory = readCacheMaxSize + writeCacheMaxSize + entryLocationCacheMaxSize;
+        if (directIOEntryLogger) {
+            totalDirectMemory += directIOWriteBufferSize + directIOReadBufferSize;
+        }
+        if (totalDirectMemory > PlatformDependent.maxDirectMemory()) {
             throw new IOException("Read and write cache sizes exceed the configured max direct memory size");
         }
 
         long perDirectoryWriteCacheSize = writeCacheMaxSize / numberOfDirs;
         long perDirectoryReadCacheSize = readCacheMaxSize / numberOfDirs;
+        long perDirectoryEntryLocationCacheSize = entryLocationCacheMaxSize / numberOfDirs;
         int readAheadCacheBatchSize = conf.getInt(READ_AHEAD_CACHE_BATCH_SIZE, DEFAULT_READ_AHEAD_CACHE_BATCH_SIZE);
 
         gcExecutor = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("GarbageCollector"));
+        compactionScheduler = new CompactionScheduler(conf, statsLogger);
 
         ledgerStorageList = Lists.newArrayList();
         for (File ledgerDir : ledgerDirsManager.getAllLedgerDirs()) {
@@ -153,9 +223,17 @@ public class DbLedgerStorage implements LedgerStorage {
             // Remove the `/current` suffix which will be appended again by LedgersDirManager
             dirs[0] = ledgerDir.getParentFile();
             LedgerDirsManager ldm = new LedgerDirsManager(conf, dirs, ledgerDirsManager.getDiskChecker(), statsLogger);
+
+            EntryLogger entrylogger;
+            if (directIOEntryLogger) {
+                entrylogger = newDirectEntryLogger(conf, ldm, statsLogger, numberOfDirs,
+                        directIOWriteBufferSize, directIOReadBufferSize);
+            } else {
+                entrylogger = new DefaultEntryLogger(conf, ldm, null, statsLogger, allocator);
+            }
             ledgerStorageList.add(newSingleDirectoryDbLedgerStorage(conf, ledgerManager, ldm, indexDirsManager,
-                    statsLogger, gcExecutor, perDirectoryWriteCacheSize,
-                    perDirectoryReadCacheSize, readAheadCacheBatchSize));
+                    entrylogger, statsLogger, gcExecutor, compactionScheduler, perDirectoryWriteCacheSize,
+                    perDirectoryReadCacheSize, perDirectoryEntryLocationCacheSize, readAheadCacheBatchSize));
             ldm.getListeners().forEach(ledgerDirsManager::addLedgerDirsListener);
         }
 
@@ -187,14 +265,49 @@ public class DbLedgerStorage implements LedgerStorage {
         statsLogger.registerGauge(MAX_WRITE_CACHE_SIZE, writeCacheSizeGauge);
     }
 
+    private EntryLogger newDirectEntryLogger(ServerConfiguration conf, LedgerDirsManager ldm,
+            StatsLogger statsLogger, int numberOfDirs, long totalWriteBufferSize, long totalReadBufferSize)
+            throws IOException {
+        if (entryLoggerWriteExecutor == null) {
+            entryLoggerWriteExecutor = Executors.newSingleThreadExecutor(
+                    new DefaultThreadFactory("EntryLoggerWrite"));
+            entryLoggerFlushExecutor = Executors.newSingleThreadExecutor(
+                    new DefaultThreadFactory("EntryLoggerFlush"));
+        }
+
+        int readBufferSize = (int) getLongVariableOrDefault(conf, DIRECT_IO_ENTRYLOGGER_READBUFFER_SIZE_MB,
+                DEFAULT_DIRECT_IO_READBUFFER_SIZE_MB) * MB;
+        int maxFdCacheTimeSeconds = conf.getInt(DIRECT_IO_ENTRYLOGGER_MAX_FD_CACHE_TIME_SECONDS,
+                DEFAULT_DIRECT_IO_MAX_FD_CACHE_TIME_SECONDS);
+        // readers are cached per thread, so the read buffers are split across every thread that can read
+        int numReadThreads = conf.getNumReadWorkerThreads() + conf.getNumHighPriorityWorkerThreads() + 1;
+        Slogger slog = new Slf4jSlogger(DbLedgerStorage.class);
+
+        return new DirectEntryLogger(
+                Iterables.getOnlyElement(ldm.getAllLedgerDirs()),
+                new EntryLogIdsImpl(ldm, slog),
+                new NativeIOImpl(),
+                allocator, entryLoggerWriteExecutor, entryLoggerFlushExecutor,
+                conf.getEntryLogSizeLimit(),
+                conf.getNettyMaxFrameSizeBytes() - 500,
+                totalWriteBufferSize / numberOfDirs,
+                totalReadBufferSize / numberOfDirs,
+                readBufferSize,
+                numReadThreads,
+                maxFdCacheTimeSeconds,
+                slog, statsLogger);
+    }
+
     @VisibleForTesting
     protected SingleDirectoryDbLedgerStorage newSingleDirectoryDbLedgerStorage(ServerConfiguration conf,
             LedgerManager ledgerManager, LedgerDirsManager ledgerDirsManager, LedgerDirsManager indexDirsManager,
-            StatsLogger statsLogger, ScheduledExecutorService gcExecutor, long writeCacheSize, long readCacheSize,
-            int readAheadCacheBatchSize)
+            EntryLogger entryLogger, StatsLogger statsLogger, ScheduledExecutorService gcExecutor,
+            CompactionScheduler compactionScheduler, long writeCacheSize, long readCacheSize,
+            long entryLocationCacheSize, int readAheadCacheBatchSize)
             throws IOException {
         return new SingleDirectoryDbLedgerStorage(conf, ledgerManager, ledgerDirsManager, indexDirsManager,
-                                                  statsLogger, allocator, gcExecutor, writeCacheSize, readCacheSize,
+                                                  entryLogger, statsLogger, allocator, gcExecutor, compactionScheduler,
+                                                  writeCacheSize, readCacheSize, entryLocationCacheSize,
                                                   readAheadCacheBatchSize);
     }
 
@@ -221,6 +334,13 @@ public class DbLedgerStorage implements LedgerStorage {
         for (LedgerStorage ls : ledgerStorageList) {
             ls.shutdown();
         }
+
+        if (entryLoggerWriteExecutor != null) {
+            entryLoggerWriteExecutor.shutdown();
+        }
+        if (entryLoggerFlushExecutor != null) {
+            entryLoggerFlushExecutor.shutdown();
+        }
     }
 
     @Override
@@ -264,6 +384,12 @@ public class DbLedgerStorage implements LedgerStorage {
         return getLedgerStorage(ledgerId).getEntry(ledgerId, entryId);
     }
 
+    @Override
+    public FileRegion getEntryRegion(long ledgerId, long entryId, int minEntrySize)
+            throws IOException, BookieException {
+        return getLedgerStorage(ledgerId).getEntryRegion(ledgerId, entryId, minEntrySize);
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         return getLedgerStorage(ledgerId).getLastAddConfirmed(ledgerId);
@@ -419,6 +545,11 @@ public class DbLedgerStorage implements LedgerStorage {
             .map(single -> single.getGarbageCollectionStatus().get(0)).collect(Collectors.toList());
     }
 
+    @Override
+    public void onJournalSyncLatency(long latencyNanos) {
+        compactionScheduler.recordLatency(latencyNanos);
+    }
+
     static long getLongVariableOrDefault(ServerConfiguration conf, String keyName, long defaultValue) {
         Object obj = conf.getProperty(keyName);
         if (obj instanceof Number) {
@@ -41,7 +41,7 @@ import org.apache.bookkeeper.stats.annotations.StatsDoc;
     help = "DbLedgerStorage related stats"
 )
 @Getter
-class DbLedgerStorageStats {
+class DbLedgerStorageStats implements ReadCachePolicy.Stats {
 
     private static final String ADD_ENTRY = "add-entry";
     private static final String READ_ENTRY = "read-entry";
@@ -51,10 +51,21 @@ class DbLedgerStorageStats {
     private static final String WRITE_CACHE_MISSES = "write-cache-misses";
     private static final String READ_CACHE_HITS = "read-cache-hits";
     private static final String READ_CACHE_MISSES = "read-cache-misses";
+    private static final String READ_ENTRY_REGIONS = "read-entry-regions";
+    private static final String READ_CACHE_POLICY_LABEL = "readCachePolicy";
+    private static final String READ_CACHE_ADMITTED = "read-cache-admitted";
+    private static final String READ_CACHE_REJECTED = "read-cache-rejected";
+    private static final String READ_CACHE_EVICTED = "read-cache-evicted";
+    private static final String READ_CACHE_PROMOTED = "read-cache-promoted";
+    private static final String READAHEAD_CACHE_HITS = "readahead-cache-hits";
     private static final String READAHEAD_BATCH_COUNT = "readahead-batch-count";
     private static final String READAHEAD_BATCH_SIZE = "readahead-batch-size";
     private static final String READAHEAD_TIME = "readahead-time";
+    private static final String READAHEAD_SKIPPED = "readahead-skipped";
+    private static final String READAHEAD_DROPPED = "readahead-dropped";
+    private static final String READAHEAD_DEDUPLICATED = "readahead-deduplicated";
     private static final String FLUSH = "flush";
+    private static final String FLUSH_SORT = "flush-sort";
     private static final String FLUSH_ENTRYLOG = "flush-entrylog";
     private static final String FLUSH_LOCATIONS_INDEX = "flush-locations-index";
     private static final String FLUSH_LEDGER_INDEX = "flush-ledger-index";
@@ -118,6 +129,38 @@ class DbLedgerStorageStats {
         parent = READ_ENTRY
     )
     private final Counter readCacheMissCounter;
+    @StatsDoc(
+        name = READ_ENTRY_REGIONS,
+        help = "number of entries read as a region of their entry log file, to be sent without being copied",
+        parent = READ_ENTRY
+    )
+    private final Counter readEntryRegionCounter;
+    @StatsDoc(
+        name = READ_CACHE_ADMITTED,
+        help = "number of entries inserted in the read cache, labeled by read cache policy"
+    )
+    private final Counter readCacheAdmittedCounter;
+    @StatsDoc(
+        name = READ_CACHE_REJECTED,
+        help = "number of entries the read cache policy refused to cache"
+    )
+    private final Counter readCacheRejectedCounter;
+    @StatsDoc(
+        name = READ_CACHE_EVICTED,
+        help = "number of entries evicted from the read cache to make space for new ones"
+    )
+    private final Counter readCacheEvictedCounter;
+    @StatsDoc(
+        name = READ_CACHE_PROMOTED,
+        help = "number of read-ahead entries moved to the main read cache after being read"
+    )
+    private final Counter readCachePromotedCounter;
+    @StatsDoc(
+        name = READAHEAD_CACHE_HITS,
+        help = "number of read cache hits on entries loaded by read-ahead",
+        parent = READ_CACHE_HITS
+    )
+    private final Counter readAheadCacheHitCounter;
     @StatsDoc(
         name = READAHEAD_BATCH_COUNT,
         help = "the distribution of num of entries to read in one readahead batch"
@@ -133,11 +176,31 @@ class DbLedgerStorageStats {
             help = "Time spent on readahead operations"
     )
     private final Counter readAheadTime;
+    @StatsDoc(
+            name = READAHEAD_SKIPPED,
+            help = "number of read cache misses not followed by read-ahead, because the ledger is read randomly"
+    )
+    private final Counter readAheadSkippedCounter;
+    @StatsDoc(
+            name = READAHEAD_DROPPED,
+            help = "number of read-aheads dropped because the read-ahead queue was full"
+    )
+    private final Counter readAheadDroppedCounter;
+    @StatsDoc(
+            name = READAHEAD_DEDUPLICATED,
+            help = "number of read-aheads not scheduled because one was already pending for the same ledger"
+    )
+    private final Counter readAheadDeduplicatedCounter;
     @StatsDoc(
         name = FLUSH,
         help = "operation stats of flushing write cache to entry log files"
     )
     private final OpStatsLogger flushStats;
+    @StatsDoc(
+            name = FLUSH_SORT,
+            help = "operation stats of sorting the entries of a write cache before flushing it"
+    )
+    private final OpStatsLogger flushSortStats;
     @StatsDoc(
             name = FLUSH_ENTRYLOG,
             help = "operation stats of flushing to the current entry log file"
@@ -199,19 +262,31 @@ class DbLedgerStorageStats {
                          Supplier<Long> writeCacheSizeSupplier,
                          Supplier<Long> writeCacheCountSupplier,
                          Supplier<Long> readCacheSizeSupplier,
-                         Supplier<Long> readCacheCountSupplier) {
+                         Supplier<Long> readCacheCountSupplier,
+                         String readCachePolicy) {
         addEntryStats = stats.getThreadScopedOpStatsLogger(ADD_ENTRY);
         readEntryStats = stats.getThreadScopedOpStatsLogger(READ_ENTRY);
         readFromLocationIndexTime = stats.getThreadScopedCounter(READ_ENTRY_LOCATIONS_INDEX_TIME);
         readFromEntryLogTime = stats.getThreadScopedCounter(READ_ENTRYLOG_TIME);
         readCacheHitCounter = stats.getCounter(READ_CACHE_HITS);
         readCacheMissCounter = stats.getCounter(READ_CACHE_MISSES);
+        readEntryRegionCounter = stats.getCounter(READ_ENTRY_REGIONS);
+        StatsLogger readCachePolicyStats = stats.scopeLabel(READ_CACHE_POLICY_LABEL, readCachePolicy);
+        readCacheAdmittedCounter = readCachePolicyStats.getCounter(READ_CACHE_ADMITTED);
+        readCacheRejectedCounter = readCachePolicyStats.getCounter(READ_CACHE_REJECTED);
+        readCacheEvictedCounter = readCachePolicyStats.getCounter(READ_CACHE_EVICTED);
+        readCachePromotedCounter = readCachePolicyStats.getCounter(READ_CACHE_PROMOTED);
+        readAheadCacheHitCounter = readCachePolicyStats.getCounter(READAHEAD_CACHE_HITS);
         writeCacheHitCounter = stats.getCounter(WRITE_CACHE_HITS);
         writeCacheMissCounter = stats.getCounter(WRITE_CACHE_MISSES);
         readAheadBatchCountStats = stats.getOpStatsLogger(READAHEAD_BATCH_COUNT);
         readAheadBatchSizeStats = stats.getOpStatsLogger(READAHEAD_BATCH_SIZE);
         readAheadTime = stats.getThreadScopedCounter(READAHEAD_TIME);
+        readAheadSkippedCounter = stats.getCounter(READAHEAD_SKIPPED);
+        readAheadDroppedCounter = stats.getCounter(READAHEAD_DROPPED);
+        readAheadDeduplicatedCounter = stats.getCounter(READAHEAD_DEDUPLICATED);
         flushStats = stats.getOpStatsLogger(FLUSH);
+        flushSortStats = stats.getOpStatsLogger(FLUSH_SORT);
         flushEntryLogStats = stats.getOpStatsLogger(FLUSH_ENTRYLOG);
         flushLocationIndexStats = stats.getOpStatsLogger(FLUSH_LOCATIONS_INDEX);
         flushLedgerIndexStats = stats.getOpStatsLogger(FLUSH_LEDGER_INDEX);
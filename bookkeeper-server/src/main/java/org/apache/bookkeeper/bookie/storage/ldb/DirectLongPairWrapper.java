@@ -0,0 +1,85 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.util.Recycler;
+import io.netty.util.Recycler.Handle;
+import java.nio.ByteBuffer;
+
+/**
+ * Recyclable wrapper that holds a pair of longs in a direct buffer, to be passed to the
+ * {@link KeyValueStorage} methods taking {@link ByteBuffer}s.
+ */
+class DirectLongPairWrapper {
+
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(16);
+
+    public void set(long first, long second) {
+        buffer.clear();
+        buffer.putLong(0, first);
+        buffer.putLong(8, second);
+    }
+
+    public long getFirst() {
+        return buffer.getLong(0);
+    }
+
+    public long getSecond() {
+        return buffer.getLong(8);
+    }
+
+    /**
+     * Reset the buffer, to receive a key from the storage.
+     */
+    public ByteBuffer clear() {
+        buffer.clear();
+        return buffer;
+    }
+
+    public static DirectLongPairWrapper get() {
+        DirectLongPairWrapper lp = RECYCLER.get();
+        lp.buffer.clear();
+        return lp;
+    }
+
+    public static DirectLongPairWrapper get(long first, long second) {
+        DirectLongPairWrapper lp = RECYCLER.get();
+        lp.set(first, second);
+        return lp;
+    }
+
+    public void recycle() {
+        handle.recycle(this);
+    }
+
+    private static final Recycler<DirectLongPairWrapper> RECYCLER = new Recycler<DirectLongPairWrapper>() {
+        @Override
+        protected DirectLongPairWrapper newObject(Handle<DirectLongPairWrapper> handle) {
+            return new DirectLongPairWrapper(handle);
+        }
+    };
+
+    private final Handle<DirectLongPairWrapper> handle;
+
+    private DirectLongPairWrapper(Handle<DirectLongPairWrapper> handle) {
+        this.handle = handle;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.util.Recycler;
+import io.netty.util.Recycler.Handle;
+import java.nio.ByteBuffer;
+
+/**
+ * Wrapper for a long serialized into a direct buffer, to be passed to the
+ * {@link KeyValueStorage} methods taking {@link ByteBuffer}s.
+ */
+class DirectLongWrapper {
+
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+
+    public void set(long value) {
+        buffer.clear();
+        buffer.putLong(0, value);
+    }
+
+    public long getValue() {
+        return buffer.getLong(0);
+    }
+
+    /**
+     * Reset the buffer, to receive a value from the storage.
+     */
+    public ByteBuffer clear() {
+        buffer.clear();
+        return buffer;
+    }
+
+    public static DirectLongWrapper get() {
+        DirectLongWrapper lp = RECYCLER.get();
+        lp.buffer.clear();
+        return lp;
+    }
+
+    public static DirectLongWrapper get(long value) {
+        DirectLongWrapper lp = RECYCLER.get();
+        lp.set(value);
+        return lp;
+    }
+
+    public void recycle() {
+        handle.recycle(this);
+    }
+
+    private static final Recycler<DirectLongWrapper> RECYCLER = new Recycler<DirectLongWrapper>() {
+        @Override
+        protected DirectLongWrapper newObject(Handle<DirectLongWrapper> handle) {
+            return new DirectLongWrapper(handle);
+        }
+    };
+
+    private final Handle<DirectLongWrapper> handle;
+
+    private DirectLongWrapper(Handle<DirectLongWrapper> handle) {
+        this.handle = handle;
+    }
+}
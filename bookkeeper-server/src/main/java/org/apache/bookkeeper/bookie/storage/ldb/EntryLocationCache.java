@@ -0,0 +1,319 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.Closeable;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.LongPredicate;
+
+/**
+ * Memory bounded cache of entry locations, kept in direct memory in front of the locations
+ * {@link KeyValueStorage}.
+ *
+ * <p>The cache is split in sections, each one being an open addressing hash table of
+ * (ledgerId, entryId, location) records with two generations. When the current generation
+ * of a section is half full, the older generation is discarded and reused as the current
+ * one. Locations that were recently added or read are then found without going through
+ * the storage, while the memory used by the cache stays fixed.
+ *
+ * <p>Locations read from the storage are added with the version of their section taken
+ * before the read. The version changes when the section loses records, so that a location
+ * read before a concurrent update or removal cannot be added after the newer record was
+ * dropped.
+ */
+class EntryLocationCache implements Closeable {
+
+    static final long NOT_FOUND = 0L;
+
+    private static final long EMPTY_KEY = -1L;
+    private static final long DELETED_KEY = -2L;
+
+    // ledgerId, entryId, location
+    private static final int RECORD_SIZE = 3 * Long.BYTES;
+
+    private static final int MIN_SECTIONS = 16;
+    private static final int MAX_SECTION_CAPACITY = 1024 * 1024;
+    private static final int MIN_SECTION_CAPACITY = 1024;
+
+    // Slots scanned by a ledgers removal before letting the readers in
+    private static final int REMOVE_LEDGERS_CHUNK_SLOTS = 4096;
+
+    private final Section[] sections;
+
+    EntryLocationCache(ByteBufAllocator allocator, long maxSize) {
+        // Each record is stored in one of the two generations of a section
+        long maxRecords = Math.max(maxSize / RECORD_SIZE / 2, (long) MIN_SECTIONS * MIN_SECTION_CAPACITY);
+        int sectionsCount = MIN_SECTIONS;
+        while (maxRecords / sectionsCount > MAX_SECTION_CAPACITY) {
+            sectionsCount *= 2;
+        }
+        int sectionCapacity = Integer.highestOneBit((int) (maxRecords / sectionsCount));
+
+        this.sections = new Section[sectionsCount];
+        for (int i = 0; i < sectionsCount; i++) {
+            sections[i] = new Section(allocator, sectionCapacity);
+        }
+    }
+
+    /**
+     * @return the location of the entry, or {@link #NOT_FOUND} if it is not in the cache
+     */
+    long get(long ledgerId, long entryId) {
+        long h = hash(ledgerId, entryId);
+        return getSection(h).get(ledgerId, entryId, (int) h);
+    }
+
+    void put(long ledgerId, long entryId, long location) {
+        long h = hash(ledgerId, entryId);
+        getSection(h).put(ledgerId, entryId, location, (int) h);
+    }
+
+    /**
+     * @return the version of the cache for the entry, to be taken before reading its location
+     *         from the storage
+     */
+    long getVersion(long ledgerId, long entryId) {
+        return getSection(hash(ledgerId, entryId)).version;
+    }
+
+    /**
+     * Add a location that was read from the storage, unless the cache already has one. A
+     * location found in the cache was added by a later update and must not be overwritten.
+     * The location is not added either if the cache has dropped records since {@code version}
+     * was taken, since one of them may have been a later update.
+     */
+    void putIfAbsent(long ledgerId, long entryId, long location, long version) {
+        long h = hash(ledgerId, entryId);
+        getSection(h).putIfAbsent(ledgerId, entryId, location, (int) h, version);
+    }
+
+    /**
+     * Remove the locations of all the entries of the ledgers matching the predicate.
+     *
+     * <p>The sections are scanned a chunk of slots at a time, so that the readers are not
+     * blocked for the whole scan.
+     */
+    void removeLedgers(LongPredicate ledgers) {
+        for (Section s : sections) {
+            s.removeLedgers(ledgers);
+        }
+    }
+
+    long count() {
+        long count = 0;
+        for (Section s : sections) {
+            count += s.count;
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        for (Section s : sections) {
+            s.close();
+        }
+    }
+
+    private Section getSection(long hash) {
+        // Use 32 msb out of long to get the section
+        final int sectionIdx = (int) (hash >>> 32) & (sections.length - 1);
+        return sections[sectionIdx];
+    }
+
+    @SuppressWarnings("serial")
+    private static final class Section extends StampedLock {
+        private final int capacity;
+        private final int maxUsedSlots;
+
+        // The tables are only swapped and cleared, never released before close, so that an
+        // optimistic reader can never touch released memory
+        private ByteBuf current;
+        private ByteBuf previous;
+        private int usedSlots;
+        private volatile long count;
+        // Changed under the write lock every time records are dropped
+        private volatile long version;
+
+        Section(ByteBufAllocator allocator, int capacity) {
+            this.capacity = capacity;
+            this.maxUsedSlots = capacity / 2;
+            this.current = allocator.directBuffer(capacity * RECORD_SIZE, capacity * RECORD_SIZE);
+            this.previous = allocator.directBuffer(capacity * RECORD_SIZE, capacity * RECORD_SIZE);
+            clear(current);
+            clear(previous);
+        }
+
+        long get(long ledgerId, long entryId, int keyHash) {
+            long stamp = tryOptimisticRead();
+            long location = find(current, ledgerId, entryId, keyHash);
+            if (location == NOT_FOUND) {
+                location = find(previous, ledgerId, entryId, keyHash);
+            }
+            if (validate(stamp)) {
+                return location;
+            }
+
+            // Fallback to acquiring read lock
+            stamp = readLock();
+            try {
+                location = find(current, ledgerId, entryId, keyHash);
+                if (location == NOT_FOUND) {
+                    location = find(previous, ledgerId, entryId, keyHash);
+                }
+                return location;
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        private long find(ByteBuf table, long ledgerId, long entryId, int keyHash) {
+            int slot = keyHash & (capacity - 1);
+            // Bounded, since a concurrent writer can make an optimistic reader see anything
+            for (int i = 0; i < capacity; i++) {
+                int idx = slot * RECORD_SIZE;
+                long storedLedgerId = table.getLong(idx);
+                if (storedLedgerId == ledgerId && table.getLong(idx + 8) == entryId) {
+                    return table.getLong(idx + 16);
+                } else if (storedLedgerId == EMPTY_KEY) {
+                    return NOT_FOUND;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+            return NOT_FOUND;
+        }
+
+        void putIfAbsent(long ledgerId, long entryId, long location, int keyHash, long expectedVersion) {
+            long stamp = writeLock();
+            try {
+                if (version == expectedVersion && find(previous, ledgerId, entryId, keyHash) == NOT_FOUND) {
+                    insert(ledgerId, entryId, location, keyHash, true);
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        void put(long ledgerId, long entryId, long location, int keyHash) {
+            long stamp = writeLock();
+            try {
+                insert(ledgerId, entryId, location, keyHash, false);
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        private void insert(long ledgerId, long entryId, long location, int keyHash, boolean onlyIfAbsent) {
+            int slot = keyHash & (capacity - 1);
+            while (true) {
+                int idx = slot * RECORD_SIZE;
+                long storedLedgerId = current.getLong(idx);
+                if (storedLedgerId == ledgerId && current.getLong(idx + 8) == entryId) {
+                    if (!onlyIfAbsent) {
+                        current.setLong(idx + 16, location);
+                    }
+                    return;
+                } else if (storedLedgerId == EMPTY_KEY) {
+                    if (usedSlots >= maxUsedSlots) {
+                        rotate();
+                        slot = keyHash & (capacity - 1);
+                        continue;
+                    }
+
+                    current.setLong(idx + 8, entryId);
+                    current.setLong(idx + 16, location);
+                    current.setLong(idx, ledgerId);
+                    ++usedSlots;
+                    ++count;
+                    return;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+        }
+
+        private void rotate() {
+            ByteBuf tmp = previous;
+            previous = current;
+            current = tmp;
+            clear(current);
+            count = usedSlots;
+            usedSlots = 0;
+            ++version;
+        }
+
+        void removeLedgers(LongPredicate ledgers) {
+            // The tables may be swapped between two chunks, but not their slots, so scanning the
+            // same slots of both tables still covers every record
+            for (int startSlot = 0; startSlot < capacity; startSlot += REMOVE_LEDGERS_CHUNK_SLOTS) {
+                int endSlot = Math.min(capacity, startSlot + REMOVE_LEDGERS_CHUNK_SLOTS);
+                long stamp = writeLock();
+                try {
+                    ++version;
+                    removeLedgers(current, ledgers, startSlot, endSlot);
+                    removeLedgers(previous, ledgers, startSlot, endSlot);
+                } finally {
+                    unlockWrite(stamp);
+                }
+            }
+        }
+
+        private void removeLedgers(ByteBuf table, LongPredicate ledgers, int startSlot, int endSlot) {
+            for (int idx = startSlot * RECORD_SIZE; idx < endSlot * RECORD_SIZE; idx += RECORD_SIZE) {
+                long storedLedgerId = table.getLong(idx);
+                if (storedLedgerId >= 0 && ledgers.test(storedLedgerId)) {
+                    // Keep the slot used, so that the probing of other keys is not interrupted
+                    table.setLong(idx, DELETED_KEY);
+                    --count;
+                }
+            }
+        }
+
+        private void clear(ByteBuf table) {
+            for (int idx = 0; idx < capacity * RECORD_SIZE; idx += RECORD_SIZE) {
+                table.setLong(idx, EMPTY_KEY);
+            }
+        }
+
+        void close() {
+            long stamp = writeLock();
+            try {
+                current.release();
+                previous.release();
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+    }
+
+    private static final long HashMixer = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    static long hash(long key1, long key2) {
+        long hash = key1 * HashMixer;
+        hash ^= hash >>> R;
+        hash *= HashMixer;
+        hash += 31 + (key2 * HashMixer);
+        hash ^= hash >>> R;
+        hash *= HashMixer;
+        return hash;
+    }
+}
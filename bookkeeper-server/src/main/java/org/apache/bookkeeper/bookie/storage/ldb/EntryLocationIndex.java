@@ -22,9 +22,11 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 
 import com.google.common.collect.Iterables;
 
+import io.netty.buffer.ByteBufAllocator;
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.Map.Entry;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
@@ -43,17 +45,29 @@ import org.slf4j.LoggerFactory;
  *
  * <p>For each ledger multiple entries are stored in the same "record", represented
  * by the {@link LedgerIndexPage} class.
+ *
+ * <p>Optionally, the locations of recently written and recently read entries are kept in an
+ * {@link EntryLocationCache}, so that they can be found without a storage lookup.
  */
 public class EntryLocationIndex implements Closeable {
 
     private final KeyValueStorage locationsDb;
     private final ConcurrentLongHashSet deletedLedgers = ConcurrentLongHashSet.newBuilder().build();
 
+    // null when the location cache is disabled
+    private final EntryLocationCache locationCache;
+
     private final EntryLocationIndexStats stats;
 
     public EntryLocationIndex(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath,
             StatsLogger stats) throws IOException {
+        this(conf, storageFactory, basePath, stats, ByteBufAllocator.DEFAULT, 0);
+    }
+
+    public EntryLocationIndex(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath,
+            StatsLogger stats, ByteBufAllocator allocator, long locationCacheMaxSize) throws IOException {
         locationsDb = storageFactory.newKeyValueStorage(basePath, "locations", DbConfigType.EntryLocation, conf);
+        locationCache = locationCacheMaxSize > 0 ? new EntryLocationCache(allocator, locationCacheMaxSize) : null;
 
         this.stats = new EntryLocationIndexStats(
             stats,
@@ -63,27 +77,48 @@ public class EntryLocationIndex implements Closeable {
                 } catch (IOException e) {
                     return -1L;
                 }
-            });
+            },
+            () -> locationCache != null ? locationCache.count() : 0L);
     }
 
     @Override
     public void close() throws IOException {
         locationsDb.close();
+        if (locationCache != null) {
+            locationCache.close();
+        }
     }
 
     public long getLocation(long ledgerId, long entryId) throws IOException {
-        LongPairWrapper key = LongPairWrapper.get(ledgerId, entryId);
-        LongWrapper value = LongWrapper.get();
+        long cacheVersion = 0;
+        if (locationCache != null) {
+            long location = locationCache.get(ledgerId, entryId);
+            if (location != EntryLocationCache.NOT_FOUND) {
+                stats.getLocationCacheHitCounter().inc();
+                return location;
+            }
+            stats.getLocationCacheMissCounter().inc();
+            // Taken before the storage lookup, so that the location we read is not cached if a
+            // compaction moves the entry in the meantime
+            cacheVersion = locationCache.getVersion(ledgerId, entryId);
+        }
+
+        DirectLongPairWrapper key = DirectLongPairWrapper.get(ledgerId, entryId);
+        DirectLongWrapper value = DirectLongWrapper.get();
 
         try {
-            if (locationsDb.get(key.array, value.array) < 0) {
+            if (locationsDb.get(key.buffer, value.buffer) < 0) {
                 if (log.isDebugEnabled()) {
                     log.debug("Entry not found {}@{} in db index", ledgerId, entryId);
                 }
                 return 0;
             }
 
-            return value.getValue();
+            long location = value.getValue();
+            if (locationCache != null && !deletedLedgers.contains(ledgerId)) {
+                locationCache.putIfAbsent(ledgerId, entryId, location, cacheVersion);
+            }
+            return location;
         } finally {
             key.recycle();
             value.recycle();
@@ -107,17 +142,17 @@ public class EntryLocationIndex implements Closeable {
     }
 
     private long getLastEntryInLedgerInternal(long ledgerId) throws IOException {
-        LongPairWrapper maxEntryId = LongPairWrapper.get(ledgerId, Long.MAX_VALUE);
+        DirectLongPairWrapper maxEntryId = DirectLongPairWrapper.get(ledgerId, Long.MAX_VALUE);
+        DirectLongPairWrapper foundKey = DirectLongPairWrapper.get();
 
-        // Search the last entry in storage
-        Entry<byte[], byte[]> entry = locationsDb.getFloor(maxEntryId.array);
-        maxEntryId.recycle();
+        try {
+            // Search the last entry in storage
+            if (locationsDb.getFloorKey(maxEntryId.buffer, foundKey.buffer) < 0) {
+                throw new Bookie.NoEntryException(ledgerId, -1);
+            }
 
-        if (entry == null) {
-            throw new Bookie.NoEntryException(ledgerId, -1);
-        } else {
-            long foundLedgerId = ArrayUtil.getLong(entry.getKey(), 0);
-            long lastEntryId = ArrayUtil.getLong(entry.getKey(), 8);
+            long foundLedgerId = foundKey.getFirst();
+            long lastEntryId = foundKey.getSecond();
 
             if (foundLedgerId == ledgerId) {
                 if (log.isDebugEnabled()) {
@@ -127,34 +162,42 @@ public class EntryLocationIndex implements Closeable {
             } else {
                 throw new Bookie.NoEntryException(ledgerId, -1);
             }
+        } finally {
+            maxEntryId.recycle();
+            foundKey.recycle();
         }
     }
 
     public void addLocation(long ledgerId, long entryId, long location) throws IOException {
-        Batch batch = locationsDb.newBatch();
+        Batch batch = newBatch();
         addLocation(batch, ledgerId, entryId, location);
         batch.flush();
         batch.close();
     }
 
     public Batch newBatch() {
-        return locationsDb.newBatch();
+        Batch batch = locationsDb.newBatch();
+        return locationCache != null ? new CachingBatch(batch) : batch;
     }
 
     public void addLocation(Batch batch, long ledgerId, long entryId, long location) throws IOException {
-        LongPairWrapper key = LongPairWrapper.get(ledgerId, entryId);
-        LongWrapper value = LongWrapper.get(location);
+        DirectLongPairWrapper key = DirectLongPairWrapper.get(ledgerId, entryId);
+        DirectLongWrapper value = DirectLongWrapper.get(location);
 
         if (log.isDebugEnabled()) {
             log.debug("Add location - ledger: {} -- entry: {} -- location: {}", ledgerId, entryId, location);
         }
 
         try {
-            batch.put(key.array, value.array);
+            batch.put(key.buffer, value.buffer);
         } finally {
             key.recycle();
             value.recycle();
         }
+
+        if (batch instanceof CachingBatch) {
+            ((CachingBatch) batch).addCachedLocation(ledgerId, entryId, location);
+        }
     }
 
     public void updateLocations(Iterable<EntryLocation> newLocations) throws IOException {
@@ -185,9 +228,9 @@ public class EntryLocationIndex implements Closeable {
     private static final int DELETE_ENTRIES_BATCH_SIZE = 100000;
 
     public void removeOffsetFromDeletedLedgers() throws IOException {
-        LongPairWrapper firstKeyWrapper = LongPairWrapper.get(-1, -1);
-        LongPairWrapper lastKeyWrapper = LongPairWrapper.get(-1, -1);
-        LongPairWrapper keyToDelete = LongPairWrapper.get(-1, -1);
+        DirectLongPairWrapper firstKeyWrapper = DirectLongPairWrapper.get(-1, -1);
+        DirectLongPairWrapper foundKeyWrapper = DirectLongPairWrapper.get(-1, -1);
+        DirectLongPairWrapper keyToDelete = DirectLongPairWrapper.get(-1, -1);
 
         Set<Long> ledgersToDelete = deletedLedgers.items();
 
@@ -209,10 +252,9 @@ public class EntryLocationIndex implements Closeable {
                 }
 
                 firstKeyWrapper.set(ledgerId, 0);
-                lastKeyWrapper.set(ledgerId, Long.MAX_VALUE);
 
-                Entry<byte[], byte[]> firstKeyRes = locationsDb.getCeil(firstKeyWrapper.array);
-                if (firstKeyRes == null || ArrayUtil.getLong(firstKeyRes.getKey(), 0) != ledgerId) {
+                if (locationsDb.getCeilKey(firstKeyWrapper.buffer, foundKeyWrapper.clear()) < 0
+                        || foundKeyWrapper.getFirst() != ledgerId) {
                     // No entries found for ledger
                     if (log.isDebugEnabled()) {
                         log.debug("No entries found for ledger {}", ledgerId);
@@ -220,7 +262,7 @@ public class EntryLocationIndex implements Closeable {
                     continue;
                 }
 
-                long firstEntryId = ArrayUtil.getLong(firstKeyRes.getKey(), 8);
+                long firstEntryId = foundKeyWrapper.getSecond();
                 long lastEntryId;
                 try {
                     lastEntryId = getLastEntryInLedgerInternal(ledgerId);
@@ -241,7 +283,7 @@ public class EntryLocationIndex implements Closeable {
                     if (log.isDebugEnabled()) {
                         log.debug("Deleting index for ({}, {})", keyToDelete.getFirst(), keyToDelete.getSecond());
                     }
-                    batch.remove(keyToDelete.array);
+                    batch.remove(keyToDelete.buffer);
                     ++deletedEntriesInBatch;
                 }
 
@@ -257,12 +299,16 @@ public class EntryLocationIndex implements Closeable {
                 batch.clear();
             } finally {
                 firstKeyWrapper.recycle();
-                lastKeyWrapper.recycle();
+                foundKeyWrapper.recycle();
                 keyToDelete.recycle();
                 batch.close();
             }
         }
 
+        if (locationCache != null) {
+            locationCache.removeLedgers(deletedLedgers::contains);
+        }
+
         log.info("Deleted indexes for {} entries from {} ledgers in {} seconds", deletedEntries, ledgersToDelete.size(),
                 TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime) / 1000.0);
 
@@ -272,5 +318,73 @@ public class EntryLocationIndex implements Closeable {
         }
     }
 
+    /**
+     * Batch that adds the locations to the location cache once they are committed to the storage.
+     */
+    private class CachingBatch implements Batch {
+        private final Batch batch;
+        // ledgerId, entryId, location triplets
+        private long[] locations = new long[3 * 1024];
+        private int locationsIdx = 0;
+
+        CachingBatch(Batch batch) {
+            this.batch = batch;
+        }
+
+        void addCachedLocation(long ledgerId, long entryId, long location) {
+            if (locationsIdx == locations.length) {
+                locations = Arrays.copyOf(locations, locations.length * 2);
+            }
+            locations[locationsIdx++] = ledgerId;
+            locations[locationsIdx++] = entryId;
+            locations[locationsIdx++] = location;
+        }
+
+        @Override
+        public void put(byte[] key, byte[] value) throws IOException {
+            batch.put(key, value);
+        }
+
+        @Override
+        public void put(ByteBuffer key, ByteBuffer value) throws IOException {
+            batch.put(key, value);
+        }
+
+        @Override
+        public void remove(byte[] key) throws IOException {
+            batch.remove(key);
+        }
+
+        @Override
+        public void remove(ByteBuffer key) throws IOException {
+            batch.remove(key);
+        }
+
+        @Override
+        public void deleteRange(byte[] beginKey, byte[] endKey) throws IOException {
+            batch.deleteRange(beginKey, endKey);
+        }
+
+        @Override
+        public void clear() {
+            batch.clear();
+            locationsIdx = 0;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            batch.flush();
+            for (int i = 0; i < locationsIdx; i += 3) {
+                locationCache.put(locations[i], locations[i + 1], locations[i + 2]);
+            }
+            locationsIdx = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            batch.close();
+        }
+    }
+
     private static final Logger log = LoggerFactory.getLogger(EntryLocationIndex.class);
 }
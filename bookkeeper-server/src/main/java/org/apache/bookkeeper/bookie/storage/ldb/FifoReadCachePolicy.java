@@ -0,0 +1,82 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+
+/**
+ * Default read cache policy: every entry is admitted in a single {@link ReadCache},
+ * and the oldest entries are evicted first, regardless of how they were loaded.
+ */
+public class FifoReadCachePolicy implements ReadCachePolicy {
+
+    private ReadCache cache;
+    private Stats stats;
+
+    @Override
+    public void initialize(ServerConfiguration conf, ByteBufAllocator allocator, long maxCacheSize, Stats stats) {
+        this.stats = stats;
+        this.cache = new ReadCache(allocator, maxCacheSize, stats.getReadCacheEvictedCounter());
+    }
+
+    @Override
+    public String getName() {
+        return "fifo";
+    }
+
+    @Override
+    public boolean put(long ledgerId, long entryId, ByteBuf entry, boolean readAhead) {
+        if (cache.put(ledgerId, entryId, entry)) {
+            stats.getReadCacheAdmittedCounter().inc();
+            return true;
+        } else {
+            stats.getReadCacheRejectedCounter().inc();
+            return false;
+        }
+    }
+
+    @Override
+    public ByteBuf get(long ledgerId, long entryId) {
+        return cache.get(ledgerId, entryId);
+    }
+
+    @Override
+    public boolean hasEntry(long ledgerId, long entryId) {
+        return cache.hasEntry(ledgerId, entryId);
+    }
+
+    @Override
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public long count() {
+        return cache.count();
+    }
+
+    @Override
+    public void close() {
+        cache.close();
+    }
+}
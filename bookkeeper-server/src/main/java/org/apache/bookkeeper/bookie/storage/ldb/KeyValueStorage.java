@@ -22,10 +22,17 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Map.Entry;
 
 /**
  * Abstraction of a generic key-value local database.
+ *
+ * <p>Besides the methods taking arrays, keys and values can be passed in direct {@link ByteBuffer}s,
+ * from their position to their limit. This lets the callers reuse the same buffers across calls, and
+ * lets the storage read and write them without copying them in and out of arrays. Heap buffers are
+ * accepted as well, but are copied. The position of the buffers passed to these methods is undefined
+ * after the call.
  */
 public interface KeyValueStorage extends Closeable {
 
@@ -55,6 +62,64 @@ public interface KeyValueStorage extends Closeable {
      */
     int get(byte[] key, byte[] value) throws IOException;
 
+    /**
+     * Put a key and value held in direct buffers.
+     */
+    default void put(ByteBuffer key, ByteBuffer value) throws IOException {
+        put(ArrayUtil.toArray(key), ArrayUtil.toArray(value));
+    }
+
+    /**
+     * Get the value associated with the given key into a direct buffer.
+     *
+     * <p>The value is copied at the position of the buffer, and the limit of the buffer is set to the
+     * end of the value. If the value doesn't fit, only the part that fits is copied.
+     *
+     * @param key
+     *            the key to lookup
+     * @param value
+     *            the buffer where to store the value
+     * @return -1 if the entry was not found or the full length of the value
+     */
+    default int get(ByteBuffer key, ByteBuffer value) throws IOException {
+        byte[] res = get(ArrayUtil.toArray(key));
+        if (res == null) {
+            return -1;
+        }
+        ArrayUtil.copyTo(res, value);
+        return res.length;
+    }
+
+    /**
+     * Get the biggest key lesser than the supplied key, like {@link #getFloor(byte[])} but only
+     * for the key, copied into a direct buffer as in {@link #get(ByteBuffer, ByteBuffer)}.
+     *
+     * @return -1 if there's no key before the supplied key or the full length of the found key
+     */
+    default int getFloorKey(ByteBuffer key, ByteBuffer floorKey) throws IOException {
+        Entry<byte[], byte[]> entry = getFloor(ArrayUtil.toArray(key));
+        if (entry == null) {
+            return -1;
+        }
+        ArrayUtil.copyTo(entry.getKey(), floorKey);
+        return entry.getKey().length;
+    }
+
+    /**
+     * Get the smallest key bigger or equal to the supplied key, like {@link #getCeil(byte[])} but only
+     * for the key, copied into a direct buffer as in {@link #get(ByteBuffer, ByteBuffer)}.
+     *
+     * @return -1 if there's no key after the supplied key or the full length of the found key
+     */
+    default int getCeilKey(ByteBuffer key, ByteBuffer ceilKey) throws IOException {
+        Entry<byte[], byte[]> entry = getCeil(ArrayUtil.toArray(key));
+        if (entry == null) {
+            return -1;
+        }
+        ArrayUtil.copyTo(entry.getKey(), ceilKey);
+        return entry.getKey().length;
+    }
+
     /**
      * Get the entry whose key is the biggest and it's lesser than the supplied key.
      *
@@ -96,6 +161,13 @@ public interface KeyValueStorage extends Closeable {
      */
     void delete(byte[] key) throws IOException;
 
+    /**
+     * Delete a key held in a direct buffer.
+     */
+    default void delete(ByteBuffer key) throws IOException {
+        delete(ArrayUtil.toArray(key));
+    }
+
     /**
      * Compact storage within a specified range.
      *
@@ -161,8 +233,16 @@ public interface KeyValueStorage extends Closeable {
     public interface Batch extends Closeable {
         void put(byte[] key, byte[] value) throws IOException;
 
+        default void put(ByteBuffer key, ByteBuffer value) throws IOException {
+            put(ArrayUtil.toArray(key), ArrayUtil.toArray(value));
+        }
+
         void remove(byte[] key) throws IOException;
 
+        default void remove(ByteBuffer key) throws IOException {
+            remove(ArrayUtil.toArray(key));
+        }
+
         void deleteRange(byte[] beginKey, byte[] endKey) throws IOException;
 
         void clear();
@@ -24,6 +24,7 @@ import static com.google.common.base.Preconditions.checkState;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -170,6 +171,77 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         }
     }
 
+    @Override
+    public void put(ByteBuffer key, ByteBuffer value) throws IOException {
+        if (!isDirect(key, value)) {
+            KeyValueStorage.super.put(key, value);
+            return;
+        }
+        try {
+            db.put(optionDontSync, key, value);
+        } catch (RocksDBException e) {
+            throw new IOException("Error in RocksDB put", e);
+        }
+    }
+
+    @Override
+    public int get(ByteBuffer key, ByteBuffer value) throws IOException {
+        if (!isDirect(key, value)) {
+            return KeyValueStorage.super.get(key, value);
+        }
+        try {
+            int res = db.get(optionCache, key, value);
+            return res == RocksDB.NOT_FOUND ? -1 : res;
+        } catch (RocksDBException e) {
+            throw new IOException("Error in RocksDB get", e);
+        }
+    }
+
+    @Override
+    public int getFloorKey(ByteBuffer key, ByteBuffer floorKey) throws IOException {
+        if (!isDirect(key, floorKey)) {
+            return KeyValueStorage.super.getFloorKey(key, floorKey);
+        }
+        // The iterator moves the position of the key buffer
+        ByteBuffer searchKey = key.duplicate();
+        try (RocksIterator iterator = db.newIterator(optionCache)) {
+            // Position the iterator on the record whose key is <= to the supplied key
+            iterator.seekForPrev(key);
+            if (!iterator.isValid()) {
+                return -1;
+            }
+
+            int floorKeyPosition = floorKey.position();
+            int floorKeyLimit = floorKey.limit();
+            int res = iterator.key(floorKey);
+            if (floorKey.equals(searchKey)) {
+                // getFloor() excludes the supplied key
+                iterator.prev();
+                if (!iterator.isValid()) {
+                    return -1;
+                }
+                floorKey.limit(floorKeyLimit).position(floorKeyPosition);
+                res = iterator.key(floorKey);
+            }
+            return res;
+        }
+    }
+
+    @Override
+    public int getCeilKey(ByteBuffer key, ByteBuffer ceilKey) throws IOException {
+        if (!isDirect(key, ceilKey)) {
+            return KeyValueStorage.super.getCeilKey(key, ceilKey);
+        }
+        try (RocksIterator iterator = db.newIterator(optionCache)) {
+            // Position the iterator on the record whose key is >= to the supplied key
+            iterator.seek(key);
+            if (!iterator.isValid()) {
+                return -1;
+            }
+            return iterator.key(ceilKey);
+        }
+    }
+
     @Override
     @SuppressFBWarnings("RCN_REDUNDANT_NULLCHECK_WOULD_HAVE_BEEN_A_NPE")
     public Entry<byte[], byte[]> getFloor(byte[] key) throws IOException {
@@ -208,6 +280,26 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
         }
     }
 
+    @Override
+    public void delete(ByteBuffer key) throws IOException {
+        if (!key.isDirect()) {
+            KeyValueStorage.super.delete(key);
+            return;
+        }
+        try {
+            db.delete(optionDontSync, key);
+        } catch (RocksDBException e) {
+            throw new IOException("Error in RocksDB delete", e);
+        }
+    }
+
+    /**
+     * RocksDB only reads and writes direct buffers in place, heap buffers go through arrays.
+     */
+    private static boolean isDirect(ByteBuffer key, ByteBuffer value) {
+        return key.isDirect() && value.isDirect();
+    }
+
     @Override
     public void compact(byte[] firstKey, byte[] lastKey) throws IOException {
         try {
@@ -341,6 +433,19 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
             }
         }
 
+        @Override
+        public void put(ByteBuffer key, ByteBuffer value) throws IOException {
+            if (!isDirect(key, value)) {
+                Batch.super.put(key, value);
+                return;
+            }
+            try {
+                writeBatch.put(key, value);
+            } catch (RocksDBException e) {
+                throw new IOException("Failed to flush RocksDB batch", e);
+            }
+        }
+
         @Override
         public void remove(byte[] key) throws IOException {
             try {
@@ -350,6 +455,19 @@ public class KeyValueStorageRocksDB implements KeyValueStorage {
             }
         }
 
+        @Override
+        public void remove(ByteBuffer key) throws IOException {
+            if (!key.isDirect()) {
+                Batch.super.remove(key);
+                return;
+            }
+            try {
+                writeBatch.delete(key);
+            } catch (RocksDBException e) {
+                throw new IOException("Failed to flush RocksDB batch", e);
+            }
+        }
+
         @Override
         public void clear() {
             writeBatch.clear();
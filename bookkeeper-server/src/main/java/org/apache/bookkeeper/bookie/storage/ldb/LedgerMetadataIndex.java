@@ -23,10 +23,12 @@ package org.apache.bookkeeper.bookie.storage.ldb;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
 import io.netty.buffer.ByteBuf;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.Arrays;
 import java.util.Map.Entry;
@@ -68,6 +70,9 @@ public class LedgerMetadataIndex implements Closeable {
     private final ConcurrentLinkedQueue<Long> pendingDeletedLedgers;
     private final ReentrantLock[] locks = new ReentrantLock[16];
 
+    // Reused across flushes to serialize the updated ledgers, grown when needed
+    private ByteBuffer flushValueBuffer = ByteBuffer.allocateDirect(1024);
+
     public LedgerMetadataIndex(ServerConfiguration conf, KeyValueStorageFactory storageFactory, String basePath,
             StatsLogger stats) throws IOException {
         ledgersDb = storageFactory.newKeyValueStorage(basePath, "ledgers", DbConfigType.LedgerMetadata, conf);
@@ -302,15 +307,14 @@ public class LedgerMetadataIndex implements Closeable {
     /**
      * Flushes all pending changes.
      */
-    public void flush() throws IOException {
-        LongWrapper key = LongWrapper.get();
+    public synchronized void flush() throws IOException {
+        DirectLongWrapper key = DirectLongWrapper.get();
 
         int updatedLedgers = 0;
         while (!pendingLedgersUpdates.isEmpty()) {
             Entry<Long, LedgerData> entry = pendingLedgersUpdates.poll();
             key.set(entry.getKey());
-            byte[] value = entry.getValue().toByteArray();
-            ledgersDb.put(key.array, value);
+            ledgersDb.put(key.buffer, serialize(entry.getValue()));
             ++updatedLedgers;
         }
 
@@ -322,14 +326,28 @@ public class LedgerMetadataIndex implements Closeable {
         key.recycle();
     }
 
+    private ByteBuffer serialize(LedgerData ledgerData) throws IOException {
+        int size = ledgerData.getSerializedSize();
+        if (flushValueBuffer.capacity() < size) {
+            flushValueBuffer = ByteBuffer.allocateDirect(Math.max(size, flushValueBuffer.capacity() * 2));
+        }
+
+        flushValueBuffer.clear();
+        CodedOutputStream out = CodedOutputStream.newInstance(flushValueBuffer);
+        ledgerData.writeTo(out);
+        out.flush();
+        flushValueBuffer.flip();
+        return flushValueBuffer;
+    }
+
     public void removeDeletedLedgers() throws IOException {
-        LongWrapper key = LongWrapper.get();
+        DirectLongWrapper key = DirectLongWrapper.get();
 
         int deletedLedgers = 0;
         while (!pendingDeletedLedgers.isEmpty()) {
             long ledgerId = pendingDeletedLedgers.poll();
             key.set(ledgerId);
-            ledgersDb.delete(key.array);
+            ledgersDb.delete(key.buffer);
         }
 
         if (log.isDebugEnabled()) {
@@ -91,17 +91,20 @@ public class PersistentEntryLogMetadataMap implements EntryLogMetadataMap {
     @Override
     public boolean containsKey(long entryLogId) throws EntryLogMetadataMapException {
         throwIfClosed();
-        LongWrapper key = LongWrapper.get(entryLogId);
+        DirectLongWrapper key = DirectLongWrapper.get(entryLogId);
+        // Only the presence of the key matters, the value doesn't need to fit
+        DirectLongWrapper value = DirectLongWrapper.get();
         try {
             boolean isExist;
             try {
-                isExist = metadataMapDB.get(key.array) != null;
+                isExist = metadataMapDB.get(key.buffer, value.buffer) >= 0;
             } catch (IOException e) {
                 throw new EntryLogMetadataMapException(e);
             }
             return isExist;
         } finally {
             key.recycle();
+            value.recycle();
         }
     }
 
@@ -174,10 +177,10 @@ public class PersistentEntryLogMetadataMap implements EntryLogMetadataMap {
     @Override
     public void remove(long entryLogId) throws EntryLogMetadataMapException {
         throwIfClosed();
-        LongWrapper key = LongWrapper.get(entryLogId);
+        DirectLongWrapper key = DirectLongWrapper.get(entryLogId);
         try {
             try {
-                metadataMapDB.delete(key.array);
+                metadataMapDB.delete(key.buffer);
             } catch (IOException e) {
                 throw new EntryLogMetadataMapException(e);
             }
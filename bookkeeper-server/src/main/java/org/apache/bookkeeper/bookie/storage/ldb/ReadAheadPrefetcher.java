@@ -0,0 +1,112 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.util.collections.ConcurrentLongHashSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the read-ahead that follows a read cache miss on dedicated threads, so that the
+ * read that missed can be answered without waiting for the following entries.
+ *
+ * <p>Pending read-aheads are kept in a bounded queue: when it is full, new read-aheads are
+ * dropped. At most one read-ahead per ledger is pending at any time, since a second one
+ * would mostly read the same entries again.
+ *
+ * <p>On shutdown, the pending read-aheads are dropped and the running ones are waited for, since
+ * they insert into the read cache and read from the entry logger that are closed afterwards.
+ */
+class ReadAheadPrefetcher {
+    private static final Logger log = LoggerFactory.getLogger(ReadAheadPrefetcher.class);
+
+    /**
+     * Reads entries ahead and inserts them in the read cache.
+     */
+    interface Task {
+        void readAhead(long ledgerId, long firstEntryId, long firstEntryLocation, int maxCount);
+    }
+
+    private final Task task;
+    private final DbLedgerStorageStats stats;
+    // null when read-ahead runs on the thread that missed the read cache
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentLongHashSet pendingLedgers;
+    private volatile boolean closed = false;
+
+    ReadAheadPrefetcher(int numThreads, int queueSize, Task task, DbLedgerStorageStats stats) {
+        this.task = task;
+        this.stats = stats;
+        if (numThreads > 0) {
+            this.executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), new DefaultThreadFactory("db-storage-readahead"));
+        } else {
+            this.executor = null;
+        }
+        this.pendingLedgers = ConcurrentLongHashSet.newBuilder().build();
+    }
+
+    void readAhead(long ledgerId, long firstEntryId, long firstEntryLocation, int maxCount) {
+        if (executor == null) {
+            task.readAhead(ledgerId, firstEntryId, firstEntryLocation, maxCount);
+            return;
+        }
+
+        if (!pendingLedgers.add(ledgerId)) {
+            stats.getReadAheadDeduplicatedCounter().inc();
+            return;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!closed) {
+                        task.readAhead(ledgerId, firstEntryId, firstEntryLocation, maxCount);
+                    }
+                } finally {
+                    pendingLedgers.remove(ledgerId);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingLedgers.remove(ledgerId);
+            stats.getReadAheadDroppedCounter().inc();
+            if (log.isDebugEnabled()) {
+                log.debug("Dropped read-ahead of ledger {} from entry {}", ledgerId, firstEntryId);
+            }
+        }
+    }
+
+    void shutdown() throws InterruptedException {
+        if (executor != null) {
+            closed = true;
+            // Not interrupted: an interrupted read closes the file channel of the entry log
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.info("Waiting for the running read-aheads to complete");
+            }
+        }
+    }
+}
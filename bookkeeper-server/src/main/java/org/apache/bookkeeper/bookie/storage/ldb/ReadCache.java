@@ -27,11 +27,11 @@ import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
 
 import java.io.Closeable;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.StampedLock;
 
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.NullStatsLogger;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap;
 import org.apache.bookkeeper.util.collections.ConcurrentLongLongPairHashMap.LongPair;
 import org.slf4j.Logger;
@@ -42,190 +42,350 @@ import org.slf4j.LoggerFactory;
  *
  * <p>Uses the specified amount of memory and pairs it with a hashmap.
  *
- * <p>The memory is splitted in multiple segments that are used in a
- * ring-buffer fashion. When the read cache is full, the oldest segment
- * is cleared and rotated to make space for new entries to be added to
- * the read cache.
+ * <p>The cache is split in shards, selected by ledger id, and the memory of each
+ * shard is splitted in multiple segments that are used in a ring-buffer fashion.
+ * When a shard is full, its oldest segment is cleared and rotated to make space
+ * for new entries to be added to the read cache.
+ *
+ * <p>Each shard has a single index, pointing to the segment generation and offset
+ * of every cached entry, so a lookup is a single hashmap access. Readers never
+ * block: they copy the entry out of the segment under an optimistic stamp, and
+ * treat the entry as missing if the segment was recycled in the meantime.
  */
 public class ReadCache implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(ReadCache.class);
 
     private static final int DEFAULT_MAX_SEGMENT_SIZE = 1 * 1024 * 1024 * 1024;
 
-    private final List<ByteBuf> cacheSegments;
-    private final List<ConcurrentLongLongPairHashMap> cacheIndexes;
+    // Don't create shards smaller than this, to keep space for big entries in each segment
+    private static final long MIN_SHARD_SIZE = 64 * 1024 * 1024;
 
-    private int currentSegmentIdx;
-    private final AtomicInteger currentSegmentOffset = new AtomicInteger(0);
+    // ledgerId, entryId and entry length, stored in front of each entry in the segment
+    private static final int ENTRY_HEADER_SIZE = Long.BYTES + Long.BYTES + Integer.BYTES;
 
-    private final int segmentSize;
+    // Set above the entry size, in the second index value, once the entry was marked as accessed
+    private static final long ACCESSED_FLAG = 1L << 32;
 
-    private ByteBufAllocator allocator;
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Shard[] shards;
+    private final int shardsMask;
+    private final ByteBufAllocator allocator;
+    private final Counter evictedCounter;
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize) {
         this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE);
     }
 
     public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize) {
-        this.allocator = allocator;
-        int segmentsCount = Math.max(2, (int) (maxCacheSize / maxSegmentSize));
-        segmentSize = (int) (maxCacheSize / segmentsCount);
+        this(allocator, maxCacheSize, maxSegmentSize, defaultShardsCount(maxCacheSize));
+    }
 
-        cacheSegments = new ArrayList<>();
-        cacheIndexes = new ArrayList<>();
+    public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize, int shardsCount) {
+        this(allocator, maxCacheSize, maxSegmentSize, shardsCount, NullStatsLogger.INSTANCE.getCounter(""));
+    }
 
-        for (int i = 0; i < segmentsCount; i++) {
-            cacheSegments.add(Unpooled.directBuffer(segmentSize, segmentSize));
-            ConcurrentLongLongPairHashMap concurrentLongLongPairHashMap = ConcurrentLongLongPairHashMap.newBuilder()
-                    .expectedItems(4096)
-                    .concurrencyLevel(2 * Runtime.getRuntime().availableProcessors())
-                    .build();
-            cacheIndexes.add(concurrentLongLongPairHashMap);
+    public ReadCache(ByteBufAllocator allocator, long maxCacheSize, Counter evictedCounter) {
+        this(allocator, maxCacheSize, DEFAULT_MAX_SEGMENT_SIZE, defaultShardsCount(maxCacheSize), evictedCounter);
+    }
+
+    /**
+     * @param evictedCounter counts the entries dropped from the cache when their segment is reused
+     */
+    public ReadCache(ByteBufAllocator allocator, long maxCacheSize, int maxSegmentSize, int shardsCount,
+                     Counter evictedCounter) {
+        if (shardsCount <= 0 || Integer.bitCount(shardsCount) != 1) {
+            throw new IllegalArgumentException("Shards count must be a power of 2: " + shardsCount);
+        }
+        this.allocator = allocator;
+        this.evictedCounter = evictedCounter;
+        this.shards = new Shard[shardsCount];
+        this.shardsMask = shardsCount - 1;
+
+        long shardSize = maxCacheSize / shardsCount;
+        int segmentsCount = Math.max(2, (int) (shardSize / maxSegmentSize));
+        int segmentSize = (int) (shardSize / segmentsCount);
+        int concurrencyLevel = Math.max(1, 2 * Runtime.getRuntime().availableProcessors() / shardsCount);
+        for (int i = 0; i < shardsCount; i++) {
+            shards[i] = new Shard(segmentsCount, segmentSize, concurrencyLevel);
         }
     }
 
+    private static int defaultShardsCount(long maxCacheSize) {
+        long maxShards = Math.min(2L * Runtime.getRuntime().availableProcessors(), maxCacheSize / MIN_SHARD_SIZE);
+        return maxShards <= 1 ? 1 : Integer.highestOneBit((int) maxShards);
+    }
+
     @Override
     public void close() {
-        cacheSegments.forEach(ByteBuf::release);
+        for (Shard shard : shards) {
+            shard.close();
+        }
     }
 
-    public void put(long ledgerId, long entryId, ByteBuf entry) {
-        int entrySize = entry.readableBytes();
-        int alignedSize = align64(entrySize);
+    /**
+     * Copy an entry into the cache.
+     *
+     * @return false if the entry is too big to be cached
+     */
+    public boolean put(long ledgerId, long entryId, ByteBuf entry) {
+        return getShard(ledgerId).put(ledgerId, entryId, entry);
+    }
 
-        lock.readLock().lock();
+    public ByteBuf get(long ledgerId, long entryId) {
+        return getShard(ledgerId).get(ledgerId, entryId);
+    }
 
-        try {
-            if (entrySize > segmentSize) {
-                log.warn("entrySize {} > segmentSize {}, skip update read cache!", entrySize, segmentSize);
-                return;
-            }
-            int offset = currentSegmentOffset.getAndAdd(alignedSize);
-            if (offset + entrySize > segmentSize) {
-                // Roll-over the segment (outside the read-lock)
-            } else {
-                // Copy entry into read cache segment
-                cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(),
-                        entry.readableBytes());
-                cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
-                return;
-            }
-        } finally {
-            lock.readLock().unlock();
-        }
+    public boolean hasEntry(long ledgerId, long entryId) {
+        return getShard(ledgerId).hasEntry(ledgerId, entryId);
+    }
 
-        // We could not insert in segment, we to get the write lock and roll-over to
-        // next segment
-        lock.writeLock().lock();
-
-        try {
-            int offset = currentSegmentOffset.getAndAdd(entrySize);
-            if (offset + entrySize > segmentSize) {
-                // Rollover to next segment
-                currentSegmentIdx = (currentSegmentIdx + 1) % cacheSegments.size();
-                currentSegmentOffset.set(alignedSize);
-                cacheIndexes.get(currentSegmentIdx).clear();
-                offset = 0;
-            }
+    /**
+     * Mark an entry as accessed, to tell the entries read more than once from the others.
+     *
+     * @return true if the entry had already been marked, false if it was not or is not in the cache
+     */
+    public boolean markAccessed(long ledgerId, long entryId) {
+        return getShard(ledgerId).markAccessed(ledgerId, entryId);
+    }
 
-            // Copy entry into read cache segment
-            cacheSegments.get(currentSegmentIdx).setBytes(offset, entry, entry.readerIndex(), entry.readableBytes());
-            cacheIndexes.get(currentSegmentIdx).put(ledgerId, entryId, offset, entrySize);
-        } finally {
-            lock.writeLock().unlock();
+    /**
+     * Drop an entry from the cache. Its space is only reclaimed when its segment is reused.
+     *
+     * @return false if the entry was not in the cache
+     */
+    public boolean remove(long ledgerId, long entryId) {
+        return getShard(ledgerId).index.remove(ledgerId, entryId);
+    }
+
+    /**
+     * @return the total size of cached entries
+     */
+    public long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
         }
+        return size;
     }
 
-    public ByteBuf get(long ledgerId, long entryId) {
-        lock.readLock().lock();
-
-        try {
-            // We need to check all the segments, starting from the current one and looking
-            // backward to minimize the
-            // checks for recently inserted entries
-            int size = cacheSegments.size();
-            for (int i = 0; i < size; i++) {
-                int segmentIdx = (currentSegmentIdx + (size - i)) % size;
-
-                LongPair res = cacheIndexes.get(segmentIdx).get(ledgerId, entryId);
-                if (res != null) {
-                    int entryOffset = (int) res.first;
-                    int entryLen = (int) res.second;
-
-                    ByteBuf entry = allocator.buffer(entryLen, entryLen);
-                    entry.writeBytes(cacheSegments.get(segmentIdx), entryOffset, entryLen);
-                    return entry;
-                }
-            }
-        } finally {
-            lock.readLock().unlock();
+    /**
+     * @return the total number of cached entries
+     */
+    public long count() {
+        long count = 0;
+        for (Shard shard : shards) {
+            count += shard.index.size();
         }
+        return count;
+    }
 
-        // Entry not found in any segment
-        return null;
+    private Shard getShard(long ledgerId) {
+        // Spread the ledger ids, since they are usually sequential
+        long h = ledgerId * 0x9E3779B97F4A7C15L;
+        return shards[(int) (h ^ (h >>> 32)) & shardsMask];
     }
 
-    public boolean hasEntry(long ledgerId, long entryId) {
-        lock.readLock().lock();
+    /**
+     * A ring of segments with a single index.
+     *
+     * <p>Segments are identified by a generation number, which grows every time the
+     * shard moves to the next segment. The segment of generation {@code g} is
+     * {@code g % segmentsCount}. The index values hold the generation and the offset
+     * of the entry, so stale index items are detected by comparing generations.
+     */
+    private final class Shard {
+        private final ByteBuf[] segments;
+        private final long[] segmentGenerations;
+        private final int[] segmentFill;
+        // Readers use optimistic stamps, writers hold the read lock while copying
+        // into a segment and the rollover holds the write lock to recycle it
+        private final StampedLock[] segmentLocks;
+        private final int segmentSize;
+
+        private final ConcurrentLongLongPairHashMap index;
+
+        // Current generation in the high 32 bits and write offset in the low 32 bits
+        private final AtomicLong current = new AtomicLong(0);
+
+        Shard(int segmentsCount, int segmentSize, int concurrencyLevel) {
+            this.segmentSize = segmentSize;
+            this.segments = new ByteBuf[segmentsCount];
+            this.segmentGenerations = new long[segmentsCount];
+            this.segmentFill = new int[segmentsCount];
+            this.segmentLocks = new StampedLock[segmentsCount];
+            for (int i = 0; i < segmentsCount; i++) {
+                segments[i] = Unpooled.directBuffer(segmentSize, segmentSize);
+                segmentLocks[i] = new StampedLock();
+                // Generation i will only be used after i rollovers, mark the segment as unused
+                segmentGenerations[i] = -1;
+            }
+            segmentGenerations[0] = 0;
+
+            this.index = ConcurrentLongLongPairHashMap.newBuilder()
+                    .expectedItems(4096)
+                    .concurrencyLevel(concurrencyLevel)
+                    .build();
+        }
 
-        try {
-            int size = cacheSegments.size();
-            for (int i = 0; i < size; i++) {
-                int segmentIdx = (currentSegmentIdx + (size - i)) % size;
+        void close() {
+            for (ByteBuf segment : segments) {
+                segment.release();
+            }
+        }
+
+        boolean put(long ledgerId, long entryId, ByteBuf entry) {
+            int entrySize = entry.readableBytes();
+            int alignedSize = align64(ENTRY_HEADER_SIZE + entrySize);
+            if (alignedSize > segmentSize) {
+                log.warn("entrySize {} > segmentSize {}, skip update read cache!", entrySize, segmentSize);
+                return false;
+            }
 
-                LongPair res = cacheIndexes.get(segmentIdx).get(ledgerId, entryId);
-                if (res != null) {
+            while (true) {
+                long state = current.get();
+                long generation = state >>> 32;
+                int offset = (int) state;
+                if (offset + alignedSize > segmentSize) {
+                    rollover(generation);
+                    continue;
+                }
+
+                int segmentIdx = (int) (generation % segments.length);
+                StampedLock lock = segmentLocks[segmentIdx];
+                long stamp = lock.readLock();
+                try {
+                    // Only reserve space while holding the segment, so that it cannot be recycled
+                    // before the entry is copied and indexed
+                    if (segmentGenerations[segmentIdx] != generation
+                            || !current.compareAndSet(state, state + alignedSize)) {
+                        continue;
+                    }
+
+                    ByteBuf segment = segments[segmentIdx];
+                    segment.setLong(offset, ledgerId);
+                    segment.setLong(offset + Long.BYTES, entryId);
+                    segment.setInt(offset + 2 * Long.BYTES, entrySize);
+                    segment.setBytes(offset + ENTRY_HEADER_SIZE, entry, entry.readerIndex(), entrySize);
+                    index.put(ledgerId, entryId, (generation << 32) | offset, entrySize);
                     return true;
+                } finally {
+                    lock.unlockRead(stamp);
                 }
             }
-        } finally {
-            lock.readLock().unlock();
         }
 
-        // Entry not found in any segment
-        return false;
-    }
-
-    /**
-     * @return the total size of cached entries
-     */
-    public long size() {
-        lock.readLock().lock();
-
-        try {
-            long size = 0;
-            for (int i = 0; i < cacheIndexes.size(); i++) {
-                if (i == currentSegmentIdx) {
-                    size += currentSegmentOffset.get();
-                } else if (!cacheIndexes.get(i).isEmpty()) {
-                    size += segmentSize;
-                } else {
-                    // the segment is empty
+        private synchronized void rollover(long generation) {
+            long state;
+            do {
+                state = current.get();
+                if ((state >>> 32) != generation) {
+                    // Another writer already moved to the next segment
+                    return;
+                }
+                // Mark the segment as full, so that no more space can be reserved in it
+            } while (!current.compareAndSet(state, (generation << 32) | segmentSize));
+            segmentFill[(int) (generation % segments.length)] = (int) state;
+
+            long nextGeneration = generation + 1;
+            int segmentIdx = (int) (nextGeneration % segments.length);
+            StampedLock lock = segmentLocks[segmentIdx];
+            long stamp = lock.writeLock();
+            try {
+                long oldGeneration = segmentGenerations[segmentIdx];
+                if (oldGeneration >= 0) {
+                    // Drop the index items pointing into the segment we are about to reuse
+                    ByteBuf segment = segments[segmentIdx];
+                    int fill = segmentFill[segmentIdx];
+                    long evicted = 0;
+                    for (int offset = 0; offset < fill; ) {
+                        long ledgerId = segment.getLong(offset);
+                        long entryId = segment.getLong(offset + Long.BYTES);
+                        int entrySize = segment.getInt(offset + 2 * Long.BYTES);
+                        long location = (oldGeneration << 32) | offset;
+                        if (index.remove(ledgerId, entryId, location, entrySize)
+                                || index.remove(ledgerId, entryId, location, entrySize | ACCESSED_FLAG)) {
+                            evicted++;
+                        }
+                        offset += align64(ENTRY_HEADER_SIZE + entrySize);
+                    }
+                    evictedCounter.add(evicted);
                 }
+                segmentGenerations[segmentIdx] = nextGeneration;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+            current.set(nextGeneration << 32);
+        }
+
+        ByteBuf get(long ledgerId, long entryId) {
+            LongPair res = index.get(ledgerId, entryId);
+            if (res == null) {
+                return null;
             }
 
-            return size;
-        } finally {
-            lock.readLock().unlock();
+            long generation = res.first >>> 32;
+            int entryOffset = (int) res.first + ENTRY_HEADER_SIZE;
+            int entryLen = (int) res.second;
+            int segmentIdx = (int) (generation % segments.length);
+            StampedLock lock = segmentLocks[segmentIdx];
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0 || segmentGenerations[segmentIdx] != generation) {
+                // The segment is being recycled or has been already
+                return null;
+            }
+
+            ByteBuf entry = allocator.buffer(entryLen, entryLen);
+            entry.writeBytes(segments[segmentIdx], entryOffset, entryLen);
+            if (!lock.validate(stamp)) {
+                entry.release();
+                return null;
+            }
+            return entry;
         }
-    }
 
-    /**
-     * @return the total number of cached entries
-     */
-    public long count() {
-        lock.readLock().lock();
+        boolean markAccessed(long ledgerId, long entryId) {
+            LongPair res = index.get(ledgerId, entryId);
+            if (res == null) {
+                return false;
+            } else if ((res.second & ACCESSED_FLAG) != 0) {
+                return true;
+            }
+
+            long generation = res.first >>> 32;
+            int segmentIdx = (int) (generation % segments.length);
+            StampedLock lock = segmentLocks[segmentIdx];
+            long stamp = lock.readLock();
+            try {
+                // Holding the segment, so that the rollover cannot miss the marked index item.
+                // A reader may briefly miss the entry, or a concurrent put replace it, while
+                // the item is swapped, and the entry is then left unmarked.
+                if (segmentGenerations[segmentIdx] == generation
+                        && index.remove(ledgerId, entryId, res.first, res.second)) {
+                    index.putIfAbsent(ledgerId, entryId, res.first, res.second | ACCESSED_FLAG);
+                }
+                return false;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
 
-        try {
-            long count = 0;
-            for (int i = 0; i < cacheIndexes.size(); i++) {
-                count += cacheIndexes.get(i).size();
+        boolean hasEntry(long ledgerId, long entryId) {
+            LongPair res = index.get(ledgerId, entryId);
+            if (res == null) {
+                return false;
             }
 
-            return count;
-        } finally {
-            lock.readLock().unlock();
+            long generation = res.first >>> 32;
+            int segmentIdx = (int) (generation % segments.length);
+            StampedLock lock = segmentLocks[segmentIdx];
+            long stamp = lock.tryOptimisticRead();
+            return stamp != 0 && segmentGenerations[segmentIdx] == generation && lock.validate(stamp);
+        }
+
+        long size() {
+            long state = current.get();
+            long generation = state >>> 32;
+            // All the previous segments are full, up to the ring size
+            return Math.min(generation, segments.length - 1) * (long) segmentSize + (int) state;
         }
     }
 }
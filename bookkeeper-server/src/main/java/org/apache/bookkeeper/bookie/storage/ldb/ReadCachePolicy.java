@@ -0,0 +1,113 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.Closeable;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.Counter;
+
+/**
+ * Admission and eviction policy of the DbLedgerStorage read cache.
+ *
+ * <p>The policy owns the cache memory and decides where, and whether, entries read
+ * from the entry logs are kept. Entries are either requested by a reader or loaded
+ * by read-ahead, and a policy can treat the two differently.
+ *
+ * <p>Implementations are instantiated by reflection, see
+ * {@link DbLedgerStorage#READ_CACHE_POLICY}, and need a no-args constructor.
+ */
+public interface ReadCachePolicy extends Closeable {
+
+    /**
+     * Counters updated by the policy.
+     */
+    interface Stats {
+        /**
+         * @return counter of entries inserted in the cache
+         */
+        Counter getReadCacheAdmittedCounter();
+
+        /**
+         * @return counter of entries the policy refused to cache
+         */
+        Counter getReadCacheRejectedCounter();
+
+        /**
+         * @return counter of entries dropped from the cache to make space
+         */
+        Counter getReadCacheEvictedCounter();
+
+        /**
+         * @return counter of read-ahead entries moved to the main cache after being read
+         */
+        Counter getReadCachePromotedCounter();
+
+        /**
+         * @return counter of cache hits on entries loaded by read-ahead
+         */
+        Counter getReadAheadCacheHitCounter();
+    }
+
+    /**
+     * Allocate the cache.
+     *
+     * @param conf server configuration
+     * @param allocator allocator for the buffers returned by {@link #get(long, long)}
+     * @param maxCacheSize total memory to use, in bytes
+     * @param stats counters to update
+     */
+    void initialize(ServerConfiguration conf, ByteBufAllocator allocator, long maxCacheSize, Stats stats);
+
+    /**
+     * @return the policy name, used to label its stats
+     */
+    String getName();
+
+    /**
+     * Offer an entry to the cache.
+     *
+     * @param readAhead whether the entry was loaded by read-ahead rather than requested
+     * @return whether the entry was cached
+     */
+    boolean put(long ledgerId, long entryId, ByteBuf entry, boolean readAhead);
+
+    /**
+     * @return a copy of the cached entry, or null if the entry is not in the cache
+     */
+    ByteBuf get(long ledgerId, long entryId);
+
+    boolean hasEntry(long ledgerId, long entryId);
+
+    /**
+     * @return the total size of cached entries
+     */
+    long size();
+
+    /**
+     * @return the total number of cached entries
+     */
+    long count();
+
+    @Override
+    void close();
+}
@@ -0,0 +1,115 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+
+/**
+ * Read cache policy that keeps read-ahead entries out of the main cache until they
+ * are actually read.
+ *
+ * <p>Entries loaded by read-ahead are admitted in a smaller probation cache, sized by
+ * {@link DbLedgerStorage#READ_CACHE_READ_AHEAD_FRACTION}. They are moved to the main
+ * cache on their second hit. A reader scanning an old ledger reads each entry once,
+ * so it only churns the probation cache, and does not evict the entries of the tailing
+ * readers.
+ */
+public class ScanResistantReadCachePolicy implements ReadCachePolicy {
+
+    private ReadCache mainCache;
+    private ReadCache readAheadCache;
+    private Stats stats;
+
+    @Override
+    public void initialize(ServerConfiguration conf, ByteBufAllocator allocator, long maxCacheSize, Stats stats) {
+        double readAheadFraction = conf.getDouble(DbLedgerStorage.READ_CACHE_READ_AHEAD_FRACTION,
+                DbLedgerStorage.DEFAULT_READ_CACHE_READ_AHEAD_FRACTION);
+        if (readAheadFraction <= 0 || readAheadFraction >= 1) {
+            throw new IllegalArgumentException(DbLedgerStorage.READ_CACHE_READ_AHEAD_FRACTION
+                    + " must be between 0 and 1: " + readAheadFraction);
+        }
+        long readAheadCacheSize = (long) (maxCacheSize * readAheadFraction);
+
+        this.stats = stats;
+        this.mainCache = new ReadCache(allocator, maxCacheSize - readAheadCacheSize,
+                stats.getReadCacheEvictedCounter());
+        this.readAheadCache = new ReadCache(allocator, readAheadCacheSize, stats.getReadCacheEvictedCounter());
+    }
+
+    @Override
+    public String getName() {
+        return "scan-resistant";
+    }
+
+    @Override
+    public boolean put(long ledgerId, long entryId, ByteBuf entry, boolean readAhead) {
+        ReadCache cache = readAhead ? readAheadCache : mainCache;
+        if (cache.put(ledgerId, entryId, entry)) {
+            stats.getReadCacheAdmittedCounter().inc();
+            return true;
+        } else {
+            stats.getReadCacheRejectedCounter().inc();
+            return false;
+        }
+    }
+
+    @Override
+    public ByteBuf get(long ledgerId, long entryId) {
+        ByteBuf entry = mainCache.get(ledgerId, entryId);
+        if (entry != null) {
+            return entry;
+        }
+
+        entry = readAheadCache.get(ledgerId, entryId);
+        if (entry != null) {
+            stats.getReadAheadCacheHitCounter().inc();
+            // The entry is read again, keep it around with the requested ones
+            if (readAheadCache.markAccessed(ledgerId, entryId) && mainCache.put(ledgerId, entryId, entry)) {
+                readAheadCache.remove(ledgerId, entryId);
+                stats.getReadCachePromotedCounter().inc();
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public boolean hasEntry(long ledgerId, long entryId) {
+        return mainCache.hasEntry(ledgerId, entryId) || readAheadCache.hasEntry(ledgerId, entryId);
+    }
+
+    @Override
+    public long size() {
+        return mainCache.size() + readAheadCache.size();
+    }
+
+    @Override
+    public long count() {
+        return mainCache.count() + readAheadCache.count();
+    }
+
+    @Override
+    public void close() {
+        mainCache.close();
+        readAheadCache.close();
+    }
+}
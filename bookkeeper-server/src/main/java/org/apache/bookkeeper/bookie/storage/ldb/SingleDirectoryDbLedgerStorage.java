@@ -31,22 +31,29 @@ import com.google.protobuf.ByteString;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.FileRegion;
 import io.netty.buffer.Unpooled;
 import io.netty.util.concurrent.DefaultThreadFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.PrimitiveIterator.OfLong;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.StampedLock;
 
@@ -58,7 +65,7 @@ import org.apache.bookkeeper.bookie.CheckpointSource;
 import org.apache.bookkeeper.bookie.CheckpointSource.Checkpoint;
 import org.apache.bookkeeper.bookie.Checkpointer;
 import org.apache.bookkeeper.bookie.CompactableLedgerStorage;
-import org.apache.bookkeeper.bookie.DefaultEntryLogger;
+import org.apache.bookkeeper.bookie.CompactionScheduler;
 import org.apache.bookkeeper.bookie.EntryLocation;
 import org.apache.bookkeeper.bookie.GarbageCollectionStatus;
 import org.apache.bookkeeper.bookie.GarbageCollectorThread;
@@ -71,6 +78,7 @@ import org.apache.bookkeeper.bookie.StateManager;
 import org.apache.bookkeeper.bookie.storage.EntryLogger;
 import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorageDataFormats.LedgerData;
 import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.common.util.ReflectionUtils;
 import org.apache.bookkeeper.common.util.Watcher;
 import org.apache.bookkeeper.conf.ServerConfiguration;
 import org.apache.bookkeeper.meta.LedgerManager;
@@ -100,26 +108,43 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
     private final ConcurrentLongHashMap<TransientLedgerInfo> transientLedgerInfoCache;
 
     private final GarbageCollectorThread gcThread;
+    private final CompactionScheduler compactionScheduler;
 
     // Write cache where all new entries are inserted into
     protected volatile WriteCache writeCache;
 
-    // Write cache that is used to swap with writeCache during flushes
-    protected volatile WriteCache writeCacheBeingFlushed;
+    // Write caches that were rotated out and are going through the flush pipeline, oldest first
+    protected volatile WriteCacheGeneration[] writeCachesBeingFlushed = new WriteCacheGeneration[0];
+
+    // Empty write caches, ready to replace the current one when it gets rotated
+    private final BlockingQueue<WriteCache> freeWriteCaches;
+
+    // Generations whose flush failed, to be retried on the next checkpoint
+    private final Queue<WriteCacheGeneration> failedFlushes = new ConcurrentLinkedQueue<>();
+
+    // Guarded by writeCacheRotationLock write lock
+    private long nextGenerationSequence = 0;
 
     // Cache where we insert entries for speculative reading
-    private final ReadCache readCache;
+    private final ReadCachePolicy readCache;
+
+    // Decides how many entries to read ahead after a read cache miss
+    private final AdaptiveReadAhead readAhead;
+    private final ReadAheadPrefetcher readAheadPrefetcher;
 
     private final StampedLock writeCacheRotationLock = new StampedLock();
 
     protected final ReentrantLock flushMutex = new ReentrantLock();
 
-    protected final AtomicBoolean hasFlushBeenTriggered = new AtomicBoolean(false);
-    private final AtomicBoolean isFlushOngoing = new AtomicBoolean(false);
-
     private static String dbStoragerExecutorName = "db-storage";
+    // Flush pipeline stages, each one single threaded so that generations go through them in order:
+    // sorting of the write cache, append to the entry log, commit of the indexes
+    private final ExecutorService flushSortExecutor = Executors.newSingleThreadExecutor(
+            new DefaultThreadFactory("db-storage-flush-sort"));
     private final ExecutorService executor = Executors.newSingleThreadExecutor(
             new DefaultThreadFactory(dbStoragerExecutorName));
+    private final ExecutorService indexFlushExecutor = Executors.newSingleThreadExecutor(
+            new DefaultThreadFactory("db-storage-index-flush"));
 
     // Executor used to for db index cleanup
     private final ScheduledExecutorService cleanupExecutor = Executors
@@ -133,7 +158,6 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     private final long writeCacheMaxSize;
     private final long readCacheMaxSize;
-    private final int readAheadCacheBatchSize;
 
     private final long maxThrottleTimeNanos;
 
@@ -141,14 +165,18 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
     private static final long DEFAULT_MAX_THROTTLE_TIME_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
+    private static final long FLUSH_STAGE_SHUTDOWN_TIMEOUT_SECONDS = 60;
+
     private final long maxReadAheadBytesSize;
 
     private final Counter flushExecutorTime;
 
     public SingleDirectoryDbLedgerStorage(ServerConfiguration conf, LedgerManager ledgerManager,
-            LedgerDirsManager ledgerDirsManager, LedgerDirsManager indexDirsManager, StatsLogger statsLogger,
-            ByteBufAllocator allocator, ScheduledExecutorService gcExecutor, long writeCacheSize, long readCacheSize,
-            int readAheadCacheBatchSize) throws IOException {
+            LedgerDirsManager ledgerDirsManager, LedgerDirsManager indexDirsManager, EntryLogger entryLogger,
+            StatsLogger statsLogger, ByteBufAllocator allocator, ScheduledExecutorService gcExecutor,
+            CompactionScheduler compactionScheduler, long writeCacheSize, long readCacheSize,
+            long entryLocationCacheSize, int readAheadCacheBatchSize)
+            throws IOException {
         checkArgument(ledgerDirsManager.getAllLedgerDirs().size() == 1,
                 "Db implementation only allows for one storage dir");
 
@@ -159,24 +187,39 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 ledgerDirsManager.getAllLedgerDirs().get(0).getPath());
 
         this.writeCacheMaxSize = writeCacheSize;
-        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / 2);
-        this.writeCacheBeingFlushed = new WriteCache(allocator, writeCacheMaxSize / 2);
+        int writeCacheGenerations = conf.getInt(DbLedgerStorage.WRITE_CACHE_GENERATIONS,
+                DbLedgerStorage.DEFAULT_WRITE_CACHE_GENERATIONS);
+        checkArgument(writeCacheGenerations >= 2, "%s must be at least 2",
+                DbLedgerStorage.WRITE_CACHE_GENERATIONS);
+        this.writeCache = new WriteCache(allocator, writeCacheMaxSize / writeCacheGenerations);
+        this.freeWriteCaches = new ArrayBlockingQueue<>(writeCacheGenerations - 1);
+        for (int i = 1; i < writeCacheGenerations; i++) {
+            freeWriteCaches.add(new WriteCache(allocator, writeCacheMaxSize / writeCacheGenerations));
+        }
 
         readCacheMaxSize = readCacheSize;
-        this.readAheadCacheBatchSize = readAheadCacheBatchSize;
 
         // Do not attempt to perform read-ahead more than half the total size of the cache
         maxReadAheadBytesSize = readCacheMaxSize / 2;
+        this.readAhead = new AdaptiveReadAhead(readAheadCacheBatchSize,
+                conf.getInt(DbLedgerStorage.READ_AHEAD_CACHE_MAX_BATCH_SIZE, 10 * readAheadCacheBatchSize),
+                conf.getBoolean(DbLedgerStorage.READ_AHEAD_ADAPTIVE, true));
 
         long maxThrottleTimeMillis = conf.getLong(DbLedgerStorage.MAX_THROTTLE_TIME_MILLIS,
                 DEFAULT_MAX_THROTTLE_TIME_MILLIS);
         maxThrottleTimeNanos = TimeUnit.MILLISECONDS.toNanos(maxThrottleTimeMillis);
 
-        readCache = new ReadCache(allocator, readCacheMaxSize);
+        String readCachePolicyClass = conf.getString(DbLedgerStorage.READ_CACHE_POLICY,
+                FifoReadCachePolicy.class.getName());
+        try {
+            readCache = ReflectionUtils.newInstance(readCachePolicyClass, ReadCachePolicy.class);
+        } catch (RuntimeException e) {
+            throw new IOException("Failed to instantiate read cache policy : " + readCachePolicyClass, e);
+        }
 
         ledgerIndex = new LedgerMetadataIndex(conf, KeyValueStorageRocksDB.factory, baseDir, ledgerDirStatsLogger);
         entryLocationIndex = new EntryLocationIndex(conf,
-                KeyValueStorageRocksDB.factory, baseDir, ledgerDirStatsLogger);
+                KeyValueStorageRocksDB.factory, baseDir, ledgerDirStatsLogger, allocator, entryLocationCacheSize);
 
         transientLedgerInfoCache = ConcurrentLongHashMap.<TransientLedgerInfo>newBuilder()
                 .expectedItems(16 * 1024)
@@ -185,17 +228,28 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         cleanupExecutor.scheduleAtFixedRate(this::cleanupStaleTransientLedgerInfo,
                 TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES,
                 TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES, TimeUnit.MINUTES);
+        cleanupExecutor.scheduleAtFixedRate(readAhead::removeStaleLedgers,
+                TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES,
+                TransientLedgerInfo.LEDGER_INFO_CACHING_TIME_MINUTES, TimeUnit.MINUTES);
 
-        entryLogger = new DefaultEntryLogger(conf, ledgerDirsManager, null, statsLogger, allocator);
-        gcThread = new GarbageCollectorThread(conf, ledgerManager, ledgerDirsManager, this, entryLogger, statsLogger);
+        this.entryLogger = entryLogger;
+        this.compactionScheduler = compactionScheduler;
+        gcThread = new GarbageCollectorThread(conf, ledgerManager, ledgerDirsManager, this, entryLogger, statsLogger,
+                compactionScheduler);
 
         dbLedgerStorageStats = new DbLedgerStorageStats(
                 ledgerDirStatsLogger,
-            () -> writeCache.size() + writeCacheBeingFlushed.size(),
-            () -> writeCache.count() + writeCacheBeingFlushed.count(),
+            this::getWriteCacheSize,
+            this::getWriteCacheCount,
             () -> readCache.size(),
-            () -> readCache.count()
+            () -> readCache.count(),
+            readCache.getName()
         );
+        readCache.initialize(conf, allocator, readCacheMaxSize, dbLedgerStorageStats);
+        readAheadPrefetcher = new ReadAheadPrefetcher(
+                conf.getInt(DbLedgerStorage.READ_AHEAD_THREADS, DbLedgerStorage.DEFAULT_READ_AHEAD_THREADS),
+                conf.getInt(DbLedgerStorage.READ_AHEAD_QUEUE_SIZE, DbLedgerStorage.DEFAULT_READ_AHEAD_QUEUE_SIZE),
+                this::fillReadAheadCache, dbLedgerStorageStats);
 
         flushExecutorTime = ledgerDirStatsLogger.getThreadScopedCounter("db-storage-thread-time");
 
@@ -266,6 +320,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             flush();
 
             gcThread.shutdown();
+            readAheadPrefetcher.shutdown();
+            // A write cache rotated after the flush above may still be going through the pipeline, let it
+            // complete before closing what it uses. Stopping the stages in order ensures a stage is only
+            // stopped once the previous one can no longer hand it a generation.
+            shutdownFlushStage(flushSortExecutor);
+            shutdownFlushStage(executor);
+            shutdownFlushStage(indexFlushExecutor);
             entryLogger.close();
 
             cleanupExecutor.shutdown();
@@ -275,15 +336,24 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             entryLocationIndex.close();
 
             writeCache.close();
-            writeCacheBeingFlushed.close();
+            for (WriteCacheGeneration generation : writeCachesBeingFlushed) {
+                generation.writeCache.close();
+            }
+            freeWriteCaches.forEach(WriteCache::close);
             readCache.close();
-            executor.shutdown();
-
         } catch (IOException e) {
             log.error("Error closing db storage", e);
         }
     }
 
+    private static void shutdownFlushStage(ExecutorService stage) throws InterruptedException {
+        stage.shutdown();
+        if (!stage.awaitTermination(FLUSH_STAGE_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            log.warn("Timed out while waiting for the write cache flush to complete, forcing shutdown");
+            stage.shutdownNow();
+        }
+    }
+
     @Override
     public boolean ledgerExists(long ledgerId) throws IOException {
         try {
@@ -304,25 +374,25 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return false;
         }
 
-        // We need to try to read from both write caches, since recent entries could be found in either of the two. The
-        // write caches are already thread safe on their own, here we just need to make sure we get references to both
+        // We need to try to read from all the write caches, since recent entries could be found in any of them. The
+        // write caches are already thread safe on their own, here we just need to make sure we get references to all
         // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
         long stamp = writeCacheRotationLock.tryOptimisticRead();
         WriteCache localWriteCache = writeCache;
-        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+        WriteCacheGeneration[] localWriteCachesBeingFlushed = writeCachesBeingFlushed;
         if (!writeCacheRotationLock.validate(stamp)) {
             // Fallback to regular read lock approach
             stamp = writeCacheRotationLock.readLock();
             try {
                 localWriteCache = writeCache;
-                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+                localWriteCachesBeingFlushed = writeCachesBeingFlushed;
             } finally {
                 writeCacheRotationLock.unlockRead(stamp);
             }
         }
 
         boolean inCache = localWriteCache.hasEntry(ledgerId, entryId)
-             || localWriteCacheBeingFlushed.hasEntry(ledgerId, entryId)
+             || hasEntryBeingFlushed(localWriteCachesBeingFlushed, ledgerId, entryId)
              || readCache.hasEntry(ledgerId, entryId);
 
         if (inCache) {
@@ -438,22 +508,14 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         long absoluteTimeoutNanos = System.nanoTime() + maxThrottleTimeNanos;
 
         while (System.nanoTime() < absoluteTimeoutNanos) {
-            // Write cache is full, we need to trigger a flush so that it gets rotated
-            // If the flush has already been triggered or flush has already switched the
-            // cache, we don't need to trigger another flush
-            if (!isFlushOngoing.get() && hasFlushBeenTriggered.compareAndSet(false, true)) {
-                // Trigger an early flush in background
+            // Write cache is full, we need to rotate it so that it gets flushed in background.
+            // If all the other write caches are still being flushed, we need to wait for one of
+            // them to be done. If another thread already rotated the cache, the replacement goes
+            // back in the queue.
+            WriteCache fullWriteCache = writeCache;
+            WriteCache replacement = freeWriteCaches.poll();
+            if (replacement != null && rotateWriteCache(fullWriteCache, replacement) != null) {
                 log.info("Write cache is full, triggering flush");
-                executor.execute(() -> {
-                        long startTime = System.nanoTime();
-                        try {
-                            flush();
-                        } catch (IOException e) {
-                            log.error("Error during flush", e);
-                        } finally {
-                            flushExecutorTime.add(MathUtils.elapsedNanos(startTime));
-                        }
-                    });
             }
 
             long stamp = writeCacheRotationLock.readLock();
@@ -488,6 +550,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         try {
             ByteBuf entry = doGetEntry(ledgerId, entryId);
             recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+            compactionScheduler.recordLatency(MathUtils.elapsedNanos(startTime));
             return entry;
         } catch (IOException e) {
             recordFailedEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
@@ -504,18 +567,18 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return getLastEntry(ledgerId);
         }
 
-        // We need to try to read from both write caches, since recent entries could be found in either of the two. The
-        // write caches are already thread safe on their own, here we just need to make sure we get references to both
+        // We need to try to read from all the write caches, since recent entries could be found in any of them. The
+        // write caches are already thread safe on their own, here we just need to make sure we get references to all
         // of them. Using an optimistic lock since the read lock is always free, unless we're swapping the caches.
         long stamp = writeCacheRotationLock.tryOptimisticRead();
         WriteCache localWriteCache = writeCache;
-        WriteCache localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+        WriteCacheGeneration[] localWriteCachesBeingFlushed = writeCachesBeingFlushed;
         if (!writeCacheRotationLock.validate(stamp)) {
             // Fallback to regular read lock approach
             stamp = writeCacheRotationLock.readLock();
             try {
                 localWriteCache = writeCache;
-                localWriteCacheBeingFlushed = writeCacheBeingFlushed;
+                localWriteCachesBeingFlushed = writeCachesBeingFlushed;
             } finally {
                 writeCacheRotationLock.unlockRead(stamp);
             }
@@ -528,11 +591,13 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             return entry;
         }
 
-        // If there's a flush going on, the entry might be in the flush buffer
-        entry = localWriteCacheBeingFlushed.get(ledgerId, entryId);
-        if (entry != null) {
-            dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-            return entry;
+        // If there's a flush going on, the entry might be in the flush buffers, newest first
+        for (int i = localWriteCachesBeingFlushed.length - 1; i >= 0; i--) {
+            entry = localWriteCachesBeingFlushed[i].writeCache.get(ledgerId, entryId);
+            if (entry != null) {
+                dbLedgerStorageStats.getWriteCacheHitCounter().inc();
+                return entry;
+            }
         }
 
         dbLedgerStorageStats.getWriteCacheMissCounter().inc();
@@ -541,6 +606,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         entry = readCache.get(ledgerId, entryId);
         if (entry != null) {
             dbLedgerStorageStats.getReadCacheHitCounter().inc();
+            readAhead.recordHit(ledgerId, entryId);
             return entry;
         }
 
@@ -561,6 +627,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             dbLedgerStorageStats.getReadFromLocationIndexTime().add(MathUtils.elapsedNanos(locationIndexStartNano));
         }
 
+        return readFromEntryLog(ledgerId, entryId, entryLocation);
+    }
+
+    private ByteBuf readFromEntryLog(long ledgerId, long entryId, long entryLocation) throws IOException {
+        ByteBuf entry;
         long readEntryStartNano = MathUtils.nowInNano();
         try {
             entry = entryLogger.readEntry(ledgerId, entryId, entryLocation);
@@ -568,16 +639,82 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             dbLedgerStorageStats.getReadFromEntryLogTime().add(MathUtils.elapsedNanos(readEntryStartNano));
         }
 
-        readCache.put(ledgerId, entryId, entry);
+        readCache.put(ledgerId, entryId, entry, false);
+        scheduleReadAhead(ledgerId, entryId, entryLocation, entry.readableBytes());
+        return entry;
+    }
 
-        // Try to read more entries
-        long nextEntryLocation = entryLocation + 4 /* size header */ + entry.readableBytes();
-        fillReadAheadCache(ledgerId, entryId + 1, nextEntryLocation);
+    private void scheduleReadAhead(long ledgerId, long entryId, long entryLocation, long entrySize) {
+        // Try to read more entries, unless the ledger is being read randomly
+        int readAheadCount = readAhead.recordMiss(ledgerId, entryId);
+        if (readAheadCount > 0) {
+            long nextEntryLocation = entryLocation + 4 /* size header */ + entrySize;
+            readAheadPrefetcher.readAhead(ledgerId, entryId + 1, nextEntryLocation, readAheadCount);
+        } else {
+            dbLedgerStorageStats.getReadAheadSkippedCounter().inc();
+        }
+    }
 
-        return entry;
+    @Override
+    public FileRegion getEntryRegion(long ledgerId, long entryId, int minEntrySize)
+            throws IOException, BookieException {
+        if (entryId == BookieProtocol.LAST_ADD_CONFIRMED) {
+            return null;
+        }
+
+        // The entries which are cached are read from memory
+        long stamp = writeCacheRotationLock.tryOptimisticRead();
+        WriteCache localWriteCache = writeCache;
+        WriteCacheGeneration[] localWriteCachesBeingFlushed = writeCachesBeingFlushed;
+        if (!writeCacheRotationLock.validate(stamp)) {
+            stamp = writeCacheRotationLock.readLock();
+            try {
+                localWriteCache = writeCache;
+                localWriteCachesBeingFlushed = writeCachesBeingFlushed;
+            } finally {
+                writeCacheRotationLock.unlockRead(stamp);
+            }
+        }
+        if (localWriteCache.hasEntry(ledgerId, entryId)) {
+            return null;
+        }
+        for (WriteCacheGeneration generation : localWriteCachesBeingFlushed) {
+            if (generation.writeCache.hasEntry(ledgerId, entryId)) {
+                return null;
+            }
+        }
+        if (readCache.hasEntry(ledgerId, entryId)) {
+            return null;
+        }
+
+        long startTime = MathUtils.nowInNano();
+        long entryLocation = entryLocationIndex.getLocation(ledgerId, entryId);
+        dbLedgerStorageStats.getReadFromLocationIndexTime().add(MathUtils.elapsedNanos(startTime));
+        if (entryLocation == 0) {
+            // getEntry() reports the missing entry
+            return null;
+        }
+
+        long readEntryStartNano = MathUtils.nowInNano();
+        FileRegion region = entryLogger.readEntryRegion(ledgerId, entryId, entryLocation, minEntrySize);
+        if (region == null) {
+            // The entry is too small, or the entry logger can't provide regions: it's read as getEntry()
+            // would have, so that getEntry() finds it in the read cache rather than looking it up again
+            readFromEntryLog(ledgerId, entryId, entryLocation).release();
+            return null;
+        }
+        dbLedgerStorageStats.getReadFromEntryLogTime().add(MathUtils.elapsedNanos(readEntryStartNano));
+        dbLedgerStorageStats.getWriteCacheMissCounter().inc();
+        dbLedgerStorageStats.getReadCacheMissCounter().inc();
+        dbLedgerStorageStats.getReadEntryRegionCounter().inc();
+        recordSuccessfulEvent(dbLedgerStorageStats.getReadEntryStats(), startTime);
+
+        scheduleReadAhead(ledgerId, entryId, entryLocation, region.count());
+        return region;
     }
 
-    private void fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation) {
+    private void fillReadAheadCache(long orginalLedgerId, long firstEntryId, long firstEntryLocation,
+                                    int maxCount) {
         long readAheadStartNano = MathUtils.nowInNano();
         int count = 0;
         long size = 0;
@@ -587,7 +724,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             long currentEntryLogId = firstEntryLogId;
             long currentEntryLocation = firstEntryLocation;
 
-            while (count < readAheadCacheBatchSize
+            while (count < maxCount
                     && size < maxReadAheadBytesSize
                     && currentEntryLogId == firstEntryLogId) {
                 ByteBuf entry = entryLogger.readEntry(orginalLedgerId,
@@ -603,7 +740,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                     }
 
                     // Insert entry in read cache
-                    readCache.put(orginalLedgerId, currentEntryId, entry);
+                    readCache.put(orginalLedgerId, currentEntryId, entry, true);
 
                     count++;
                     firstEntryId++;
@@ -648,20 +785,24 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
                 return entry;
             }
 
-            // If there's a flush going on, the entry might be in the flush buffer
-            entry = writeCacheBeingFlushed.getLastEntry(ledgerId);
-            if (entry != null) {
-                if (log.isDebugEnabled()) {
-                    entry.readLong(); // ledgedId
-                    long entryId = entry.readLong();
-                    entry.resetReaderIndex();
+            // If there's a flush going on, the entry might be in the flush buffers, newest first
+            WriteCacheGeneration[] localWriteCachesBeingFlushed = writeCachesBeingFlushed;
+            for (int i = localWriteCachesBeingFlushed.length - 1; i >= 0; i--) {
+                entry = localWriteCachesBeingFlushed[i].writeCache.getLastEntry(ledgerId);
+                if (entry != null) {
                     if (log.isDebugEnabled()) {
-                        log.debug("Found last entry for ledger {} in write cache being flushed: {}", ledgerId, entryId);
+                        entry.readLong(); // ledgedId
+                        long entryId = entry.readLong();
+                        entry.resetReaderIndex();
+                        if (log.isDebugEnabled()) {
+                            log.debug("Found last entry for ledger {} in write cache being flushed: {}", ledgerId,
+                                    entryId);
+                        }
                     }
-                }
 
-                dbLedgerStorageStats.getWriteCacheHitCounter().inc();
-                return entry;
+                    dbLedgerStorageStats.getWriteCacheHitCounter().inc();
+                    return entry;
+                }
             }
         } finally {
             writeCacheRotationLock.unlockRead(stamp);
@@ -704,24 +845,165 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
 
         long startTime = MathUtils.nowInNano();
 
-        // Only a single flush operation can happen at a time
+        // Only a single checkpoint can happen at a time
         flushMutex.lock();
         try {
-            // Swap the write cache so that writes can continue to happen while the flush is
-            // ongoing
-            swapWriteCache();
+            // Rotate the write cache so that writes can continue to happen while the flush is
+            // ongoing. The checkpoint is done once all the generations up to this one are flushed.
+            retryFailedFlushes();
+            long lastSequence;
+            if (isFlushRequired()) {
+                WriteCache replacement = null;
+                while (replacement == null) {
+                    WriteCacheGeneration failed = failedFlushes.peek();
+                    if (failed != null) {
+                        // No cache would be freed by the failed generations
+                        throw new IOException("Failed to flush write cache", failed.failure);
+                    }
+                    try {
+                        replacement = freeWriteCaches.poll(100, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for a write cache to be flushed", e);
+                    }
+                }
+                lastSequence = rotateWriteCache(null, replacement).sequence;
+            } else {
+                lastSequence = lastGenerationSequence();
+            }
+
+            for (WriteCacheGeneration generation : writeCachesBeingFlushed) {
+                if (generation.sequence <= lastSequence) {
+                    generation.flushFuture.join();
+                }
+            }
+            for (WriteCacheGeneration generation : writeCachesBeingFlushed) {
+                if (generation.sequence <= lastSequence) {
+                    // Either failed or still behind a failed one
+                    throw new IOException("Failed to flush write cache", generation.failure);
+                }
+            }
+
+            cleanupExecutor.execute(() -> {
+                // There can only be one single cleanup task running because the cleanupExecutor
+                // is single-threaded
+                try {
+                    if (log.isDebugEnabled()) {
+                        log.debug("Removing deleted ledgers from db indexes");
+                    }
+
+                    entryLocationIndex.removeOffsetFromDeletedLedgers();
+                    ledgerIndex.removeDeletedLedgers();
+                } catch (Throwable t) {
+                    log.warn("Failed to cleanup db indexes", t);
+                }
+            });
+
+            lastCheckpoint = thisCheckpoint;
 
-            long sizeToFlush = writeCacheBeingFlushed.size();
             if (log.isDebugEnabled()) {
-                log.debug("Flushing entries. count: {} -- size {} Mb", writeCacheBeingFlushed.count(),
-                        sizeToFlush / 1024.0 / 1024);
+                log.debug("Checkpoint done in {} s",
+                        MathUtils.elapsedNanos(startTime) / (double) TimeUnit.SECONDS.toNanos(1));
+            }
+        } finally {
+            flushMutex.unlock();
+        }
+    }
+
+    private long lastGenerationSequence() {
+        long stamp = writeCacheRotationLock.readLock();
+        try {
+            return nextGenerationSequence - 1;
+        } finally {
+            writeCacheRotationLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Rotate the current write cache into the flush pipeline, replacing it with an empty one.
+     *
+     * @param expected the write cache to rotate, or null to rotate the current one, whichever it is
+     * @param replacement the empty write cache that becomes the current one
+     * @return the rotated generation, or null if {@code expected} was already rotated by someone else
+     */
+    private WriteCacheGeneration rotateWriteCache(WriteCache expected, WriteCache replacement) {
+        long stamp = writeCacheRotationLock.writeLock();
+        try {
+            if (expected != null && expected != writeCache) {
+                freeWriteCaches.add(replacement);
+                return null;
+            }
+
+            WriteCacheGeneration generation = new WriteCacheGeneration(writeCache, nextGenerationSequence++);
+            WriteCacheGeneration[] generations = Arrays.copyOf(writeCachesBeingFlushed,
+                    writeCachesBeingFlushed.length + 1);
+            generations[generations.length - 1] = generation;
+            writeCachesBeingFlushed = generations;
+            writeCache = replacement;
+
+            // Submitted while holding the lock, so that the generations enter the pipeline in order
+            generation.flushFuture = submitFlush(generation);
+            return generation;
+        } finally {
+            writeCacheRotationLock.unlockWrite(stamp);
+        }
+    }
+
+    private void retryFailedFlushes() {
+        WriteCacheGeneration generation;
+        while ((generation = failedFlushes.poll()) != null) {
+            log.info("Retrying flush of write cache generation {}", generation.sequence);
+            long stamp = writeCacheRotationLock.writeLock();
+            try {
+                generation.failure = null;
+                generation.flushFuture = submitFlush(generation);
+            } finally {
+                writeCacheRotationLock.unlockWrite(stamp);
             }
+        }
+    }
+
+    /**
+     * Flush a write cache generation through the pipeline stages. Since each stage is single threaded, the
+     * sorting of a generation and the commit of the indexes of another one can overlap with the entry log
+     * append of a third one.
+     *
+     * <p>A failed generation stays readable and is retried on the next checkpoint. It may then be indexed
+     * after a newer generation, which is fine since an entry is always re-added with the same content.
+     */
+    private CompletableFuture<Void> submitFlush(WriteCacheGeneration generation) {
+        return CompletableFuture
+                .runAsync(() -> sortWriteCache(generation), flushSortExecutor)
+                .thenRunAsync(() -> appendToEntryLog(generation), executor)
+                .thenRunAsync(() -> commitIndexes(generation), indexFlushExecutor)
+                .handle((ignore, t) -> {
+                    if (t != null) {
+                        flushFailed(generation, t);
+                    }
+                    return null;
+                });
+    }
+
+    private void sortWriteCache(WriteCacheGeneration generation) {
+        long sortStartTime = MathUtils.nowInNano();
+        generation.writeCache.sortEntries();
+        recordSuccessfulEvent(dbLedgerStorageStats.getFlushSortStats(), sortStartTime);
+    }
 
+    private void appendToEntryLog(WriteCacheGeneration generation) {
+        long appendStartTime = MathUtils.nowInNano();
+        WriteCache cache = generation.writeCache;
+        generation.size = cache.size();
+        if (log.isDebugEnabled()) {
+            log.debug("Flushing entries. count: {} -- size {} Mb", cache.count(), generation.size / 1024.0 / 1024);
+        }
+
+        try {
             // Write all the pending entries into the entry logger and collect the offset
             // position for each entry
-
             Batch batch = entryLocationIndex.newBatch();
-            writeCacheBeingFlushed.forEach((ledgerId, entryId, entry) -> {
+            generation.batch = batch;
+            cache.forEach((ledgerId, entryId, entry) -> {
                 try {
                     long location = entryLogger.addEntry(ledgerId, entry);
                     entryLocationIndex.addLocation(batch, ledgerId, entryId, location);
@@ -733,10 +1015,19 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             long entryLoggerStart = MathUtils.nowInNano();
             entryLogger.flush();
             recordSuccessfulEvent(dbLedgerStorageStats.getFlushEntryLogStats(), entryLoggerStart);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            flushExecutorTime.add(MathUtils.elapsedNanos(appendStartTime));
+        }
+    }
 
+    private void commitIndexes(WriteCacheGeneration generation) {
+        try {
             long batchFlushStartTime = MathUtils.nowInNano();
-            batch.flush();
-            batch.close();
+            generation.batch.flush();
+            generation.batch.close();
+            generation.batch = null;
             recordSuccessfulEvent(dbLedgerStorageStats.getFlushLocationIndexStats(), batchFlushStartTime);
             if (log.isDebugEnabled()) {
                 log.debug("DB batch flushed time : {} s",
@@ -746,74 +1037,101 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
             long ledgerIndexStartTime = MathUtils.nowInNano();
             ledgerIndex.flush();
             recordSuccessfulEvent(dbLedgerStorageStats.getFlushLedgerIndexStats(), ledgerIndexStartTime);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
 
-            cleanupExecutor.execute(() -> {
-                // There can only be one single cleanup task running because the cleanupExecutor
-                // is single-threaded
-                try {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Removing deleted ledgers from db indexes");
-                    }
-
-                    entryLocationIndex.removeOffsetFromDeletedLedgers();
-                    ledgerIndex.removeDeletedLedgers();
-                } catch (Throwable t) {
-                    log.warn("Failed to cleanup db indexes", t);
-                }
-            });
-
-            lastCheckpoint = thisCheckpoint;
-
-            // Discard all the entry from the write cache, since they're now persisted
-            writeCacheBeingFlushed.clear();
+        // The entries are now persisted, the cache can be discarded and reused
+        removeWriteCacheBeingFlushed(generation);
+        generation.writeCache.clear();
+        freeWriteCaches.add(generation.writeCache);
 
-            double flushTimeSeconds = MathUtils.elapsedNanos(startTime) / (double) TimeUnit.SECONDS.toNanos(1);
-            double flushThroughput = sizeToFlush / 1024.0 / 1024.0 / flushTimeSeconds;
+        double flushTimeSeconds = MathUtils.elapsedNanos(generation.startTime) / (double) TimeUnit.SECONDS.toNanos(1);
+        if (log.isDebugEnabled()) {
+            log.debug("Flushing done time {} s -- Written {} MB/s", flushTimeSeconds,
+                    generation.size / 1024.0 / 1024.0 / flushTimeSeconds);
+        }
 
-            if (log.isDebugEnabled()) {
-                log.debug("Flushing done time {} s -- Written {} MB/s", flushTimeSeconds, flushThroughput);
-            }
+        recordSuccessfulEvent(dbLedgerStorageStats.getFlushStats(), generation.startTime);
+        dbLedgerStorageStats.getFlushSizeStats().registerSuccessfulValue(generation.size);
+    }
 
-            recordSuccessfulEvent(dbLedgerStorageStats.getFlushStats(), startTime);
-            dbLedgerStorageStats.getFlushSizeStats().registerSuccessfulValue(sizeToFlush);
-        } catch (IOException e) {
-            recordFailedEvent(dbLedgerStorageStats.getFlushStats(), startTime);
-            // Leave IOExecption as it is
-            throw e;
-        } catch (RuntimeException e) {
-            recordFailedEvent(dbLedgerStorageStats.getFlushStats(), startTime);
-            // Wrap unchecked exceptions
-            throw new IOException(e);
-        } finally {
+    private void flushFailed(WriteCacheGeneration generation, Throwable t) {
+        Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+        log.error("Error during flush of write cache generation {}", generation.sequence, cause);
+        recordFailedEvent(dbLedgerStorageStats.getFlushStats(), generation.startTime);
+        if (generation.batch != null) {
             try {
-                isFlushOngoing.set(false);
-            } finally {
-                flushMutex.unlock();
+                generation.batch.close();
+            } catch (IOException e) {
+                log.warn("Failed to close location index batch", e);
             }
+            generation.batch = null;
         }
+        generation.failure = cause;
+        failedFlushes.add(generation);
     }
 
-    /**
-     * Swap the current write cache with the replacement cache.
-     */
-    private void swapWriteCache() {
+    private void removeWriteCacheBeingFlushed(WriteCacheGeneration generation) {
         long stamp = writeCacheRotationLock.writeLock();
         try {
-            // First, swap the current write-cache map with an empty one so that writes will
-            // go on unaffected. Only a single flush is happening at the same time
-            WriteCache tmp = writeCacheBeingFlushed;
-            writeCacheBeingFlushed = writeCache;
-            writeCache = tmp;
-
-            // since the cache is switched, we can allow flush to be triggered
-            hasFlushBeenTriggered.set(false);
+            WriteCacheGeneration[] generations = writeCachesBeingFlushed;
+            WriteCacheGeneration[] remaining = new WriteCacheGeneration[generations.length - 1];
+            int idx = 0;
+            for (WriteCacheGeneration g : generations) {
+                if (g != generation) {
+                    remaining[idx++] = g;
+                }
+            }
+            writeCachesBeingFlushed = remaining;
         } finally {
-            try {
-                isFlushOngoing.set(true);
-            } finally {
-                writeCacheRotationLock.unlockWrite(stamp);
+            writeCacheRotationLock.unlockWrite(stamp);
+        }
+    }
+
+    private static boolean hasEntryBeingFlushed(WriteCacheGeneration[] generations, long ledgerId, long entryId) {
+        for (WriteCacheGeneration generation : generations) {
+            if (generation.writeCache.hasEntry(ledgerId, entryId)) {
+                return true;
             }
         }
+        return false;
+    }
+
+    private long getWriteCacheSize() {
+        long size = writeCache.size();
+        for (WriteCacheGeneration generation : writeCachesBeingFlushed) {
+            size += generation.writeCache.size();
+        }
+        return size;
+    }
+
+    private long getWriteCacheCount() {
+        long count = writeCache.count();
+        for (WriteCacheGeneration generation : writeCachesBeingFlushed) {
+            count += generation.writeCache.count();
+        }
+        return count;
+    }
+
+    /**
+     * A write cache that was rotated out and is going through the flush pipeline.
+     */
+    protected static final class WriteCacheGeneration {
+        final WriteCache writeCache;
+        final long sequence;
+        final long startTime = MathUtils.nowInNano();
+
+        // Only accessed by the pipeline stages, one after the other
+        long size;
+        Batch batch;
+        volatile Throwable failure;
+        volatile CompletableFuture<Void> flushFuture;
+
+        WriteCacheGeneration(WriteCache writeCache, long sequence) {
+            this.writeCache = writeCache;
+            this.sequence = sequence;
+        }
     }
 
     @Override
@@ -849,6 +1167,7 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         if (tli != null) {
             tli.close();
         }
+        readAhead.removeLedger(ledgerId);
     }
 
     @Override
@@ -869,6 +1188,11 @@ public class SingleDirectoryDbLedgerStorage implements CompactableLedgerStorage
         return entryLogger;
     }
 
+    @VisibleForTesting
+    ReadCachePolicy getReadCache() {
+        return readCache;
+    }
+
     @Override
     public long getLastAddConfirmed(long ledgerId) throws IOException, BookieException {
         throwIfLimbo(ledgerId);
@@ -117,6 +117,12 @@ public class WriteCache implements Closeable {
     }
 
     public void clear() {
+        sortedEntriesLock.lock();
+        try {
+            entriesSorted = false;
+        } finally {
+            sortedEntriesLock.unlock();
+        }
         cacheSize.set(0L);
         cacheOffset.set(0L);
         cacheCount.reset();
@@ -220,43 +226,68 @@ public class WriteCache implements Closeable {
 
     private static final ArrayGroupSort groupSorter = new ArrayGroupSort(2, 4);
 
-    public void forEach(EntryConsumer consumer) {
+    /**
+     * Sort the entries by (ledgerId, entryId) ahead of a {@link #forEach(EntryConsumer)}.
+     *
+     * <p>This lets the sorting of a write cache that is waiting to be flushed overlap with the
+     * flush of another one. Entries added after this call are not visited by the next
+     * {@link #forEach(EntryConsumer)}, so it should only be called once the cache stopped
+     * receiving new entries.
+     */
+    public void sortEntries() {
         sortedEntriesLock.lock();
-
         try {
-            int entriesToSort = (int) index.size();
-            int arrayLen = entriesToSort * 4;
-            if (sortedEntries == null || sortedEntries.length < arrayLen) {
-                sortedEntries = new long[(int) (arrayLen * 2)];
+            doSortEntries();
+            entriesSorted = true;
+        } finally {
+            sortedEntriesLock.unlock();
+        }
+    }
+
+    private void doSortEntries() {
+        int entriesToSort = (int) index.size();
+        int arrayLen = entriesToSort * 4;
+        if (sortedEntries == null || sortedEntries.length < arrayLen) {
+            sortedEntries = new long[(int) (arrayLen * 2)];
+        }
+
+        long startTime = MathUtils.nowInNano();
+
+        sortedEntriesIdx = 0;
+        index.forEach((ledgerId, entryId, offset, length) -> {
+            if (deletedLedgers.contains(ledgerId)) {
+                // Ignore deleted ledgers
+                return;
             }
 
-            long startTime = MathUtils.nowInNano();
+            sortedEntries[sortedEntriesIdx] = ledgerId;
+            sortedEntries[sortedEntriesIdx + 1] = entryId;
+            sortedEntries[sortedEntriesIdx + 2] = offset;
+            sortedEntries[sortedEntriesIdx + 3] = length;
+            sortedEntriesIdx += 4;
+        });
 
-            sortedEntriesIdx = 0;
-            index.forEach((ledgerId, entryId, offset, length) -> {
-                if (deletedLedgers.contains(ledgerId)) {
-                    // Ignore deleted ledgers
-                    return;
-                }
+        if (log.isDebugEnabled()) {
+            log.debug("iteration took {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
+        }
+        startTime = MathUtils.nowInNano();
 
-                sortedEntries[sortedEntriesIdx] = ledgerId;
-                sortedEntries[sortedEntriesIdx + 1] = entryId;
-                sortedEntries[sortedEntriesIdx + 2] = offset;
-                sortedEntries[sortedEntriesIdx + 3] = length;
-                sortedEntriesIdx += 4;
-            });
+        // Sort entries by (ledgerId, entryId) maintaining the 4 items groups
+        groupSorter.sort(sortedEntries, 0, sortedEntriesIdx);
+        if (log.isDebugEnabled()) {
+            log.debug("sorting {} ms", (MathUtils.elapsedNanos(startTime) / 1e6));
+        }
+    }
 
-            if (log.isDebugEnabled()) {
-                log.debug("iteration took {} ms", MathUtils.elapsedNanos(startTime) / 1e6);
-            }
-            startTime = MathUtils.nowInNano();
+    public void forEach(EntryConsumer consumer) {
+        sortedEntriesLock.lock();
 
-            // Sort entries by (ledgerId, entryId) maintaining the 4 items groups
-            groupSorter.sort(sortedEntries, 0, sortedEntriesIdx);
-            if (log.isDebugEnabled()) {
-                log.debug("sorting {} ms", (MathUtils.elapsedNanos(startTime) / 1e6));
+        try {
+            if (!entriesSorted) {
+                doSortEntries();
             }
-            startTime = MathUtils.nowInNano();
+
+            long startTime = MathUtils.nowInNano();
 
             ByteBuf[] entrySegments = new ByteBuf[segmentsCount];
             for (int i = 0; i < segmentsCount; i++) {
@@ -265,6 +296,10 @@ public class WriteCache implements Closeable {
 
             for (int i = 0; i < sortedEntriesIdx; i += 4) {
                 long ledgerId = sortedEntries[i];
+                if (entriesSorted && deletedLedgers.contains(ledgerId)) {
+                    // Deleted after the entries were sorted
+                    continue;
+                }
                 long entryId = sortedEntries[i + 1];
                 long offset = sortedEntries[i + 2];
                 long length = sortedEntries[i + 3];
@@ -309,6 +344,8 @@ public class WriteCache implements Closeable {
     private final ReentrantLock sortedEntriesLock = new ReentrantLock();
     private long[] sortedEntries;
     private int sortedEntriesIdx;
+    // Whether sortedEntries already holds the sorted entries of this cache
+    private boolean entriesSorted;
 
     private static final Logger log = LoggerFactory.getLogger(WriteCache.class);
 }
@@ -0,0 +1,170 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client;
+
+import io.netty.buffer.ByteBuf;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BKException.BKDigestMatchException;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
+import org.apache.bookkeeper.common.util.SafeRunnable;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieProtocol;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
+import org.apache.bookkeeper.proto.checksum.DigestManager;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Read a run of consecutive entries from a single bookie with one batched read request.
+ *
+ * <p>This is only correct when every bookie of the ensemble stores every entry, i.e.
+ * when the ensemble size equals the write quorum size. The bookies of the write set
+ * are tried one after the other until one of them returns at least the first entry.
+ * The bookie may return fewer entries than requested; callers are expected to issue
+ * another read for the remainder.
+ */
+class BatchedReadOp implements BatchedReadEntryCallback, SafeRunnable {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedReadOp.class);
+
+    private final LedgerHandle lh;
+    private final ClientContext clientCtx;
+    private final CompletableFuture<List<LedgerEntry>> future = new CompletableFuture<>();
+    private final long startEntryId;
+    private final int maxCount;
+    private final long maxSize;
+
+    private List<BookieId> ensemble;
+    private DistributionSchedule.WriteSet writeSet;
+    private int nextReplica = 0;
+    private int firstError = BKException.Code.OK;
+    private long requestTimeNanos;
+
+    BatchedReadOp(LedgerHandle lh, ClientContext clientCtx, long startEntryId, int maxCount, long maxSize) {
+        this.lh = lh;
+        this.clientCtx = clientCtx;
+        this.startEntryId = startEntryId;
+        this.maxSize = maxSize;
+
+        // Don't read across an ensemble change: the next bookie may not own the following entries
+        long nextEnsembleChange = LedgerMetadataUtils.getNextEnsembleChange(lh.getLedgerMetadata(), startEntryId);
+        if (nextEnsembleChange > startEntryId) {
+            this.maxCount = (int) Math.min(maxCount, nextEnsembleChange - startEntryId);
+        } else {
+            this.maxCount = maxCount;
+        }
+    }
+
+    CompletableFuture<List<LedgerEntry>> future() {
+        return future;
+    }
+
+    @Override
+    public void safeRun() {
+        requestTimeNanos = MathUtils.nowInNano();
+        ensemble = lh.getLedgerMetadata().getEnsembleAt(startEntryId);
+        if (clientCtx.getConf().enableReorderReadSequence) {
+            writeSet = clientCtx.getPlacementPolicy()
+                .reorderReadSequence(ensemble, lh.getBookiesHealthInfo(),
+                        lh.getWriteSetForReadOperation(startEntryId));
+        } else {
+            writeSet = lh.getWriteSetForReadOperation(startEntryId);
+        }
+        sendNextRead();
+    }
+
+    private void sendNextRead() {
+        if (nextReplica >= writeSet.size()) {
+            writeSet.recycle();
+            fail(firstError == BKException.Code.OK ? BKException.Code.ReadException : firstError);
+            return;
+        }
+        int bookieIndex = writeSet.get(nextReplica++);
+        BookieId to = ensemble.get(bookieIndex);
+        clientCtx.getBookieClient().batchReadEntries(to, lh.getId(), startEntryId, maxCount, maxSize,
+                this, bookieIndex, BookieProtocol.FLAG_NONE);
+    }
+
+    @Override
+    public void readEntriesComplete(int rc, long ledgerId, long startEntryId, ByteBufList bufList, Object ctx) {
+        int bookieIndex = (Integer) ctx;
+        if (rc != BKException.Code.OK) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Batched read of L{} E{} failed on bookie {}: {}", ledgerId, startEntryId,
+                        ensemble.get(bookieIndex), BKException.getMessage(rc));
+            }
+            recordError(bookieIndex, rc);
+            sendNextRead();
+            return;
+        }
+
+        List<LedgerEntry> entries = new ArrayList<>(bufList.size());
+        for (int i = 0; i < bufList.size(); i++) {
+            long eId = startEntryId + i;
+            ByteBuf buffer = bufList.getBuffer(i);
+            // The response buffers are released once this callback returns
+            buffer.retain();
+            ByteBuf content;
+            try {
+                content = lh.macManager.verifyDigestAndReturnData(eId, buffer);
+            } catch (BKDigestMatchException e) {
+                buffer.release();
+                entries.forEach(LedgerEntry::close);
+                clientCtx.getClientStats().getReadOpDmCounter().inc();
+                LOG.error("Mac mismatch on batched read of L{} E{} from bookie {}", ledgerId, eId,
+                        ensemble.get(bookieIndex));
+                recordError(bookieIndex, BKException.Code.DigestMatchException);
+                sendNextRead();
+                return;
+            }
+            LedgerEntryImpl entry = LedgerEntryImpl.create(ledgerId, eId);
+            // The length is the last field of the entry metadata
+            entry.setLength(buffer.getLong(DigestManager.METADATA_LENGTH - 8));
+            entry.setEntryBuf(content);
+            entries.add(entry);
+        }
+
+        writeSet.recycle();
+        clientCtx.getClientStats().getReadOpLogger()
+            .registerSuccessfulEvent(MathUtils.elapsedNanos(requestTimeNanos), TimeUnit.NANOSECONDS);
+        future.complete(entries);
+    }
+
+    private void recordError(int bookieIndex, int rc) {
+        if (firstError == BKException.Code.OK
+                || firstError == BKException.Code.NoSuchEntryException
+                || firstError == BKException.Code.NoSuchLedgerExistsException) {
+            firstError = rc;
+        }
+        lh.recordReadErrorOnBookie(bookieIndex);
+    }
+
+    private void fail(int rc) {
+        clientCtx.getClientStats().getReadOpLogger()
+            .registerFailedEvent(MathUtils.elapsedNanos(requestTimeNanos), TimeUnit.NANOSECONDS);
+        future.completeExceptionally(BKException.create(rc));
+    }
+}
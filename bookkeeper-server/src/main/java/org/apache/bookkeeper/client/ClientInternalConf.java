@@ -48,6 +48,8 @@ class ClientInternalConf {
     final long timeoutMonitorIntervalSec;
     final boolean enableBookieFailureTracking;
     final boolean useV2WireProtocol;
+    final boolean batchReadEnabled;
+    final int nettyMaxFrameSizeBytes;
     final boolean enforceMinNumFaultDomainsForWrite;
 
     static ClientInternalConf defaultValues() {
@@ -81,6 +83,8 @@ class ClientInternalConf {
         this.timeoutMonitorIntervalSec = conf.getTimeoutMonitorIntervalSec();
         this.enableBookieFailureTracking = conf.getEnableBookieFailureTracking();
         this.useV2WireProtocol = conf.getUseV2WireProtocol();
+        this.batchReadEnabled = conf.isBatchReadEnabled();
+        this.nettyMaxFrameSizeBytes = conf.getNettyMaxFrameSizeBytes();
         this.enableStickyReads = conf.isStickyReadsEnabled();
         this.enforceMinNumFaultDomainsForWrite = conf.getEnforceMinNumFaultDomainsForWrite();
 
@@ -42,6 +42,7 @@ import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.client.api.WriteAdvHandle;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.client.api.WriteHandle;
+import org.apache.bookkeeper.client.impl.BatchedWriteHandleImpl;
 import org.apache.bookkeeper.meta.LedgerIdGenerator;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GenericCallback;
@@ -286,6 +287,8 @@ class LedgerCreateOp {
         private org.apache.bookkeeper.client.api.DigestType builderDigestType =
             org.apache.bookkeeper.client.api.DigestType.CRC32;
         private Map<String, byte[]> builderCustomMetadata = Collections.emptyMap();
+        private int builderMaxBatchSize = 0;
+        private long builderMaxBatchDelayNanos = 0;
 
         CreateBuilderImpl(BookKeeper bk) {
             this.bk = bk;
@@ -334,6 +337,13 @@ class LedgerCreateOp {
             return this;
         }
 
+        @Override
+        public CreateBuilder withBatching(int maxBatchSize, long maxBatchDelay, TimeUnit unit) {
+            this.builderMaxBatchSize = maxBatchSize;
+            this.builderMaxBatchDelayNanos = unit.toNanos(maxBatchDelay);
+            return this;
+        }
+
         @Override
         public CreateAdvBuilder makeAdv() {
             return new CreateAdvBuilderImpl(this);
@@ -376,6 +386,12 @@ class LedgerCreateOp {
                 return false;
             }
 
+            if (builderMaxBatchSize < 0 || builderMaxBatchDelayNanos < 0) {
+                LOG.error("invalid batching maxBatchSize {} maxBatchDelayNanos {}", builderMaxBatchSize,
+                        builderMaxBatchDelayNanos);
+                return false;
+            }
+
             return true;
         }
 
@@ -384,6 +400,11 @@ class LedgerCreateOp {
             CompletableFuture<WriteHandle> future = new CompletableFuture<>();
             SyncCreateCallback callback = new SyncCreateCallback(future);
             create(callback);
+            if (builderMaxBatchSize > 0) {
+                ClientContext clientCtx = bk.getClientCtx();
+                return future.<WriteHandle>thenApply(handle -> new BatchedWriteHandleImpl(handle, builderMaxBatchSize,
+                        builderMaxBatchDelayNanos, clientCtx.getScheduler(), clientCtx.getByteBufAllocator()));
+            }
             return future;
         }
 
@@ -437,6 +458,10 @@ class LedgerCreateOp {
             if (!parent.validate()) {
                 return false;
             }
+            if (parent.builderMaxBatchSize > 0) {
+                LOG.error("batching is not available on ledgers in advanced mode");
+                return false;
+            }
             if (builderLedgerId != null && builderLedgerId < 0) {
                 LOG.error("invalid ledgerId {} < 0. Do not set en explicit value if you want automatic generation",
                         builderLedgerId);
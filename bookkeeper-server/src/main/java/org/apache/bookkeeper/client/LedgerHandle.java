@@ -46,12 +46,13 @@ import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import org.apache.bookkeeper.client.AsyncCallback.AddCallback;
 import org.apache.bookkeeper.client.AsyncCallback.AddCallbackWithLatency;
 import org.apache.bookkeeper.client.AsyncCallback.CloseCallback;
@@ -72,6 +73,7 @@ import org.apache.bookkeeper.client.api.LedgerEntries;
 import org.apache.bookkeeper.client.api.LedgerMetadata;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.client.api.WriteHandle;
+import org.apache.bookkeeper.client.impl.LedgerEntriesImpl;
 import org.apache.bookkeeper.client.impl.LedgerEntryImpl;
 import org.apache.bookkeeper.common.concurrent.FutureEventListener;
 import org.apache.bookkeeper.common.concurrent.FutureUtils;
@@ -100,16 +102,43 @@ public class LedgerHandle implements WriteHandle {
     final ClientContext clientCtx;
 
     final byte[] ledgerKey;
-    private Versioned<LedgerMetadata> versionedMetadata;
+    private volatile Versioned<LedgerMetadata> versionedMetadata;
     final long ledgerId;
-    long lastAddPushed;
+
+    /**
+     * Last entryId pushed to the bookies and the length of the ledger including it. Both are moved together by
+     * a single compare-and-set, so that concurrent adders don't need to lock the handle to take their entryId.
+     */
+    private static final class AppendPosition {
+        final long lastAddPushed;
+        final long length;
+
+        AppendPosition(long lastAddPushed, long length) {
+            this.lastAddPushed = lastAddPushed;
+            this.length = length;
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<LedgerHandle, AppendPosition> APPEND_POSITION_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(LedgerHandle.class, AppendPosition.class, "appendPosition");
+    private volatile AppendPosition appendPosition;
+
+    /**
+     * Number of adds between their check of the handle state and their insertion in {@link #pendingAddOps}.
+     * Closing waits for it to drop to zero before draining the pending adds.
+     */
+    private final AtomicInteger appendsInFlight = new AtomicInteger(0);
+    /**
+     * Completed once the handle is closed and no add is in flight, by the close or by the last add in flight.
+     */
+    private final CompletableFuture<Void> appendsDrained = new CompletableFuture<>();
 
     private enum HandleState {
         OPEN,
         CLOSED
     }
 
-    private HandleState handleState = HandleState.OPEN;
+    private volatile HandleState handleState = HandleState.OPEN;
     private final CompletableFuture<Void> closePromise = new CompletableFuture<>();
 
     /**
@@ -117,6 +146,8 @@ public class LedgerHandle implements WriteHandle {
       * This value is used by readers, the the LAC protocol
       */
     volatile long lastAddConfirmed;
+    private static final AtomicLongFieldUpdater<LedgerHandle> LAST_ADD_CONFIRMED_UPDATER =
+            AtomicLongFieldUpdater.newUpdater(LedgerHandle.class, "lastAddConfirmed");
 
      /**
       * Next entryId which is expected to move forward during {@link #sendAddSuccessCallbacks() }. This is important
@@ -136,7 +167,6 @@ public class LedgerHandle implements WriteHandle {
      */
     private int stickyBookieIndex;
 
-    long length;
     final DigestManager macManager;
     final DistributionSchedule distributionSchedule;
     final RateLimiter throttler;
@@ -181,16 +211,16 @@ public class LedgerHandle implements WriteHandle {
         this.clientCtx = clientCtx;
 
         this.versionedMetadata = versionedMetadata;
-        this.pendingAddOps = new ConcurrentLinkedQueue<PendingAddOp>();
+        this.pendingAddOps = new PendingAddOpsQueue();
         this.writeFlags = writeFlags;
 
         LedgerMetadata metadata = versionedMetadata.getValue();
         if (metadata.isClosed()) {
-            lastAddConfirmed = lastAddPushed = metadata.getLastEntryId();
-            length = metadata.getLength();
+            lastAddConfirmed = metadata.getLastEntryId();
+            setAppendPosition(metadata.getLastEntryId(), metadata.getLength());
         } else {
-            lastAddConfirmed = lastAddPushed = INVALID_ENTRY_ID;
-            length = 0;
+            lastAddConfirmed = INVALID_ENTRY_ID;
+            setAppendPosition(INVALID_ENTRY_ID, 0);
         }
 
         this.pendingAddsSequenceHead = lastAddConfirmed;
@@ -324,20 +354,71 @@ public class LedgerHandle implements WriteHandle {
      * {@inheritDoc}
      */
     @Override
-    public synchronized long getLastAddConfirmed() {
+    public long getLastAddConfirmed() {
         return lastAddConfirmed;
     }
 
-    synchronized void setLastAddConfirmed(long lac) {
+    void setLastAddConfirmed(long lac) {
         this.lastAddConfirmed = lac;
     }
 
+    /**
+     * Move the last add confirmed forward, if the given entryId is greater than the current one.
+     *
+     * @return true if the last add confirmed has been moved
+     */
+    private boolean advanceLastAddConfirmed(long lac) {
+        long current;
+        do {
+            current = lastAddConfirmed;
+            if (lac <= current) {
+                return false;
+            }
+        } while (!LAST_ADD_CONFIRMED_UPDATER.compareAndSet(this, current, lac));
+        return true;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
-    public synchronized long getLastAddPushed() {
-        return lastAddPushed;
+    public long getLastAddPushed() {
+        return appendPosition.lastAddPushed;
+    }
+
+    void setLastAddPushed(long lastAddPushed) {
+        AppendPosition current;
+        do {
+            current = appendPosition;
+        } while (!APPEND_POSITION_UPDATER.compareAndSet(this, current,
+                new AppendPosition(lastAddPushed, current.length)));
+    }
+
+    void setLength(long length) {
+        AppendPosition current;
+        do {
+            current = appendPosition;
+        } while (!APPEND_POSITION_UPDATER.compareAndSet(this, current,
+                new AppendPosition(current.lastAddPushed, length)));
+    }
+
+    private void setAppendPosition(long lastAddPushed, long length) {
+        this.appendPosition = new AppendPosition(lastAddPushed, length);
+    }
+
+    /**
+     * Take the next entryId, and add the length of its entry to the length of the ledger.
+     *
+     * @return the position of the new entry
+     */
+    private AppendPosition claimAppendPosition(long entryLength) {
+        AppendPosition current;
+        AppendPosition next;
+        do {
+            current = appendPosition;
+            next = new AppendPosition(current.lastAddPushed + 1, current.length + entryLength);
+        } while (!APPEND_POSITION_UPDATER.compareAndSet(this, current, next));
+        return next;
     }
 
     /**
@@ -368,8 +449,8 @@ public class LedgerHandle implements WriteHandle {
                 versionedMetadata = newMetadata;
                 LedgerMetadata metadata = versionedMetadata.getValue();
                 if (metadata.isClosed()) {
-                    lastAddConfirmed = lastAddPushed = metadata.getLastEntryId();
-                    length = metadata.getLength();
+                    lastAddConfirmed = metadata.getLastEntryId();
+                    setAppendPosition(metadata.getLastEntryId(), metadata.getLength());
                 }
                 return true;
             } else {
@@ -392,7 +473,7 @@ public class LedgerHandle implements WriteHandle {
      *
      * @return the count of fragments
      */
-    public synchronized long getNumFragments() {
+    public long getNumFragments() {
         return getLedgerMetadata().getAllEnsembles().size();
     }
 
@@ -402,7 +483,7 @@ public class LedgerHandle implements WriteHandle {
      *
      * @return count of unique bookies
      */
-    public synchronized long getNumBookies() {
+    public long getNumBookies() {
         Map<Long, ? extends List<BookieId>> m = getLedgerMetadata().getAllEnsembles();
         Set<BookieId> s = Sets.newHashSet();
         for (List<BookieId> aList : m.values()) {
@@ -426,9 +507,14 @@ public class LedgerHandle implements WriteHandle {
      * @param delta
      * @return the length of the ledger after the addition
      */
-    synchronized long addToLength(long delta) {
-        this.length += delta;
-        return this.length;
+    long addToLength(long delta) {
+        AppendPosition current;
+        AppendPosition next;
+        do {
+            current = appendPosition;
+            next = new AppendPosition(current.lastAddPushed, current.length + delta);
+        } while (!APPEND_POSITION_UPDATER.compareAndSet(this, current, next));
+        return next.length;
     }
 
     /**
@@ -437,8 +523,8 @@ public class LedgerHandle implements WriteHandle {
      * @return the length of the ledger in bytes
      */
     @Override
-    public synchronized long getLength() {
-        return this.length;
+    public long getLength() {
+        return appendPosition.length;
     }
 
     /**
@@ -508,7 +594,7 @@ public class LedgerHandle implements WriteHandle {
      * {@inheritDoc}
      */
     @Override
-    public synchronized boolean isClosed() {
+    public boolean isClosed() {
         return getLedgerMetadata().isClosed();
     }
 
@@ -559,14 +645,24 @@ public class LedgerHandle implements WriteHandle {
 
                 synchronized (LedgerHandle.this) {
                     prevHandleState = handleState;
+                    handleState = HandleState.CLOSED;
+                }
 
+                // adds which saw the handle open are queued before draining, so none is left behind.
+                // They don't lock the handle, so wait for them outside of the lock.
+                if (appendsInFlight.get() == 0) {
+                    appendsDrained.complete(null);
+                }
+                appendsDrained.join();
+
+                synchronized (LedgerHandle.this) {
                     // drain pending adds first
                     pendingAdds = drainPendingAddsAndAdjustLength();
 
                     // taking the length must occur after draining, as draining changes the length
-                    lastEntry = lastAddPushed = LedgerHandle.this.lastAddConfirmed;
-                    finalLength = LedgerHandle.this.length;
-                    handleState = HandleState.CLOSED;
+                    lastEntry = LedgerHandle.this.lastAddConfirmed;
+                    setLastAddPushed(lastEntry);
+                    finalLength = getLength();
                 }
 
                 // error out all pending adds during closing, the callbacks shouldn't be
@@ -860,9 +956,110 @@ public class LedgerHandle implements WriteHandle {
         }
     }
 
+    /**
+     * Read up to {@code maxCount} entries starting at {@code startEntry} with a single batched
+     * request to one bookie. The bookie stops early once the response would exceed {@code maxSize}
+     * bytes or once it misses an entry, so fewer entries than requested may be returned.
+     *
+     * <p>Batched reads must be enabled, and require the v2 wire protocol and a ledger whose
+     * ensemble size equals its write quorum size. Otherwise, this falls back to a regular read
+     * of the same range and {@code maxSize} is ignored.
+     *
+     * @param startEntry
+     *          id of the first entry to read
+     * @param maxCount
+     *          maximum number of entries to read
+     * @param maxSize
+     *          maximum number of bytes of entry data to read
+     */
+    public CompletableFuture<LedgerEntries> batchReadAsync(long startEntry, int maxCount, long maxSize) {
+        // Little sanity check
+        if (startEntry < 0 || maxCount <= 0 || maxSize <= 0) {
+            LOG.error("IncorrectParameterException on ledgerId:{} startEntry:{} maxCount:{} maxSize:{}",
+                    ledgerId, startEntry, maxCount, maxSize);
+            return FutureUtils.exception(new BKIncorrectParameterException());
+        }
+
+        if (startEntry > lastAddConfirmed) {
+            LOG.error("BatchReadAsync exception on ledgerId:{} startEntry:{} lastAddConfirmed:{}",
+                    ledgerId, startEntry, lastAddConfirmed);
+            return FutureUtils.exception(new BKReadException());
+        }
+
+        long lastEntry = Math.min(lastAddConfirmed, startEntry + maxCount - 1);
+        if (!isBatchReadEligible()) {
+            return readEntriesInternalAsync(startEntry, lastEntry, false);
+        }
+        return batchReadEntriesInternalAsync(startEntry, (int) (lastEntry - startEntry + 1), maxSize)
+            .thenApply(LedgerEntriesImpl::create);
+    }
+
+    /**
+     * Batched reads are only possible when every bookie of the ensemble stores every entry.
+     */
+    @VisibleForTesting
+    boolean isBatchReadEligible() {
+        ClientInternalConf conf = clientCtx.getConf();
+        LedgerMetadata metadata = getLedgerMetadata();
+        return conf.useV2WireProtocol && conf.batchReadEnabled
+            && metadata.getEnsembleSize() == metadata.getWriteQuorumSize();
+    }
+
+    private CompletableFuture<List<org.apache.bookkeeper.client.api.LedgerEntry>> batchReadEntriesInternalAsync(
+            long startEntry, int maxCount, long maxSize) {
+        BatchedReadOp op = new BatchedReadOp(this, clientCtx, startEntry, maxCount, maxSize);
+        if (clientCtx.isClientClosed()) {
+            op.future().completeExceptionally(BKException.create(ClientClosedException));
+        } else if (isHandleWritable()) {
+            clientCtx.getMainWorkerPool().executeOrdered(ledgerId, op);
+        } else {
+            op.run();
+        }
+        return op.future();
+    }
+
+    /**
+     * Read the range with as many batched reads as needed, falling back to per-entry reads
+     * for the whole range if a batched read fails.
+     */
+    private void batchReadRemaining(long nextEntry, long lastEntry,
+                                    List<org.apache.bookkeeper.client.api.LedgerEntry> readSoFar,
+                                    CompletableFuture<LedgerEntries> result) {
+        int maxCount = (int) Math.min(Integer.MAX_VALUE, lastEntry - nextEntry + 1);
+        batchReadEntriesInternalAsync(nextEntry, maxCount, clientCtx.getConf().nettyMaxFrameSizeBytes)
+            .whenComplete((entries, cause) -> {
+                if (cause != null) {
+                    long firstEntry = readSoFar.isEmpty() ? nextEntry : readSoFar.get(0).getEntryId();
+                    readSoFar.forEach(org.apache.bookkeeper.client.api.LedgerEntry::close);
+                    LOG.warn("Batched read on ledger {} from entry {} failed, retrying with regular reads: {}",
+                            ledgerId, nextEntry, cause.getMessage());
+                    FutureUtils.proxyTo(pendingReadEntriesAsync(firstEntry, lastEntry, false), result);
+                    return;
+                }
+                readSoFar.addAll(entries);
+                long readUpTo = nextEntry + entries.size() - 1;
+                if (readUpTo >= lastEntry) {
+                    result.complete(LedgerEntriesImpl.create(readSoFar));
+                } else {
+                    batchReadRemaining(readUpTo + 1, lastEntry, readSoFar, result);
+                }
+            });
+    }
+
     CompletableFuture<LedgerEntries> readEntriesInternalAsync(long firstEntry,
                                                               long lastEntry,
                                                               boolean isRecoveryRead) {
+        if (!isRecoveryRead && !clientCtx.isClientClosed() && isBatchReadEligible()) {
+            CompletableFuture<LedgerEntries> result = new CompletableFuture<>();
+            batchReadRemaining(firstEntry, lastEntry, new ArrayList<>(), result);
+            return result;
+        }
+        return pendingReadEntriesAsync(firstEntry, lastEntry, isRecoveryRead);
+    }
+
+    private CompletableFuture<LedgerEntries> pendingReadEntriesAsync(long firstEntry,
+                                                                     long lastEntry,
+                                                                     boolean isRecoveryRead) {
         PendingReadOp op = new PendingReadOp(this, clientCtx,
                                              firstEntry, lastEntry, isRecoveryRead);
         if (!clientCtx.isClientClosed()) {
@@ -1139,17 +1336,7 @@ public class LedgerHandle implements WriteHandle {
     public CompletableFuture<Void> force() {
         CompletableFuture<Void> result = new CompletableFuture<>();
         ForceLedgerOp op = new ForceLedgerOp(this, clientCtx.getBookieClient(), getCurrentEnsemble(), result);
-        boolean wasClosed = false;
-        synchronized (this) {
-            // synchronized on this to ensure that
-            // the ledger isn't closed between checking and
-            // updating lastAddPushed
-            if (!isHandleWritable()) {
-                wasClosed = true;
-            }
-        }
-
-        if (wasClosed) {
+        if (!isHandleWritable()) {
             // make sure the callback is triggered in main worker pool
             try {
                 clientCtx.getMainWorkerPool().executeOrdered(ledgerId, new SafeRunnable() {
@@ -1302,19 +1489,23 @@ public class LedgerHandle implements WriteHandle {
         }
 
         boolean wasClosed = false;
-        synchronized (this) {
-            // synchronized on this to ensure that
-            // the ledger isn't closed between checking and
-            // updating lastAddPushed
+        // counted as in flight to ensure that the ledger isn't closed
+        // between checking and queueing the op
+        appendsInFlight.incrementAndGet();
+        try {
             if (isHandleWritable()) {
-                long entryId = ++lastAddPushed;
-                long currentLedgerLength = addToLength(op.payload.readableBytes());
-                op.setEntryId(entryId);
-                op.setLedgerLength(currentLedgerLength);
+                AppendPosition position = claimAppendPosition(op.payload.readableBytes());
+                op.setEntryId(position.lastAddPushed);
+                op.setLedgerLength(position.length);
                 pendingAddOps.add(op);
             } else {
                 wasClosed = true;
             }
+        } finally {
+            if (appendsInFlight.decrementAndGet() == 0 && handleState == HandleState.CLOSED) {
+                // a close is waiting for the adds in flight
+                appendsDrained.complete(null);
+            }
         }
 
         if (wasClosed) {
@@ -1361,15 +1552,20 @@ public class LedgerHandle implements WriteHandle {
         }
     }
 
-    synchronized void updateLastConfirmed(long lac, long len) {
-        if (lac > lastAddConfirmed) {
-            lastAddConfirmed = lac;
+    void updateLastConfirmed(long lac, long len) {
+        if (advanceLastAddConfirmed(lac)) {
             lacUpdateHitsCounter.inc();
         } else {
             lacUpdateMissesCounter.inc();
         }
-        lastAddPushed = Math.max(lastAddPushed, lac);
-        length = Math.max(length, len);
+        AppendPosition current;
+        do {
+            current = appendPosition;
+            if (lac <= current.lastAddPushed && len <= current.length) {
+                return;
+            }
+        } while (!APPEND_POSITION_UPDATER.compareAndSet(this, current, new AppendPosition(
+                Math.max(current.lastAddPushed, lac), Math.max(current.length, len))));
     }
 
     /**
@@ -1705,7 +1901,7 @@ public class LedgerHandle implements WriteHandle {
             isClosed = metadata.isClosed();
             if (isClosed) {
                 lastAddConfirmed = metadata.getLastEntryId();
-                length = metadata.getLength();
+                setLength(metadata.getLength());
             }
         }
         if (isClosed) {
@@ -1831,7 +2027,7 @@ public class LedgerHandle implements WriteHandle {
             explicitLacFlushPolicy.updatePiggyBackedLac(lastAddConfirmed);
             pendingAddsSequenceHead = pendingAddOp.entryId;
             if (!writeFlags.contains(WriteFlag.DEFERRED_SYNC)) {
-                this.lastAddConfirmed = pendingAddsSequenceHead;
+                advanceLastAddConfirmed(pendingAddsSequenceHead);
             }
 
             pendingAddOp.submitCallback(BKException.Code.OK);
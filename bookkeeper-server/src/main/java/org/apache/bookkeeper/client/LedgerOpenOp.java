@@ -230,7 +230,8 @@ class LedgerOpenOp {
                         closeLedgerHandle();
                         openComplete(bk.getReturnRc(BKException.Code.ReadException), null);
                     } else {
-                        lh.lastAddConfirmed = lh.lastAddPushed = lastConfirmed;
+                        lh.setLastAddConfirmed(lastConfirmed);
+                        lh.setLastAddPushed(lastConfirmed);
                         openComplete(BKException.Code.OK, lh);
                     }
                 }
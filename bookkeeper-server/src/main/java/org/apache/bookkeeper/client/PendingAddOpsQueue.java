@@ -0,0 +1,83 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.client;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Lock-free queue of the pending adds of a ledger handle, ordered by entryId.
+ *
+ * <p>Adders take their entryId without locking the handle, so they may queue their ops in a different order
+ * than their entryIds. The head of this queue is always the pending add with the lowest entryId, which is
+ * what {@link LedgerHandle#sendAddSuccessCallbacks()} expects to complete the adds in sequence.
+ */
+class PendingAddOpsQueue extends AbstractQueue<PendingAddOp> {
+
+    private final ConcurrentSkipListMap<Long, PendingAddOp> ops = new ConcurrentSkipListMap<>();
+
+    @Override
+    public boolean offer(PendingAddOp op) {
+        return ops.putIfAbsent(op.entryId, op) == null;
+    }
+
+    @Override
+    public PendingAddOp poll() {
+        Map.Entry<Long, PendingAddOp> first = ops.pollFirstEntry();
+        return first == null ? null : first.getValue();
+    }
+
+    @Override
+    public PendingAddOp peek() {
+        Map.Entry<Long, PendingAddOp> first = ops.firstEntry();
+        return first == null ? null : first.getValue();
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof PendingAddOp)) {
+            return false;
+        }
+        return ops.remove(((PendingAddOp) o).entryId, o);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof PendingAddOp)) {
+            return false;
+        }
+        return ops.get(((PendingAddOp) o).entryId) == o;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return ops.isEmpty();
+    }
+
+    @Override
+    public Iterator<PendingAddOp> iterator() {
+        return ops.values().iterator();
+    }
+
+    @Override
+    public int size() {
+        return ops.size();
+    }
+}
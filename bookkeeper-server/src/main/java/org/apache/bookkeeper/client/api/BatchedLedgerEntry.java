@@ -0,0 +1,82 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.api;
+
+import io.netty.buffer.ByteBuf;
+import org.apache.bookkeeper.client.impl.BatchedLedgerEntryImpl;
+import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
+import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
+
+/**
+ * View of an entry written by a {@link BatchedWriteHandle}, giving access to the records it holds.
+ *
+ * <p>The view shares the buffer of the entry it wraps: closing the view closes the entry.
+ *
+ * @since 4.16
+ */
+@Public
+@Unstable
+public interface BatchedLedgerEntry extends LedgerEntry {
+
+    /**
+     * Wrap an entry written by a {@link BatchedWriteHandle}.
+     *
+     * @param entry the entry to wrap
+     * @return the batched view of the entry
+     * @throws IllegalArgumentException if the entry wasn't written by a batched handle
+     */
+    static BatchedLedgerEntry of(LedgerEntry entry) {
+        return BatchedLedgerEntryImpl.create(entry);
+    }
+
+    /**
+     * The number of records in the entry.
+     *
+     * @return the number of records
+     */
+    int getNumRecords();
+
+    /**
+     * Return a slice of the entry buffer with the content of a record.
+     *
+     * <p>This call doesn't change the reference count of the entry buffer, see {@link #getEntryBuffer()}.
+     *
+     * @param index the index of the record, from 0 to {@link #getNumRecords()} excluded
+     * @return a ByteBuf which contains the record
+     */
+    ByteBuf getRecord(int index);
+
+    /**
+     * The position of a record of the entry.
+     *
+     * @param index the index of the record
+     * @return the position of the record
+     */
+    default RecordPosition getRecordPosition(int index) {
+        return new RecordPosition(getEntryId(), index);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    BatchedLedgerEntry duplicate();
+}
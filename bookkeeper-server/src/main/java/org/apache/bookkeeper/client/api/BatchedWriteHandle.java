@@ -0,0 +1,69 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.api;
+
+import io.netty.buffer.ByteBuf;
+import java.util.concurrent.CompletableFuture;
+import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
+import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
+import org.apache.bookkeeper.common.concurrent.FutureUtils;
+
+/**
+ * Handle to write to a ledger, which coalesces the records appended within a short window into a single entry.
+ *
+ * <p>Each entry written by this handle holds one or more records, which readers can access by wrapping the entry
+ * with {@link BatchedLedgerEntry#of(LedgerEntry)}. {@link #appendAsync(ByteBuf)} completes with the id of the
+ * entry holding the record, {@link #appendRecordAsync(ByteBuf)} with its full position.
+ *
+ * @since 4.16
+ * @see CreateBuilder#withBatching(int, long, java.util.concurrent.TimeUnit)
+ */
+@Public
+@Unstable
+public interface BatchedWriteHandle extends WriteHandle {
+
+    /**
+     * Append a record asynchronously to the ledger.
+     *
+     * <p>The record is written with the other records appended before the batch is full or its delay expires.
+     * The returned future completes once the entry holding the record is acknowledged by the bookies.
+     *
+     * @param data a bytebuf to be appended. The handle takes ownership of the buffer and releases it.
+     * @return a handle to the result, with the position of the record
+     */
+    CompletableFuture<RecordPosition> appendRecordAsync(ByteBuf data);
+
+    /**
+     * Append a record synchronously to the ledger.
+     *
+     * @param data a bytebuf to be appended
+     * @return the position of the record
+     * @see #appendRecordAsync(ByteBuf)
+     */
+    default RecordPosition appendRecord(ByteBuf data) throws BKException, InterruptedException {
+        return FutureUtils.<RecordPosition, BKException>result(appendRecordAsync(data), BKException.HANDLER);
+    }
+
+    /**
+     * Write the records of the current batch without waiting for the batch to be full or its delay to expire.
+     */
+    void flush();
+}
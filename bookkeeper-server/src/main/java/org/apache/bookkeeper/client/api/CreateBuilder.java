@@ -23,6 +23,7 @@ package org.apache.bookkeeper.client.api;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
 import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
 
@@ -114,6 +115,26 @@ public interface CreateBuilder extends OpBuilder<WriteHandle> {
      */
     CreateBuilder withDigestType(DigestType digestType);
 
+    /**
+     * Coalesce the appends to the ledger into batches, each written as a single entry. A batch is written once it
+     * holds maxBatchSize bytes, or maxBatchDelay after its first record. The handle created is a
+     * {@link BatchedWriteHandle}, and readers must access the records with {@link BatchedLedgerEntry}. Batching is
+     * disabled by default.
+     *
+     * <p>This option is not available on ledgers in 'Advanced' mode, nor on builders which don't implement it.
+     *
+     * @param maxBatchSize the size of the records which triggers the write of a batch, in bytes
+     * @param maxBatchDelay the maximum delay before writing a batch
+     * @param unit the unit of maxBatchDelay
+     *
+     * @return the builder itself
+     *
+     * @since 4.16
+     */
+    default CreateBuilder withBatching(int maxBatchSize, long maxBatchDelay, TimeUnit unit) {
+        throw new UnsupportedOperationException("Batching is not supported by " + getClass().getName());
+    }
+
     /**
      * Switch the ledger into 'Advanced' mode. A ledger used in Advanced mode will explicitly generate the sequence of
      * entry identifiers. Advanced ledgers can be created with a client side defined ledgerId
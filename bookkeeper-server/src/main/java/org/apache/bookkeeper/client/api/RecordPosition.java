@@ -0,0 +1,86 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.client.api;
+
+import org.apache.bookkeeper.common.annotation.InterfaceAudience.Public;
+import org.apache.bookkeeper.common.annotation.InterfaceStability.Unstable;
+
+/**
+ * Position of a record appended through a {@link BatchedWriteHandle}: the id of the entry which holds the
+ * record, and the index of the record in this entry.
+ *
+ * @since 4.16
+ */
+@Public
+@Unstable
+public final class RecordPosition implements Comparable<RecordPosition> {
+
+    private final long entryId;
+    private final int index;
+
+    public RecordPosition(long entryId, int index) {
+        this.entryId = entryId;
+        this.index = index;
+    }
+
+    /**
+     * The id of the entry which holds the record.
+     *
+     * @return the id of the entry
+     */
+    public long getEntryId() {
+        return entryId;
+    }
+
+    /**
+     * The index of the record in its entry, see {@link BatchedLedgerEntry#getRecord(int)}.
+     *
+     * @return the index of the record
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public int compareTo(RecordPosition other) {
+        int result = Long.compare(entryId, other.entryId);
+        return result != 0 ? result : Integer.compare(index, other.index);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RecordPosition)) {
+            return false;
+        }
+        RecordPosition other = (RecordPosition) o;
+        return entryId == other.entryId && index == other.index;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(entryId) * 31 + index;
+    }
+
+    @Override
+    public String toString() {
+        return "RecordPosition(entryId=" + entryId + ", index=" + index + ")";
+    }
+}
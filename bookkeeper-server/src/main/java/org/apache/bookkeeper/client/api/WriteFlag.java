@@ -35,7 +35,17 @@ public enum WriteFlag {
      *
      * @see ForceableHandle#force()
      */
-    DEFERRED_SYNC(0x1 << 0);
+    DEFERRED_SYNC(0x1 << 0),
+
+    /**
+     * Writes will be acknowledged by the bookies once they are added to their ledger storage,
+     * without writing them to the journal. The entries only rely on their replicas for durability
+     * until the ledger storage is flushed, so a bookie crash can lose the entries it has acknowledged.
+     *
+     * <p>It is meant for ledgers which can be rebuilt, such as caches and derived state. Bookies
+     * with {@code journalBypassEnabled=false} ignore it and write the entries to the journal.
+     */
+    SKIP_JOURNAL(0x1 << 1);
 
     /**
      * No flag is set, use default behaviour.
@@ -43,6 +53,8 @@ public enum WriteFlag {
     public static final EnumSet<WriteFlag> NONE = EnumSet.noneOf(WriteFlag.class);
 
     private static final EnumSet<WriteFlag> ONLY_DEFERRED_SYNC = EnumSet.of(DEFERRED_SYNC);
+    private static final EnumSet<WriteFlag> ONLY_SKIP_JOURNAL = EnumSet.of(SKIP_JOURNAL);
+    private static final EnumSet<WriteFlag> DEFERRED_SYNC_AND_SKIP_JOURNAL = EnumSet.of(DEFERRED_SYNC, SKIP_JOURNAL);
 
     private final int value;
 
@@ -57,8 +69,14 @@ public enum WriteFlag {
      * @return a set of flags
      */
     public static EnumSet<WriteFlag> getWriteFlags(int flagValue) {
-        if ((flagValue & DEFERRED_SYNC.value) == DEFERRED_SYNC.value) {
+        boolean deferredSync = (flagValue & DEFERRED_SYNC.value) == DEFERRED_SYNC.value;
+        boolean skipJournal = (flagValue & SKIP_JOURNAL.value) == SKIP_JOURNAL.value;
+        if (deferredSync && skipJournal) {
+            return DEFERRED_SYNC_AND_SKIP_JOURNAL;
+        } else if (deferredSync) {
             return ONLY_DEFERRED_SYNC;
+        } else if (skipJournal) {
+            return ONLY_SKIP_JOURNAL;
         }
         return WriteFlag.NONE;
     }
@@ -0,0 +1,159 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.client.impl;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+import org.apache.bookkeeper.client.api.BatchedLedgerEntry;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+
+/**
+ * Batched view of a ledger entry.
+ *
+ * <p>An entry written by a batched handle starts with {@link #BATCH_MAGIC} and the number of records, followed by
+ * each record prefixed by its length.
+ */
+public class BatchedLedgerEntryImpl implements BatchedLedgerEntry {
+
+    static final int BATCH_MAGIC = 0x42415443;
+    static final int BATCH_HEADER_SIZE = 2 * Integer.BYTES;
+    static final int RECORD_HEADER_SIZE = Integer.BYTES;
+
+    public static BatchedLedgerEntryImpl create(LedgerEntry entry) {
+        ByteBuf buf = entry.getEntryBuffer();
+        int readerIndex = buf.readerIndex();
+        int size = buf.readableBytes();
+        if (size < BATCH_HEADER_SIZE || buf.getInt(readerIndex) != BATCH_MAGIC) {
+            throw new IllegalArgumentException("Entry " + entry.getEntryId() + " of ledger " + entry.getLedgerId()
+                    + " is not a batch");
+        }
+        int numRecords = buf.getInt(readerIndex + Integer.BYTES);
+        if (numRecords < 0 || numRecords > (size - BATCH_HEADER_SIZE) / RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid number of records " + numRecords + " in entry "
+                    + entry.getEntryId() + " of ledger " + entry.getLedgerId());
+        }
+        // offsets are relative to the reader index, so that they remain valid in the duplicates
+        int[] offsets = new int[numRecords];
+        int[] lengths = new int[numRecords];
+        int offset = BATCH_HEADER_SIZE;
+        for (int i = 0; i < numRecords; i++) {
+            int length = offset + RECORD_HEADER_SIZE <= size ? buf.getInt(readerIndex + offset) : -1;
+            offset += RECORD_HEADER_SIZE;
+            if (length < 0 || length > size - offset) {
+                throw new IllegalArgumentException("Invalid length of record " + i + " in entry "
+                        + entry.getEntryId() + " of ledger " + entry.getLedgerId());
+            }
+            offsets[i] = offset;
+            lengths[i] = length;
+            offset += length;
+        }
+        return new BatchedLedgerEntryImpl(entry, offsets, lengths);
+    }
+
+    private final LedgerEntry entry;
+    private final int[] offsets;
+    private final int[] lengths;
+
+    private BatchedLedgerEntryImpl(LedgerEntry entry, int[] offsets, int[] lengths) {
+        this.entry = entry;
+        this.offsets = offsets;
+        this.lengths = lengths;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getNumRecords() {
+        return offsets.length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuf getRecord(int index) {
+        ByteBuf buf = entry.getEntryBuffer();
+        return buf.slice(buf.readerIndex() + offsets[index], lengths[index]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLedgerId() {
+        return entry.getLedgerId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getEntryId() {
+        return entry.getEntryId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLength() {
+        return entry.getLength();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getEntryBytes() {
+        return entry.getEntryBytes();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuffer getEntryNioBuffer() {
+        return entry.getEntryNioBuffer();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ByteBuf getEntryBuffer() {
+        return entry.getEntryBuffer();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public BatchedLedgerEntryImpl duplicate() {
+        return new BatchedLedgerEntryImpl(entry.duplicate(), offsets, lengths);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void close() {
+        entry.close();
+    }
+}
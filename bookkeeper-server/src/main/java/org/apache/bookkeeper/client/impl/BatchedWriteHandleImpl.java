@@ -0,0 +1,329 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.client.impl;
+
+import static org.apache.bookkeeper.client.impl.BatchedLedgerEntryImpl.BATCH_HEADER_SIZE;
+import static org.apache.bookkeeper.client.impl.BatchedLedgerEntryImpl.BATCH_MAGIC;
+import static org.apache.bookkeeper.client.impl.BatchedLedgerEntryImpl.RECORD_HEADER_SIZE;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BKException.BKLedgerClosedException;
+import org.apache.bookkeeper.client.api.BatchedWriteHandle;
+import org.apache.bookkeeper.client.api.LastConfirmedAndEntry;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.client.api.RecordPosition;
+import org.apache.bookkeeper.client.api.WriteHandle;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+
+/**
+ * Write handle which coalesces the records appended to a ledger into batches, each written as one entry of the
+ * underlying handle.
+ *
+ * <p>The records are encoded as read by {@link BatchedLedgerEntryImpl}. A batch is written as soon as it holds
+ * maxBatchSize bytes, or when its delay expires on the scheduler. Full batches are queued under the lock of this
+ * handle, then encoded and handed to the underlying handle outside of it, by one thread at a time and in the order
+ * of the queue, so records keep the order of their appends without appenders waiting on the writes.
+ */
+public class BatchedWriteHandleImpl implements BatchedWriteHandle {
+
+    private final WriteHandle handle;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final OrderedScheduler scheduler;
+    private final ByteBufAllocator allocator;
+
+    private List<ByteBuf> records = new ArrayList<>();
+    private List<CompletableFuture<RecordPosition>> recordFutures = new ArrayList<>();
+    private int batchSize = 0;
+    private ScheduledFuture<?> flushTask = null;
+    private CompletableFuture<Long> lastBatchFuture = CompletableFuture.completedFuture(null);
+    private boolean closed = false;
+    // batches waiting to be written, and whether a thread is writing them
+    private final Queue<Batch> pendingBatches = new ArrayDeque<>();
+    private boolean appending = false;
+
+    /**
+     * Records taken out of the current batch, to be written as one entry.
+     */
+    private static final class Batch {
+        final List<ByteBuf> records;
+        final List<CompletableFuture<RecordPosition>> recordFutures;
+        final int size;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+
+        Batch(List<ByteBuf> records, List<CompletableFuture<RecordPosition>> recordFutures, int size) {
+            this.records = records;
+            this.recordFutures = recordFutures;
+            this.size = size;
+        }
+    }
+
+    public BatchedWriteHandleImpl(WriteHandle handle, int maxBatchSize, long maxBatchDelayNanos,
+                                  OrderedScheduler scheduler, ByteBufAllocator allocator) {
+        this.handle = handle;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayNanos = maxBatchDelayNanos;
+        this.scheduler = scheduler;
+        this.allocator = allocator;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<RecordPosition> appendRecordAsync(ByteBuf data) {
+        CompletableFuture<RecordPosition> future = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) {
+                data.release();
+                future.completeExceptionally(new BKLedgerClosedException());
+                return future;
+            }
+            int recordSize = RECORD_HEADER_SIZE + data.readableBytes();
+            if (!records.isEmpty() && batchSize + recordSize > maxBatchSize) {
+                queueBatch();
+            }
+            records.add(data);
+            recordFutures.add(future);
+            batchSize += recordSize;
+            if (batchSize >= maxBatchSize) {
+                queueBatch();
+            } else if (flushTask == null) {
+                flushTask = scheduler.scheduleOrdered(handle.getId(), this::flush,
+                        maxBatchDelayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        appendPendingBatches();
+        return future;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Long> appendAsync(ByteBuf data) {
+        return appendRecordAsync(data).thenApply(RecordPosition::getEntryId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void flush() {
+        synchronized (this) {
+            queueBatch();
+        }
+        appendPendingBatches();
+    }
+
+    /**
+     * Take the records of the current batch out, and queue them to be written.
+     */
+    private void queueBatch() {
+        if (flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+        if (records.isEmpty()) {
+            return;
+        }
+        Batch batch = new Batch(records, recordFutures, batchSize);
+        records = new ArrayList<>();
+        recordFutures = new ArrayList<>();
+        batchSize = 0;
+        pendingBatches.add(batch);
+        lastBatchFuture = batch.future;
+    }
+
+    /**
+     * Write the queued batches, unless another thread is writing them already. The batches are taken from the queue
+     * under the lock, and written outside of it.
+     */
+    private void appendPendingBatches() {
+        synchronized (this) {
+            if (appending) {
+                return;
+            }
+            appending = true;
+        }
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                batch = pendingBatches.poll();
+                if (batch == null) {
+                    appending = false;
+                    return;
+                }
+            }
+            appendBatch(batch);
+        }
+    }
+
+    private void appendBatch(Batch batch) {
+        ByteBuf entry = allocator.buffer(BATCH_HEADER_SIZE + batch.size);
+        entry.writeInt(BATCH_MAGIC);
+        entry.writeInt(batch.records.size());
+        for (ByteBuf record : batch.records) {
+            entry.writeInt(record.readableBytes());
+            entry.writeBytes(record, record.readerIndex(), record.readableBytes());
+            record.release();
+        }
+
+        List<CompletableFuture<RecordPosition>> futures = batch.recordFutures;
+        handle.appendAsync(entry).whenComplete((entryId, cause) -> {
+            for (int i = 0; i < futures.size(); i++) {
+                if (cause != null) {
+                    futures.get(i).completeExceptionally(cause);
+                } else {
+                    futures.get(i).complete(new RecordPosition(entryId, i));
+                }
+            }
+            if (cause != null) {
+                batch.future.completeExceptionally(cause);
+            } else {
+                batch.future.complete(entryId);
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Void> force() {
+        flush();
+        return handle.force();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The current batch is written, and the underlying handle is closed once it completes.
+     */
+    @Override
+    public CompletableFuture<Void> closeAsync() {
+        CompletableFuture<Long> lastBatch;
+        synchronized (this) {
+            closed = true;
+            queueBatch();
+            lastBatch = lastBatchFuture;
+        }
+        appendPendingBatches();
+        return lastBatch.handle((entryId, cause) -> null).thenCompose(ignore -> handle.closeAsync());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLastAddPushed() {
+        return handle.getLastAddPushed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<LedgerEntries> readAsync(long firstEntry, long lastEntry) {
+        return handle.readAsync(firstEntry, lastEntry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<LedgerEntries> readUnconfirmedAsync(long firstEntry, long lastEntry) {
+        return handle.readUnconfirmedAsync(firstEntry, lastEntry);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Long> readLastAddConfirmedAsync() {
+        return handle.readLastAddConfirmedAsync();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<Long> tryReadLastAddConfirmedAsync() {
+        return handle.tryReadLastAddConfirmedAsync();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLastAddConfirmed() {
+        return handle.getLastAddConfirmed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getLength() {
+        return handle.getLength();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isClosed() {
+        return handle.isClosed();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public CompletableFuture<LastConfirmedAndEntry> readLastAddConfirmedAndEntryAsync(long entryId,
+                                                                                      long timeOutInMillis,
+                                                                                      boolean parallel) {
+        return handle.readLastAddConfirmedAndEntryAsync(entryId, timeOutInMillis, parallel);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long getId() {
+        return handle.getId();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public LedgerMetadata getLedgerMetadata() {
+        return handle.getLedgerMetadata();
+    }
+}
@@ -104,6 +104,7 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
 
     // Read Parameters
     protected static final String READ_TIMEOUT = "readTimeout";
+    protected static final String BATCH_READ_ENABLED = "batchReadEnabled";
     protected static final String SPECULATIVE_READ_TIMEOUT = "speculativeReadTimeout";
     protected static final String FIRST_SPECULATIVE_READ_TIMEOUT = "firstSpeculativeReadTimeout";
     protected static final String MAX_SPECULATIVE_READ_TIMEOUT = "maxSpeculativeReadTimeout";
@@ -596,6 +597,35 @@ public class ClientConfiguration extends AbstractConfiguration<ClientConfigurati
         return this;
     }
 
+    /**
+     * Whether reads may be served by a single batched read request per bookie.
+     *
+     * <p>Batched reads are only used with the v2 wire protocol and on ledgers whose
+     * ensemble size equals their write quorum size, so every bookie stores every entry.
+     *
+     * <p>Disabled by default: bookies which don't know the batched read request close the
+     * connection on it, so this should only be enabled once every bookie of the cluster
+     * supports it.
+     *
+     * @return whether batched reads are enabled
+     */
+    public boolean isBatchReadEnabled() {
+        return getBoolean(BATCH_READ_ENABLED, false);
+    }
+
+    /**
+     * Enable or disable batched reads.
+     *
+     * @param enabled
+     *          whether batched reads are enabled
+     * @return client configuration.
+     * @see #isBatchReadEnabled()
+     */
+    public ClientConfiguration setBatchReadEnabled(boolean enabled) {
+        setProperty(BATCH_READ_ENABLED, enabled);
+        return this;
+    }
+
     /**
      * Get the socket read timeout. This is the number of
      * seconds we wait without hearing a response from a bookie
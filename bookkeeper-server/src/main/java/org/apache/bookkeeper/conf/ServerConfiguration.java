@@ -107,6 +107,10 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String COMPACTION_RATE = "compactionRate";
     protected static final String COMPACTION_RATE_BY_ENTRIES = "compactionRateByEntries";
     protected static final String COMPACTION_RATE_BY_BYTES = "compactionRateByBytes";
+    protected static final String COMPACTION_MAX_CONCURRENCY = "compactionMaxConcurrency";
+    protected static final String COMPACTION_IO_BUDGET_BYTES_PER_SECOND = "compactionIoBudgetBytesPerSecond";
+    protected static final String COMPACTION_BACKOFF_LATENCY_THRESHOLD_MILLIS =
+        "compactionBackoffLatencyThresholdMillis";
 
     // Gc Parameters
     protected static final String GC_WAIT_TIME = "gcWaitTime";
@@ -138,11 +142,13 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String MAX_BACKUP_JOURNALS = "journalMaxBackups";
     protected static final String JOURNAL_SYNC_DATA = "journalSyncData";
     protected static final String JOURNAL_WRITE_DATA = "journalWriteData";
+    protected static final String JOURNAL_BYPASS_ENABLED = "journalBypassEnabled";
     protected static final String JOURNAL_ADAPTIVE_GROUP_WRITES = "journalAdaptiveGroupWrites";
     protected static final String JOURNAL_MAX_GROUP_WAIT_MSEC = "journalMaxGroupWaitMSec";
     protected static final String JOURNAL_BUFFERED_WRITES_THRESHOLD = "journalBufferedWritesThreshold";
     protected static final String JOURNAL_BUFFERED_ENTRIES_THRESHOLD = "journalBufferedEntriesThreshold";
     protected static final String JOURNAL_FLUSH_WHEN_QUEUE_EMPTY = "journalFlushWhenQueueEmpty";
+    protected static final String JOURNAL_GROUP_COMMIT_TARGET_LATENCY_MS = "journalGroupCommitTargetLatencyMs";
     protected static final String JOURNAL_REMOVE_FROM_PAGE_CACHE = "journalRemoveFromPageCache";
     protected static final String JOURNAL_PRE_ALLOC_SIZE = "journalPreAllocSizeMB";
     protected static final String JOURNAL_WRITE_BUFFER_SIZE = "journalWriteBufferSizeKB";
@@ -153,6 +159,11 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String JOURNAL_MAX_MEMORY_SIZE_MB = "journalMaxMemorySizeMb";
     protected static final String JOURNAL_PAGECACHE_FLUSH_INTERVAL_MSEC = "journalPageCacheFlushIntervalMSec";
     protected static final String JOURNAL_CHANNEL_PROVIDER = "journalChannelProvider";
+    protected static final String JOURNAL_DIRECT_IO_ENABLED = "journalDirectIOEnabled";
+    protected static final String JOURNAL_DYNAMIC_ROUTING_ENABLED = "journalDynamicRoutingEnabled";
+    protected static final String JOURNAL_ROUTING_IDLE_LEDGER_TIMEOUT_MS = "journalRoutingIdleLedgerTimeoutMs";
+    protected static final String JOURNAL_RING_BUFFER_ENABLED = "journalRingBufferEnabled";
+    protected static final String JOURNAL_REPLAY_THREADS = "journalReplayThreads";
     // backpressure control
     protected static final String MAX_ADDS_IN_PROGRESS_LIMIT = "maxAddsInProgressLimit";
     protected static final String MAX_READS_IN_PROGRESS_LIMIT = "maxReadsInProgressLimit";
@@ -224,6 +235,7 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String NUM_LONG_POLL_WORKER_THREADS = "numLongPollWorkerThreads";
     protected static final String NUM_HIGH_PRIORITY_WORKER_THREADS = "numHighPriorityWorkerThreads";
     protected static final String READ_WORKER_THREADS_THROTTLING_ENABLED = "readWorkerThreadsThrottlingEnabled";
+    protected static final String READ_ENTRY_ZERO_COPY_MIN_SIZE = "readEntryZeroCopyMinSize";
 
     // Long poll parameters
     protected static final String REQUEST_TIMER_TICK_DURATION_MILLISEC = "requestTimerTickDurationMs";
@@ -315,6 +327,19 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
     protected static final String ENTRY_LOG_PER_LEDGER_COUNTER_LIMITS_MULT_FACTOR =
             "entryLogPerLedgerCounterLimitsMultFactor";
 
+    /*
+     * in entryLogPerLedger feature, the number of groups the ledgers are
+     * assigned to by ledger id, each group having its own active entrylog.
+     */
+    protected static final String ENTRY_LOG_PER_LEDGER_GROUPS = "entryLogPerLedgerGroups";
+
+    /*
+     * in entryLogPerLedger feature, the number of retention classes the
+     * ledgers are assigned to, each class having its own entrylogs.
+     */
+    protected static final String ENTRY_LOG_RETENTION_CLASSES = "entryLogRetentionClasses";
+    protected static final String ENTRY_LOG_RETENTION_CLASS_BASE_AGE_SECONDS = "entryLogRetentionClassBaseAgeSeconds";
+
     // Perform local consistency check on bookie startup
     protected static final String LOCAL_CONSISTENCY_CHECK_ON_STARTUP = "localConsistencyCheckOnStartup";
 
@@ -988,6 +1013,128 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this.getString(JOURNAL_CHANNEL_PROVIDER, "org.apache.bookkeeper.bookie.DefaultFileChannelProvider");
     }
 
+    /**
+     * Whether the journal is written with direct I/O. When enabled, journal files are opened with
+     * O_DIRECT and O_DSYNC through the native-io library and written from aligned native buffers,
+     * so journal writes bypass the page cache and a force write doesn't need to sync the file.
+     * {@link #getJournalRemovePagesFromCache()} has no effect in this mode. Default is false.
+     *
+     * @return true if the journal is written with direct I/O
+     */
+    public boolean getJournalDirectIOEnabled() {
+        return this.getBoolean(JOURNAL_DIRECT_IO_ENABLED, false);
+    }
+
+    /**
+     * Set whether the journal is written with direct I/O.
+     *
+     * @param enabled
+     *          true to write the journal with direct I/O
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalDirectIOEnabled(boolean enabled) {
+        this.setProperty(JOURNAL_DIRECT_IO_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Whether ledgers are assigned to journals by load. When enabled, a ledger is assigned to the journal
+     * with the lowest queue depth and write throughput on its first write, and stays on it until it has
+     * been idle for {@link #getJournalRoutingIdleLedgerTimeoutMs()}. When disabled, a ledger is always
+     * written to the journal given by its id modulo the number of journals. Default is false.
+     *
+     * @return true if ledgers are assigned to journals by load
+     */
+    public boolean getJournalDynamicRoutingEnabled() {
+        return this.getBoolean(JOURNAL_DYNAMIC_ROUTING_ENABLED, false);
+    }
+
+    /**
+     * Set whether ledgers are assigned to journals by load.
+     *
+     * @param enabled
+     *          true to assign ledgers to journals by load
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalDynamicRoutingEnabled(boolean enabled) {
+        this.setProperty(JOURNAL_DYNAMIC_ROUTING_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the time after which a ledger that hasn't been written to can be assigned to another journal,
+     * when {@link #getJournalDynamicRoutingEnabled()} is set. It must be much larger than the journal
+     * group wait and page cache flush intervals, so that the entries of the ledger are synced on its
+     * previous journal before it moves. Default is 30 seconds.
+     *
+     * @return idle ledger timeout in milliseconds
+     */
+    public long getJournalRoutingIdleLedgerTimeoutMs() {
+        return this.getLong(JOURNAL_ROUTING_IDLE_LEDGER_TIMEOUT_MS, 30000L);
+    }
+
+    /**
+     * Set the time after which an idle ledger can be assigned to another journal.
+     *
+     * @param timeoutMs
+     *          idle ledger timeout in milliseconds
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalRoutingIdleLedgerTimeoutMs(long timeoutMs) {
+        this.setProperty(JOURNAL_ROUTING_IDLE_LEDGER_TIMEOUT_MS, timeoutMs);
+        return this;
+    }
+
+    /**
+     * Whether the journal uses the batched ring buffer pipeline. When enabled, entries are queued to the
+     * journal in a lock-free multi-producer ring buffer that the journal thread drains in batches, and the
+     * entries acknowledged by a flush or a force write are called back as a single task, flushing each
+     * client connection once per batch. When busy wait is enabled, the journal thread spins on the ring
+     * buffer, otherwise it parks while it's empty. Default is false.
+     *
+     * @return true if the journal uses the batched ring buffer pipeline
+     */
+    public boolean getJournalRingBufferEnabled() {
+        return this.getBoolean(JOURNAL_RING_BUFFER_ENABLED, false);
+    }
+
+    /**
+     * Set whether the journal uses the batched ring buffer pipeline.
+     *
+     * @param enabled
+     *          true to use the batched ring buffer pipeline
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalRingBufferEnabled(boolean enabled) {
+        this.setProperty(JOURNAL_RING_BUFFER_ENABLED, enabled);
+        return this;
+    }
+
+    /**
+     * Get the number of threads applying journal records to the ledger storage when the bookie
+     * replays its journals on startup. With more than one thread, the journal directories are read
+     * concurrently and the records are applied in parallel, in order within each ledger. The journal
+     * log marks are only advanced once all the records have been applied. Default is 1, which replays
+     * the journals one after the other on the startup thread.
+     *
+     * @return number of journal replay threads
+     */
+    public int getJournalReplayThreads() {
+        return this.getInt(JOURNAL_REPLAY_THREADS, 1);
+    }
+
+    /**
+     * Set the number of threads applying journal records when replaying the journals.
+     *
+     * @param numThreads
+     *          number of journal replay threads
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalReplayThreads(int numThreads) {
+        this.setProperty(JOURNAL_REPLAY_THREADS, numThreads);
+        return this;
+    }
+
     /**
      * Get max number of adds in progress. 0 == unlimited.
      *
@@ -1982,6 +2129,29 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getBoolean(READ_WORKER_THREADS_THROTTLING_ENABLED, true);
     }
 
+    /**
+     * Set the minimum size of the entries which are sent straight from the entry logs to the socket, without
+     * being read into memory, when they are not cached. This only applies to the v2 protocol without TLS, and
+     * to the entry logs of DbLedgerStorage.
+     *
+     * @param minSize
+     *          minimum size of the entries to send from the entry logs, 0 to disable it
+     * @return server configuration
+     */
+    public ServerConfiguration setReadEntryZeroCopyMinSize(int minSize) {
+        setProperty(READ_ENTRY_ZERO_COPY_MIN_SIZE, minSize);
+        return this;
+    }
+
+    /**
+     * Get the minimum size of the entries which are sent straight from the entry logs to the socket.
+     *
+     * @return minimum size of the entries to send from the entry logs, 0 if disabled
+     */
+    public int getReadEntryZeroCopyMinSize() {
+        return getInt(READ_ENTRY_ZERO_COPY_MIN_SIZE, 0);
+    }
+
 
 
     /**
@@ -2251,6 +2421,35 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Should the entries written with the SKIP_JOURNAL write flag be acknowledged without writing
+     * them to the journal. When disabled, the flag is ignored and these entries are journaled too.
+     *
+     * <p>Beware: the bypassed entries are only in the memory of the ledger storage until it's flushed, so
+     * a bookie crash loses entries it has acknowledged. Clients can then only recover them from the other
+     * replicas of the ledger.
+     *
+     * <p>Default is false
+     *
+     * @return
+     */
+    public boolean getJournalBypassEnabled() {
+        return getBoolean(JOURNAL_BYPASS_ENABLED, false);
+    }
+
+    /**
+     * Should the entries written with the SKIP_JOURNAL write flag be acknowledged without writing
+     * them to the journal.
+     *
+     * <p>Default is false
+     *
+     * @return
+     */
+    public ServerConfiguration setJournalBypassEnabled(boolean journalBypassEnabled) {
+        setProperty(JOURNAL_BYPASS_ENABLED, journalBypassEnabled);
+        return this;
+    }
+
     /**
      * Enable or disable journal syncs.
      *
@@ -2372,6 +2571,32 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return getBoolean(JOURNAL_FLUSH_WHEN_QUEUE_EMPTY, false);
     }
 
+    /**
+     * Get the target 99th percentile latency of a journal write, from its enqueue to its acknowledgement.
+     * When set, the journal adjusts how long it groups entries and how many it groups from the measured
+     * latency, sync latency and arrival rate, instead of using {@link #getJournalMaxGroupWaitMSec()},
+     * {@link #getJournalBufferedWritesThreshold()}, {@link #getJournalBufferedEntriesThreshold()} and
+     * {@link #getJournalFlushWhenQueueEmpty()} as is. The first three are then upper bounds.
+     * Default is 0, which disables the adaptive group commit.
+     *
+     * @return target journal write latency in milliseconds
+     */
+    public long getJournalGroupCommitTargetLatencyMs() {
+        return getLong(JOURNAL_GROUP_COMMIT_TARGET_LATENCY_MS, 0);
+    }
+
+    /**
+     * Set the target 99th percentile latency of a journal write, 0 to disable the adaptive group commit.
+     *
+     * @param targetLatencyMs
+     *          target journal write latency in milliseconds
+     * @return server configuration
+     */
+    public ServerConfiguration setJournalGroupCommitTargetLatencyMs(long targetLatencyMs) {
+        setProperty(JOURNAL_GROUP_COMMIT_TARGET_LATENCY_MS, targetLatencyMs);
+        return this;
+    }
+
     /**
      * Set whether the bookie is able to go into read-only mode.
      * If this is set to false, the bookie will shutdown on encountering
@@ -2878,6 +3103,77 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /**
+     * Get the maximum number of entry logs compacted at the same time across all the ledger directories.
+     * Each ledger directory compacts at most one entry log at a time. Default is 0, meaning no limit other
+     * than one compaction per ledger directory.
+     *
+     * @return maximum number of concurrent compactions
+     */
+    public int getCompactionMaxConcurrency() {
+        return getInt(COMPACTION_MAX_CONCURRENCY, 0);
+    }
+
+    /**
+     * Set the maximum number of entry logs compacted at the same time across all the ledger directories.
+     *
+     * @param maxConcurrency maximum number of concurrent compactions, 0 for one per ledger directory
+     *
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionMaxConcurrency(int maxConcurrency) {
+        setProperty(COMPACTION_MAX_CONCURRENCY, maxConcurrency);
+        return this;
+    }
+
+    /**
+     * Get the disk bandwidth shared by all the compactions of the bookie, in bytes read from the compacted
+     * entry logs per second. It applies on top of the per-compaction rate set with
+     * {@link #setCompactionRateByBytes(int)} or {@link #setCompactionRateByEntries(int)}.
+     * Default is 0, meaning no bookie-wide budget.
+     *
+     * @return compaction I/O budget in bytes per second
+     */
+    public long getCompactionIoBudgetBytesPerSecond() {
+        return getLong(COMPACTION_IO_BUDGET_BYTES_PER_SECOND, 0);
+    }
+
+    /**
+     * Set the disk bandwidth shared by all the compactions of the bookie.
+     *
+     * @param bytesPerSecond compaction I/O budget in bytes per second, 0 to disable it
+     *
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionIoBudgetBytesPerSecond(long bytesPerSecond) {
+        setProperty(COMPACTION_IO_BUDGET_BYTES_PER_SECOND, bytesPerSecond);
+        return this;
+    }
+
+    /**
+     * Get the journal sync or entry read latency above which compaction backs off. While the average
+     * latency stays above the threshold, the compaction I/O budget and concurrency are halved every
+     * second, down to a single compaction at 1/16th of the budget. They grow back once the latency
+     * falls below the threshold. Default is 0, meaning compaction doesn't back off.
+     *
+     * @return latency threshold in milliseconds
+     */
+    public long getCompactionBackoffLatencyThresholdMillis() {
+        return getLong(COMPACTION_BACKOFF_LATENCY_THRESHOLD_MILLIS, 0);
+    }
+
+    /**
+     * Set the journal sync or entry read latency above which compaction backs off.
+     *
+     * @param thresholdMillis latency threshold in milliseconds, 0 to disable the back off
+     *
+     * @return ServerConfiguration
+     */
+    public ServerConfiguration setCompactionBackoffLatencyThresholdMillis(long thresholdMillis) {
+        setProperty(COMPACTION_BACKOFF_LATENCY_THRESHOLD_MILLIS, thresholdMillis);
+        return this;
+    }
+
     /**
      * Should we remove pages from page cache after force write.
      *
@@ -3810,6 +4106,69 @@ public class ServerConfiguration extends AbstractConfiguration<ServerConfigurati
         return this;
     }
 
+    /*
+     * in entryLogPerLedger feature, get the number of groups the ledgers are
+     * assigned to by ledger id. Each group has a single active entrylog shared
+     * by its ledgers, so the number of entrylogs open for writes is bounded by
+     * the number of groups, and the entrylog of a group which hasn't been
+     * written to for entrylogMapAccessExpiryTimeInSeconds is closed. If it is
+     * 0, each ledger has its own active entrylog, up to
+     * maximumNumberOfActiveEntryLogs.
+     */
+    public int getEntryLogPerLedgerGroups() {
+        return this.getInt(ENTRY_LOG_PER_LEDGER_GROUPS, 0);
+    }
+
+    /*
+     * in entryLogPerLedger feature, sets the number of groups the ledgers are
+     * assigned to, 0 for an active entrylog per ledger.
+     */
+    public ServerConfiguration setEntryLogPerLedgerGroups(int entryLogPerLedgerGroups) {
+        this.setProperty(ENTRY_LOG_PER_LEDGER_GROUPS, Integer.toString(entryLogPerLedgerGroups));
+        return this;
+    }
+
+    /*
+     * in entryLogPerLedger feature, get the number of retention classes the
+     * ledgers are assigned to. The ledgers of different classes never share
+     * an entrylog, so that entrylogs mostly hold ledgers deleted at about the
+     * same time. The class of a ledger is given by its
+     * "bookkeeper.retention.class" custom metadata, from 0 for the shortest
+     * retention, or learned from the time since its first write to the bookie.
+     * If it is 0, ledgers are not placed by retention class.
+     */
+    public int getEntryLogRetentionClasses() {
+        return this.getInt(ENTRY_LOG_RETENTION_CLASSES, 0);
+    }
+
+    /*
+     * in entryLogPerLedger feature, sets the number of retention classes, 0
+     * to not place the ledgers by retention class.
+     */
+    public ServerConfiguration setEntryLogRetentionClasses(int entryLogRetentionClasses) {
+        this.setProperty(ENTRY_LOG_RETENTION_CLASSES, Integer.toString(entryLogRetentionClasses));
+        return this;
+    }
+
+    /*
+     * get the age, since its first write, after which a ledger without a
+     * retention class hint moves from the first retention class to the
+     * second. It moves to each following class when its age is multiplied
+     * by 4.
+     */
+    public long getEntryLogRetentionClassBaseAgeSeconds() {
+        return this.getLong(ENTRY_LOG_RETENTION_CLASS_BASE_AGE_SECONDS, 3600);
+    }
+
+    /*
+     * sets the age after which a ledger moves from the first retention class
+     * to the second.
+     */
+    public ServerConfiguration setEntryLogRetentionClassBaseAgeSeconds(long baseAgeSeconds) {
+        this.setProperty(ENTRY_LOG_RETENTION_CLASS_BASE_AGE_SECONDS, Long.toString(baseAgeSeconds));
+        return this;
+    }
+
     /**
      * True if a local consistency check should be performed on startup.
      */
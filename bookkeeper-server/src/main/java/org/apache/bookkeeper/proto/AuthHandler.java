@@ -112,6 +112,15 @@ class AuthHandler {
                             new BookieProtocol.ReadResponse(
                                     req.getProtocolVersion(), BookieProtocol.EUA,
                                     req.getLedgerId(), req.getEntryId()));
+                } else if (req.getOpCode() == BookieProtocol.MULTI_ADD_ENTRY) {
+                    ((BookieProtocol.ParsedMultiAddRequest) req).release();
+                    ctx.channel().writeAndFlush(
+                            ResponseBuilder.buildErrorResponse(BookieProtocol.EUA, req));
+                } else if (req.getOpCode() == BookieProtocol.BATCH_READ_ENTRY) {
+                    ctx.channel().writeAndFlush(
+                            new BookieProtocol.BatchedReadResponse(
+                                    req.getProtocolVersion(), BookieProtocol.EUA,
+                                    req.getLedgerId(), req.getEntryId()));
                 } else {
                     ctx.channel().close();
                 }
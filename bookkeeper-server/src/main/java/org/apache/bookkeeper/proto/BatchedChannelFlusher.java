@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.FastThreadLocal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Groups the flushes of the responses written by a thread.
+ *
+ * <p>Between {@link #startBatch()} and {@link #endBatch()}, the responses sent by the request processors
+ * of the current thread are only written to their channel, and each channel is flushed once at the end
+ * of the batch. It's used when acknowledging a batch of journal entries, which usually holds several
+ * responses for the same client connections.
+ */
+public final class BatchedChannelFlusher {
+
+    private static final FastThreadLocal<Batch> BATCH = new FastThreadLocal<Batch>() {
+        @Override
+        protected Batch initialValue() {
+            return new Batch();
+        }
+    };
+
+    private BatchedChannelFlusher() {}
+
+    /**
+     * Start deferring the flush of the responses written by the current thread.
+     */
+    public static void startBatch() {
+        BATCH.get().active = true;
+    }
+
+    /**
+     * Flush the channels written to since {@link #startBatch()}, and stop deferring flushes.
+     */
+    public static void endBatch() {
+        Batch batch = BATCH.getIfExists();
+        if (batch == null) {
+            return;
+        }
+        batch.active = false;
+        List<Channel> channels = batch.channels;
+        for (int i = 0; i < channels.size(); i++) {
+            channels.get(i).flush();
+        }
+        channels.clear();
+        batch.channelSet.clear();
+    }
+
+    /**
+     * Write a response to a channel, and flush it unless a batch is started on the current thread.
+     */
+    static ChannelFuture writeAndFlush(Channel channel, Object response, ChannelPromise promise) {
+        Batch batch = BATCH.getIfExists();
+        if (batch == null || !batch.active) {
+            return channel.writeAndFlush(response, promise);
+        }
+        ChannelFuture future = channel.write(response, promise);
+        if (batch.channelSet.add(channel)) {
+            batch.channels.add(channel);
+        }
+        return future;
+    }
+
+    private static final class Batch {
+        private boolean active = false;
+        private final List<Channel> channels = new ArrayList<>();
+        private final Set<Channel> channelSet = Collections.newSetFromMap(new IdentityHashMap<>());
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.proto;
+
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.util.Recycler;
+import io.netty.util.ReferenceCountUtil;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.Bookie;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.proto.BookieProtocol.BatchedReadRequest;
+import org.apache.bookkeeper.stats.OpStatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processor serving a {@link BatchedReadRequest}: reads consecutive entries starting from the requested
+ * entry and sends them back in a single response, stopping at the first missing entry or when the
+ * count or size limits would be exceeded.
+ */
+class BatchedReadEntryProcessor extends PacketProcessorBase<BatchedReadRequest> {
+    private static final Logger LOG = LoggerFactory.getLogger(BatchedReadEntryProcessor.class);
+
+    // packet header, error code, ledger id and first entry id of the response
+    static final int RESPONSE_HEADER_SIZE = 4 + 4 + 8 + 8;
+
+    private long maxFrameSize;
+    private boolean throttleReadResponses;
+
+    public static BatchedReadEntryProcessor create(BatchedReadRequest request,
+                                                   Channel channel,
+                                                   BookieRequestProcessor requestProcessor,
+                                                   long maxFrameSize,
+                                                   boolean throttleReadResponses) {
+        BatchedReadEntryProcessor rep = RECYCLER.get();
+        rep.init(request, channel, requestProcessor);
+        rep.maxFrameSize = maxFrameSize;
+        rep.throttleReadResponses = throttleReadResponses;
+        return rep;
+    }
+
+    @Override
+    protected void processPacket() {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Received new batched read request: {}", request);
+        }
+        int errorCode = BookieProtocol.EOK;
+        long startTimeNanos = MathUtils.nowInNano();
+        ByteBufList data = null;
+        try {
+            if (request.getMaxCount() <= 0 || request.getMaxSize() <= 0) {
+                throw new IllegalArgumentException("Invalid batch limits " + request);
+            }
+            data = readEntries();
+        } catch (Bookie.NoLedgerException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Error reading {}", request, e);
+            }
+            errorCode = BookieProtocol.ENOLEDGER;
+        } catch (Bookie.NoEntryException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Error reading {}", request, e);
+            }
+            errorCode = BookieProtocol.ENOENTRY;
+        } catch (IOException e) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Error reading {}", request, e);
+            }
+            errorCode = BookieProtocol.EIO;
+        } catch (BookieException.DataUnknownException e) {
+            LOG.error("Ledger {} is in an unknown state", request.getLedgerId(), e);
+            errorCode = BookieProtocol.EUNKNOWNLEDGERSTATE;
+        } catch (BookieException e) {
+            LOG.error("Unauthorized access to ledger {}", request.getLedgerId(), e);
+            errorCode = BookieProtocol.EUA;
+        } catch (Throwable t) {
+            LOG.error("Unexpected exception reading at {}:{} : {}", request.getLedgerId(), request.getEntryId(),
+                      t.getMessage(), t);
+            errorCode = BookieProtocol.EBADREQ;
+        }
+
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("Batched read entry rc = {} for {}", errorCode, request);
+        }
+        sendResponse(data, errorCode, startTimeNanos);
+    }
+
+    /**
+     * Read the entries of the batch. Failing to read the first entry fails the whole request, while
+     * a failure on any of the following entries only ends the batch early, so that the client can
+     * make progress with the entries read so far.
+     */
+    private ByteBufList readEntries() throws IOException, BookieException {
+        long ledgerId = request.getLedgerId();
+        long firstEntryId = request.getEntryId();
+        // never build a response that the client would reject as too large
+        long maxSize = Math.min(request.getMaxSize(), maxFrameSize - RESPONSE_HEADER_SIZE);
+
+        ByteBuf first = requestProcessor.getBookie().readEntry(ledgerId, firstEntryId);
+        ByteBufList data = ByteBufList.get(first);
+        long responseSize = Integer.BYTES + first.readableBytes();
+
+        for (int i = 1; i < request.getMaxCount(); i++) {
+            ByteBuf entry;
+            try {
+                entry = requestProcessor.getBookie().readEntry(ledgerId, firstEntryId + i);
+            } catch (Bookie.NoEntryException | Bookie.NoLedgerException e) {
+                break;
+            } catch (IOException | BookieException e) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Stop batched read {} at entry {}", request, firstEntryId + i, e);
+                }
+                break;
+            }
+            responseSize += Integer.BYTES + entry.readableBytes();
+            if (responseSize > maxSize) {
+                ReferenceCountUtil.release(entry);
+                break;
+            }
+            data.add(entry);
+        }
+        return data;
+    }
+
+    private void sendResponse(ByteBufList data, int errorCode, long startTimeNanos) {
+        final RequestStats stats = requestProcessor.getRequestStats();
+        final OpStatsLogger logger = stats.getBatchReadEntryStats();
+        BookieProtocol.Response response;
+        if (errorCode == BookieProtocol.EOK) {
+            logger.registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            stats.getBatchReadEntryCounter().add(data.size());
+            response = ResponseBuilder.buildBatchedReadResponse(data, request);
+        } else {
+            if (data != null) {
+                ReferenceCountUtil.release(data);
+            }
+            logger.registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            response = ResponseBuilder.buildErrorResponse(errorCode, request);
+        }
+
+        if (throttleReadResponses) {
+            sendResponseAndWait(errorCode, response, stats.getBatchReadRequestStats());
+        } else {
+            sendResponse(errorCode, response, stats.getBatchReadRequestStats());
+        }
+        recycle();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BatchedReadEntry(%d, %d, %d)",
+                request.getLedgerId(), request.getEntryId(), request.getMaxCount());
+    }
+
+    private void recycle() {
+        super.reset();
+        this.recyclerHandle.recycle(this);
+    }
+
+    private final Recycler.Handle<BatchedReadEntryProcessor> recyclerHandle;
+
+    private BatchedReadEntryProcessor(Recycler.Handle<BatchedReadEntryProcessor> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    private static final Recycler<BatchedReadEntryProcessor> RECYCLER =
+            new Recycler<BatchedReadEntryProcessor>() {
+        @Override
+        protected BatchedReadEntryProcessor newObject(Recycler.Handle<BatchedReadEntryProcessor> handle) {
+            return new BatchedReadEntryProcessor(handle);
+        }
+    };
+}
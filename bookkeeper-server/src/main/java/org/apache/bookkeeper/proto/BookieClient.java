@@ -24,8 +24,10 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
+import org.apache.bookkeeper.client.BKException;
 import org.apache.bookkeeper.client.api.WriteFlag;
 import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback;
@@ -180,6 +182,28 @@ public interface BookieClient {
                    ReadEntryCallback cb, Object ctx, int flags, byte[] masterKey,
                    boolean allowFastFail);
 
+    /**
+     * Read a range of consecutive entries from bookie at address {@code address} with a
+     * single request. The bookie replies with the entries from {@code startEntryId} on, up
+     * to {@code maxCount} entries and {@code maxSize} bytes; fewer entries may be returned.
+     * Batched reads are only supported by the v2 wire protocol.
+     *
+     * @param address address of the bookie to read from
+     * @param ledgerId id of the ledger the entries belong to
+     * @param startEntryId id of the first entry to read
+     * @param maxCount max number of entries to read
+     * @param maxSize max size in bytes of the entries read
+     * @param cb the callback notified when the request completes
+     * @param ctx a context object passed to the callback on completion
+     * @param flags a bit mask of flags from BookieProtocol.FLAG_*
+     *              {@link org.apache.bookkeeper.proto.BookieProtocol}
+     */
+    default void batchReadEntries(BookieId address, long ledgerId, long startEntryId,
+                                  int maxCount, long maxSize, BatchedReadEntryCallback cb,
+                                  Object ctx, int flags) {
+        cb.readEntriesComplete(BKException.Code.IllegalOpException, ledgerId, startEntryId, null, ctx);
+    }
+
     /**
      * Send a long poll request to bookie, waiting for the last add confirmed
      * to be updated. The client can also request that the full entry is returned
@@ -35,10 +35,13 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelOutboundHandlerAdapter;
 import io.netty.channel.ChannelPromise;
+import io.netty.channel.FileRegion;
 import io.netty.util.ReferenceCountUtil;
 
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.bookkeeper.proto.BookieProtocol.PacketHeader;
 import org.apache.bookkeeper.proto.BookkeeperProtocol.OperationType;
@@ -118,6 +121,35 @@ public class BookieProtoEncoding {
                 ar.recycle();
                 data.prepend(buf);
                 return data;
+            } else if (r instanceof BookieProtocol.MultiAddRequest) {
+                BookieProtocol.MultiAddRequest mar = (BookieProtocol.MultiAddRequest) r;
+                int totalHeaderSize = 4 // for the header
+                    + BookieProtocol.MASTER_KEY_LENGTH // for the master key
+                    + 8 // for ledgerId
+                    + 8 // for the first entryId
+                    + 4; // for the number of entries
+                List<ByteBufList> data = mar.getData();
+                ByteBuf buf = allocator.buffer(totalHeaderSize);
+                buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), r.getFlags()));
+                buf.writeBytes(r.getMasterKey(), 0, BookieProtocol.MASTER_KEY_LENGTH);
+                buf.writeLong(r.getLedgerId());
+                buf.writeLong(r.getEntryId());
+                buf.writeInt(data.size());
+
+                // Entries are passed through as they are, each one preceded by its length
+                ByteBuf lengths = allocator.buffer(4 * data.size());
+                ByteBufList out = ByteBufList.get(buf);
+                for (int i = 0; i < data.size(); i++) {
+                    ByteBufList entry = data.get(i);
+                    lengths.writeInt(entry.readableBytes());
+                    out.add(lengths.retainedSlice(4 * i, 4));
+                    for (int j = 0; j < entry.size(); j++) {
+                        out.add(entry.getBuffer(j).retainedDuplicate());
+                    }
+                }
+                lengths.release();
+                mar.recycle();
+                return out;
             } else if (r instanceof BookieProtocol.ReadRequest) {
                 int totalHeaderSize = 4 // for request type
                     + 8 // for ledgerId
@@ -134,6 +166,21 @@ public class BookieProtoEncoding {
                     buf.writeBytes(r.getMasterKey(), 0, BookieProtocol.MASTER_KEY_LENGTH);
                 }
 
+                return buf;
+            } else if (r instanceof BookieProtocol.BatchedReadRequest) {
+                BookieProtocol.BatchedReadRequest br = (BookieProtocol.BatchedReadRequest) r;
+                int totalHeaderSize = 4 // for request type
+                    + 8 // for ledgerId
+                    + 8 // for entryId
+                    + 4 // for maxCount
+                    + 8; // for maxSize
+
+                ByteBuf buf = allocator.buffer(totalHeaderSize);
+                buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), r.getFlags()));
+                buf.writeLong(r.getLedgerId());
+                buf.writeLong(r.getEntryId());
+                buf.writeInt(br.getMaxCount());
+                buf.writeLong(br.getMaxSize());
                 return buf;
             } else if (r instanceof BookieProtocol.AuthRequest) {
                 BookkeeperProtocol.AuthMessage am = ((BookieProtocol.AuthRequest) r).getAuthMessage();
@@ -187,6 +234,26 @@ public class BookieProtoEncoding {
                 } else {
                     return new BookieProtocol.ReadRequest(version, ledgerId, entryId, flags, null);
                 }
+            case BookieProtocol.BATCH_READ_ENTRY: {
+                ledgerId = packet.readLong();
+                entryId = packet.readLong();
+                int maxCount = packet.readInt();
+                long maxSize = packet.readLong();
+                return new BookieProtocol.BatchedReadRequest(version, ledgerId, entryId, flags, maxCount, maxSize);
+            }
+            case BookieProtocol.MULTI_ADD_ENTRY: {
+                byte[] masterKey = readMasterKey(packet);
+                ledgerId = packet.readLong();
+                entryId = packet.readLong();
+                int numEntries = packet.readInt();
+                List<ByteBuf> entries = new ArrayList<>(numEntries);
+                for (int i = 0; i < numEntries; i++) {
+                    int entrySize = packet.readInt();
+                    entries.add(packet.readRetainedSlice(entrySize));
+                }
+                return new BookieProtocol.ParsedMultiAddRequest(version, ledgerId, entryId, flags,
+                        masterKey, entries);
+            }
             case BookieProtocol.AUTH:
                 BookkeeperProtocol.AuthMessage.Builder builder = BookkeeperProtocol.AuthMessage.newBuilder();
                 builder.mergeFrom(new ByteBufInputStream(packet), extensionRegistry);
@@ -244,17 +311,59 @@ public class BookieProtoEncoding {
             buf.writeInt(PacketHeader.toInt(r.getProtocolVersion(), r.getOpCode(), (short) 0));
 
             try {
-                if (msg instanceof BookieProtocol.ReadResponse) {
+                if (msg instanceof BookieProtocol.ReadResponse
+                        || msg instanceof BookieProtocol.FileRegionReadResponse) {
                     buf.writeInt(r.getErrorCode());
                     buf.writeLong(r.getLedgerId());
                     buf.writeLong(r.getEntryId());
 
+                    if (msg instanceof BookieProtocol.FileRegionReadResponse) {
+                        // The region is written by the caller right after the header, in the same frame
+                        ByteBufList header = ByteBufList.get(buf);
+                        header.setTrailingFrameBytes(
+                                (int) ((BookieProtocol.FileRegionReadResponse) r).getRegion().count());
+                        return header;
+                    }
                     BookieProtocol.ReadResponse rr = (BookieProtocol.ReadResponse) r;
                     if (rr.hasData()) {
                         return ByteBufList.get(buf, rr.getData());
                     } else {
                         return buf;
                     }
+                } else if (msg instanceof BookieProtocol.BatchedReadResponse) {
+                    buf.writeInt(r.getErrorCode());
+                    buf.writeLong(r.getLedgerId());
+                    buf.writeLong(r.getEntryId());
+
+                    BookieProtocol.BatchedReadResponse brr = (BookieProtocol.BatchedReadResponse) r;
+                    if (!brr.hasData()) {
+                        return buf;
+                    }
+                    // Entries are passed through as they are, each one preceded by its length
+                    ByteBufList data = brr.getData();
+                    ByteBuf lengths = allocator.buffer(4 * data.size());
+                    ByteBufList out = ByteBufList.get(buf);
+                    for (int i = 0; i < data.size(); i++) {
+                        ByteBuf entry = data.getBuffer(i);
+                        lengths.writeInt(entry.readableBytes());
+                        out.add(lengths.retainedSlice(4 * i, 4));
+                        out.add(entry.retain());
+                    }
+                    lengths.release();
+                    data.release();
+                    return out;
+                } else if (msg instanceof BookieProtocol.MultiAddResponse) {
+                    BookieProtocol.MultiAddResponse mar = (BookieProtocol.MultiAddResponse) r;
+                    buf.ensureWritable(20 + 4 * mar.getNumEntries());
+                    buf.writeInt(r.getErrorCode());
+                    buf.writeLong(r.getLedgerId());
+                    buf.writeLong(r.getEntryId());
+                    buf.writeInt(mar.getNumEntries());
+                    for (int i = 0; i < mar.getNumEntries(); i++) {
+                        buf.writeInt(mar.getEntryErrorCode(i));
+                    }
+
+                    return buf;
                 } else if (msg instanceof BookieProtocol.AddResponse) {
                     buf.writeInt(r.getErrorCode());
                     buf.writeLong(r.getLedgerId());
@@ -295,6 +404,33 @@ public class BookieProtoEncoding {
 
                 return new BookieProtocol.ReadResponse(
                         version, rc, ledgerId, entryId, buffer.retainedSlice());
+            case BookieProtocol.BATCH_READ_ENTRY: {
+                rc = buffer.readInt();
+                ledgerId = buffer.readLong();
+                entryId = buffer.readLong();
+
+                ByteBufList data = null;
+                while (buffer.readableBytes() >= 4) {
+                    int entrySize = buffer.readInt();
+                    if (data == null) {
+                        data = ByteBufList.get(buffer.readRetainedSlice(entrySize));
+                    } else {
+                        data.add(buffer.readRetainedSlice(entrySize));
+                    }
+                }
+                return new BookieProtocol.BatchedReadResponse(version, rc, ledgerId, entryId, data);
+            }
+            case BookieProtocol.MULTI_ADD_ENTRY: {
+                rc = buffer.readInt();
+                ledgerId = buffer.readLong();
+                entryId = buffer.readLong();
+
+                int[] entryErrorCodes = new int[buffer.readInt()];
+                for (int i = 0; i < entryErrorCodes.length; i++) {
+                    entryErrorCodes[i] = buffer.readInt();
+                }
+                return new BookieProtocol.MultiAddResponse(version, rc, ledgerId, entryId, entryErrorCodes);
+            }
             case BookieProtocol.AUTH:
                 ByteBufInputStream bufStream = new ByteBufInputStream(buffer);
                 BookkeeperProtocol.AuthMessage.Builder builder = BookkeeperProtocol.AuthMessage.newBuilder();
@@ -474,6 +610,8 @@ public class BookieProtoEncoding {
             }
             if (msg instanceof BookkeeperProtocol.Response) {
                 ctx.write(repV3.encode(msg, ctx.alloc()), promise);
+            } else if (msg instanceof BookieProtocol.FileRegionReadResponse) {
+                writeFileRegionResponse(ctx, (BookieProtocol.FileRegionReadResponse) msg, promise);
             } else if (msg instanceof BookieProtocol.Response) {
                 ctx.write(repPreV3.encode(msg, ctx.alloc()), promise);
             } else {
@@ -481,6 +619,18 @@ public class BookieProtoEncoding {
                 ctx.write(msg, promise);
             }
         }
+
+        /**
+         * The header of a response carrying a file region is framed with the size of the region, and the region
+         * is written right after it, so that it's sent with sendfile. This is only valid when there's no TLS
+         * handler in the pipeline.
+         */
+        private void writeFileRegionResponse(ChannelHandlerContext ctx, BookieProtocol.FileRegionReadResponse r,
+                                             ChannelPromise promise) throws Exception {
+            FileRegion region = r.getRegion();
+            ctx.write(repPreV3.encode(r, ctx.alloc()), ctx.voidPromise());
+            ctx.write(region, promise);
+        }
     }
 
     /**
@@ -22,10 +22,14 @@ package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
+import io.netty.channel.FileRegion;
 import io.netty.util.Recycler;
 import io.netty.util.Recycler.Handle;
 import io.netty.util.ReferenceCountUtil;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.bookkeeper.proto.BookkeeperProtocol.AuthMessage;
 import org.apache.bookkeeper.util.ByteBufList;
 
@@ -134,6 +138,31 @@ public interface BookieProtocol {
     byte WRITE_LAC = 5;
     byte GET_BOOKIE_INFO = 6;
 
+    /**
+     * The Batch read request payload will be the ledger number, the first
+     * entry number to read, the max number of entries (4-byte integer) and the
+     * max size in bytes (8-byte integer) of the response. The response payload
+     * will be a 4-byte error code, the ledger number and the first entry number,
+     * followed, if the error code is EOK, by a sequence of entries each prefixed
+     * by its 4-byte length. The bookie returns the longest run of consecutive
+     * entries that fits in the limits; at least one entry is returned on success.
+     */
+    byte BATCH_READ_ENTRY = 12;
+
+    /**
+     * The Multi add request payload will be the master key, the ledger number,
+     * the first entry number and the number of entries (4-byte integer),
+     * followed by the consecutive entries of the ledger, each prefixed by its
+     * 4-byte length and laid out exactly as it should be logged. The response
+     * payload will be a 4-byte error code, the ledger number, the first entry
+     * number and the number of entries, followed by the 4-byte error code of
+     * each entry.
+     *
+     * <p>Only the bookie side is implemented: the client doesn't send it, since
+     * a bookie without multi add support would reject the unknown opcode.
+     */
+    byte MULTI_ADD_ENTRY = 13;
+
     /**
      * The error code that indicates success.
      */
@@ -358,6 +387,77 @@ public interface BookieProtocol {
         }
     }
 
+    /**
+     * A Request that adds a run of consecutive entries of a ledger.
+     */
+    class MultiAddRequest extends Request {
+        final List<ByteBufList> data;
+
+        MultiAddRequest(byte protocolVersion, long ledgerId, long firstEntryId,
+                        short flags, byte[] masterKey, List<ByteBufList> data) {
+            init(protocolVersion, MULTI_ADD_ENTRY, ledgerId, firstEntryId, flags, masterKey);
+            this.data = new ArrayList<>(data.size());
+            for (ByteBufList entry : data) {
+                this.data.add(entry.retain());
+            }
+        }
+
+        int getNumEntries() {
+            return data.size();
+        }
+
+        List<ByteBufList> getData() {
+            return data;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Op(%d)[Ledger:%d,Entry:%d,NumEntries:%d]",
+                                 opCode, ledgerId, entryId, data.size());
+        }
+
+        @Override
+        public void recycle() {
+            for (ByteBufList entry : data) {
+                ReferenceCountUtil.safeRelease(entry);
+            }
+            data.clear();
+        }
+    }
+
+    /**
+     * This is similar to multi add request, but it used when processing the request on the bookie side.
+     */
+    class ParsedMultiAddRequest extends Request {
+        final List<ByteBuf> data;
+
+        ParsedMultiAddRequest(byte protocolVersion, long ledgerId, long firstEntryId,
+                              short flags, byte[] masterKey, List<ByteBuf> data) {
+            init(protocolVersion, MULTI_ADD_ENTRY, ledgerId, firstEntryId, flags, masterKey);
+            this.data = data;
+        }
+
+        int getNumEntries() {
+            return data.size();
+        }
+
+        List<ByteBuf> getData() {
+            return data;
+        }
+
+        void release() {
+            for (ByteBuf entry : data) {
+                ReferenceCountUtil.safeRelease(entry);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Op(%d)[Ledger:%d,Entry:%d,NumEntries:%d]",
+                                 opCode, ledgerId, entryId, data.size());
+        }
+    }
+
     /**
      * A Request that reads data.
      */
@@ -372,6 +472,35 @@ public interface BookieProtocol {
         }
     }
 
+    /**
+     * A Request that reads a contiguous range of entries.
+     */
+    class BatchedReadRequest extends Request {
+        final int maxCount;
+        final long maxSize;
+
+        BatchedReadRequest(byte protocolVersion, long ledgerId, long entryId,
+                           short flags, int maxCount, long maxSize) {
+            init(protocolVersion, BATCH_READ_ENTRY, ledgerId, entryId, flags, null);
+            this.maxCount = maxCount;
+            this.maxSize = maxSize;
+        }
+
+        int getMaxCount() {
+            return maxCount;
+        }
+
+        long getMaxSize() {
+            return maxSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Op(%d)[Ledger:%d,Entry:%d,MaxCount:%d,MaxSize:%d]",
+                                 opCode, ledgerId, entryId, maxCount, maxSize);
+        }
+    }
+
     /**
      * An authentication request.
      */
@@ -477,6 +606,72 @@ public interface BookieProtocol {
         }
     }
 
+    /**
+     * A response to a read, carrying the region of an entry log file holding the entry, so that the entry
+     * is sent without being read into memory. It's encoded like a {@link ReadResponse}.
+     */
+    class FileRegionReadResponse extends Response {
+        final FileRegion region;
+
+        FileRegionReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId,
+                               FileRegion region) {
+            init(protocolVersion, READENTRY, errorCode, ledgerId, entryId);
+            this.region = region;
+        }
+
+        FileRegion getRegion() {
+            return region;
+        }
+
+        @Override
+        public void retain() {
+            region.retain();
+        }
+
+        @Override
+        public void release() {
+            region.release();
+        }
+    }
+
+    /**
+     * A response to a batched read, carrying the entries read starting from entryId.
+     */
+    class BatchedReadResponse extends Response {
+        final ByteBufList data;
+
+        BatchedReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId) {
+            this(protocolVersion, errorCode, ledgerId, entryId, null);
+        }
+
+        BatchedReadResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, ByteBufList data) {
+            init(protocolVersion, BATCH_READ_ENTRY, errorCode, ledgerId, entryId);
+            this.data = data;
+        }
+
+        boolean hasData() {
+            return data != null && data.size() > 0;
+        }
+
+        ByteBufList getData() {
+            return data;
+        }
+
+        @Override
+        public void retain() {
+            if (data != null) {
+                data.retain();
+            }
+        }
+
+        @Override
+        public void release() {
+            if (data != null) {
+                data.release();
+            }
+        }
+    }
+
     /**
      * A response that adds data.
      */
@@ -505,6 +700,26 @@ public interface BookieProtocol {
         }
     }
 
+    /**
+     * A response to a multi add, carrying the error code of each of the entries starting from entryId.
+     */
+    class MultiAddResponse extends Response {
+        final int[] entryErrorCodes;
+
+        MultiAddResponse(byte protocolVersion, int errorCode, long ledgerId, long entryId, int[] entryErrorCodes) {
+            init(protocolVersion, MULTI_ADD_ENTRY, errorCode, ledgerId, entryId);
+            this.entryErrorCodes = entryErrorCodes;
+        }
+
+        int getNumEntries() {
+            return entryErrorCodes.length;
+        }
+
+        int getEntryErrorCode(int index) {
+            return entryErrorCodes[index];
+        }
+    }
+
     /**
      * An error response.
      */
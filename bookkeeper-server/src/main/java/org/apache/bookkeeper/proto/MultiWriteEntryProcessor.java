@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.proto;
+
+import io.netty.channel.Channel;
+import io.netty.util.Recycler;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.bookie.BookieException.OperationRejectedException;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieProtocol.ParsedMultiAddRequest;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.util.MathUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes multi add entry requests: the entries are added to the bookie as a single run and acknowledged
+ * with a single response, once all of them are written.
+ *
+ * <p>Entries which are left out of the run because a previous entry failed are reported with {@link
+ * BookieProtocol#EIO}, so that the client writes them again.
+ */
+class MultiWriteEntryProcessor extends PacketProcessorBase<ParsedMultiAddRequest> implements WriteCallback {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiWriteEntryProcessor.class);
+
+    long startTimeNanos;
+    int[] entryErrorCodes;
+    // entries waiting for their write to complete, plus one held while the request is being processed
+    final AtomicInteger pendingEntries = new AtomicInteger();
+
+    @Override
+    protected void reset() {
+        super.reset();
+        startTimeNanos = -1L;
+        entryErrorCodes = null;
+    }
+
+    public static MultiWriteEntryProcessor create(ParsedMultiAddRequest request, Channel channel,
+                                                  BookieRequestProcessor requestProcessor) {
+        MultiWriteEntryProcessor mwep = RECYCLER.get();
+        mwep.init(request, channel, requestProcessor);
+        return mwep;
+    }
+
+    @Override
+    protected void processPacket() {
+        if (requestProcessor.getBookie().isReadOnly()
+            && !(request.isHighPriority() && requestProcessor.getBookie().isAvailableForHighPriorityWrites())) {
+            LOG.warn("BookieServer is running in readonly mode,"
+                    + " so rejecting the request from the client!");
+            sendResponse(BookieProtocol.EREADONLY,
+                         ResponseBuilder.buildErrorResponse(BookieProtocol.EREADONLY, request),
+                         requestProcessor.getRequestStats().getMultiAddRequestStats());
+            request.release();
+            recycle();
+            return;
+        }
+
+        final int numEntries = request.getNumEntries();
+        startTimeNanos = MathUtils.nowInNano();
+        entryErrorCodes = new int[numEntries];
+        Arrays.fill(entryErrorCodes, BookieProtocol.EIO);
+        pendingEntries.set(numEntries + 1);
+        requestProcessor.getRequestStats().getMultiAddEntryCounter().add(numEntries);
+
+        int rc = BookieProtocol.EOK;
+        int added = 0;
+        try {
+            added = requestProcessor.getBookie().addEntries(request.getData(), false, this, channel,
+                    request.getMasterKey());
+        } catch (OperationRejectedException e) {
+            requestProcessor.getRequestStats().getAddEntryRejectedCounter().inc();
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Operation rejected while writing {}", request, e);
+            }
+            rc = BookieProtocol.ETOOMANYREQUESTS;
+        } catch (IOException e) {
+            LOG.error("Error writing {}", request, e);
+            rc = BookieProtocol.EIO;
+        } catch (BookieException.LedgerFencedException lfe) {
+            LOG.error("Attempt to write to fenced ledger", lfe);
+            rc = BookieProtocol.EFENCED;
+        } catch (BookieException e) {
+            LOG.error("Unauthorized access to ledger {}", request.getLedgerId(), e);
+            rc = BookieProtocol.EUA;
+        } catch (Throwable t) {
+            LOG.error("Unexpected exception while writing {} : {}", request, t.getMessage(), t);
+            // some bad request which cause unexpected exception
+            rc = BookieProtocol.EBADREQ;
+        }
+
+        if (rc != BookieProtocol.EOK) {
+            requestProcessor.getRequestStats().getAddEntryStats()
+                .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+            sendResponse(rc,
+                         ResponseBuilder.buildErrorResponse(rc, request),
+                         requestProcessor.getRequestStats().getMultiAddRequestStats());
+            recycle();
+            return;
+        }
+
+        // the entries left out of the run will never be acknowledged
+        if (pendingEntries.addAndGet(-(numEntries - added + 1)) == 0) {
+            sendMultiAddResponse();
+        }
+    }
+
+    @Override
+    public void writeComplete(int rc, long ledgerId, long entryId,
+                              BookieId addr, Object ctx) {
+        if (BookieProtocol.EOK == rc) {
+            requestProcessor.getRequestStats().getAddEntryStats()
+                .registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        } else {
+            requestProcessor.getRequestStats().getAddEntryStats()
+                .registerFailedEvent(MathUtils.elapsedNanos(startTimeNanos), TimeUnit.NANOSECONDS);
+        }
+        int index = (int) (entryId - request.getEntryId());
+        if (index >= 0 && index < entryErrorCodes.length) {
+            entryErrorCodes[index] = rc;
+        }
+        if (pendingEntries.decrementAndGet() == 0) {
+            sendMultiAddResponse();
+        }
+    }
+
+    private void sendMultiAddResponse() {
+        int rc = BookieProtocol.EOK;
+        for (int entryErrorCode : entryErrorCodes) {
+            if (entryErrorCode != BookieProtocol.EOK) {
+                rc = entryErrorCode;
+                break;
+            }
+        }
+        sendResponse(rc,
+                     ResponseBuilder.buildMultiAddResponse(entryErrorCodes, request),
+                     requestProcessor.getRequestStats().getMultiAddRequestStats());
+        recycle();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MultiWriteEntry(%d, %d, %d)",
+                             request.getLedgerId(), request.getEntryId(), request.getNumEntries());
+    }
+
+    private void recycle() {
+        reset();
+        recyclerHandle.recycle(this);
+    }
+
+    private final Recycler.Handle<MultiWriteEntryProcessor> recyclerHandle;
+
+    private MultiWriteEntryProcessor(Recycler.Handle<MultiWriteEntryProcessor> recyclerHandle) {
+        this.recyclerHandle = recyclerHandle;
+    }
+
+    private static final Recycler<MultiWriteEntryProcessor> RECYCLER = new Recycler<MultiWriteEntryProcessor>() {
+        @Override
+        protected MultiWriteEntryProcessor newObject(Recycler.Handle<MultiWriteEntryProcessor> handle) {
+            return new MultiWriteEntryProcessor(handle);
+        }
+    };
+}
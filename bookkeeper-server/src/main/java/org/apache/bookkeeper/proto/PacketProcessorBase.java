@@ -67,7 +67,7 @@ abstract class PacketProcessorBase<T extends Request> extends SafeRunnable {
 
     protected void sendResponse(int rc, Object response, OpStatsLogger statsLogger) {
         if (channel.isActive()) {
-            channel.writeAndFlush(response, channel.voidPromise());
+            BatchedChannelFlusher.writeAndFlush(channel, response, channel.voidPromise());
         } else {
             LOGGER.debug("Netty channel {} is inactive, "
                     + "hence bypassing netty channel writeAndFlush during sendResponse", channel);
@@ -88,7 +88,8 @@ public abstract class PacketProcessorBaseV3 extends SafeRunnable {
             }
         }
         if (channel.isActive()) {
-            channel.writeAndFlush(response).addListener(new ChannelFutureListener() {
+            ChannelFuture writeFuture = BatchedChannelFlusher.writeAndFlush(channel, response, channel.newPromise());
+            writeFuture.addListener(new ChannelFutureListener() {
                 @Override
                 public void operationComplete(ChannelFuture future) throws Exception {
                     long writeElapsedNanos = MathUtils.elapsedNanos(writeNanos);
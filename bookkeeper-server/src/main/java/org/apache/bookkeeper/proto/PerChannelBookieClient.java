@@ -73,7 +73,6 @@ import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.Optional;
 import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -81,7 +80,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.function.BiPredicate;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLPeerUnverifiedException;
 import lombok.SneakyThrows;
@@ -96,6 +94,7 @@ import org.apache.bookkeeper.common.util.OrderedExecutor;
 import org.apache.bookkeeper.conf.ClientConfiguration;
 import org.apache.bookkeeper.net.BookieId;
 import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GenericCallback;
 import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
@@ -140,7 +139,6 @@ import org.apache.bookkeeper.util.MathUtils;
 import org.apache.bookkeeper.util.SafeRunnable;
 import org.apache.bookkeeper.util.StringUtils;
 import org.apache.bookkeeper.util.collections.ConcurrentOpenHashMap;
-import org.apache.bookkeeper.util.collections.SynchronizedHashMultiMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
@@ -181,13 +179,20 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     final long getBookieInfoTimeoutNanos;
     final int startTLSTimeout;
 
+    // resolution and horizon of the timer wheel of the requests in flight
+    private static final long TIMEOUT_WHEEL_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final int TIMEOUT_WHEEL_SLOTS = 1024;
+
+    // requests in flight with a v3 key
     private final ConcurrentOpenHashMap<CompletionKey, CompletionValue> completionObjects =
             ConcurrentOpenHashMap.<CompletionKey, CompletionValue>newBuilder().build();
 
-    // Map that hold duplicated read requests. The idea is to only use this map (synchronized) when there is a duplicate
-    // read request for the same ledgerId/entryId
-    private final SynchronizedHashMultiMap<CompletionKey, CompletionValue> completionObjectsV2Conflicts =
-        new SynchronizedHashMultiMap<>();
+    // requests in flight with a v2 key, including the duplicated read requests for the same ledgerId/entryId
+    private final V2CompletionTable<CompletionValue> v2CompletionObjects = new V2CompletionTable<>();
+
+    // deadlines of all the requests in flight
+    private final TimeoutWheel<CompletionValue> completionTimeouts =
+            new TimeoutWheel<>(TIMEOUT_WHEEL_TICK_NANOS, TIMEOUT_WHEEL_SLOTS, MathUtils.nowInNano());
 
     private final StatsLogger statsLogger;
     @StatsDoc(
@@ -200,6 +205,16 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         help = "timeout stats of read entries requests"
     )
     private final OpStatsLogger readTimeoutOpLogger;
+    @StatsDoc(
+        name = BookKeeperClientStats.CHANNEL_BATCH_READ_OP,
+        help = "channel stats of batch read entries requests"
+    )
+    private final OpStatsLogger batchReadEntryOpLogger;
+    @StatsDoc(
+        name = BookKeeperClientStats.CHANNEL_TIMEOUT_BATCH_READ,
+        help = "timeout stats of batch read entries requests"
+    )
+    private final OpStatsLogger batchReadTimeoutOpLogger;
     @StatsDoc(
         name = BookKeeperClientStats.CHANNEL_ADD_OP,
         help = "channel stats of add entries requests"
@@ -418,6 +433,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         getListOfEntriesOfLedgerCompletionOpLogger = statsLogger
                 .getOpStatsLogger(BookKeeperClientStats.GET_LIST_OF_ENTRIES_OF_LEDGER_OP);
         readTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.CHANNEL_TIMEOUT_READ);
+        batchReadEntryOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.CHANNEL_BATCH_READ_OP);
+        batchReadTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.CHANNEL_TIMEOUT_BATCH_READ);
         addTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.CHANNEL_TIMEOUT_ADD);
         writeLacTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.CHANNEL_TIMEOUT_WRITE_LAC);
         forceLedgerTimeoutOpLogger = statsLogger.getOpStatsLogger(BookKeeperClientStats.CHANNEL_TIMEOUT_FORCE);
@@ -521,7 +538,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     }
 
     protected long getNumPendingCompletionRequests() {
-        return completionObjects.size();
+        return completionObjects.size() + v2CompletionObjects.size();
     }
 
     protected ChannelFuture connect() {
@@ -679,7 +696,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         final CompletionKey completionKey = new V3CompletionKey(txnId,
                                                                 OperationType.WRITE_LAC);
         // writeLac is mostly like addEntry hence uses addEntryTimeout
-        completionObjects.put(completionKey,
+        putCompletionKeyValue(completionKey,
                               new WriteLacCompletion(completionKey, cb,
                                                      ctx, lac));
 
@@ -721,7 +738,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         final CompletionKey completionKey = new V3CompletionKey(txnId,
                                                                 OperationType.FORCE_LEDGER);
         // force is mostly like addEntry hence uses addEntryTimeout
-        completionObjects.put(completionKey,
+        putCompletionKeyValue(completionKey,
                               new ForceLedgerCompletion(completionKey, cb,
                                                      ctx, ledgerId));
 
@@ -766,7 +783,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         Object request = null;
         CompletionKey completionKey = null;
         if (useV2WireProtocol) {
-            if (writeFlags.contains(WriteFlag.DEFERRED_SYNC)) {
+            if (!writeFlags.isEmpty()) {
                 LOG.error("invalid writeflags {} for v2 protocol", writeFlags);
                 executor.executeOrdered(ledgerId, () -> {
                     cb.writeComplete(BKException.Code.IllegalOpException, ledgerId, entryId, bookieId, ctx);
@@ -869,7 +886,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     public void getListOfEntriesOfLedger(final long ledgerId, GetListOfEntriesOfLedgerCallback cb) {
         final long txnId = getTxnId();
         final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.GET_LIST_OF_ENTRIES_OF_LEDGER);
-        completionObjects.put(completionKey, new GetListOfEntriesOfLedgerCompletion(completionKey, cb, ledgerId));
+        putCompletionKeyValue(completionKey, new GetListOfEntriesOfLedgerCompletion(completionKey, cb, ledgerId));
 
         // Build the request.
         BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder().setVersion(ProtocolVersion.VERSION_THREE)
@@ -992,10 +1009,37 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         writeAndFlush(channel, completionKey, request, allowFastFail);
     }
 
+    /**
+     * Batched Reads. Only supported with the v2 wire protocol.
+     */
+    public void batchReadEntries(final long ledgerId,
+                                 final long startEntryId,
+                                 final int maxCount,
+                                 final long maxSize,
+                                 BatchedReadEntryCallback cb,
+                                 Object ctx,
+                                 int flags) {
+        if (!useV2WireProtocol) {
+            LOG.error("Batched reads are only supported with the v2 wire protocol, ledger {} entry {}",
+                      ledgerId, startEntryId);
+            cb.readEntriesComplete(BKException.Code.IllegalOpException, ledgerId, startEntryId, null, ctx);
+            return;
+        }
+        Object request = new BookieProtocol.BatchedReadRequest(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                ledgerId, startEntryId, (short) flags, maxCount, maxSize);
+        CompletionKey completionKey = acquireV2Key(ledgerId, startEntryId, OperationType.BATCH_READ_ENTRY);
+
+        BatchedReadCompletion readCompletion = new BatchedReadCompletion(
+                completionKey, cb, ctx, ledgerId, startEntryId);
+        putCompletionKeyValue(completionKey, readCompletion);
+
+        writeAndFlush(channel, completionKey, request, false);
+    }
+
     public void getBookieInfo(final long requested, GetBookieInfoCallback cb, Object ctx) {
         final long txnId = getTxnId();
         final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.GET_BOOKIE_INFO);
-        completionObjects.put(completionKey,
+        putCompletionKeyValue(completionKey,
                               new GetBookieInfoCompletion(
                                       completionKey, cb, ctx));
 
@@ -1016,14 +1060,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         writeAndFlush(channel, completionKey, getBookieInfoRequest);
     }
 
-    private static final BiPredicate<CompletionKey, CompletionValue> timeoutCheck = (key, value) -> {
-        return value.maybeTimeout();
-    };
-
     public void checkTimeoutOnPendingOperations() {
-        int timedOutOperations = completionObjects.removeIf(timeoutCheck);
-
-        timedOutOperations += completionObjectsV2Conflicts.removeIf(timeoutCheck);
+        int timedOutOperations = completionTimeouts.expire(MathUtils.nowInNano(),
+                this::claimCompletionValue, CompletionValue::timeout);
 
         if (timedOutOperations > 0) {
             LOG.info("Timed-out {} operations to channel {} for {}",
@@ -1152,7 +1191,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             ChannelPromise promise = channel.newPromise().addListener(future -> {
                 if (future.isSuccess()) {
                     nettyOpLogger.registerSuccessfulEvent(MathUtils.elapsedNanos(startTime), TimeUnit.NANOSECONDS);
-                    CompletionValue completion = completionObjects.get(key);
+                    CompletionValue completion = getCompletionValue(key);
                     if (completion != null) {
                         completion.setOutstanding();
                     }
@@ -1172,12 +1211,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Removing completion key: {}", key);
         }
-        CompletionValue completion = completionObjects.remove(key);
+        CompletionValue completion = removeCompletionValue(key);
         if (completion != null) {
             completion.errorOut();
-        } else {
-            // If there's no completion object here, try in the multimap
-            completionObjectsV2Conflicts.removeAny(key).ifPresent(c -> c.errorOut());
         }
     }
 
@@ -1185,12 +1221,9 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Removing completion key: {}", key);
         }
-        CompletionValue completion = completionObjects.remove(key);
+        CompletionValue completion = removeCompletionValue(key);
         if (completion != null) {
             completion.errorOut(rc);
-        } else {
-            // If there's no completion object here, try in the multimap
-            completionObjectsV2Conflicts.removeAny(key).ifPresent(c -> c.errorOut(rc));
         }
     }
 
@@ -1219,10 +1252,11 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
      */
 
     void errorOutOutstandingEntries(int rc) {
-        Optional<CompletionKey> multikey = completionObjectsV2Conflicts.getAnyKey();
-        while (multikey.isPresent()) {
-            multikey.ifPresent(k -> errorOut(k, rc));
-            multikey = completionObjectsV2Conflicts.getAnyKey();
+        for (CompletionValue completion : v2CompletionObjects.values()) {
+            if (claimCompletionValue(completion)) {
+                completionTimeouts.remove(completion);
+                completion.errorOut(rc);
+            }
         }
         for (CompletionKey key : completionObjects.keys()) {
             errorOut(key, rc);
@@ -1348,9 +1382,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         OperationType operationType = getOperationType(response.getOpCode());
         StatusCode status = getStatusCodeFromErrorCode(response.errorCode);
 
-        CompletionKey key = acquireV2Key(response.ledgerId, response.entryId, operationType);
-        CompletionValue completionValue = getCompletionValue(key);
-        key.release();
+        CompletionValue completionValue = v2CompletionObjects.remove(response.ledgerId, response.entryId,
+                operationType.getNumber());
 
         if (null == completionValue) {
             // Unexpected response, so log it. The txnId should have been present.
@@ -1360,6 +1393,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             }
             response.release();
         } else {
+            completionTimeouts.remove(completionValue);
             long orderingKey = completionValue.ledgerId;
             executor.executeOrdered(orderingKey,
                     ReadV2ResponseCallback.create(completionValue, response.ledgerId, response.entryId,
@@ -1422,6 +1456,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 return  OperationType.ADD_ENTRY;
             case BookieProtocol.READENTRY:
                 return OperationType.READ_ENTRY;
+            case BookieProtocol.BATCH_READ_ENTRY:
+                return OperationType.BATCH_READ_ENTRY;
             case BookieProtocol.AUTH:
                 return OperationType.AUTH;
             case BookieProtocol.READ_LAC:
@@ -1466,7 +1502,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         final BKPacketHeader header = response.getHeader();
 
         final CompletionKey key = newCompletionKey(header.getTxnId(), header.getOperation());
-        final CompletionValue completionValue = completionObjects.get(key);
+        final CompletionValue completionValue = removeCompletionValue(key);
 
         if (null == completionValue) {
             // Unexpected response, so log it. The txnId should have been present.
@@ -1491,8 +1527,6 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
                 }
             });
         }
-
-        completionObjects.remove(key);
     }
 
     void initTLSHandshake() {
@@ -1572,7 +1606,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
      */
 
     // visible for testing
-    abstract class CompletionValue {
+    abstract class CompletionValue extends TimeoutWheel.Node {
         private final OpStatsLogger opLogger;
         private final OpStatsLogger timeoutOpLogger;
         private final String operationName;
@@ -1581,6 +1615,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         protected long ledgerId;
         protected long entryId;
         protected long startTime;
+        // the key the completion is registered with while the request is in flight
+        CompletionKey completionKey;
 
         public CompletionValue(String operationName,
                                Object ctx,
@@ -1614,13 +1650,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
             }
         }
 
-        boolean maybeTimeout() {
-            if (MathUtils.elapsedNanos(startTime) >= readEntryTimeoutNanos) {
-                timeout();
-                return true;
-            } else {
-                return false;
-            }
+        long getTimeoutNanos() {
+            return readEntryTimeoutNanos;
         }
 
         void timeout() {
@@ -1949,6 +1980,74 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
     }
 
+    // visible for testing
+    class BatchedReadCompletion extends CompletionValue {
+        final BatchedReadEntryCallback cb;
+
+        public BatchedReadCompletion(final CompletionKey key,
+                                     final BatchedReadEntryCallback originalCallback,
+                                     final Object originalCtx,
+                                     long ledgerId, final long startEntryId) {
+            super("BatchedRead", originalCtx, ledgerId, startEntryId,
+                  batchReadEntryOpLogger, batchReadTimeoutOpLogger);
+
+            this.cb = new BatchedReadEntryCallback() {
+                    @Override
+                    public void readEntriesComplete(int rc, long ledgerId, long startEntryId,
+                                                    ByteBufList bufList, Object ctx) {
+                        logOpResult(rc);
+                        originalCallback.readEntriesComplete(rc, ledgerId, startEntryId,
+                                                             bufList, originalCtx);
+                        key.release();
+                    }
+                };
+        }
+
+        @Override
+        public void errorOut() {
+            errorOut(BKException.Code.BookieHandleNotAvailableException);
+        }
+
+        @Override
+        public void errorOut(final int rc) {
+            errorOutAndRunCallback(
+                    () -> cb.readEntriesComplete(rc, ledgerId, entryId, null, ctx));
+        }
+
+        @Override
+        public void setOutstanding() {
+            readEntryOutstanding.inc();
+        }
+
+        @Override
+        public void handleV2Response(long ledgerId, long entryId,
+                                     StatusCode status,
+                                     BookieProtocol.Response response) {
+            readEntryOutstanding.dec();
+            if (!(response instanceof BookieProtocol.BatchedReadResponse)) {
+                return;
+            }
+            BookieProtocol.BatchedReadResponse readResponse = (BookieProtocol.BatchedReadResponse) response;
+            ByteBufList data = readResponse.getData();
+            if (LOG.isDebugEnabled()) {
+                logResponse(status, "ledger", ledgerId, "entry", entryId,
+                            "entries", data == null ? 0 : data.size());
+            }
+            int rc = convertStatus(status, BKException.Code.ReadException);
+            if (rc == BKException.Code.OK && (data == null || data.size() == 0)) {
+                rc = BKException.Code.ReadException;
+            }
+            cb.readEntriesComplete(rc, ledgerId, entryId, rc == BKException.Code.OK ? data : null, ctx);
+        }
+
+        @Override
+        public void handleV3Response(BookkeeperProtocol.Response response) {
+            // batched reads are never sent with the v3 protocol
+            readEntryOutstanding.dec();
+            LOG.warn("Unexpected V3 response to batched read {}", response);
+        }
+    }
+
     class StartTLSCompletion extends CompletionValue {
         final StartTLSCallback cb;
 
@@ -2021,13 +2120,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
 
         @Override
-        boolean maybeTimeout() {
-            if (MathUtils.elapsedNanos(startTime) >= getBookieInfoTimeoutNanos) {
-                timeout();
-                return true;
-            } else {
-                return false;
-            }
+        long getTimeoutNanos() {
+            return getBookieInfoTimeoutNanos;
         }
 
         @Override
@@ -2167,13 +2261,8 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         }
 
         @Override
-        boolean maybeTimeout() {
-            if (MathUtils.elapsedNanos(startTime) >= addEntryTimeoutNanos) {
-                timeout();
-                return true;
-            } else {
-                return false;
-            }
+        long getTimeoutNanos() {
+            return addEntryTimeoutNanos;
         }
 
         @Override
@@ -2301,22 +2390,57 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
     }
 
     private void putCompletionKeyValue(CompletionKey key, CompletionValue value) {
-        CompletionValue existingValue = completionObjects.putIfAbsent(key, value);
-        if (existingValue != null) { // will only happen for V2 keys, as V3 have unique txnid
-            // There's a pending read request on same ledger/entry. Use the multimap to track all of them
-            completionObjectsV2Conflicts.put(key, value);
+        value.completionKey = key;
+        // link the completion in the wheel first, so that it's never found in flight without its deadline
+        completionTimeouts.add(value, value.startTime + value.getTimeoutNanos());
+        if (key instanceof V2CompletionKey) {
+            V2CompletionKey v2Key = (V2CompletionKey) key;
+            // There may be a pending read request on same ledger/entry, the table keeps all of them
+            v2CompletionObjects.put(v2Key.ledgerId, v2Key.entryId, v2Key.operationType.getNumber(), value);
+        } else {
+            completionObjects.put(key, value);
         }
     }
 
     private CompletionValue getCompletionValue(CompletionKey key) {
-        CompletionValue completionValue = completionObjects.remove(key);
-        if (completionValue == null) {
-            // If there's no completion object here, try in the multimap
-            completionValue = completionObjectsV2Conflicts.removeAny(key).orElse(null);
+        if (key instanceof V2CompletionKey) {
+            V2CompletionKey v2Key = (V2CompletionKey) key;
+            return v2CompletionObjects.get(v2Key.ledgerId, v2Key.entryId, v2Key.operationType.getNumber());
+        } else {
+            return completionObjects.get(key);
+        }
+    }
+
+    private CompletionValue removeCompletionValue(CompletionKey key) {
+        CompletionValue completionValue;
+        if (key instanceof V2CompletionKey) {
+            V2CompletionKey v2Key = (V2CompletionKey) key;
+            completionValue = v2CompletionObjects.remove(v2Key.ledgerId, v2Key.entryId,
+                    v2Key.operationType.getNumber());
+        } else {
+            completionValue = completionObjects.remove(key);
+        }
+        if (completionValue != null) {
+            completionTimeouts.remove(completionValue);
         }
         return completionValue;
     }
 
+    /**
+     * Take the ownership of an in flight completion, by removing it from the requests in flight. It fails if the
+     * completion was already removed, e.g. because its response was received.
+     */
+    private boolean claimCompletionValue(CompletionValue value) {
+        CompletionKey key = value.completionKey;
+        if (key instanceof V2CompletionKey) {
+            V2CompletionKey v2Key = (V2CompletionKey) key;
+            return v2CompletionObjects.remove(v2Key.ledgerId, v2Key.entryId,
+                    v2Key.operationType.getNumber(), value);
+        } else {
+            return key != null && completionObjects.remove(key, value);
+        }
+    }
+
     private long getTxnId() {
         return txnIdGenerator.incrementAndGet();
     }
@@ -2546,7 +2670,7 @@ public class PerChannelBookieClient extends ChannelInboundHandlerAdapter {
         assert state == ConnectionState.CONNECTING;
         final long txnId = getTxnId();
         final CompletionKey completionKey = new V3CompletionKey(txnId, OperationType.START_TLS);
-        completionObjects.put(completionKey,
+        putCompletionKeyValue(completionKey,
                               new StartTLSCompletion(completionKey));
         BookkeeperProtocol.Request.Builder h = withRequestContext(BookkeeperProtocol.Request.newBuilder());
         BKPacketHeader.Builder headerBuilder = BKPacketHeader.newBuilder()
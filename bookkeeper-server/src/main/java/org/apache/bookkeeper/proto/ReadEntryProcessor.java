@@ -19,6 +19,9 @@ package org.apache.bookkeeper.proto;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
+import io.netty.channel.FileRegion;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.util.Recycler;
 import io.netty.util.ReferenceCountUtil;
 import java.io.IOException;
@@ -42,19 +45,32 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
 
     private ExecutorService fenceThreadPool;
     private boolean throttleReadResponses;
+    private int zeroCopyMinEntrySize;
 
     public static ReadEntryProcessor create(ReadRequest request,
                                             Channel channel,
                                             BookieRequestProcessor requestProcessor,
                                             ExecutorService fenceThreadPool,
-                                            boolean throttleReadResponses) {
+                                            boolean throttleReadResponses,
+                                            int zeroCopyMinEntrySize) {
         ReadEntryProcessor rep = RECYCLER.get();
         rep.init(request, channel, requestProcessor);
         rep.fenceThreadPool = fenceThreadPool;
         rep.throttleReadResponses = throttleReadResponses;
+        rep.zeroCopyMinEntrySize = zeroCopyMinEntrySize;
         return rep;
     }
 
+    /**
+     * Entries can be sent straight from the entry log files with sendfile on plain TCP connections only.
+     */
+    private boolean canSendFileRegion() {
+        return zeroCopyMinEntrySize > 0
+                && !request.isFencing()
+                && channel instanceof SocketChannel
+                && channel.pipeline().get(SslHandler.class) == null;
+    }
+
     @Override
     protected void processPacket() {
         if (LOG.isDebugEnabled()) {
@@ -76,6 +92,14 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
                     throw BookieException.create(BookieException.Code.UnauthorizedAccessException);
                 }
             }
+            if (canSendFileRegion()) {
+                FileRegion region = requestProcessor.getBookie().readEntryRegion(request.getLedgerId(),
+                        request.getEntryId(), zeroCopyMinEntrySize);
+                if (region != null) {
+                    sendFileRegionResponse(region, startTimeNanos);
+                    return;
+                }
+            }
             data = requestProcessor.getBookie().readEntry(request.getLedgerId(), request.getEntryId());
             if (LOG.isDebugEnabled()) {
                 LOG.debug("##### Read entry ##### {} -- ref-count: {}", data.readableBytes(), data.refCnt());
@@ -140,6 +164,22 @@ class ReadEntryProcessor extends PacketProcessorBase<ReadRequest> {
         recycle();
     }
 
+    private void sendFileRegionResponse(FileRegion region, long startTimeNanos) {
+        final RequestStats stats = requestProcessor.getRequestStats();
+        stats.getReadEntryStats().registerSuccessfulEvent(MathUtils.elapsedNanos(startTimeNanos),
+                TimeUnit.NANOSECONDS);
+        BookieProtocol.Response response = ResponseBuilder.buildReadResponse(region, request);
+        if (throttleReadResponses) {
+            sendResponseAndWait(BookieProtocol.EOK, response, stats.getReadRequestStats());
+        } else {
+            // Written even if the channel is inactive, so that the channel closes the region
+            BatchedChannelFlusher.writeAndFlush(channel, response, channel.voidPromise());
+            stats.getReadRequestStats().registerSuccessfulEvent(MathUtils.elapsedNanos(enqueueNanos),
+                    TimeUnit.NANOSECONDS);
+        }
+        recycle();
+    }
+
     private void sendFenceResponse(Boolean result, ByteBuf data, long startTimeNanos) {
         final int retCode = result != null && result ? BookieProtocol.EOK : BookieProtocol.EIO;
         sendResponse(data, retCode, startTimeNanos);
@@ -0,0 +1,170 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Hashed timer wheel tracking the deadlines of the requests in flight on a channel.
+ *
+ * <p>Each slot of the wheel covers a tick of time and links the nodes whose deadline falls in that tick, in a
+ * list threaded through the nodes themselves, so adding and removing a request doesn't allocate. Expiring the
+ * timed out requests only walks the slots of the ticks elapsed since the previous run, rather than all the
+ * requests in flight. Nodes whose deadline is more than a whole wheel ahead stay in their slot until the wheel
+ * comes back to it.
+ *
+ * <p>The wheel doesn't own the nodes: when expiring a node, the caller must claim it first, e.g. by removing it
+ * from the table of requests in flight, and whoever completes a node must remove it from the wheel.
+ *
+ * @param <T> the type of the nodes
+ */
+class TimeoutWheel<T extends TimeoutWheel.Node> {
+
+    /**
+     * A node of the wheel.
+     */
+    abstract static class Node {
+        private Node prev;
+        private Node next;
+        private long deadlineNanos;
+        // the slot the node is linked in, -1 if it's not linked
+        private volatile int slot = -1;
+    }
+
+    private static final class Slot {
+        private Node head;
+    }
+
+    private final long tickNanos;
+    private final Slot[] slots;
+    private final int mask;
+    // the last tick whose slot doesn't need to be walked again
+    private volatile long lastExpiredTick;
+
+    TimeoutWheel(long tickNanos, int numSlots, long nowNanos) {
+        checkArgument(tickNanos > 0);
+        checkArgument(numSlots > 0 && Integer.bitCount(numSlots) == 1, "numSlots must be a power of 2");
+        this.tickNanos = tickNanos;
+        this.slots = new Slot[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = numSlots - 1;
+        this.lastExpiredTick = Math.floorDiv(nowNanos, tickNanos) - 1;
+    }
+
+    /**
+     * Add a node which isn't linked in the wheel yet.
+     */
+    void add(T node, long deadlineNanos) {
+        // a deadline in a tick already walked goes to the next tick to walk
+        long tick = Math.max(Math.floorDiv(deadlineNanos, tickNanos), lastExpiredTick + 1);
+        int slotIdx = (int) (tick & mask);
+        Slot slot = slots[slotIdx];
+        synchronized (slot) {
+            node.deadlineNanos = deadlineNanos;
+            node.prev = null;
+            node.next = slot.head;
+            if (slot.head != null) {
+                slot.head.prev = node;
+            }
+            slot.head = node;
+            node.slot = slotIdx;
+        }
+    }
+
+    /**
+     * Remove a node from the wheel, if it's still linked.
+     */
+    void remove(T node) {
+        int slotIdx = node.slot;
+        if (slotIdx < 0) {
+            return;
+        }
+        Slot slot = slots[slotIdx];
+        synchronized (slot) {
+            // the node may have been expired meanwhile
+            if (node.slot == slotIdx) {
+                unlink(slot, node);
+            }
+        }
+    }
+
+    /**
+     * Expire the nodes whose deadline has passed. A node is only expired if {@code claim} accepts it, which is
+     * called with the lock of the slot held; a node which isn't claimed is left in the wheel. {@code onExpired}
+     * is called for the claimed nodes once they're out of the wheel, with no lock held.
+     *
+     * @return the number of nodes expired
+     */
+    @SuppressWarnings("unchecked")
+    synchronized int expire(long nowNanos, Predicate<T> claim, Consumer<T> onExpired) {
+        long currentTick = Math.floorDiv(nowNanos, tickNanos);
+        // walk each slot at most once, even if the wheel went round since the previous run
+        long fromTick = Math.max(lastExpiredTick + 1, currentTick - mask);
+
+        Node expired = null;
+        for (long tick = fromTick; tick <= currentTick; tick++) {
+            Slot slot = slots[(int) (tick & mask)];
+            synchronized (slot) {
+                Node node = slot.head;
+                while (node != null) {
+                    Node next = node.next;
+                    if (node.deadlineNanos - nowNanos <= 0 && claim.test((T) node)) {
+                        unlink(slot, node);
+                        node.next = expired;
+                        expired = node;
+                    }
+                    node = next;
+                }
+            }
+        }
+        // the current tick isn't over, its slot will be walked again
+        lastExpiredTick = currentTick - 1;
+
+        int numExpired = 0;
+        while (expired != null) {
+            Node next = expired.next;
+            expired.next = null;
+            onExpired.accept((T) expired);
+            expired = next;
+            numExpired++;
+        }
+        return numExpired;
+    }
+
+    private static void unlink(Slot slot, Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            slot.head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.slot = -1;
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Table of the requests in flight on a v2 channel, keyed by (ledgerId, entryId, operation type).
+ *
+ * <p>v2 requests carry no transaction id, so the responses are matched to the requests by these three fields
+ * only. The table is an open hash map with linear probing: the keys are stored in primitive arrays, so no key
+ * object is needed to look up a response, and no node allocation is required to store a request.
+ *
+ * <p>Unlike a map, the table can hold several values with the same key, as the same entry can be read more
+ * than once at the same time. Their responses can't be told apart, so they're claimed in the order the values
+ * were put: a lookup or a removal by key takes the oldest of them.
+ *
+ * <p>Lookups are lock-free as long as they don't race with a write on the same section; insertions and
+ * removals lock the section of the key.
+ *
+ * @param <V> the type of the values
+ */
+@SuppressWarnings("unchecked")
+class V2CompletionTable<V> {
+
+    private static final Object EmptyValue = null;
+    private static final Object DeletedValue = new Object();
+
+    private static final int DefaultExpectedItems = 256;
+    private static final int DefaultConcurrencyLevel = 16;
+    private static final float MapFillFactor = 0.66f;
+
+    private final Section<V>[] sections;
+
+    V2CompletionTable() {
+        this(DefaultExpectedItems, DefaultConcurrencyLevel);
+    }
+
+    V2CompletionTable(int expectedItems, int concurrencyLevel) {
+        checkArgument(expectedItems > 0);
+        checkArgument(concurrencyLevel > 0);
+        checkArgument(expectedItems >= concurrencyLevel);
+
+        int numSections = alignToPowerOfTwo(concurrencyLevel);
+        int perSectionExpectedItems = expectedItems / numSections;
+        int perSectionCapacity = (int) (perSectionExpectedItems / MapFillFactor);
+        this.sections = (Section<V>[]) new Section[numSections];
+
+        for (int i = 0; i < numSections; i++) {
+            sections[i] = new Section<>(perSectionCapacity);
+        }
+    }
+
+    long size() {
+        long size = 0;
+        for (Section<V> s : sections) {
+            size += s.size;
+        }
+        return size;
+    }
+
+    /**
+     * @return the oldest of the values with the given key, or null if there's none
+     */
+    V get(long ledgerId, long entryId, int opType) {
+        long h = hash(ledgerId, entryId, opType);
+        return getSection(h).get(ledgerId, entryId, opType, (int) h);
+    }
+
+    /**
+     * Add a value to the table, even if there are already values with the same key.
+     */
+    void put(long ledgerId, long entryId, int opType, V value) {
+        checkNotNull(value);
+        long h = hash(ledgerId, entryId, opType);
+        getSection(h).put(ledgerId, entryId, opType, value, (int) h);
+    }
+
+    /**
+     * Remove the oldest of the values with the given key.
+     *
+     * @return the value removed, or null if there was none
+     */
+    V remove(long ledgerId, long entryId, int opType) {
+        long h = hash(ledgerId, entryId, opType);
+        return getSection(h).remove(ledgerId, entryId, opType, null, (int) h);
+    }
+
+    /**
+     * Remove the given value, if it's in the table with the given key.
+     *
+     * @return whether the value was removed
+     */
+    boolean remove(long ledgerId, long entryId, int opType, V value) {
+        checkNotNull(value);
+        long h = hash(ledgerId, entryId, opType);
+        return getSection(h).remove(ledgerId, entryId, opType, value, (int) h) != null;
+    }
+
+    /**
+     * @return a new list of all the values (makes a copy)
+     */
+    List<V> values() {
+        List<V> values = new ArrayList<>();
+        for (Section<V> s : sections) {
+            s.addValuesTo(values);
+        }
+        return values;
+    }
+
+    private Section<V> getSection(long hash) {
+        // Use 32 msb out of long to get the section
+        final int sectionIdx = (int) (hash >>> 32) & (sections.length - 1);
+        return sections[sectionIdx];
+    }
+
+    // A section is a portion of the table that is covered by a single lock
+    @SuppressWarnings("serial")
+    private static final class Section<V> extends StampedLock {
+        // The ledger and entry ids of a bucket are stored next to each other in the ids array
+        private volatile long[] ids;
+        private volatile int[] opTypes;
+        // The order in which the values were put, to claim the values with the same key first in, first out
+        private volatile long[] sequences;
+        private volatile V[] values;
+
+        private volatile int capacity;
+        private volatile int size;
+        private int usedBuckets;
+        private int resizeThreshold;
+        private long nextSequence;
+
+        Section(int capacity) {
+            this.capacity = alignToPowerOfTwo(capacity);
+            this.ids = new long[2 * this.capacity];
+            this.opTypes = new int[this.capacity];
+            this.sequences = new long[this.capacity];
+            this.values = (V[]) new Object[this.capacity];
+            this.size = 0;
+            this.usedBuckets = 0;
+            this.resizeThreshold = (int) (this.capacity * MapFillFactor);
+        }
+
+        V get(long ledgerId, long entryId, int opType, int keyHash) {
+            long stamp = tryOptimisticRead();
+            V value = find(ledgerId, entryId, opType, keyHash);
+            if (validate(stamp)) {
+                return value;
+            }
+
+            // There has been a concurrent write, probe again under the lock
+            stamp = readLock();
+            try {
+                return find(ledgerId, entryId, opType, keyHash);
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        /**
+         * Probe the buckets of the key. Without the lock, the arrays may be seen in an inconsistent state, in which
+         * case the result is wrong but the stamp validation fails.
+         */
+        private V find(long ledgerId, long entryId, int opType, int keyHash) {
+            // capacity is updated after the arrays, so the arrays are always at least as large
+            int capacity = this.capacity;
+            long[] ids = this.ids;
+            int[] opTypes = this.opTypes;
+            long[] sequences = this.sequences;
+            V[] values = this.values;
+            if (values.length < capacity || opTypes.length < capacity || sequences.length < capacity
+                    || ids.length < 2 * capacity) {
+                return null;
+            }
+
+            // The values with the same key aren't in probe order, walk all of them to find the oldest
+            V oldestValue = null;
+            long oldestSequence = Long.MAX_VALUE;
+            int bucket = signSafeMod(keyHash, capacity);
+            for (int i = 0; i < capacity; i++) {
+                V storedValue = values[bucket];
+                if (storedValue == EmptyValue) {
+                    break;
+                } else if (storedValue != DeletedValue
+                        && ids[2 * bucket] == ledgerId
+                        && ids[2 * bucket + 1] == entryId
+                        && opTypes[bucket] == opType
+                        && sequences[bucket] < oldestSequence) {
+                    oldestValue = storedValue;
+                    oldestSequence = sequences[bucket];
+                }
+                bucket = (bucket + 1) & (capacity - 1);
+            }
+            return oldestValue;
+        }
+
+        void put(long ledgerId, long entryId, int opType, V value, int keyHash) {
+            long stamp = writeLock();
+            try {
+                // Duplicated keys are allowed, so the value goes in the first free bucket
+                int bucket = signSafeMod(keyHash, capacity);
+                while (true) {
+                    V storedValue = values[bucket];
+                    if (storedValue == EmptyValue || storedValue == DeletedValue) {
+                        if (storedValue == EmptyValue) {
+                            ++usedBuckets;
+                        }
+                        ids[2 * bucket] = ledgerId;
+                        ids[2 * bucket + 1] = entryId;
+                        opTypes[bucket] = opType;
+                        sequences[bucket] = nextSequence++;
+                        values[bucket] = value;
+                        ++size;
+                        break;
+                    }
+                    bucket = (bucket + 1) & (capacity - 1);
+                }
+
+                if (usedBuckets > resizeThreshold) {
+                    rehash(capacity * 2);
+                }
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        V remove(long ledgerId, long entryId, int opType, V expectedValue, int keyHash) {
+            long stamp = writeLock();
+            try {
+                // Without an expected value, the oldest value with the key is removed
+                int found = -1;
+                int bucket = signSafeMod(keyHash, capacity);
+                while (true) {
+                    V storedValue = values[bucket];
+                    if (storedValue == EmptyValue) {
+                        break;
+                    } else if (storedValue != DeletedValue
+                            && ids[2 * bucket] == ledgerId
+                            && ids[2 * bucket + 1] == entryId
+                            && opTypes[bucket] == opType) {
+                        if (expectedValue == storedValue) {
+                            found = bucket;
+                            break;
+                        } else if (expectedValue == null
+                                && (found < 0 || sequences[bucket] < sequences[found])) {
+                            found = bucket;
+                        }
+                    }
+                    bucket = (bucket + 1) & (capacity - 1);
+                }
+
+                if (found < 0) {
+                    // Key wasn't found
+                    return null;
+                }
+                V removedValue = values[found];
+                --size;
+                cleanBucket(found);
+                return removedValue;
+            } finally {
+                unlockWrite(stamp);
+            }
+        }
+
+        private void cleanBucket(int bucket) {
+            int nextInArray = (bucket + 1) & (capacity - 1);
+            if (values[nextInArray] == EmptyValue) {
+                values[bucket] = (V) EmptyValue;
+                --usedBuckets;
+
+                // Cleanup all the buckets that were in `DeletedValue` state,
+                // so that we can reduce unnecessary expansions
+                bucket = (bucket - 1) & (capacity - 1);
+                while (values[bucket] == DeletedValue) {
+                    values[bucket] = (V) EmptyValue;
+                    --usedBuckets;
+
+                    bucket = (bucket - 1) & (capacity - 1);
+                }
+            } else {
+                values[bucket] = (V) DeletedValue;
+            }
+        }
+
+        void addValuesTo(List<V> list) {
+            long stamp = readLock();
+            try {
+                for (V storedValue : values) {
+                    if (storedValue != EmptyValue && storedValue != DeletedValue) {
+                        list.add(storedValue);
+                    }
+                }
+            } finally {
+                unlockRead(stamp);
+            }
+        }
+
+        private void rehash(int newCapacity) {
+            long[] newIds = new long[2 * newCapacity];
+            int[] newOpTypes = new int[newCapacity];
+            long[] newSequences = new long[newCapacity];
+            V[] newValues = (V[]) new Object[newCapacity];
+
+            // Re-hash table
+            for (int i = 0; i < values.length; i++) {
+                V storedValue = values[i];
+                if (storedValue != EmptyValue && storedValue != DeletedValue) {
+                    long ledgerId = ids[2 * i];
+                    long entryId = ids[2 * i + 1];
+                    int opType = opTypes[i];
+                    int bucket = signSafeMod((int) hash(ledgerId, entryId, opType), newCapacity);
+                    while (newValues[bucket] != EmptyValue) {
+                        bucket = (bucket + 1) & (newCapacity - 1);
+                    }
+                    newIds[2 * bucket] = ledgerId;
+                    newIds[2 * bucket + 1] = entryId;
+                    newOpTypes[bucket] = opType;
+                    newSequences[bucket] = sequences[i];
+                    newValues[bucket] = storedValue;
+                }
+            }
+
+            ids = newIds;
+            opTypes = newOpTypes;
+            sequences = newSequences;
+            values = newValues;
+            usedBuckets = size;
+            // Capacity needs to be updated after the values, so that we won't see
+            // a capacity value bigger than the actual array size
+            capacity = newCapacity;
+            resizeThreshold = (int) (capacity * MapFillFactor);
+        }
+    }
+
+    private static final long HashMixer = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    static long hash(long ledgerId, long entryId, int opType) {
+        long hash = ledgerId * HashMixer;
+        hash ^= hash >>> R;
+        hash *= HashMixer;
+        hash += 31 + (entryId * HashMixer);
+        hash ^= hash >>> R;
+        hash *= HashMixer;
+        hash += opType;
+        return hash;
+    }
+
+    static int signSafeMod(long n, int max) {
+        return (int) n & (max - 1);
+    }
+
+    private static int alignToPowerOfTwo(int n) {
+        return (int) Math.pow(2, 32 - Integer.numberOfLeadingZeros(n - 1));
+    }
+}
@@ -115,6 +115,7 @@ class WriteEntryProcessorV3 extends PacketProcessorBaseV3 {
             writeFlags = WriteFlag.NONE;
         }
         final boolean ackBeforeSync = writeFlags.contains(WriteFlag.DEFERRED_SYNC);
+        final boolean skipJournal = writeFlags.contains(WriteFlag.SKIP_JOURNAL);
         StatusCode status = null;
         byte[] masterKey = addRequest.getMasterKey().toByteArray();
         ByteBuf entryToAdd = Unpooled.wrappedBuffer(addRequest.getBody().asReadOnlyByteBuffer());
@@ -122,7 +123,7 @@ class WriteEntryProcessorV3 extends PacketProcessorBaseV3 {
             if (RequestUtils.hasFlag(addRequest, AddRequest.Flag.RECOVERY_ADD)) {
                 requestProcessor.getBookie().recoveryAddEntry(entryToAdd, wcb, channel, masterKey);
             } else {
-                requestProcessor.getBookie().addEntry(entryToAdd, ackBeforeSync, wcb, channel, masterKey);
+                requestProcessor.getBookie().addEntry(entryToAdd, ackBeforeSync, skipJournal, wcb, channel, masterKey);
             }
             status = StatusCode.EOK;
         } catch (OperationRejectedException e) {
@@ -26,7 +26,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.mutable.MutableInt;
 
 @Slf4j
-class CRC32CDigestManager extends DigestManager {
+class CRC32CDigestManager extends DigestManager implements CombinableDigest {
 
     private static final FastThreadLocal<MutableInt> currentCrc = new FastThreadLocal<MutableInt>() {
         @Override
@@ -57,4 +57,15 @@ class CRC32CDigestManager extends DigestManager {
         final int lastCrc = current.intValue();
         current.setValue(Crc32cIntChecksum.resumeChecksum(lastCrc, data));
     }
+
+    @Override
+    public long checksumChunk(ByteBuf chunk) {
+        return Crc32cIntChecksum.computeChecksum(chunk);
+    }
+
+    @Override
+    public void combine(long chunkChecksum, int chunkLength) {
+        MutableInt current = currentCrc.get();
+        current.setValue(Crc32cIntChecksum.combineChecksums(current.intValue(), (int) chunkChecksum, chunkLength));
+    }
 }
@@ -22,10 +22,13 @@ import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.util.concurrent.FastThreadLocal;
 
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
 /**
  * Digest manager for CRC32 checksum.
  */
-class CRC32DigestManager extends DigestManager {
+class CRC32DigestManager extends DigestManager implements CombinableDigest {
 
     /**
      * Interface that abstracts different implementations of the CRC32 digest.
@@ -47,6 +50,14 @@ class CRC32DigestManager extends DigestManager {
         }
     };
 
+    // checksums the chunks of large payloads, on the calling thread and the helpers
+    private static final FastThreadLocal<CRC32> chunkCrc = new FastThreadLocal<CRC32>() {
+        @Override
+        protected CRC32 initialValue() {
+            return new CRC32();
+        }
+    };
+
     public CRC32DigestManager(long ledgerId, boolean useV2Protocol, ByteBufAllocator allocator) {
         super(ledgerId, useV2Protocol, allocator);
     }
@@ -65,4 +76,26 @@ class CRC32DigestManager extends DigestManager {
     void update(ByteBuf data) {
         crc.get().update(data);
     }
+
+    @Override
+    public boolean isCombinable() {
+        // the checksum of the standard digest can't be resumed from a combined value
+        return DirectMemoryCRC32Digest.isSupported();
+    }
+
+    @Override
+    public long checksumChunk(ByteBuf chunk) {
+        CRC32 checksum = chunkCrc.get();
+        checksum.reset();
+        for (ByteBuffer buffer : chunk.nioBuffers()) {
+            checksum.update(buffer);
+        }
+        return checksum.getValue();
+    }
+
+    @Override
+    public void combine(long chunkChecksum, int chunkLength) {
+        // only combinable with the direct memory digest
+        ((DirectMemoryCRC32Digest) crc.get()).combine(chunkChecksum, chunkLength);
+    }
 }
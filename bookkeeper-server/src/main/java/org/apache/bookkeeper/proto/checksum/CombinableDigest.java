@@ -0,0 +1,47 @@
+package org.apache.bookkeeper.proto.checksum;
+
+/*
+* Licensed to the Apache Software Foundation (ASF) under one
+* or more contributor license agreements.  See the NOTICE file
+* distributed with this work for additional information
+* regarding copyright ownership.  The ASF licenses this file
+* to you under the Apache License, Version 2.0 (the
+* "License"); you may not use this file except in compliance
+* with the License.  You may obtain a copy of the License at
+*
+*     http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing, software
+* distributed under the License is distributed on an "AS IS" BASIS,
+* WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+* See the License for the specific language governing permissions and
+* limitations under the License.
+*/
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Digest whose value over a payload can be computed from the checksums of its chunks, each computed on its own.
+ * The digest managers implementing it checksum large payloads in parallel.
+ */
+interface CombinableDigest {
+
+    /**
+     * Whether the digest can be combined in this JVM.
+     */
+    default boolean isCombinable() {
+        return true;
+    }
+
+    /**
+     * Computes the checksum of a chunk on its own, without touching the current digest. It may be called from any
+     * thread.
+     */
+    long checksumChunk(ByteBuf chunk);
+
+    /**
+     * Updates the current digest with a chunk of data, given its checksum computed by {@link
+     * #checksumChunk(ByteBuf)}.
+     */
+    void combine(long chunkChecksum, int chunkLength);
+}
@@ -17,14 +17,22 @@
  */
 package org.apache.bookkeeper.proto.checksum;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.Uninterruptibles;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
 
 import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.bookkeeper.client.BKException.BKDigestMatchException;
 import org.apache.bookkeeper.client.LedgerHandle;
@@ -46,6 +54,28 @@ public abstract class DigestManager {
     public static final int METADATA_LENGTH = 32;
     public static final int LAC_METADATA_LENGTH = 16;
 
+    // payloads at least this large are checksummed in chunks, in parallel, when the digest can combine them
+    static final int PARALLEL_DIGEST_MIN_SIZE = 4 * 1024 * 1024;
+    static final int PARALLEL_DIGEST_CHUNK_SIZE = 1024 * 1024;
+    static final int PARALLEL_DIGEST_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Threads helping the callers with the chunks of their large payloads. The callers are netty I/O and ordered
+     * executor threads, so they never wait for a helper that isn't running yet: helpers that can't be queued are
+     * dropped, and helpers that start late find no chunk left to take.
+     */
+    @VisibleForTesting
+    static final class ChunkHelpers {
+        static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(
+                PARALLEL_DIGEST_THREADS, PARALLEL_DIGEST_THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(PARALLEL_DIGEST_THREADS), new DefaultThreadFactory("digest-chunk", true),
+                new ThreadPoolExecutor.DiscardPolicy());
+
+        static {
+            EXECUTOR.allowCoreThreadTimeOut(true);
+        }
+    }
+
     final long ledgerId;
     final boolean useV2Protocol;
     private final ByteBufAllocator allocator;
@@ -60,6 +90,87 @@ public abstract class DigestManager {
 
     abstract void populateValueAndReset(ByteBuf buffer);
 
+    /**
+     * Updates the digest with the payload of an entry. Large payloads are split in chunks, which are checksummed in
+     * parallel by the calling thread and a few helper threads, then combined, if the digest is a {@link
+     * CombinableDigest}.
+     */
+    void updatePayload(ByteBuf data) {
+        final int length = data.readableBytes();
+        if (length < PARALLEL_DIGEST_MIN_SIZE || !(this instanceof CombinableDigest)
+                || !((CombinableDigest) this).isCombinable()) {
+            update(data);
+            return;
+        }
+
+        CombinableDigest digest = (CombinableDigest) this;
+        ChunkedChecksum chunked = new ChunkedChecksum(digest, data);
+        for (int i = 1; i < Math.min(chunked.numChunks, PARALLEL_DIGEST_THREADS + 1); i++) {
+            ChunkHelpers.EXECUTOR.execute(chunked);
+        }
+        // the calling thread takes its share of the chunks, and all of them if no helper is free
+        chunked.run();
+        try {
+            chunked.awaitChunks();
+        } catch (RuntimeException e) {
+            // the header is already in the digest of this thread, reset it for the next entry
+            populateValueAndReset(Unpooled.buffer(macCodeLength));
+            throw e;
+        }
+
+        for (int i = 0; i < chunked.numChunks; i++) {
+            digest.combine(chunked.checksums[i], chunked.chunkLength(i));
+        }
+    }
+
+    /**
+     * The chunks of a payload, taken in turn by the calling thread and the helpers.
+     */
+    private static final class ChunkedChecksum implements Runnable {
+        final CombinableDigest digest;
+        final ByteBuf data;
+        final int numChunks;
+        final long[] checksums;
+        final AtomicInteger nextChunk = new AtomicInteger();
+        // counted down once per chunk computed: the caller only waits for the chunks taken by running helpers
+        final CountDownLatch chunksDone;
+        volatile RuntimeException failure;
+
+        ChunkedChecksum(CombinableDigest digest, ByteBuf data) {
+            this.digest = digest;
+            this.data = data;
+            this.numChunks = (data.readableBytes() + PARALLEL_DIGEST_CHUNK_SIZE - 1) / PARALLEL_DIGEST_CHUNK_SIZE;
+            this.checksums = new long[numChunks];
+            this.chunksDone = new CountDownLatch(numChunks);
+        }
+
+        int chunkLength(int chunk) {
+            return Math.min(PARALLEL_DIGEST_CHUNK_SIZE, data.readableBytes() - chunk * PARALLEL_DIGEST_CHUNK_SIZE);
+        }
+
+        @Override
+        public void run() {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < numChunks) {
+                try {
+                    checksums[chunk] = digest.checksumChunk(
+                            data.slice(data.readerIndex() + chunk * PARALLEL_DIGEST_CHUNK_SIZE, chunkLength(chunk)));
+                } catch (RuntimeException e) {
+                    failure = e;
+                } finally {
+                    chunksDone.countDown();
+                }
+            }
+        }
+
+        void awaitChunks() {
+            Uninterruptibles.awaitUninterruptibly(chunksDone);
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
     final int macCodeLength;
 
     public DigestManager(long ledgerId, boolean useV2Protocol, ByteBufAllocator allocator) {
@@ -120,9 +231,9 @@ public abstract class DigestManager {
         ReferenceCountUtil.release(data);
 
         if (unwrapped instanceof CompositeByteBuf) {
-            ((CompositeByteBuf) unwrapped).forEach(this::update);
+            ((CompositeByteBuf) unwrapped).forEach(this::updatePayload);
         } else {
-            update(unwrapped);
+            updatePayload(unwrapped);
         }
         populateValueAndReset(headersBuffer);
 
@@ -173,7 +284,7 @@ public abstract class DigestManager {
         update(dataReceived.slice(0, METADATA_LENGTH));
 
         int offset = METADATA_LENGTH + macCodeLength;
-        update(dataReceived.slice(offset, dataReceived.readableBytes() - offset));
+        updatePayload(dataReceived.slice(offset, dataReceived.readableBytes() - offset));
 
         ByteBuf digest = allocator.buffer(macCodeLength);
         populateValueAndReset(digest);
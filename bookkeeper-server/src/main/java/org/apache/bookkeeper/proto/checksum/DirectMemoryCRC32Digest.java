@@ -17,6 +17,7 @@
 */
 package org.apache.bookkeeper.proto.checksum;
 
+import com.scurrilous.circe.checksum.CrcCombine;
 import io.netty.buffer.ByteBuf;
 
 import java.lang.reflect.InvocationTargetException;
@@ -67,6 +68,13 @@ class DirectMemoryCRC32Digest implements CRC32Digest {
         }
     }
 
+    /**
+     * Updates the digest with a block of data, given its own checksum.
+     */
+    void combine(long crc, int length) {
+        crcValue = CrcCombine.combine(CrcCombine.CRC32_POLYNOMIAL, crcValue, (int) crc, length);
+    }
+
     private static final Method updateByteBuffer;
     private static final Method updateBytes;
 
@@ -65,6 +65,8 @@ import java.util.ArrayList;
 public class ByteBufList extends AbstractReferenceCounted {
     private final ArrayList<ByteBuf> buffers;
     private final Handle<ByteBufList> recyclerHandle;
+    // bytes written right after the list, in the same frame
+    private int trailingFrameBytes;
 
     private static final int INITIAL_LIST_SIZE = 4;
 
@@ -187,6 +189,21 @@ public class ByteBufList extends AbstractReferenceCounted {
         return readableBytes;
     }
 
+    /**
+     * Count the bytes of a message written right after this list, such as a {@link io.netty.channel.FileRegion},
+     * in the size header prepended by {@link #ENCODER_WITH_SIZE}, so that both are sent as a single frame.
+     */
+    public void setTrailingFrameBytes(int trailingFrameBytes) {
+        this.trailingFrameBytes = trailingFrameBytes;
+    }
+
+    /**
+     * @return the number of bytes written right after this list in the same frame
+     */
+    public int getTrailingFrameBytes() {
+        return trailingFrameBytes;
+    }
+
     /**
      * Get access to a particular buffer in the list.
      *
@@ -293,6 +310,7 @@ public class ByteBufList extends AbstractReferenceCounted {
         }
 
         buffers.clear();
+        trailingFrameBytes = 0;
         recyclerHandle.recycle(this);
     }
 
@@ -337,7 +355,7 @@ public class ByteBufList extends AbstractReferenceCounted {
                         // Prepend the frame size before writing the buffer list, so that we only have 1 single size
                         // header
                         ByteBuf sizeBuffer = ctx.alloc().directBuffer(4, 4);
-                        sizeBuffer.writeInt(b.readableBytes());
+                        sizeBuffer.writeInt(b.readableBytes() + b.trailingFrameBytes);
                         ctx.write(sizeBuffer, ctx.voidPromise());
                     }
 
@@ -0,0 +1,91 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link AlignedBufferPool}.
+ */
+public class AlignedBufferPoolTest {
+
+    private static final int BUFFER_SIZE = 4 * AlignedBufferPool.ALIGNMENT;
+
+    @Test
+    public void testAlignUp() {
+        assertEquals(0, AlignedBufferPool.alignUp(0));
+        assertEquals(4096, AlignedBufferPool.alignUp(1));
+        assertEquals(4096, AlignedBufferPool.alignUp(4096));
+        assertEquals(8192, AlignedBufferPool.alignUp(4097));
+    }
+
+    @Test
+    public void testInvalidBufferSize() {
+        try {
+            new AlignedBufferPool(new FakeNativeIO(), AlignedBufferPool.ALIGNMENT + 512, 1);
+            fail("The buffer size must be a multiple of the alignment");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testBuffersReused() throws Exception {
+        FakeNativeIO nativeIO = new FakeNativeIO();
+        AlignedBufferPool pool = new AlignedBufferPool(nativeIO, BUFFER_SIZE, 1);
+
+        long first = pool.acquire();
+        long second = pool.acquire();
+        assertNotEquals(first, second);
+        assertEquals(0, first % AlignedBufferPool.ALIGNMENT);
+        assertEquals(2, nativeIO.getNumAllocatedBuffers());
+
+        // one buffer is kept for the next acquirer, the one over the capacity of the pool is freed
+        pool.release(first);
+        pool.release(second);
+        assertEquals(1, nativeIO.getNumAllocatedBuffers());
+        assertEquals(first, pool.acquire());
+
+        pool.release(first);
+        pool.close();
+        assertEquals(0, nativeIO.getNumAllocatedBuffers());
+    }
+
+    @Test
+    public void testReleaseAfterClose() throws Exception {
+        FakeNativeIO nativeIO = new FakeNativeIO();
+        AlignedBufferPool pool = new AlignedBufferPool(nativeIO, BUFFER_SIZE, 2);
+        long inUse = pool.acquire();
+        long pooled = pool.acquire();
+        pool.release(pooled);
+
+        pool.close();
+        assertEquals(1, nativeIO.getNumAllocatedBuffers());
+
+        // a channel closed after the pool frees its buffer rather than leaking it in the pool
+        pool.release(inUse);
+        assertEquals(0, nativeIO.getNumAllocatedBuffers());
+    }
+}
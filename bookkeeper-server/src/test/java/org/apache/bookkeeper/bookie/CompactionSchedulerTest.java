@@ -0,0 +1,244 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Ticker;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link CompactionScheduler}.
+ */
+public class CompactionSchedulerTest {
+
+    private static final long LATENCY_THRESHOLD_MS = 10;
+
+    private final AtomicLong nowNanos = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nowNanos.get();
+        }
+    };
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (Thread thread : threads) {
+            thread.interrupt();
+            thread.join();
+        }
+    }
+
+    private CompactionScheduler newScheduler(int maxConcurrency, long backoffLatencyThresholdMs) {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setCompactionMaxConcurrency(maxConcurrency);
+        conf.setCompactionBackoffLatencyThresholdMillis(backoffLatencyThresholdMs);
+        return new CompactionScheduler(conf, NullStatsLogger.INSTANCE, ticker);
+    }
+
+    private static EntryLogMetadata entryLog(long logId, long totalSize, long remainingSize) {
+        EntryLogMetadata entryLogMeta = new EntryLogMetadata(logId);
+        entryLogMeta.addLedgerSize(1, remainingSize);
+        entryLogMeta.addLedgerSize(2, totalSize - remainingSize);
+        entryLogMeta.removeLedgerIf(ledgerId -> ledgerId == 2);
+        return entryLogMeta;
+    }
+
+    /**
+     * Compacts the entry log in a new thread, recording its id once the slot is granted.
+     */
+    private void compactInThread(CompactionScheduler scheduler, EntryLogMetadata entryLogMeta,
+                                 List<Long> compactedLogs, CountDownLatch done) {
+        Thread thread = new Thread(() -> {
+            try {
+                scheduler.acquire(entryLogMeta);
+                try {
+                    compactedLogs.add(entryLogMeta.getEntryLogId());
+                } finally {
+                    scheduler.release();
+                }
+                done.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "compaction-" + entryLogMeta.getEntryLogId());
+        threads.add(thread);
+        thread.start();
+    }
+
+    private static void waitForWaitingCompactions(CompactionScheduler scheduler, int count) throws Exception {
+        while (scheduler.getWaitingCompactions() != count) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void advanceBackoffInterval(CompactionScheduler scheduler) {
+        nowNanos.addAndGet(CompactionScheduler.BACKOFF_INTERVAL_NANOS);
+        // the backoff is updated on the compactions progress
+        scheduler.acquireBytes(0);
+    }
+
+    @Test
+    public void testReclaimRatio() {
+        assertEquals(1.0, CompactionScheduler.reclaimRatio(entryLog(1, 1000, 0)), 0.0);
+        assertEquals(1.0 / 3, CompactionScheduler.reclaimRatio(entryLog(2, 1000, 500)), 1e-9);
+        assertEquals(0.0, CompactionScheduler.reclaimRatio(entryLog(3, 1000, 1000)), 0.0);
+        assertEquals(0.0, CompactionScheduler.reclaimRatio(new EntryLogMetadata(4)), 0.0);
+
+        // a small log with little left is compacted before a large one with the same garbage
+        assertTrue(CompactionScheduler.reclaimRatio(entryLog(5, 1000, 100))
+                > CompactionScheduler.reclaimRatio(entryLog(6, 100000, 99100)));
+    }
+
+    @Test
+    public void testWaitingCompactionsRanked() throws Exception {
+        CompactionScheduler scheduler = newScheduler(1, 0);
+        scheduler.acquire(entryLog(0, 1000, 0));
+
+        List<Long> compactedLogs = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(4);
+        compactInThread(scheduler, entryLog(1, 1000, 900), compactedLogs, done);
+        waitForWaitingCompactions(scheduler, 1);
+        compactInThread(scheduler, entryLog(2, 1000, 100), compactedLogs, done);
+        waitForWaitingCompactions(scheduler, 2);
+        compactInThread(scheduler, entryLog(3, 1000, 500), compactedLogs, done);
+        waitForWaitingCompactions(scheduler, 3);
+        // same ratio as the log 3, but waiting since after it
+        compactInThread(scheduler, entryLog(4, 1000, 500), compactedLogs, done);
+        waitForWaitingCompactions(scheduler, 4);
+        assertEquals(1, scheduler.getRunningCompactions());
+
+        scheduler.release();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(2L, 3L, 4L, 1L), compactedLogs);
+        assertEquals(0, scheduler.getRunningCompactions());
+        assertEquals(0, scheduler.getWaitingCompactions());
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        CompactionScheduler scheduler = newScheduler(2, 0);
+        assertEquals(2, scheduler.getConcurrencyLimit());
+        scheduler.acquire(entryLog(1, 1000, 0));
+        scheduler.acquire(entryLog(2, 1000, 0));
+        assertEquals(2, scheduler.getRunningCompactions());
+
+        List<Long> compactedLogs = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(1);
+        compactInThread(scheduler, entryLog(3, 1000, 0), compactedLogs, done);
+        waitForWaitingCompactions(scheduler, 1);
+        assertEquals(2, scheduler.getRunningCompactions());
+        assertTrue(compactedLogs.isEmpty());
+
+        scheduler.release();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Collections.singletonList(3L), compactedLogs);
+        assertEquals(1, scheduler.getRunningCompactions());
+    }
+
+    @Test
+    public void testDefaultsDoNotLimit() throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        assertEquals(0, conf.getCompactionMaxConcurrency());
+        assertEquals(0, conf.getCompactionIoBudgetBytesPerSecond());
+        assertEquals(0, conf.getCompactionBackoffLatencyThresholdMillis());
+        CompactionScheduler scheduler = new CompactionScheduler(conf, NullStatsLogger.INSTANCE, ticker);
+
+        // every garbage collector thread compacts as soon as it wants to
+        for (long logId = 0; logId < 100; logId++) {
+            scheduler.acquire(entryLog(logId, 1000, 500));
+        }
+        assertEquals(100, scheduler.getRunningCompactions());
+        assertEquals(0, scheduler.getWaitingCompactions());
+
+        // no budget to wait for, and the latency is ignored
+        scheduler.acquireBytes(Integer.MAX_VALUE);
+        scheduler.recordLatency(TimeUnit.SECONDS.toNanos(10));
+        advanceBackoffInterval(scheduler);
+        assertEquals(0, scheduler.getBackoffLevel());
+        assertEquals(Integer.MAX_VALUE, scheduler.getConcurrencyLimit());
+    }
+
+    @Test
+    public void testBackoffOnHighLatency() {
+        CompactionScheduler scheduler = newScheduler(8, LATENCY_THRESHOLD_MS);
+        long highLatencyNanos = TimeUnit.MILLISECONDS.toNanos(2 * LATENCY_THRESHOLD_MS);
+        long lowLatencyNanos = TimeUnit.MILLISECONDS.toNanos(LATENCY_THRESHOLD_MS / 2);
+
+        // checked once per interval
+        scheduler.recordLatency(highLatencyNanos);
+        scheduler.acquireBytes(0);
+        assertEquals(0, scheduler.getBackoffLevel());
+
+        List<Integer> limits = new ArrayList<>();
+        for (int i = 0; i < CompactionScheduler.MAX_BACKOFF_LEVEL + 1; i++) {
+            // on average above the threshold
+            scheduler.recordLatency(highLatencyNanos);
+            scheduler.recordLatency(lowLatencyNanos);
+            advanceBackoffInterval(scheduler);
+            limits.add(scheduler.getConcurrencyLimit());
+        }
+        assertEquals(CompactionScheduler.MAX_BACKOFF_LEVEL, scheduler.getBackoffLevel());
+        assertEquals(Arrays.asList(4, 2, 1, 1, 1), limits);
+
+        // recovers one level per interval
+        scheduler.recordLatency(lowLatencyNanos);
+        advanceBackoffInterval(scheduler);
+        assertEquals(CompactionScheduler.MAX_BACKOFF_LEVEL - 1, scheduler.getBackoffLevel());
+        for (int i = 0; i < CompactionScheduler.MAX_BACKOFF_LEVEL; i++) {
+            advanceBackoffInterval(scheduler);
+        }
+        assertEquals(0, scheduler.getBackoffLevel());
+        assertEquals(8, scheduler.getConcurrencyLimit());
+    }
+
+    @Test
+    public void testBackoffWithoutConcurrencyLimit() {
+        CompactionScheduler scheduler = newScheduler(0, LATENCY_THRESHOLD_MS);
+        for (int i = 0; i < 4; i++) {
+            scheduler.register();
+        }
+        assertEquals(Integer.MAX_VALUE, scheduler.getConcurrencyLimit());
+
+        // halved from the number of garbage collector threads
+        scheduler.recordLatency(TimeUnit.MILLISECONDS.toNanos(2 * LATENCY_THRESHOLD_MS));
+        advanceBackoffInterval(scheduler);
+        assertEquals(2, scheduler.getConcurrencyLimit());
+
+        advanceBackoffInterval(scheduler);
+        assertEquals(Integer.MAX_VALUE, scheduler.getConcurrencyLimit());
+    }
+}
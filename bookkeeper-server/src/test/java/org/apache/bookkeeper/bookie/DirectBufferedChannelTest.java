@@ -0,0 +1,340 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.AlignedBufferPool.ALIGNMENT;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the journal written with direct I/O through {@link DirectBufferedChannel}, on a {@link FakeNativeIO}
+ * which enforces the alignment of O_DIRECT writes.
+ */
+public class DirectBufferedChannelTest {
+
+    private static final long PREALLOC_SIZE = 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final List<File> tmpDirs = new ArrayList<>();
+    private File journalDir;
+    private ServerConfiguration conf;
+    private FakeNativeIO nativeIO;
+    private AlignedBufferPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        journalDir = createTempDir("journal");
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setJournalDirName(journalDir.getPath())
+                .setLedgerDirNames(new String[] { createTempDir("ledger").getPath() })
+                .setMetadataServiceUri(null);
+        nativeIO = new FakeNativeIO();
+        pool = new AlignedBufferPool(nativeIO, BUFFER_SIZE, 2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        pool.close();
+        for (File dir : tmpDirs) {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private File createTempDir(String prefix) throws Exception {
+        File dir = Files.createTempDirectory(prefix).toFile();
+        tmpDirs.add(dir);
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(dir));
+        return dir;
+    }
+
+    private JournalChannel newDirectChannel(long logId) throws Exception {
+        return new JournalChannel(journalDir, logId, PREALLOC_SIZE, BUFFER_SIZE, JournalChannel.SECTOR_SIZE, false,
+                JournalChannel.V6, Journal.BufferedChannelBuilder.DEFAULT_BCBUILDER, conf,
+                new DefaultFileChannelProvider(), pool);
+    }
+
+    private File journalFile(long logId) {
+        return new File(journalDir, Long.toHexString(logId) + ".txn");
+    }
+
+    private static byte[] randomBytes(int size, int seed) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    @Test
+    public void testTailBlockRewrittenOnNextFlush() throws Exception {
+        JournalChannel jc = newDirectChannel(1);
+        BufferedChannel bc = jc.getBufferedChannel();
+        assertTrue(bc instanceof DirectBufferedChannel);
+        assertEquals(JournalChannel.HEADER_SIZE, bc.position());
+
+        // a partial block is padded to the alignment, and written again with the data that follows it
+        byte[] first = randomBytes(100, 1);
+        bc.write(Unpooled.wrappedBuffer(first));
+        bc.flush();
+        byte[] second = randomBytes(ALIGNMENT, 2);
+        bc.write(Unpooled.wrappedBuffer(second));
+        bc.flush();
+        byte[] third = randomBytes(10, 3);
+        bc.write(Unpooled.wrappedBuffer(third));
+        bc.flush();
+        assertEquals(0, bc.getNumOfBytesInWriteBuffer());
+
+        List<FakeNativeIO.Write> writes = nativeIO.getWrites();
+        assertEquals(3, writes.size());
+        // the first block, with the header read back from the file and padded after the first record
+        assertEquals(0, writes.get(0).offset);
+        assertEquals(ALIGNMENT, writes.get(0).count);
+        // the first block again, completed by the second record which ends in the second block
+        assertEquals(0, writes.get(1).offset);
+        assertEquals(2 * ALIGNMENT, writes.get(1).count);
+        // only the tail block of the second record, with the third one
+        assertEquals(ALIGNMENT, writes.get(2).offset);
+        assertEquals(ALIGNMENT, writes.get(2).count);
+
+        jc.close();
+        byte[] content = Files.readAllBytes(journalFile(1).toPath());
+        int offset = JournalChannel.HEADER_SIZE;
+        for (byte[] record : new byte[][] { first, second, third }) {
+            assertArrayEquals(record, Arrays.copyOfRange(content, offset, offset + record.length));
+            offset += record.length;
+        }
+        // the padding of the tail block is zeros
+        for (int i = offset; i < AlignedBufferPool.alignUp(offset); i++) {
+            assertEquals(0, content[i]);
+        }
+    }
+
+    @Test
+    public void testWritesLargerThanBuffer() throws Exception {
+        JournalChannel jc = newDirectChannel(1);
+        BufferedChannel bc = jc.getBufferedChannel();
+        byte[] data = randomBytes(3 * BUFFER_SIZE + 123, 4);
+        bc.write(Unpooled.wrappedBuffer(data));
+        // the full buffers are written as they fill up, the rest on flush
+        assertEquals(3, nativeIO.getWrites().size());
+        bc.flush();
+        assertEquals(4, nativeIO.getWrites().size());
+        jc.close();
+
+        byte[] content = Files.readAllBytes(journalFile(1).toPath());
+        assertArrayEquals(data, Arrays.copyOfRange(content, JournalChannel.HEADER_SIZE,
+                JournalChannel.HEADER_SIZE + data.length));
+    }
+
+    @Test
+    public void testForceWriteWithoutMetadataIsDurable() throws Exception {
+        JournalChannel jc = newDirectChannel(1);
+        BufferedChannel bc = jc.getBufferedChannel();
+        // the channel was synced once with its metadata when created
+        int fsyncs = nativeIO.getFsyncs();
+        assertEquals(1, fsyncs);
+
+        bc.write(Unpooled.wrappedBuffer(randomBytes(1000, 5)));
+        // data not flushed yet is not covered by a force write
+        assertEquals(JournalChannel.HEADER_SIZE, bc.forceWrite(false));
+        bc.flush();
+
+        // the file is opened with O_DSYNC, so flushed data is durable without any sync
+        List<FakeNativeIO.Write> writes = nativeIO.getWrites();
+        int flags = nativeIO.getOpenFlags(writes.get(writes.size() - 1).fd);
+        assertEquals(NativeIO.O_DIRECT | NativeIO.O_DSYNC, flags & (NativeIO.O_DIRECT | NativeIO.O_DSYNC));
+        assertEquals(JournalChannel.HEADER_SIZE + 1000, bc.forceWrite(false));
+        assertEquals(fsyncs, nativeIO.getFsyncs());
+        assertTrue(nativeIO.allWritesDurable());
+
+        // forcing the metadata still syncs the file
+        assertEquals(JournalChannel.HEADER_SIZE + 1000, bc.forceWrite(true));
+        assertEquals(fsyncs + 1, nativeIO.getFsyncs());
+        jc.close();
+    }
+
+    @Test
+    public void testPreallocation() throws Exception {
+        JournalChannel jc = newDirectChannel(1);
+        assertEquals(1, nativeIO.getFallocates());
+        assertEquals(PREALLOC_SIZE, journalFile(1).length());
+
+        // the next range is allocated once the writes get close to the end of the current one
+        jc.preAllocIfNeeded(PREALLOC_SIZE);
+        assertEquals(2, nativeIO.getFallocates());
+        assertEquals(2 * PREALLOC_SIZE, journalFile(1).length());
+        jc.close();
+    }
+
+    @Test
+    public void testPreallocationFallbackWithoutFallocate() throws Exception {
+        nativeIO.setFallocateSupported(false);
+        JournalChannel jc = newDirectChannel(1);
+        BufferedChannel bc = jc.getBufferedChannel();
+
+        // zeros are written at the end of the range instead
+        assertEquals(0, nativeIO.getFallocates());
+        assertEquals(PREALLOC_SIZE, journalFile(1).length());
+        jc.preAllocIfNeeded(PREALLOC_SIZE);
+        assertEquals(2 * PREALLOC_SIZE, journalFile(1).length());
+
+        // and the direct writes go on in the preallocated file
+        byte[] data = randomBytes(5000, 6);
+        bc.write(Unpooled.wrappedBuffer(data));
+        bc.flush();
+        jc.close();
+        byte[] content = Files.readAllBytes(journalFile(1).toPath());
+        assertEquals(2 * PREALLOC_SIZE, content.length);
+        assertArrayEquals(data, Arrays.copyOfRange(content, JournalChannel.HEADER_SIZE,
+                JournalChannel.HEADER_SIZE + data.length));
+    }
+
+    @Test
+    public void testCloseReleasesBuffer() throws Exception {
+        JournalChannel jc = newDirectChannel(1);
+        assertEquals(1, nativeIO.getNumAllocatedBuffers());
+        jc.close();
+        jc.close();
+        assertEquals(0, nativeIO.getNumOpenFiles());
+
+        // the buffer is kept in the pool for the next journal file
+        assertEquals(1, nativeIO.getNumAllocatedBuffers());
+        JournalChannel next = newDirectChannel(2);
+        assertEquals(1, nativeIO.getNumAllocatedBuffers());
+        next.close();
+    }
+
+    private static ByteBuf makeRecord(long ledgerId, long entryId, int size) {
+        ByteBuf record = Unpooled.buffer(size);
+        record.writeLong(ledgerId);
+        record.writeLong(entryId);
+        record.writeBytes(randomBytes(size - record.writerIndex(), (int) entryId));
+        return record;
+    }
+
+    private Journal newDirectJournal() {
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        return new Journal(0, BookieImpl.getCurrentDirectory(journalDir), conf, ledgerDirsManager,
+                NullStatsLogger.INSTANCE, UnpooledByteBufAllocator.DEFAULT, nativeIO);
+    }
+
+    /**
+     * Write the records with a direct I/O journal, one at a time so that each flush ends in a partial block.
+     */
+    private void writeDirectJournal(int numRecords, int recordSize) throws Exception {
+        Journal journal = newDirectJournal();
+        journal.start();
+        try {
+            for (int i = 0; i < numRecords; i++) {
+                CountDownLatch written = new CountDownLatch(1);
+                journal.logAddEntry(makeRecord(1, i, recordSize), false,
+                        (rc, ledgerId, entryId, addr, ctx) -> written.countDown(), null);
+                assertTrue(written.await(10, TimeUnit.SECONDS));
+                // the entry is acknowledged once it's durable
+                assertTrue(nativeIO.allWritesDurable());
+            }
+        } finally {
+            journal.shutdown();
+        }
+    }
+
+    private List<Long> replay() throws Exception {
+        conf.setJournalDirectIOEnabled(false);
+        Journal journal = newDirectJournal();
+        List<Long> entryIds = new ArrayList<>();
+        for (long journalId : Journal.listJournalIds(journal.getJournalDirectory(), null)) {
+            journal.scanJournal(journalId, 0, (journalVersion, offset, recBuff) -> {
+                assertEquals(1, recBuff.getLong());
+                long entryId = recBuff.getLong();
+                byte[] data = new byte[recBuff.remaining()];
+                recBuff.get(data);
+                assertArrayEquals(randomBytes(data.length, (int) entryId), data);
+                entryIds.add(entryId);
+            });
+        }
+        return entryIds;
+    }
+
+    @Test
+    public void testScanDirectJournal() throws Exception {
+        conf.setJournalDirectIOEnabled(true);
+        int numRecords = 50;
+        writeDirectJournal(numRecords, 100);
+
+        // every group commit rewrote the tail block of the previous one
+        List<FakeNativeIO.Write> writes = nativeIO.getWrites();
+        assertTrue(writes.size() >= numRecords);
+        long rewrites = 0;
+        for (int i = 1; i < writes.size(); i++) {
+            if (writes.get(i).offset == writes.get(i - 1).offset) {
+                rewrites++;
+            }
+        }
+        assertTrue(rewrites > 0);
+
+        List<Long> entryIds = replay();
+        assertEquals(numRecords, entryIds.size());
+        for (int i = 0; i < numRecords; i++) {
+            assertEquals(i, (long) entryIds.get(i));
+        }
+    }
+
+    @Test
+    public void testScanRolledDirectJournals() throws Exception {
+        conf.setJournalDirectIOEnabled(true);
+        conf.setMaxJournalSizeMB(1);
+        conf.setProperty("journalPreAllocSizeMB", 1);
+        int numRecords = 30;
+        writeDirectJournal(numRecords, 100 * 1024);
+
+        // the journal files rolled and closed by the force write thread gave their buffers back before the
+        // pool was closed at shutdown
+        assertEquals(0, nativeIO.getNumOpenFiles());
+        assertEquals(0, nativeIO.getNumAllocatedBuffers());
+
+        List<Long> entryIds = replay();
+        assertEquals(numRecords, entryIds.size());
+        for (int i = 0; i < numRecords; i++) {
+            assertEquals(i, (long) entryIds.get(i));
+        }
+    }
+}
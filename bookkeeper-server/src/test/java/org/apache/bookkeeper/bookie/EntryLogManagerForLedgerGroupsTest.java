@@ -0,0 +1,282 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Ticker;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.bookie.DefaultEntryLogger.BufferedLogChannel;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link EntryLogManagerForLedgerGroups}.
+ */
+public class EntryLogManagerForLedgerGroupsTest {
+
+    private static final int NUM_GROUPS = 4;
+    private static final int IDLE_TIMEOUT_SECONDS = 60;
+    private static final int ENTRY_SIZE = 100;
+
+    private final AtomicLong nowNanos = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nowNanos.get();
+        }
+    };
+
+    private File ledgerDir;
+    private ServerConfiguration conf;
+    private DefaultEntryLogger.RecentEntryLogsStatus recentlyCreatedEntryLogsStatus;
+    private EntryLoggerAllocator entryLoggerAllocator;
+    private EntryLogManagerForLedgerGroups entryLogManager;
+
+    @Before
+    public void setUp() throws Exception {
+        ledgerDir = Files.createTempDirectory("ledger").toFile();
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getPath() })
+                .setEntryLogPerLedgerEnabled(true)
+                .setEntryLogPerLedgerGroups(NUM_GROUPS)
+                .setEntrylogMapAccessExpiryTimeInSeconds(IDLE_TIMEOUT_SECONDS)
+                .setEntryLogFilePreAllocationEnabled(false);
+
+        LedgerDirsManager ledgerDirsManager = newLedgerDirsManager();
+        recentlyCreatedEntryLogsStatus = new DefaultEntryLogger.RecentEntryLogsStatus(0);
+        entryLoggerAllocator = new EntryLoggerAllocator(conf, ledgerDirsManager, recentlyCreatedEntryLogsStatus,
+                DefaultEntryLogger.INVALID_LID, UnpooledByteBufAllocator.DEFAULT);
+        entryLogManager = new EntryLogManagerForLedgerGroups(conf, ledgerDirsManager, entryLoggerAllocator,
+                new CopyOnWriteArrayList<>(), recentlyCreatedEntryLogsStatus, null, NullStatsLogger.INSTANCE,
+                ticker);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        entryLogManager.forceClose();
+        entryLoggerAllocator.stop();
+        FileUtils.deleteDirectory(ledgerDir);
+    }
+
+    private LedgerDirsManager newLedgerDirsManager() throws Exception {
+        return new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+    }
+
+    private static ByteBuf makeEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId * 31 + entryId + entry.writerIndex()));
+        }
+        return entry;
+    }
+
+    private static long logIdOf(long location) {
+        return location >> 32;
+    }
+
+    private Set<Long> getCurrentLogIds() {
+        Set<Long> logIds = new HashSet<>();
+        for (BufferedLogChannel logChannel : entryLogManager.getCurrentLogs()) {
+            logIds.add(logChannel.getLogId());
+        }
+        return logIds;
+    }
+
+    /**
+     * Reads the entries back from the files, with an entry logger of its own.
+     */
+    private void verifyEntriesOnDisk(Map<Long, Long> locations, int entriesPerLedger) throws Exception {
+        DefaultEntryLogger reader = new DefaultEntryLogger(conf, newLedgerDirsManager());
+        try {
+            for (Map.Entry<Long, Long> e : locations.entrySet()) {
+                long ledgerId = e.getKey() / entriesPerLedger;
+                long entryId = e.getKey() % entriesPerLedger;
+                ByteBuf entry = reader.readEntry(ledgerId, entryId, e.getValue());
+                assertEquals(makeEntry(ledgerId, entryId), entry);
+                entry.release();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Adds entries to the ledgers, and returns their locations keyed by ledgerId * entriesPerLedger + entryId.
+     */
+    private Map<Long, Long> addEntries(int numLedgers, int entriesPerLedger) throws Exception {
+        Map<Long, Long> locations = new HashMap<>();
+        for (long entryId = 0; entryId < entriesPerLedger; entryId++) {
+            for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+                long location = entryLogManager.addEntry(ledgerId, makeEntry(ledgerId, entryId), true);
+                locations.put(ledgerId * entriesPerLedger + entryId, location);
+            }
+        }
+        return locations;
+    }
+
+    @Test
+    public void testOpenLogsBoundedByGroups() throws Exception {
+        addEntries(100, 3);
+
+        assertEquals(NUM_GROUPS, entryLogManager.getCurrentLogs().size());
+        assertTrue(entryLogManager.getRotatedLogChannels().isEmpty());
+        File[] logFiles = BookieImpl.getCurrentDirectory(ledgerDir).listFiles(f -> f.getName().endsWith(".log"));
+        assertEquals(NUM_GROUPS, logFiles.length);
+    }
+
+    @Test
+    public void testLedgersMappedToGroups() throws Exception {
+        int numLedgers = 3 * NUM_GROUPS;
+        Map<Long, Long> locations = addEntries(numLedgers, 2);
+
+        Map<Long, Long> logIdByGroup = new HashMap<>();
+        for (Map.Entry<Long, Long> e : locations.entrySet()) {
+            long ledgerId = e.getKey() / 2;
+            long logId = logIdOf(e.getValue());
+            Long groupLogId = logIdByGroup.putIfAbsent(ledgerId % NUM_GROUPS, logId);
+            if (groupLogId != null) {
+                // the ledgers of a group share its entry log
+                assertEquals(groupLogId.longValue(), logId);
+            }
+            assertEquals(logId, entryLogManager.getCurrentLogForLedger(ledgerId).getLogId());
+        }
+        // and the groups don't share their entry logs
+        assertEquals(NUM_GROUPS, new HashSet<>(logIdByGroup.values()).size());
+        assertEquals(getCurrentLogIds(), new HashSet<>(logIdByGroup.values()));
+    }
+
+    @Test
+    public void testIdleGroupsRotatedAtCheckpoint() throws Exception {
+        long idleLocation = entryLogManager.addEntry(0, makeEntry(0, 0), true);
+        long activeLocation = entryLogManager.addEntry(1, makeEntry(1, 0), true);
+        long idleLogId = logIdOf(idleLocation);
+        long activeLogId = logIdOf(activeLocation);
+
+        nowNanos.addAndGet(TimeUnit.SECONDS.toNanos(IDLE_TIMEOUT_SECONDS - 1));
+        entryLogManager.addEntry(1, makeEntry(1, 1), true);
+        entryLogManager.checkpoint();
+        assertEquals(2, entryLogManager.getCurrentLogs().size());
+
+        nowNanos.addAndGet(TimeUnit.SECONDS.toNanos(2));
+        entryLogManager.checkpoint();
+
+        // the entry log of the idle group is synced and closed, the other one is still open for writes
+        assertEquals(1, entryLogManager.getCurrentLogs().size());
+        assertNull(entryLogManager.getCurrentLogIfPresent(idleLogId));
+        assertEquals(activeLogId, entryLogManager.getCurrentLogForLedger(1).getLogId());
+        assertTrue(entryLogManager.getRotatedLogChannels().isEmpty());
+        assertTrue(recentlyCreatedEntryLogsStatus.isFlushedLogId(idleLogId));
+        assertFalse(recentlyCreatedEntryLogsStatus.isFlushedLogId(activeLogId));
+
+        // with its ledgers map
+        DefaultEntryLogger reader = new DefaultEntryLogger(conf, newLedgerDirsManager());
+        try {
+            EntryLogMetadata metadata = reader.extractEntryLogMetadataFromIndex(idleLogId);
+            assertTrue(metadata.containsLedger(0));
+            assertEquals(ENTRY_SIZE + 4, metadata.getTotalSize());
+        } finally {
+            reader.close();
+        }
+
+        // the next write to the group opens a new entry log
+        long location = entryLogManager.addEntry(0, makeEntry(0, 1), true);
+        assertNotEquals(idleLogId, logIdOf(location));
+        assertNotEquals(activeLogId, logIdOf(location));
+        assertEquals(2, entryLogManager.getCurrentLogs().size());
+    }
+
+    @Test
+    public void testFlushAndCheckpointAcrossGroups() throws Exception {
+        int numLedgers = 2 * NUM_GROUPS;
+        Map<Long, Long> locations = addEntries(numLedgers, 5);
+        Set<Long> logIds = getCurrentLogIds();
+
+        // the buffers of all the groups are written out, the entry logs stay open for writes
+        entryLogManager.flush();
+        verifyEntriesOnDisk(locations, 5);
+        assertEquals(logIds, getCurrentLogIds());
+        for (long logId : logIds) {
+            assertFalse(recentlyCreatedEntryLogsStatus.isFlushedLogId(logId));
+        }
+
+        // the checkpoint flushes them all as well
+        Map<Long, Long> moreLocations = new HashMap<>();
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            moreLocations.put(ledgerId * 10 + 5, entryLogManager.addEntry(ledgerId, makeEntry(ledgerId, 5), true));
+        }
+        entryLogManager.checkpoint();
+        verifyEntriesOnDisk(moreLocations, 10);
+        assertEquals(logIds, getCurrentLogIds());
+    }
+
+    @Test
+    public void testCloseAppendsLedgersMaps() throws Exception {
+        int numLedgers = 2 * NUM_GROUPS;
+        addEntries(numLedgers, 3);
+        Map<Long, Long> logIdByLedger = new HashMap<>();
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            logIdByLedger.put(ledgerId, entryLogManager.getCurrentLogForLedger(ledgerId).getLogId());
+        }
+
+        entryLogManager.close();
+
+        // the metadata of the entry logs is read from their ledgers maps after the restart, without scanning them
+        DefaultEntryLogger reader = new DefaultEntryLogger(conf, newLedgerDirsManager());
+        try {
+            for (long logId : new HashSet<>(logIdByLedger.values())) {
+                EntryLogMetadata metadata = reader.extractEntryLogMetadataFromIndex(logId);
+                assertEquals(numLedgers / NUM_GROUPS, metadata.getLedgersMap().size());
+                assertEquals(numLedgers / NUM_GROUPS * 3 * (ENTRY_SIZE + 4), metadata.getTotalSize());
+                for (Map.Entry<Long, Long> e : logIdByLedger.entrySet()) {
+                    assertEquals(e.getValue() == logId, metadata.containsLedger(e.getKey()));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import io.netty.util.internal.PlatformDependent;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.common.util.nativeio.NativeIO;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOException;
+
+/**
+ * {@link NativeIO} over java files and direct buffers, which checks the alignment constraints of O_DIRECT and
+ * tracks the writes which are not durable yet, so that direct I/O can be tested on any filesystem.
+ */
+class FakeNativeIO implements NativeIO {
+
+    static final int EINVAL = 22;
+    static final int EOPNOTSUPP = 95;
+
+    /**
+     * A write issued with pwrite.
+     */
+    static final class Write {
+        final int fd;
+        final long offset;
+        final int count;
+
+        Write(int fd, long offset, int count) {
+            this.fd = fd;
+            this.offset = offset;
+            this.count = count;
+        }
+    }
+
+    private static final class OpenFile {
+        final RandomAccessFile file;
+        final int flags;
+        // whether writes were issued since the last sync, on a file opened without O_DSYNC
+        boolean dirty = false;
+
+        OpenFile(RandomAccessFile file, int flags) {
+            this.file = file;
+            this.flags = flags;
+        }
+    }
+
+    private final Map<Integer, OpenFile> files = new HashMap<>();
+    private final Map<Long, ByteBuffer> buffers = new HashMap<>();
+    private final List<Write> writes = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger fsyncs = new AtomicInteger();
+    private final AtomicInteger fallocates = new AtomicInteger();
+    private int nextFd = 100;
+    private volatile boolean fallocateSupported = true;
+
+    void setFallocateSupported(boolean supported) {
+        this.fallocateSupported = supported;
+    }
+
+    List<Write> getWrites() {
+        synchronized (writes) {
+            return new ArrayList<>(writes);
+        }
+    }
+
+    int getFsyncs() {
+        return fsyncs.get();
+    }
+
+    int getFallocates() {
+        return fallocates.get();
+    }
+
+    synchronized int getOpenFlags(int fd) {
+        return files.get(fd).flags;
+    }
+
+    synchronized int getNumOpenFiles() {
+        return files.size();
+    }
+
+    synchronized int getNumAllocatedBuffers() {
+        return buffers.size();
+    }
+
+    /**
+     * Whether all the writes to the open files are durable, as they would be after a crash.
+     */
+    synchronized boolean allWritesDurable() {
+        for (OpenFile file : files.values()) {
+            if (file.dirty) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private synchronized OpenFile getFile(int fd) throws NativeIOException {
+        OpenFile file = files.get(fd);
+        if (file == null) {
+            throw new NativeIOException("Bad file descriptor " + fd, 9);
+        }
+        return file;
+    }
+
+    @Override
+    public synchronized int open(String pathname, int flags, int mode) throws NativeIOException {
+        try {
+            int fd = nextFd++;
+            files.put(fd, new OpenFile(new RandomAccessFile(pathname, "rw"), flags));
+            return fd;
+        } catch (IOException e) {
+            throw new NativeIOException("Failed to open " + pathname + " : " + e.getMessage(), 2);
+        }
+    }
+
+    @Override
+    public int fsync(int fd) throws NativeIOException {
+        OpenFile file = getFile(fd);
+        fsyncs.incrementAndGet();
+        synchronized (this) {
+            file.dirty = false;
+        }
+        return 0;
+    }
+
+    @Override
+    public int fallocate(int fd, int mode, long offset, long len) throws NativeIOException {
+        OpenFile file = getFile(fd);
+        if (!fallocateSupported) {
+            throw new NativeIOException("fallocate", EOPNOTSUPP);
+        }
+        fallocates.incrementAndGet();
+        try {
+            if (file.file.length() < offset + len) {
+                file.file.setLength(offset + len);
+            }
+        } catch (IOException e) {
+            throw new NativeIOException("fallocate " + e.getMessage(), 5);
+        }
+        return 0;
+    }
+
+    @Override
+    public int pwrite(int fd, long pointer, int count, long offset) throws NativeIOException {
+        OpenFile file = getFile(fd);
+        if ((file.flags & O_DIRECT) != 0) {
+            int alignment = AlignedBufferPool.ALIGNMENT;
+            if (pointer % alignment != 0 || count % alignment != 0 || offset % alignment != 0) {
+                throw new NativeIOException("pwrite of " + count + " bytes at " + offset + " not aligned", EINVAL);
+            }
+        }
+        byte[] data = new byte[count];
+        PlatformDependent.copyMemory(pointer, data, 0, count);
+        try {
+            file.file.getChannel().write(ByteBuffer.wrap(data), offset);
+        } catch (IOException e) {
+            throw new NativeIOException("pwrite " + e.getMessage(), 5);
+        }
+        writes.add(new Write(fd, offset, count));
+        synchronized (this) {
+            file.dirty |= (file.flags & O_DSYNC) == 0;
+        }
+        return count;
+    }
+
+    @Override
+    public synchronized long posix_memalign(int alignment, int size) throws NativeIOException {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size + alignment);
+        long address = PlatformDependent.directBufferAddress(buffer);
+        long aligned = (address + alignment - 1) & -alignment;
+        buffers.put(aligned, buffer);
+        return aligned;
+    }
+
+    @Override
+    public synchronized void free(long pointer) throws NativeIOException {
+        if (buffers.remove(pointer) == null) {
+            throw new NativeIOException("free of unknown pointer " + pointer, EINVAL);
+        }
+    }
+
+    @Override
+    public long lseek(int fd, long offset, int whence) throws NativeIOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long pread(int fd, long pointer, long size, long offset) throws NativeIOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public synchronized int close(int fd) throws NativeIOException {
+        OpenFile file = files.remove(fd);
+        if (file == null) {
+            throw new NativeIOException("Bad file descriptor " + fd, 9);
+        }
+        try {
+            file.file.close();
+        } catch (IOException e) {
+            throw new NativeIOException("close " + e.getMessage(), 5);
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import org.apache.bookkeeper.bookie.DefaultEntryLogger.BufferedLogChannel;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how {@link GarbageCollectorThread} learns the ledgers of the entry logs.
+ */
+public class GarbageCollectorThreadTest {
+
+    private static final int ENTRY_SIZE = 100;
+
+    private File ledgerDir;
+    private ServerConfiguration conf;
+    private LedgerDirsManager ledgerDirsManager;
+    private CompactableLedgerStorage ledgerStorage;
+    private DefaultEntryLogger entryLogger;
+    private GarbageCollectorThread gcThread;
+
+    @Before
+    public void setUp() throws Exception {
+        ledgerDir = Files.createTempDirectory("ledger").toFile();
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setLedgerDirNames(new String[] { ledgerDir.getPath() })
+                .setEntryLogFilePreAllocationEnabled(false);
+        ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+
+        ledgerStorage = mock(CompactableLedgerStorage.class);
+        when(ledgerStorage.ledgerExists(anyLong())).thenReturn(true);
+        entryLogger = spy(new DefaultEntryLogger(conf, ledgerDirsManager));
+        gcThread = newGcThread();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        gcThread.shutdown();
+        entryLogger.close();
+        FileUtils.deleteDirectory(ledgerDir);
+    }
+
+    private GarbageCollectorThread newGcThread() throws Exception {
+        return new GarbageCollectorThread(conf, mock(LedgerManager.class), ledgerDirsManager, ledgerStorage,
+                entryLogger, NullStatsLogger.INSTANCE, mock(ScheduledExecutorService.class));
+    }
+
+    private static ByteBuf makeEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeZero(ENTRY_SIZE - entry.writerIndex());
+        return entry;
+    }
+
+    /**
+     * Writes 3 entries of ledger 1 and 2 entries of ledger 2 to the current entry log, and rotates it.
+     */
+    private long writeAndRotateLog() throws Exception {
+        long location = 0;
+        for (long entryId = 0; entryId < 3; entryId++) {
+            location = entryLogger.addEntry(1, makeEntry(1, entryId));
+            if (entryId < 2) {
+                entryLogger.addEntry(2, makeEntry(2, entryId));
+            }
+        }
+        ((EntryLogManagerBase) entryLogger.getEntryLogManager()).createNewLog(EntryLogger.UNASSIGNED_LEDGERID);
+        return location >> 32;
+    }
+
+    private EntryLogMetadata getGcMetadata(long logId) throws Exception {
+        Map<Long, EntryLogMetadata> metadata = new HashMap<>();
+        gcThread.getEntryLogMetaMap().forEach(metadata::put);
+        return metadata.get(logId);
+    }
+
+    private static void verifyLedgers(EntryLogMetadata metadata) {
+        assertEquals(2, metadata.getLedgersMap().size());
+        assertEquals(3 * (ENTRY_SIZE + 4), metadata.getLedgersMap().get(1));
+        assertEquals(2 * (ENTRY_SIZE + 4), metadata.getLedgersMap().get(2));
+    }
+
+    @Test
+    public void testFlushedLogMetadataTakenWithoutReadingLog() throws Exception {
+        long logId = writeAndRotateLog();
+
+        // not flushed yet, so not handed to the garbage collector
+        gcThread.extractMetaFromEntryLogs();
+        assertFalse(gcThread.getEntryLogMetaMap().containsKey(logId));
+
+        entryLogger.flush();
+        gcThread.extractMetaFromEntryLogs();
+        EntryLogMetadata metadata = getGcMetadata(logId);
+        assertNotNull(metadata);
+        verifyLedgers(metadata);
+        verify(entryLogger, never()).getEntryLogMetadata(anyLong(), any());
+
+        // the metadata was drained, it is only handed over once
+        assertTrue(entryLogger.drainFlushedLogsMetadata().isEmpty());
+        gcThread.extractMetaFromEntryLogs();
+        assertSame(metadata, getGcMetadata(logId));
+        verify(entryLogger, never()).getEntryLogMetadata(anyLong(), any());
+    }
+
+    @Test
+    public void testDrainedMetadataNotTakenAgainAfterRemoval() throws Exception {
+        long logId = writeAndRotateLog();
+        entryLogger.flush();
+
+        // the garbage collector took the metadata, then found out the ledgers were deleted
+        when(ledgerStorage.ledgerExists(anyLong())).thenReturn(false);
+        gcThread.extractMetaFromEntryLogs();
+        assertFalse(gcThread.getEntryLogMetaMap().containsKey(logId));
+        assertFalse(entryLogger.logExists(logId));
+
+        // the removed log is not brought back
+        gcThread.extractMetaFromEntryLogs();
+        assertFalse(gcThread.getEntryLogMetaMap().containsKey(logId));
+        verify(entryLogger, never()).getEntryLogMetadata(anyLong(), any());
+    }
+
+    @Test
+    public void testUndrainedLogsReadFromLedgersMap() throws Exception {
+        long logId = writeAndRotateLog();
+        entryLogger.flush();
+
+        // after a restart, the metadata tracked while writing is gone
+        entryLogger.close();
+        gcThread.shutdown();
+        entryLogger = spy(new DefaultEntryLogger(conf, ledgerDirsManager));
+        gcThread = newGcThread();
+
+        gcThread.extractMetaFromEntryLogs();
+        verifyLedgers(getGcMetadata(logId));
+        verify(entryLogger, times(1)).getEntryLogMetadata(eq(logId), any());
+    }
+
+    @Test
+    public void testRecentEntryLogsStatusDrain() {
+        DefaultEntryLogger.RecentEntryLogsStatus status = new DefaultEntryLogger.RecentEntryLogsStatus(0);
+        int numLogs = DefaultEntryLogger.RecentEntryLogsStatus.MAX_FLUSHED_LOGS_METADATA + 10;
+        for (long logId = 0; logId < numLogs; logId++) {
+            status.createdEntryLog(logId);
+            BufferedLogChannel logChannel = mock(BufferedLogChannel.class);
+            when(logChannel.getLogId()).thenReturn(logId);
+            when(logChannel.getEntryLogMetadata()).thenReturn(new EntryLogMetadata(logId));
+            status.flushRotatedEntryLog(logChannel);
+        }
+        assertEquals(numLogs, status.getLeastUnflushedLogId());
+
+        // beyond the limit, the oldest logs are left to be read from their ledgers maps
+        List<EntryLogMetadata> drained = status.drainFlushedLogsMetadata();
+        assertEquals(DefaultEntryLogger.RecentEntryLogsStatus.MAX_FLUSHED_LOGS_METADATA, drained.size());
+        assertEquals(10, drained.get(0).getEntryLogId());
+        assertEquals(numLogs - 1, drained.get(drained.size() - 1).getEntryLogId());
+
+        assertTrue(status.drainFlushedLogsMetadata().isEmpty());
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_ADD_LATENCY_P99;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_WAIT_DECREASES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_WAIT_INCREASES;
+import static org.apache.bookkeeper.bookie.BookKeeperServerStats.JOURNAL_GROUP_COMMIT_WAIT_TIME;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.stats.Gauge;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+/**
+ * Unit test for {@link GroupCommitController}.
+ */
+public class GroupCommitControllerTest {
+
+    private static final long TARGET_LATENCY_MS = 10;
+    private static final long MAX_GROUP_WAIT_MS = 8;
+
+    private static class TestCounter implements Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        @Override
+        public void clear() {
+            value.set(0);
+        }
+
+        @Override
+        public void inc() {
+            value.incrementAndGet();
+        }
+
+        @Override
+        public void dec() {
+            value.decrementAndGet();
+        }
+
+        @Override
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        @Override
+        public Long get() {
+            return value.get();
+        }
+    }
+
+    private final TestCounter waitIncreases = new TestCounter();
+    private final TestCounter waitDecreases = new TestCounter();
+    private ServerConfiguration conf;
+    private StatsLogger statsLogger;
+    private long nowNanos;
+    private GroupCommitController controller;
+
+    @Before
+    public void setUp() {
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setJournalGroupCommitTargetLatencyMs(TARGET_LATENCY_MS);
+        conf.setJournalMaxGroupWaitMSec(MAX_GROUP_WAIT_MS);
+        statsLogger = mock(StatsLogger.class);
+        when(statsLogger.getCounter(JOURNAL_GROUP_COMMIT_WAIT_INCREASES)).thenReturn(waitIncreases);
+        when(statsLogger.getCounter(JOURNAL_GROUP_COMMIT_WAIT_DECREASES)).thenReturn(waitDecreases);
+
+        nowNanos = TimeUnit.HOURS.toNanos(1);
+        controller = new GroupCommitController(conf, statsLogger, nowNanos);
+    }
+
+    /**
+     * Acknowledges a group of entries, that waited for the given latencies.
+     */
+    private void acknowledge(long... latenciesMs) {
+        for (long latencyMs : latenciesMs) {
+            controller.onAcknowledged(nowNanos - TimeUnit.MILLISECONDS.toNanos(latencyMs), nowNanos);
+        }
+    }
+
+    private void acknowledge(int numEntries, long latencyMs) {
+        for (int i = 0; i < numEntries; i++) {
+            acknowledge(latencyMs);
+        }
+    }
+
+    private void nextInterval() {
+        nowNanos += GroupCommitController.UPDATE_INTERVAL_NANOS;
+        controller.update(nowNanos);
+    }
+
+    private static long millis(double ms) {
+        return (long) (ms * TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void testInitialSettings() {
+        assertEquals(millis(MAX_GROUP_WAIT_MS), controller.getGroupWaitNanos());
+        assertEquals(conf.getJournalBufferedEntriesThreshold(), controller.getEntriesThreshold());
+        assertEquals(conf.getJournalBufferedWritesThreshold(), controller.getBytesThreshold());
+        assertEquals(conf.getJournalFlushWhenQueueEmpty(), controller.shouldFlushWhenQueueEmpty());
+        assertEquals(0, controller.getAddLatencyP99Nanos());
+    }
+
+    @Test
+    public void testUpdatedOncePerInterval() {
+        acknowledge(100, 20);
+        controller.update(nowNanos + GroupCommitController.UPDATE_INTERVAL_NANOS - 1);
+        assertEquals(millis(MAX_GROUP_WAIT_MS), controller.getGroupWaitNanos());
+        assertEquals(0, controller.getAddLatencyP99Nanos());
+
+        // the samples are kept until the interval elapsed
+        nextInterval();
+        assertEquals(millis(MAX_GROUP_WAIT_MS / 2), controller.getGroupWaitNanos());
+        assertEquals(millis(20), controller.getAddLatencyP99Nanos());
+        assertEquals(1L, (long) waitDecreases.get());
+    }
+
+    @Test
+    public void testWaitHalvedAboveTarget() {
+        for (int i = 0; i < 3; i++) {
+            acknowledge(100, 20);
+            nextInterval();
+        }
+        assertEquals(millis(1), controller.getGroupWaitNanos());
+        assertEquals(3L, (long) waitDecreases.get());
+        assertEquals(0L, (long) waitIncreases.get());
+    }
+
+    @Test
+    public void testWaitIncreasedWellBelowTarget() {
+        acknowledge(100, 20);
+        nextInterval();
+        assertEquals(millis(4), controller.getGroupWaitNanos());
+
+        // increased by a quarter, up to the max group wait
+        acknowledge(100, 1);
+        nextInterval();
+        assertEquals(millis(5), controller.getGroupWaitNanos());
+        acknowledge(100, 1);
+        nextInterval();
+        assertEquals(millis(6.25), controller.getGroupWaitNanos());
+        acknowledge(100, 1);
+        nextInterval();
+        assertEquals(millis(7.8125), controller.getGroupWaitNanos());
+        acknowledge(100, 1);
+        nextInterval();
+        assertEquals(millis(MAX_GROUP_WAIT_MS), controller.getGroupWaitNanos());
+        assertEquals(4L, (long) waitIncreases.get());
+    }
+
+    @Test
+    public void testSmallWaitIncreasedByMinStep() {
+        for (int i = 0; i < 10; i++) {
+            acknowledge(100, 20);
+            nextInterval();
+        }
+        assertEquals(7812, controller.getGroupWaitNanos());
+
+        acknowledge(100, 1);
+        nextInterval();
+        assertEquals(7812 + TimeUnit.MICROSECONDS.toNanos(50), controller.getGroupWaitNanos());
+    }
+
+    @Test
+    public void testWaitKeptNearTarget() {
+        acknowledge(100, 8);
+        nextInterval();
+        assertEquals(millis(MAX_GROUP_WAIT_MS), controller.getGroupWaitNanos());
+        assertEquals(millis(8), controller.getAddLatencyP99Nanos());
+        assertEquals(0L, (long) waitIncreases.get());
+        assertEquals(0L, (long) waitDecreases.get());
+    }
+
+    @Test
+    public void testWaitKeptWithFewSamples() {
+        acknowledge(9, 20);
+        nextInterval();
+        assertEquals(millis(MAX_GROUP_WAIT_MS), controller.getGroupWaitNanos());
+        assertEquals(0, controller.getAddLatencyP99Nanos());
+
+        // the samples of an interval are not carried over to the next one
+        acknowledge(9, 20);
+        nextInterval();
+        assertEquals(millis(MAX_GROUP_WAIT_MS), controller.getGroupWaitNanos());
+        assertEquals(0L, (long) waitDecreases.get());
+    }
+
+    @Test
+    public void testEveryEntrySampled() {
+        // a single slow entry in a group of 100 is beyond the 99th percentile
+        long[] latenciesMs = new long[100];
+        latenciesMs[0] = 50;
+        for (int i = 1; i < latenciesMs.length; i++) {
+            latenciesMs[i] = 1;
+        }
+        acknowledge(latenciesMs);
+        nextInterval();
+        assertEquals(millis(1), controller.getAddLatencyP99Nanos());
+        assertEquals(1L, (long) waitIncreases.get());
+
+        // two are not
+        latenciesMs[1] = 50;
+        acknowledge(latenciesMs);
+        nextInterval();
+        assertEquals(millis(50), controller.getAddLatencyP99Nanos());
+        assertEquals(millis(MAX_GROUP_WAIT_MS / 2), controller.getGroupWaitNanos());
+        assertEquals(1L, (long) waitDecreases.get());
+    }
+
+    @Test
+    public void testMostRecentSamplesKept() {
+        acknowledge(GroupCommitController.MAX_SAMPLES, 20);
+        acknowledge(GroupCommitController.MAX_SAMPLES, 1);
+        nextInterval();
+        assertEquals(millis(1), controller.getAddLatencyP99Nanos());
+        assertEquals(0L, (long) waitDecreases.get());
+    }
+
+    @Test
+    public void testWaitBoundedBySyncLatency() {
+        // smoothed to 4ms, the wait is left the rest of the target
+        controller.onSync(millis(8));
+        nextInterval();
+        assertEquals(millis(6), controller.getGroupWaitNanos());
+
+        // smoothed to 8ms
+        controller.onSync(millis(12));
+        nextInterval();
+        assertEquals(millis(2), controller.getGroupWaitNanos());
+
+        // the syncs alone take more than the target
+        controller.onSync(millis(30));
+        nextInterval();
+        assertEquals(0, controller.getGroupWaitNanos());
+        assertTrue(controller.shouldFlushWhenQueueEmpty());
+    }
+
+    @Test
+    public void testThresholdsFromArrivalRate() {
+        // averaged from 0, 1000 entries/s and 100 KB/s
+        for (int i = 0; i < 1000; i++) {
+            controller.onEntry(100);
+        }
+        nextInterval();
+        assertEquals(8, controller.getEntriesThreshold());
+        assertEquals(4096, controller.getBytesThreshold());
+        assertFalse(controller.shouldFlushWhenQueueEmpty());
+
+        // 200000 entries/s and 20 MB/s, averaged with the last interval
+        for (int i = 0; i < 100000; i++) {
+            controller.onEntry(100);
+        }
+        nextInterval();
+        assertEquals(804, controller.getEntriesThreshold());
+        assertEquals(80400, controller.getBytesThreshold());
+        assertFalse(controller.shouldFlushWhenQueueEmpty());
+    }
+
+    @Test
+    public void testFlushWhenQueueEmptyAtLowRate() {
+        // averaged to 1 entry/s, not even one other entry expected during a wait
+        controller.onEntry(100);
+        nextInterval();
+        assertEquals(1, controller.getEntriesThreshold());
+        assertEquals(4096, controller.getBytesThreshold());
+        assertTrue(controller.shouldFlushWhenQueueEmpty());
+    }
+
+    @Test
+    public void testThresholdsBoundedByConf() {
+        conf.setJournalBufferedEntriesThreshold(5);
+        conf.setJournalBufferedWritesThreshold(8192);
+        controller = new GroupCommitController(conf, statsLogger, nowNanos);
+        for (int i = 0; i < 100000; i++) {
+            controller.onEntry(100);
+        }
+        nextInterval();
+        assertEquals(5, controller.getEntriesThreshold());
+        assertEquals(8192, controller.getBytesThreshold());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStatsExported() {
+        ArgumentCaptor<Gauge<Long>> waitTime = ArgumentCaptor.forClass(Gauge.class);
+        ArgumentCaptor<Gauge<Long>> addLatency = ArgumentCaptor.forClass(Gauge.class);
+        verify(statsLogger).registerGauge(eq(JOURNAL_GROUP_COMMIT_WAIT_TIME), waitTime.capture());
+        verify(statsLogger).registerGauge(eq(JOURNAL_GROUP_COMMIT_ADD_LATENCY_P99), addLatency.capture());
+
+        acknowledge(100, 20);
+        nextInterval();
+        assertEquals(4000L, (long) waitTime.getValue().getSample());
+        assertEquals(20000L, (long) addLatency.getValue().getSample());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the bypass of the journal for the entries written with the SKIP_JOURNAL write flag.
+ */
+public class JournalBypassTest {
+
+    private static final long LEDGER_ID = 1;
+    private static final byte[] MASTER_KEY = "master-key".getBytes(UTF_8);
+
+    private File journalDir;
+    private File ledgerDir;
+    private BookieImpl bookie;
+
+    @Before
+    public void setUp() throws Exception {
+        journalDir = Files.createTempDirectory("journal").toFile();
+        ledgerDir = Files.createTempDirectory("ledger").toFile();
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(journalDir));
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (bookie != null) {
+            bookie.shutdown();
+        }
+        FileUtils.deleteDirectory(journalDir);
+        FileUtils.deleteDirectory(ledgerDir);
+    }
+
+    private ServerConfiguration newConfiguration() {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setJournalDirName(journalDir.getPath())
+                .setLedgerDirNames(new String[] { ledgerDir.getPath() })
+                .setMetadataServiceUri(null);
+        return conf;
+    }
+
+    private static ByteBuf makeEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer();
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeLong(entryId - 1); // lac
+        entry.writeBytes(("entry-" + entryId).getBytes(UTF_8));
+        return entry;
+    }
+
+    /**
+     * Add the entries to a new bookie, then shut it down and scan its journal.
+     *
+     * @return the ids of the records of the ledger in the journal, in order
+     */
+    private List<Long> addAndScanJournal(ServerConfiguration conf, boolean skipJournal, int numEntries)
+            throws Exception {
+        bookie = new TestBookieImpl(conf);
+        bookie.start();
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            CompletableFuture<Integer> written = new CompletableFuture<>();
+            bookie.addEntry(makeEntry(LEDGER_ID, entryId), false, skipJournal,
+                    (rc, ledgerId, eId, addr, ctx) -> written.complete(rc), null, MASTER_KEY);
+            assertEquals(BookieException.Code.OK, (int) written.get(10, TimeUnit.SECONDS));
+        }
+
+        // the entries are readable whether they were journaled or not
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            ByteBuf entry = bookie.readEntry(LEDGER_ID, entryId);
+            assertEquals(makeEntry(LEDGER_ID, entryId), entry);
+            entry.release();
+        }
+
+        Journal journal = bookie.journals.get(0);
+        bookie.shutdown();
+        bookie = null;
+
+        List<Long> journaled = new ArrayList<>();
+        for (long journalId : Journal.listJournalIds(journal.getJournalDirectory(), null)) {
+            journal.scanJournal(journalId, 0L, (journalVersion, offset, entry) -> {
+                if (entry.getLong() == LEDGER_ID) {
+                    journaled.add(entry.getLong());
+                }
+            });
+        }
+        return journaled;
+    }
+
+    @Test
+    public void testBypassDisabledByDefault() throws Exception {
+        ServerConfiguration conf = newConfiguration();
+        assertFalse(conf.getJournalBypassEnabled());
+
+        // the flag is ignored, and the entries are journaled after the master key
+        List<Long> journaled = addAndScanJournal(conf, true, 3);
+        assertEquals(4, journaled.size());
+        assertEquals(BookieImpl.METAENTRY_ID_LEDGER_KEY, (long) journaled.get(0));
+        assertEquals(Arrays.asList(0L, 1L, 2L), journaled.subList(1, 4));
+    }
+
+    @Test
+    public void testBypassEnabled() throws Exception {
+        ServerConfiguration conf = newConfiguration();
+        conf.setJournalBypassEnabled(true);
+
+        // only the master key is journaled, so that the ledger can still be recovered
+        List<Long> journaled = addAndScanJournal(conf, true, 3);
+        assertEquals(1, journaled.size());
+        assertEquals(BookieImpl.METAENTRY_ID_LEDGER_KEY, (long) journaled.get(0));
+    }
+
+    @Test
+    public void testEntriesWithoutFlagJournaledWhenBypassEnabled() throws Exception {
+        ServerConfiguration conf = newConfiguration();
+        conf.setJournalBypassEnabled(true);
+
+        List<Long> journaled = addAndScanJournal(conf, false, 3);
+        assertEquals(4, journaled.size());
+        assertEquals(BookieImpl.METAENTRY_ID_LEDGER_KEY, (long) journaled.get(0));
+        assertEquals(Arrays.asList(0L, 1L, 2L), journaled.subList(1, 4));
+    }
+}
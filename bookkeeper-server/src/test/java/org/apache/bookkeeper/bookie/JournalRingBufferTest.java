@@ -0,0 +1,175 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+/**
+ * Tests the journal with the batched ring buffer pipeline, with and without busy wait.
+ */
+@RunWith(Parameterized.class)
+public class JournalRingBufferTest {
+
+    private static final int NUM_WRITERS = 4;
+    private static final int ENTRIES_PER_WRITER = 2000;
+
+    @Parameterized.Parameters(name = "busyWait={0}")
+    public static Collection<Object[]> getParameters() {
+        return Arrays.asList(new Object[][] { { false }, { true } });
+    }
+
+    private final boolean busyWait;
+    private File journalDir;
+    private File ledgerDir;
+    private Journal journal;
+
+    public JournalRingBufferTest(boolean busyWait) {
+        this.busyWait = busyWait;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        journalDir = Files.createTempDirectory("journal").toFile();
+        ledgerDir = Files.createTempDirectory("ledger").toFile();
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(journalDir));
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setJournalDirName(journalDir.getPath())
+                .setLedgerDirNames(new String[] { ledgerDir.getPath() })
+                .setJournalRingBufferEnabled(true)
+                .setBusyWaitEnabled(busyWait);
+        // small enough for the writers to fill it
+        conf.setJournalQueueSize(256);
+        conf.setNumJournalCallbackThreads(4);
+
+        LedgerDirsManager ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+        journal = new Journal(0, BookieImpl.getCurrentDirectory(journalDir), conf, ledgerDirsManager);
+        journal.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        journal.shutdown();
+        FileUtils.deleteDirectory(journalDir);
+        FileUtils.deleteDirectory(ledgerDir);
+    }
+
+    private static ByteBuf makeEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(64);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeZero(48);
+        return entry;
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        // the callback of each entry is called exactly once, once the entry is persisted
+        AtomicIntegerArray callbacks = new AtomicIntegerArray(NUM_WRITERS * ENTRIES_PER_WRITER);
+        CountDownLatch allWritten = new CountDownLatch(NUM_WRITERS * ENTRIES_PER_WRITER);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < NUM_WRITERS; w++) {
+            final long ledgerId = w;
+            Thread writer = new Thread(() -> {
+                try {
+                    for (long entryId = 0; entryId < ENTRIES_PER_WRITER; entryId++) {
+                        journal.logAddEntry(makeEntry(ledgerId, entryId), false,
+                                (rc, lid, eid, addr, ctx) -> {
+                                    if (rc != BookieException.Code.OK) {
+                                        failure.compareAndSet(null, new Exception("Failed to write " + eid));
+                                    }
+                                    callbacks.incrementAndGet((int) (lid * ENTRIES_PER_WRITER + eid));
+                                    allWritten.countDown();
+                                }, null);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertTrue(allWritten.await(30, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        // let any extra callback run before checking
+        Thread.sleep(100);
+        for (int i = 0; i < callbacks.length(); i++) {
+            assertEquals("Callbacks of entry " + i, 1, callbacks.get(i));
+        }
+
+        // the entries of each writer are in the journal in the order they were added
+        journal.shutdown();
+        long[] nextEntry = new long[NUM_WRITERS];
+        for (long journalId : Journal.listJournalIds(journal.getJournalDirectory(), null)) {
+            journal.scanJournal(journalId, 0L, (journalVersion, offset, entry) -> {
+                long ledgerId = entry.getLong();
+                long entryId = entry.getLong();
+                assertEquals(nextEntry[(int) ledgerId]++, entryId);
+            });
+        }
+        for (int w = 0; w < NUM_WRITERS; w++) {
+            assertEquals(ENTRIES_PER_WRITER, nextEntry[w]);
+        }
+    }
+
+    @Test
+    public void testIdleJournal() throws Exception {
+        // the journal thread waits for entries without losing the ones added after it went idle
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(200);
+            CountDownLatch written = new CountDownLatch(1);
+            journal.logAddEntry(makeEntry(0, i), false, (rc, lid, eid, addr, ctx) -> written.countDown(), null);
+            assertTrue(written.await(10, TimeUnit.SECONDS));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests the replay of the journals of a ledger routed to several journals.
+ */
+public class JournalRoutingReplayTest {
+
+    private static final long LEDGER_ID = 1;
+    private static final byte[] MASTER_KEY = "master-key".getBytes(UTF_8);
+
+    private final List<File> tmpDirs = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (File dir : tmpDirs) {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private File createTempDir(String prefix) throws Exception {
+        File dir = Files.createTempDirectory(prefix).toFile();
+        tmpDirs.add(dir);
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(dir));
+        return dir;
+    }
+
+    private static ByteBuf makeEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer();
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        entry.writeLong(entryId - 1); // lac
+        entry.writeBytes(("entry-" + entryId).getBytes(UTF_8));
+        return entry;
+    }
+
+    private static void addEntry(BookieImpl bookie, long entryId) throws Exception {
+        CompletableFuture<Integer> written = new CompletableFuture<>();
+        bookie.addEntry(makeEntry(LEDGER_ID, entryId), false,
+                (rc, ledgerId, eId, addr, ctx) -> written.complete(rc), null, MASTER_KEY);
+        assertEquals(BookieException.Code.OK, (int) written.get(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Replay a single journal in a bookie with empty ledger storage.
+     *
+     * @return the ids of the entries of the ledger replayed from the journal
+     */
+    private Set<Long> replayJournal(File journalDir, long numEntries) throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setJournalDirName(journalDir.getPath())
+                .setLedgerDirNames(new String[] { createTempDir("ledger").getPath() })
+                .setMetadataServiceUri(null);
+        BookieImpl bookie = new TestBookieImpl(conf);
+        bookie.start();
+        try {
+            Set<Long> replayed = new HashSet<>();
+            for (long entryId = 0; entryId < numEntries; entryId++) {
+                try {
+                    ByteBuf entry = bookie.getLedgerStorage().getEntry(LEDGER_ID, entryId);
+                    assertEquals(makeEntry(LEDGER_ID, entryId), entry);
+                    entry.release();
+                    replayed.add(entryId);
+                } catch (Bookie.NoLedgerException | Bookie.NoEntryException e) {
+                    // not in this journal
+                }
+            }
+            return replayed;
+        } finally {
+            bookie.shutdown();
+        }
+    }
+
+    @Test
+    public void testReplayLedgerMovedBetweenJournals() throws Exception {
+        File[] journalDirs = { createTempDir("journal"), createTempDir("journal") };
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setJournalDirsName(new String[] { journalDirs[0].getPath(), journalDirs[1].getPath() })
+                .setLedgerDirNames(new String[] { createTempDir("ledger").getPath() })
+                .setMetadataServiceUri(null)
+                .setJournalDynamicRoutingEnabled(true)
+                .setJournalRoutingIdleLedgerTimeoutMs(100);
+
+        BookieImpl bookie = new TestBookieImpl(conf);
+        bookie.start();
+        try {
+            addEntry(bookie, 0);
+            // once the ledger is idle, its assignment is dropped by the next routing update, a second later,
+            // and it moves to the journal with no recent writes
+            Thread.sleep(1500);
+            addEntry(bookie, 1);
+            addEntry(bookie, 2);
+        } finally {
+            bookie.shutdown();
+        }
+
+        // each journal holds the master key record of the ledger ahead of its entries, so that it can be
+        // replayed on its own
+        Set<Long> replayedFromFirst = replayJournal(journalDirs[0], 3);
+        Set<Long> replayedFromSecond = replayJournal(journalDirs[1], 3);
+        assertTrue("The ledger didn't move: " + replayedFromFirst + " " + replayedFromSecond,
+                !replayedFromFirst.isEmpty() && !replayedFromSecond.isEmpty());
+
+        Set<Long> replayed = new HashSet<>(replayedFromFirst);
+        replayed.addAll(replayedFromSecond);
+        assertEquals(3, replayed.size());
+    }
+}
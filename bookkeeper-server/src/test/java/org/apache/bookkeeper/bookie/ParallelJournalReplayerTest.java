@@ -0,0 +1,249 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.Journal.JournalScanner;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ParallelJournalReplayer}.
+ */
+public class ParallelJournalReplayerTest {
+
+    private final List<File> tmpDirs = new ArrayList<>();
+    private File[] journalDirs;
+    private ServerConfiguration conf;
+    private LedgerDirsManager ledgerDirsManager;
+
+    // state of the fake ledger storage the records are applied to
+    private final Set<Long> masterKeys = ConcurrentHashMap.newKeySet();
+    private final Map<Long, List<Long>> appliedEntries = new ConcurrentHashMap<>();
+    private final AtomicInteger unknownMasterKeys = new AtomicInteger();
+
+    private final JournalScanner applier = (journalVersion, offset, recBuff) -> {
+        long ledgerId = recBuff.getLong();
+        long entryId = recBuff.getLong();
+        if (entryId == BookieImpl.METAENTRY_ID_LEDGER_KEY) {
+            masterKeys.add(ledgerId);
+        } else if (!masterKeys.contains(ledgerId)) {
+            unknownMasterKeys.incrementAndGet();
+            throw new Bookie.NoLedgerException(ledgerId);
+        } else {
+            appliedEntries.computeIfAbsent(ledgerId, k -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(entryId);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        journalDirs = new File[] { createTempDir("journal"), createTempDir("journal") };
+        conf = TestBKConfiguration.newServerConfiguration();
+        conf.setJournalDirsName(new String[] { journalDirs[0].getPath(), journalDirs[1].getPath() })
+                .setLedgerDirNames(new String[] { createTempDir("ledger").getPath() })
+                .setJournalReplayThreads(2)
+                .setJournalMaxMemorySizeMb(1);
+        ledgerDirsManager = new LedgerDirsManager(conf, conf.getLedgerDirs(),
+                new DiskChecker(conf.getDiskUsageThreshold(), conf.getDiskUsageWarnThreshold()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File dir : tmpDirs) {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private File createTempDir(String prefix) throws Exception {
+        File dir = Files.createTempDirectory(prefix).toFile();
+        tmpDirs.add(dir);
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(dir));
+        return dir;
+    }
+
+    private static ByteBuf makeRecord(long ledgerId, long entryId, int size) {
+        ByteBuf record = Unpooled.buffer(size);
+        record.writeLong(ledgerId);
+        record.writeLong(entryId);
+        if (entryId == BookieImpl.METAENTRY_ID_LEDGER_KEY) {
+            record.writeInt(0);
+        }
+        record.writeZero(size - record.writerIndex());
+        return record;
+    }
+
+    /**
+     * Write the records, given as ledger id and entry id pairs, to a journal.
+     */
+    private void writeJournal(int journalIndex, int recordSize, long... ledgerAndEntryIds) throws Exception {
+        Journal journal = new Journal(journalIndex, BookieImpl.getCurrentDirectory(journalDirs[journalIndex]),
+                conf, ledgerDirsManager);
+        journal.start();
+        try {
+            CountDownLatch written = new CountDownLatch(ledgerAndEntryIds.length / 2);
+            for (int i = 0; i < ledgerAndEntryIds.length; i += 2) {
+                journal.logAddEntry(makeRecord(ledgerAndEntryIds[i], ledgerAndEntryIds[i + 1], recordSize), false,
+                        (rc, ledgerId, entryId, addr, ctx) -> written.countDown(), null);
+            }
+            assertTrue(written.await(10, TimeUnit.SECONDS));
+        } finally {
+            journal.shutdown();
+        }
+    }
+
+    private List<Journal> newJournalsToReplay() {
+        ServerConfiguration replayConf = new ServerConfiguration(conf);
+        replayConf.setNumJournalCallbackThreads(0);
+        List<Journal> journals = new ArrayList<>();
+        for (int i = 0; i < journalDirs.length; i++) {
+            journals.add(new Journal(i, BookieImpl.getCurrentDirectory(journalDirs[i]), replayConf,
+                    ledgerDirsManager));
+        }
+        return journals;
+    }
+
+    private void replay(List<Journal> journals) throws IOException {
+        new ParallelJournalReplayer(journals, conf, applier, NullStatsLogger.INSTANCE).replay();
+    }
+
+    private static long[] ledgerEntries(long ledgerId, long firstEntryId, int numEntries) {
+        long[] ids = new long[numEntries * 2];
+        for (int i = 0; i < numEntries; i++) {
+            ids[2 * i] = ledgerId;
+            ids[2 * i + 1] = firstEntryId + i;
+        }
+        return ids;
+    }
+
+    private static long[] concat(long[]... arrays) {
+        int length = 0;
+        for (long[] array : arrays) {
+            length += array.length;
+        }
+        long[] result = new long[length];
+        int pos = 0;
+        for (long[] array : arrays) {
+            System.arraycopy(array, 0, result, pos, array.length);
+            pos += array.length;
+        }
+        return result;
+    }
+
+    @Test
+    public void testMasterKeyInAnotherJournal() throws Exception {
+        // the entries of the second journal are applied whether they are read before or after the master key
+        writeJournal(0, 64, concat(new long[] { 1, BookieImpl.METAENTRY_ID_LEDGER_KEY }, ledgerEntries(1, 0, 100)));
+        writeJournal(1, 64, ledgerEntries(1, 100, 100));
+
+        replay(newJournalsToReplay());
+
+        List<Long> applied = new ArrayList<>(appliedEntries.get(1L));
+        Collections.sort(applied);
+        assertEquals(200, applied.size());
+        for (int i = 0; i < 200; i++) {
+            assertEquals(i, (long) applied.get(i));
+        }
+    }
+
+    @Test
+    public void testRecordsOfDeletedLedgerDropped() throws Exception {
+        writeJournal(0, 64, concat(new long[] { 1, BookieImpl.METAENTRY_ID_LEDGER_KEY }, ledgerEntries(1, 0, 100)));
+        writeJournal(1, 64, concat(ledgerEntries(2, 0, 100), ledgerEntries(1, 100, 100)));
+
+        replay(newJournalsToReplay());
+
+        assertEquals(200, appliedEntries.get(1L).size());
+        assertFalse(appliedEntries.containsKey(2L));
+        // once the master key of the ledger is found missing, its next records are not applied
+        assertEquals(1, unknownMasterKeys.get());
+    }
+
+    @Test
+    public void testDeferredRecordsAreBounded() throws Exception {
+        // records of distinct ledgers whose master key could come from the first journal, taking more than half
+        // of the 1 MB replay memory
+        int recordSize = 100 * 1024;
+        int numLedgers = 10;
+        writeJournal(0, 64, 1, BookieImpl.METAENTRY_ID_LEDGER_KEY);
+        long[] ids = new long[numLedgers * 2];
+        for (int i = 0; i < numLedgers; i++) {
+            ids[2 * i] = 100 + i;
+        }
+        writeJournal(1, recordSize, ids);
+
+        // the first journal is still being read while the records of the second one are deferred
+        List<Journal> journals = newJournalsToReplay();
+        Journal firstJournal = spy(journals.get(0));
+        doAnswer(invocation -> {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (unknownMasterKeys.get() <= 5 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            return invocation.callRealMethod();
+        }).when(firstJournal).scanJournal(anyLong(), anyLong(), any());
+        journals.set(0, firstJournal);
+
+        try {
+            replay(journals);
+            fail("The replay should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+        assertTrue(unknownMasterKeys.get() > 5);
+    }
+
+    @Test
+    public void testEmptyJournals() throws Exception {
+        // the replay completes without any record to wait for
+        replay(newJournalsToReplay());
+        assertTrue(appliedEntries.isEmpty());
+        assertTrue(masterKeys.isEmpty());
+    }
+}
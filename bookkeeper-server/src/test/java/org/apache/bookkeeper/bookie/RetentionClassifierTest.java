@@ -0,0 +1,249 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.apache.bookkeeper.bookie.RetentionClassifier.RETENTION_CLASS_METADATA_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Ticker;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link RetentionClassifier}.
+ */
+public class RetentionClassifierTest {
+
+    private static final int NUM_CLASSES = 3;
+    private static final long BASE_AGE_SECONDS = 3600;
+    private static final long AGE_OF_LAST_CLASS_SECONDS = RetentionClassifier.AGE_MULTIPLIER * BASE_AGE_SECONDS;
+
+    private final AtomicLong nowNanos = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nowNanos.get();
+        }
+    };
+
+    private final Map<Long, CompletableFuture<Versioned<LedgerMetadata>>> metadataReads = new HashMap<>();
+    private LedgerManager ledgerManager;
+    private RetentionClassifier classifier;
+
+    @Before
+    public void setUp() {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setEntryLogRetentionClasses(NUM_CLASSES);
+        conf.setEntryLogRetentionClassBaseAgeSeconds(BASE_AGE_SECONDS);
+        classifier = new RetentionClassifier(conf, ticker);
+
+        ledgerManager = mock(LedgerManager.class);
+        when(ledgerManager.readLedgerMetadata(anyLong())).thenAnswer(invocation ->
+                metadataReads.computeIfAbsent(invocation.getArgument(0), ledgerId -> new CompletableFuture<>()));
+        classifier.setLedgerManager(ledgerManager);
+    }
+
+    private void advanceSeconds(long seconds) {
+        nowNanos.addAndGet(TimeUnit.SECONDS.toNanos(seconds));
+    }
+
+    private static Versioned<LedgerMetadata> metadata(String retentionClassHint) {
+        Map<String, byte[]> customMetadata = retentionClassHint == null ? Collections.emptyMap()
+                : Collections.singletonMap(RETENTION_CLASS_METADATA_KEY, retentionClassHint.getBytes(UTF_8));
+        LedgerMetadata metadata = mock(LedgerMetadata.class);
+        when(metadata.getCustomMetadata()).thenReturn(customMetadata);
+        return new Versioned<>(metadata, new LongVersion(0));
+    }
+
+    private void completeMetadataRead(long ledgerId, String retentionClassHint) {
+        metadataReads.computeIfAbsent(ledgerId, id -> new CompletableFuture<>())
+                .complete(metadata(retentionClassHint));
+    }
+
+    @Test
+    public void testClassifiedFromHints() {
+        completeMetadataRead(1, "2");
+        completeMetadataRead(2, "1");
+        completeMetadataRead(3, "0");
+
+        // the class only changes with a write
+        assertEquals(0, classifier.getRetentionClass(1));
+        assertTrue(classifier.reclassify(1));
+        assertEquals(2, classifier.getRetentionClass(1));
+        assertFalse(classifier.reclassify(1));
+
+        assertTrue(classifier.reclassify(2));
+        assertEquals(1, classifier.getRetentionClass(2));
+        assertFalse(classifier.reclassify(3));
+        assertEquals(0, classifier.getRetentionClass(3));
+
+        // the metadata is read once per ledger
+        verify(ledgerManager, times(1)).readLedgerMetadata(1);
+
+        // a hinted ledger doesn't age out of its class
+        advanceSeconds(100 * BASE_AGE_SECONDS);
+        assertFalse(classifier.reclassify(3));
+        assertEquals(0, classifier.getRetentionClass(3));
+    }
+
+    @Test
+    public void testHintsOutOfRange() {
+        completeMetadataRead(1, "7");
+        completeMetadataRead(2, "-1");
+        completeMetadataRead(3, " 1 ");
+        completeMetadataRead(4, "short");
+
+        classifier.reclassify(1);
+        assertEquals(NUM_CLASSES - 1, classifier.getRetentionClass(1));
+        classifier.reclassify(2);
+        assertEquals(0, classifier.getRetentionClass(2));
+        classifier.reclassify(3);
+        assertEquals(1, classifier.getRetentionClass(3));
+
+        // an invalid hint is ignored, the ledger is classified by age
+        classifier.reclassify(4);
+        assertEquals(0, classifier.getRetentionClass(4));
+        advanceSeconds(BASE_AGE_SECONDS);
+        classifier.reclassify(4);
+        assertEquals(1, classifier.getRetentionClass(4));
+    }
+
+    @Test
+    public void testClassifiedByAge() {
+        completeMetadataRead(1, null);
+
+        List<Integer> classes = new ArrayList<>();
+        classifier.reclassify(1);
+        classes.add(classifier.getRetentionClass(1));
+
+        advanceSeconds(BASE_AGE_SECONDS - 1);
+        assertFalse(classifier.reclassify(1));
+        classes.add(classifier.getRetentionClass(1));
+
+        // older than the base age
+        advanceSeconds(1);
+        assertTrue(classifier.reclassify(1));
+        classes.add(classifier.getRetentionClass(1));
+
+        // older than 4 times the base age
+        advanceSeconds(3 * BASE_AGE_SECONDS - 1);
+        assertFalse(classifier.reclassify(1));
+        classes.add(classifier.getRetentionClass(1));
+        advanceSeconds(1);
+        assertTrue(classifier.reclassify(1));
+        classes.add(classifier.getRetentionClass(1));
+
+        // and stays in the last class
+        advanceSeconds(100 * BASE_AGE_SECONDS);
+        assertFalse(classifier.reclassify(1));
+        classes.add(classifier.getRetentionClass(1));
+
+        assertEquals(Arrays.asList(0, 0, 1, 1, 2, 2), classes);
+    }
+
+    @Test
+    public void testBeforeMetadataRead() {
+        // classified by age until the metadata is read
+        classifier.reclassify(1);
+        assertEquals(0, classifier.getRetentionClass(1));
+        advanceSeconds(BASE_AGE_SECONDS);
+        assertTrue(classifier.reclassify(1));
+        assertEquals(1, classifier.getRetentionClass(1));
+
+        // then by its hint, from the next write
+        completeMetadataRead(1, "0");
+        assertEquals(1, classifier.getRetentionClass(1));
+        assertTrue(classifier.reclassify(1));
+        assertEquals(0, classifier.getRetentionClass(1));
+
+        // a failed read leaves the ledger classified by age
+        classifier.reclassify(2);
+        metadataReads.get(2L).completeExceptionally(new Exception("no metadata"));
+        advanceSeconds(BASE_AGE_SECONDS);
+        assertTrue(classifier.reclassify(2));
+        assertEquals(1, classifier.getRetentionClass(2));
+    }
+
+    @Test
+    public void testWithoutLedgerManager() {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setEntryLogRetentionClasses(NUM_CLASSES);
+        conf.setEntryLogRetentionClassBaseAgeSeconds(BASE_AGE_SECONDS);
+        RetentionClassifier ageClassifier = new RetentionClassifier(conf, ticker);
+
+        assertFalse(ageClassifier.reclassify(1));
+        advanceSeconds(BASE_AGE_SECONDS);
+        assertTrue(ageClassifier.reclassify(1));
+        assertEquals(1, ageClassifier.getRetentionClass(1));
+    }
+
+    @Test
+    public void testIdleLedgersForgotten() {
+        completeMetadataRead(1, null);
+        completeMetadataRead(2, null);
+        classifier.reclassify(1);
+        classifier.reclassify(2);
+
+        // idle once they haven't been written to for the age of the last class
+        advanceSeconds(AGE_OF_LAST_CLASS_SECONDS);
+        classifier.reclassify(2);
+        advanceSeconds(1);
+        List<Long> idleLedgers = new ArrayList<>();
+        classifier.forEachIdleLedger(idleLedgers::add);
+        assertEquals(Collections.singletonList(1L), idleLedgers);
+
+        // written to again before its removal
+        classifier.reclassify(1);
+        classifier.removeIfIdle(1);
+        assertEquals(NUM_CLASSES - 1, classifier.getRetentionClass(1));
+
+        advanceSeconds(AGE_OF_LAST_CLASS_SECONDS + 1);
+        classifier.removeIfIdle(1);
+        // classified again from its next write, as a new ledger
+        completeMetadataRead(1, null);
+        assertEquals(0, classifier.getRetentionClass(1));
+        assertFalse(classifier.reclassify(1));
+        verify(ledgerManager, times(2)).readLedgerMetadata(1);
+    }
+}
@@ -0,0 +1,409 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.directentrylogger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.apache.bookkeeper.bookie.EntryLogMetadata;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.bookie.storage.CompactionEntryLog;
+import org.apache.bookkeeper.bookie.storage.EntryLogIdsImpl;
+import org.apache.bookkeeper.bookie.storage.EntryLogScanner;
+import org.apache.bookkeeper.common.util.nativeio.NativeIOImpl;
+import org.apache.bookkeeper.slogger.Slogger;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.DiskChecker;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests {@link DirectEntryLogger} against the contract of the entry loggers: entries written are read back at
+ * their location, across flushes, log rolls, compactions and a restart after an unclean shutdown.
+ */
+public class DirectEntryLoggerTest {
+
+    private static final ByteBufAllocator ALLOCATOR = UnpooledByteBufAllocator.DEFAULT;
+    private static final int ENTRY_SIZE = 1000;
+    private static final long MAX_FILE_SIZE = 64 * 1024;
+    private static final int MAX_SANE_ENTRY_SIZE = 16 * 1024;
+    private static final long TOTAL_WRITE_BUFFER_SIZE = 8 * 64 * 1024;
+    private static final long TOTAL_READ_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private File rootDir;
+    private LedgerDirsManager ledgerDirsManager;
+    private File ledgerDir;
+    private ExecutorService writeExecutor;
+    private ExecutorService flushExecutor;
+    private final List<DirectEntryLogger> loggers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        rootDir = Files.createTempDirectory("direct-entry-logger").toFile();
+        ledgerDirsManager = new LedgerDirsManager(TestBKConfiguration.newServerConfiguration(),
+                new File[] { rootDir }, new DiskChecker(0.999f, 0.99f));
+        ledgerDir = ledgerDirsManager.getAllLedgerDirs().get(0);
+        writeExecutor = Executors.newSingleThreadExecutor();
+        flushExecutor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (DirectEntryLogger logger : loggers) {
+            logger.close();
+        }
+        writeExecutor.shutdownNow();
+        flushExecutor.shutdownNow();
+        FileUtils.deleteDirectory(rootDir);
+    }
+
+    private DirectEntryLogger newLogger() throws IOException {
+        DirectEntryLogger logger = newUnclosedLogger();
+        loggers.add(logger);
+        return logger;
+    }
+
+    // the test is in charge of closing the logger, or of leaving it open to simulate a crash
+    private DirectEntryLogger newUnclosedLogger() throws IOException {
+        return new DirectEntryLogger(ledgerDir, new EntryLogIdsImpl(ledgerDirsManager, Slogger.NULL),
+                new NativeIOImpl(), ALLOCATOR, writeExecutor, flushExecutor,
+                MAX_FILE_SIZE, MAX_SANE_ENTRY_SIZE, TOTAL_WRITE_BUFFER_SIZE, TOTAL_READ_BUFFER_SIZE,
+                READ_BUFFER_SIZE, 1, 300, Slogger.NULL, NullStatsLogger.INSTANCE);
+    }
+
+    private static ByteBuf makeEntry(long ledgerId, long entryId) {
+        ByteBuf entry = ALLOCATOR.buffer(ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId + entryId + entry.writerIndex()));
+        }
+        return entry;
+    }
+
+    private static long addEntry(DirectEntryLogger logger, long ledgerId, long entryId) throws IOException {
+        ByteBuf entry = makeEntry(ledgerId, entryId);
+        try {
+            return logger.addEntry(ledgerId, entry);
+        } finally {
+            entry.release();
+        }
+    }
+
+    private static void assertEntry(DirectEntryLogger logger, long ledgerId, long entryId, long location)
+            throws Exception {
+        ByteBuf expected = makeEntry(ledgerId, entryId);
+        ByteBuf read = logger.readEntry(ledgerId, entryId, location);
+        try {
+            assertEquals(expected, read);
+        } finally {
+            expected.release();
+            read.release();
+        }
+    }
+
+    private static int logId(long location) {
+        return (int) (location >> 32);
+    }
+
+    @Test
+    public void testWriteAndReadBack() throws Exception {
+        DirectEntryLogger logger = newLogger();
+        long[] locations = new long[10];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = addEntry(logger, 1L, i);
+        }
+        logger.flush();
+
+        for (int i = 0; i < locations.length; i++) {
+            assertEntry(logger, 1L, i, locations[i]);
+        }
+
+        ByteBuf read = logger.readEntry(locations[3]);
+        try {
+            assertEquals(1L, read.getLong(0));
+            assertEquals(3L, read.getLong(8));
+        } finally {
+            read.release();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadWithWrongEntryId() throws Exception {
+        DirectEntryLogger logger = newLogger();
+        long location = addEntry(logger, 1L, 0L);
+        logger.flush();
+
+        logger.readEntry(1L, 1L, location);
+    }
+
+    @Test
+    public void testCurrentLogIsNotFlushedLog() throws Exception {
+        DirectEntryLogger logger = newLogger();
+        long location = addEntry(logger, 1L, 0L);
+        logger.flush();
+
+        // a flushed log can still be written to, until it's rolled
+        assertTrue(logger.logExists(logId(location)));
+        assertFalse(logger.getFlushedLogIds().contains((long) logId(location)));
+    }
+
+    @Test
+    public void testRollover() throws Exception {
+        DirectEntryLogger logger = newLogger();
+        int numEntries = (int) (3 * MAX_FILE_SIZE / ENTRY_SIZE);
+        long[] locations = new long[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            locations[i] = addEntry(logger, i % 2, i);
+        }
+        logger.flush();
+
+        int firstLogId = logId(locations[0]);
+        int lastLogId = logId(locations[numEntries - 1]);
+        assertNotEquals(firstLogId, lastLogId);
+
+        for (int i = 0; i < numEntries; i++) {
+            assertEntry(logger, i % 2, i, locations[i]);
+        }
+
+        // the rolled logs are complete, with their ledgers map, but not the one being written
+        Collection<Long> flushedLogIds = logger.getFlushedLogIds();
+        assertTrue(flushedLogIds.contains((long) firstLogId));
+        assertFalse(flushedLogIds.contains((long) lastLogId));
+
+        EntryLogMetadata metadata = logger.readEntryLogIndex(firstLogId);
+        assertTrue(metadata.containsLedger(0L));
+        assertTrue(metadata.containsLedger(1L));
+        long entriesInFirstLog = 0;
+        for (long location : locations) {
+            if (logId(location) == firstLogId) {
+                entriesInFirstLog++;
+            }
+        }
+        assertEquals(entriesInFirstLog * (ENTRY_SIZE + Integer.BYTES), metadata.getTotalSize());
+    }
+
+    @Test
+    public void testScanEntryLog() throws Exception {
+        DirectEntryLogger logger = newLogger();
+        long[] locations = new long[20];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = addEntry(logger, i % 2, i);
+        }
+        logger.flush();
+
+        Map<Long, Long> scanned = new HashMap<>();
+        logger.scanEntryLog(logId(locations[0]), new EntryLogScanner() {
+            @Override
+            public boolean accept(long ledgerId) {
+                return ledgerId == 1L;
+            }
+
+            @Override
+            public void process(long ledgerId, long offset, ByteBuf entry) {
+                scanned.put(entry.getLong(8), offset);
+            }
+        });
+
+        assertEquals(locations.length / 2, scanned.size());
+        // the scanner gets the offset of the size of the entry, which precedes the entry
+        for (int i = 1; i < locations.length; i += 2) {
+            assertEquals(Long.valueOf((locations[i] & 0xFFFFFFFFL) - Integer.BYTES), scanned.get((long) i));
+        }
+    }
+
+    @Test
+    public void testCompactionLog() throws Exception {
+        DirectEntryLogger logger = newLogger();
+        int numEntries = 20;
+        long[] locations = new long[numEntries];
+        for (int i = 0; i < numEntries; i++) {
+            locations[i] = addEntry(logger, i % 2, i);
+        }
+        // roll the log, so that it can be compacted
+        logger.close();
+        loggers.remove(logger);
+        logger = newLogger();
+        int srcLogId = logId(locations[0]);
+        assertTrue(logger.getFlushedLogIds().contains((long) srcLogId));
+
+        // keep the entries of ledger 1 only
+        CompactionEntryLog compactionLog = logger.newCompactionLog(srcLogId);
+        assertEquals(srcLogId, compactionLog.getSrcLogId());
+        Map<Long, Long> newLocations = new HashMap<>();
+        logger.scanEntryLog(srcLogId, new EntryLogScanner() {
+            @Override
+            public boolean accept(long ledgerId) {
+                return ledgerId == 1L;
+            }
+
+            @Override
+            public void process(long ledgerId, long offset, ByteBuf entry) throws IOException {
+                newLocations.put(entry.getLong(8), compactionLog.addEntry(ledgerId, entry));
+            }
+        });
+        compactionLog.flush();
+        compactionLog.markCompacted();
+        assertTrue(DirectCompactionEntryLog.compactedFile(ledgerDir, (int) compactionLog.getDstLogId(), srcLogId)
+                   .exists());
+        assertFalse(DirectCompactionEntryLog.compactingFile(ledgerDir, (int) compactionLog.getDstLogId()).exists());
+
+        compactionLog.makeAvailable();
+        compactionLog.finalizeAndCleanup();
+        assertTrue(logger.logExists(compactionLog.getDstLogId()));
+        assertTrue(logger.removeEntryLog(srcLogId));
+        assertFalse(logger.logExists(srcLogId));
+        assertTrue(logger.incompleteCompactionLogs().isEmpty());
+
+        assertEquals(numEntries / 2, newLocations.size());
+        for (Map.Entry<Long, Long> e : newLocations.entrySet()) {
+            assertEquals(compactionLog.getDstLogId(), logId(e.getValue()));
+            assertEntry(logger, 1L, e.getKey(), e.getValue());
+        }
+        EntryLogMetadata metadata = logger.getEntryLogMetadata(compactionLog.getDstLogId());
+        assertTrue(metadata.containsLedger(1L));
+        assertFalse(metadata.containsLedger(0L));
+    }
+
+    @Test
+    public void testCompactionRecoveredAfterMarkCompacted() throws Exception {
+        DirectEntryLogger logger = newLogger();
+        long location = addEntry(logger, 1L, 0L);
+        logger.close();
+        loggers.remove(logger);
+
+        logger = newUnclosedLogger();
+        int srcLogId = logId(location);
+        CompactionEntryLog compactionLog = logger.newCompactionLog(srcLogId);
+        ByteBuf entry = makeEntry(1L, 0L);
+        try {
+            compactionLog.addEntry(1L, entry);
+        } finally {
+            entry.release();
+        }
+        compactionLog.flush();
+        compactionLog.markCompacted();
+        // crash before the compacted log is made available
+        logger.close();
+
+        logger = newLogger();
+        Collection<CompactionEntryLog> incomplete = logger.incompleteCompactionLogs();
+        assertEquals(1, incomplete.size());
+        CompactionEntryLog recovered = incomplete.iterator().next();
+        assertEquals(srcLogId, recovered.getSrcLogId());
+        assertEquals(compactionLog.getDstLogId(), recovered.getDstLogId());
+
+        List<Long> scanned = new ArrayList<>();
+        recovered.scan(new EntryLogScanner() {
+            @Override
+            public boolean accept(long ledgerId) {
+                return true;
+            }
+
+            @Override
+            public void process(long ledgerId, long offset, ByteBuf entry) {
+                scanned.add(entry.getLong(8));
+            }
+        });
+        assertEquals(1, scanned.size());
+
+        recovered.makeAvailable();
+        recovered.finalizeAndCleanup();
+        assertTrue(logger.logExists(recovered.getDstLogId()));
+        assertTrue(logger.incompleteCompactionLogs().isEmpty());
+    }
+
+    @Test
+    public void testCompactingLogDeletedAfterCrash() throws Exception {
+        DirectEntryLogger logger = newLogger();
+        long location = addEntry(logger, 1L, 0L);
+        logger.flush();
+
+        CompactionEntryLog compactionLog = logger.newCompactionLog(logId(location));
+        ByteBuf entry = makeEntry(1L, 0L);
+        try {
+            compactionLog.addEntry(1L, entry);
+        } finally {
+            entry.release();
+        }
+        compactionLog.flush();
+        File compactingFile = DirectCompactionEntryLog.compactingFile(ledgerDir, (int) compactionLog.getDstLogId());
+        assertTrue(compactingFile.exists());
+
+        // the compaction didn't reach markCompacted, so it's dropped on recovery
+        assertTrue(newLogger().incompleteCompactionLogs().isEmpty());
+        assertFalse(compactingFile.exists());
+        compactionLog.abort();
+    }
+
+    @Test
+    public void testRecoveryAfterUncleanShutdown() throws Exception {
+        DirectEntryLogger crashed = newUnclosedLogger();
+        long[] locations = new long[10];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = addEntry(crashed, i % 2, i);
+        }
+        crashed.flush();
+        int crashedLogId = logId(locations[0]);
+
+        try {
+            // the log was never finalized, a new logger on the same directory must read it as it is
+            DirectEntryLogger logger = newLogger();
+            for (int i = 0; i < locations.length; i++) {
+                assertEntry(logger, i % 2, i, locations[i]);
+            }
+            assertTrue(logger.getFlushedLogIds().contains((long) crashedLogId));
+
+            // there's no ledgers map in the log, the metadata is rebuilt by scanning it
+            EntryLogMetadata metadata = logger.getEntryLogMetadata(crashedLogId);
+            assertTrue(metadata.containsLedger(0L));
+            assertTrue(metadata.containsLedger(1L));
+            assertEquals(locations.length * (ENTRY_SIZE + Integer.BYTES), metadata.getTotalSize());
+
+            // new entries never go to the log left behind
+            long newLocation = addEntry(logger, 2L, 0L);
+            assertNotEquals(crashedLogId, logId(newLocation));
+            logger.flush();
+            assertEntry(logger, 2L, 0L, newLocation);
+        } finally {
+            crashed.close();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Ticker;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link AdaptiveReadAhead}.
+ */
+public class AdaptiveReadAheadTest {
+
+    private static final int INITIAL_BATCH_SIZE = 8;
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private final AtomicLong nowNanos = new AtomicLong(TimeUnit.HOURS.toNanos(1));
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nowNanos.get();
+        }
+    };
+
+    private final AdaptiveReadAhead readAhead =
+            new AdaptiveReadAhead(INITIAL_BATCH_SIZE, MAX_BATCH_SIZE, true, ticker);
+
+    /**
+     * Reads the ledger sequentially from {@code firstEntryId}, the entries read ahead hitting the cache.
+     *
+     * @return the read-ahead windows of the misses
+     */
+    private List<Integer> readSequentially(long ledgerId, long firstEntryId, int numMisses) {
+        List<Integer> windows = new ArrayList<>();
+        long entryId = firstEntryId;
+        for (int i = 0; i < numMisses; i++) {
+            int window = readAhead.recordMiss(ledgerId, entryId);
+            windows.add(window);
+            for (int j = 1; j <= window; j++) {
+                readAhead.recordHit(ledgerId, entryId + j);
+            }
+            entryId += window + 1;
+        }
+        return windows;
+    }
+
+    @Test
+    public void testNotAdaptive() {
+        AdaptiveReadAhead fixedReadAhead = new AdaptiveReadAhead(INITIAL_BATCH_SIZE, MAX_BATCH_SIZE, false, ticker);
+        assertEquals(INITIAL_BATCH_SIZE, fixedReadAhead.recordMiss(1, 0));
+        assertEquals(INITIAL_BATCH_SIZE, fixedReadAhead.recordMiss(1, 1));
+        assertEquals(INITIAL_BATCH_SIZE, fixedReadAhead.recordMiss(1, 1000));
+        assertEquals(INITIAL_BATCH_SIZE, fixedReadAhead.recordMiss(1, 5));
+    }
+
+    @Test
+    public void testWindowGrowsOnSequentialReads() {
+        // the first read of a ledger counts as sequential
+        assertEquals(Arrays.asList(8, 16, 32, 64, 100, 100, 100), readSequentially(1, 0, 7));
+
+        // from any entry
+        assertEquals(Arrays.asList(8, 16, 32), readSequentially(2, 5000, 3));
+    }
+
+    @Test
+    public void testSequentialMissesWithoutHits() {
+        // read ahead entries evicted before being read
+        assertEquals(INITIAL_BATCH_SIZE, readAhead.recordMiss(1, 0));
+        assertEquals(2 * INITIAL_BATCH_SIZE, readAhead.recordMiss(1, 1));
+        assertEquals(4 * INITIAL_BATCH_SIZE, readAhead.recordMiss(1, 2));
+    }
+
+    @Test
+    public void testWindowClosedOnRandomReads() {
+        readSequentially(1, 0, 4);
+
+        assertEquals(0, readAhead.recordMiss(1, 10000));
+        assertEquals(0, readAhead.recordMiss(1, 42));
+        assertEquals(0, readAhead.recordMiss(1, 42));
+        assertEquals(0, readAhead.recordMiss(1, 7));
+
+        // reopened from the initial batch size by the next sequential read
+        assertEquals(Arrays.asList(8, 16), readSequentially(1, 8, 2));
+    }
+
+    @Test
+    public void testWindowWithinBounds() {
+        List<Integer> windows = readSequentially(1, 0, 20);
+        for (int i = 0; i < 20; i++) {
+            windows.add(readAhead.recordMiss(1, (i % 2 == 0) ? i * 1000 : i * 1000 + 1));
+        }
+        windows.addAll(readSequentially(1, 0, 20));
+        for (int window : windows) {
+            assertTrue(window >= 0 && window <= MAX_BATCH_SIZE);
+        }
+
+        // the max is at least the initial batch size
+        AdaptiveReadAhead smallReadAhead = new AdaptiveReadAhead(INITIAL_BATCH_SIZE, 2, true, ticker);
+        assertEquals(INITIAL_BATCH_SIZE, smallReadAhead.recordMiss(1, 0));
+        assertEquals(INITIAL_BATCH_SIZE, smallReadAhead.recordMiss(1, 1));
+    }
+
+    @Test
+    public void testLedgersTrackedSeparately() {
+        readSequentially(1, 0, 3);
+        assertEquals(INITIAL_BATCH_SIZE, readAhead.recordMiss(2, 1000));
+        assertEquals(0, readAhead.recordMiss(2, 10));
+
+        // the random reads of a ledger don't close the window of another
+        assertEquals(64, readAhead.recordMiss(1, 59));
+    }
+
+    @Test
+    public void testHitsOnUnknownLedgerIgnored() {
+        readAhead.recordHit(1, 100);
+        assertEquals(INITIAL_BATCH_SIZE, readAhead.recordMiss(1, 0));
+
+        // an earlier entry hitting the cache doesn't move the position back
+        readAhead.recordHit(1, 1);
+        readAhead.recordHit(1, 0);
+        assertEquals(2 * INITIAL_BATCH_SIZE, readAhead.recordMiss(1, 2));
+    }
+
+    @Test
+    public void testRemovedLedger() {
+        readSequentially(1, 0, 3);
+        readAhead.removeLedger(1);
+
+        // read again as a new ledger
+        assertEquals(INITIAL_BATCH_SIZE, readAhead.recordMiss(1, 10000));
+    }
+
+    @Test
+    public void testStaleLedgersRemoved() {
+        readSequentially(1, 0, 3);
+        readSequentially(2, 0, 3);
+
+        nowNanos.addAndGet(AdaptiveReadAhead.STALE_TIME_NANOS / 2);
+        readAhead.recordHit(2, 57);
+        nowNanos.addAndGet(AdaptiveReadAhead.STALE_TIME_NANOS / 2 + 1);
+        readAhead.removeStaleLedgers();
+
+        // the ledger 1 is forgotten, its next read is the first one again
+        assertEquals(INITIAL_BATCH_SIZE, readAhead.recordMiss(1, 10000));
+        // the ledger 2 keeps its pattern
+        assertEquals(0, readAhead.recordMiss(2, 10000));
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.nio.file.Files;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.DefaultEntryLogger;
+import org.apache.bookkeeper.bookie.TestBookieImpl;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.bookie.storage.directentrylogger.DirectEntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the selection of the entry logger of {@link DbLedgerStorage}.
+ */
+public class DbLedgerStorageEntryLoggerTest {
+
+    private File tmpDir;
+    private BookieImpl bookie;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("bkTest").toFile();
+        File curDir = BookieImpl.getCurrentDirectory(tmpDir);
+        BookieImpl.checkDirectoryStructure(curDir);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (bookie != null) {
+            bookie.getLedgerStorage().shutdown();
+        }
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    private DbLedgerStorage newStorage(ServerConfiguration conf) throws Exception {
+        conf.setLedgerStorageClass(DbLedgerStorage.class.getName());
+        conf.setJournalDirName(tmpDir.toString());
+        conf.setLedgerDirNames(new String[] { tmpDir.toString() });
+        bookie = new TestBookieImpl(conf);
+        return (DbLedgerStorage) bookie.getLedgerStorage();
+    }
+
+    private static void assertAddAndRead(DbLedgerStorage storage) throws Exception {
+        storage.setMasterKey(4, "key".getBytes(UTF_8));
+        ByteBuf entry = Unpooled.buffer(1024);
+        entry.writeLong(4); // ledger id
+        entry.writeLong(1); // entry id
+        entry.writeBytes("entry-1".getBytes(UTF_8));
+        storage.addEntry(entry);
+        storage.flush();
+
+        ByteBuf res = storage.getEntry(4, 1);
+        try {
+            assertEquals(entry, res);
+        } finally {
+            res.release();
+        }
+    }
+
+    @Test
+    public void testDefaultEntryLogger() throws Exception {
+        DbLedgerStorage storage = newStorage(TestBKConfiguration.newServerConfiguration());
+
+        for (SingleDirectoryDbLedgerStorage s : storage.getLedgerStorageList()) {
+            EntryLogger entryLogger = s.getEntryLogger();
+            assertTrue(entryLogger.getClass().getName(), entryLogger instanceof DefaultEntryLogger);
+        }
+        assertAddAndRead(storage);
+    }
+
+    @Test
+    public void testDirectIOEntryLogger() throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setProperty(DbLedgerStorage.DIRECT_IO_ENTRYLOGGER, true);
+        conf.setProperty(DbLedgerStorage.DIRECT_IO_ENTRYLOGGER_TOTAL_WRITEBUFFER_SIZE_MB, 8);
+        conf.setProperty(DbLedgerStorage.DIRECT_IO_ENTRYLOGGER_TOTAL_READBUFFER_SIZE_MB, 8);
+        conf.setProperty(DbLedgerStorage.DIRECT_IO_ENTRYLOGGER_READBUFFER_SIZE_MB, 1);
+        DbLedgerStorage storage = newStorage(conf);
+
+        for (SingleDirectoryDbLedgerStorage s : storage.getLedgerStorageList()) {
+            EntryLogger entryLogger = s.getEntryLogger();
+            assertTrue(entryLogger.getClass().getName(), entryLogger instanceof DirectEntryLogger);
+        }
+        assertAddAndRead(storage);
+    }
+}
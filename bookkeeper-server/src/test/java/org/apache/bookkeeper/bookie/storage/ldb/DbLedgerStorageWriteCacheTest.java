@@ -0,0 +1,268 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.AdditionalAnswers.delegatesTo;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.LedgerDirsManager;
+import org.apache.bookkeeper.bookie.TestBookieImpl;
+import org.apache.bookkeeper.bookie.storage.EntryLogger;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.stats.StatsLogger;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the flush pipeline of the write cache generations of {@link SingleDirectoryDbLedgerStorage}.
+ */
+public class DbLedgerStorageWriteCacheTest {
+
+    private static final int ENTRY_SIZE = 10 * 1024;
+
+    // Hooks of the entry logger flush, called on the thread appending a generation to the entry log
+    private static volatile CountDownLatch flushBlocker;
+    private static volatile Runnable beforeFlush;
+    private static final AtomicInteger flushFailuresToInject = new AtomicInteger();
+
+    /**
+     * DbLedgerStorage whose entry logger flush can be held, delayed or failed by the test.
+     */
+    public static class HookedDbLedgerStorage extends DbLedgerStorage {
+        @Override
+        protected SingleDirectoryDbLedgerStorage newSingleDirectoryDbLedgerStorage(ServerConfiguration conf,
+                LedgerManager ledgerManager, LedgerDirsManager ledgerDirsManager,
+                LedgerDirsManager indexDirsManager, EntryLogger entryLogger, StatsLogger statsLogger,
+                ScheduledExecutorService gcExecutor, CompactionScheduler compactionScheduler, long writeCacheSize,
+                long readCacheSize, long entryLocationCacheSize, int readAheadCacheBatchSize)
+                throws IOException {
+            EntryLogger hookedEntryLogger = mock(EntryLogger.class, delegatesTo(entryLogger));
+            doAnswer(invocation -> {
+                Runnable hook = beforeFlush;
+                if (hook != null) {
+                    hook.run();
+                }
+                CountDownLatch blocker = flushBlocker;
+                if (blocker != null) {
+                    blocker.await();
+                }
+                if (flushFailuresToInject.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                    throw new IOException("Injected flush failure");
+                }
+                entryLogger.flush();
+                return null;
+            }).when(hookedEntryLogger).flush();
+            return super.newSingleDirectoryDbLedgerStorage(conf, ledgerManager, ledgerDirsManager,
+                    indexDirsManager, hookedEntryLogger, statsLogger, gcExecutor, compactionScheduler,
+                    writeCacheSize, readCacheSize, entryLocationCacheSize, readAheadCacheBatchSize);
+        }
+    }
+
+    private File tmpDir;
+    private BookieImpl bookie;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("bkTest").toFile();
+        File curDir = BookieImpl.getCurrentDirectory(tmpDir);
+        BookieImpl.checkDirectoryStructure(curDir);
+        flushBlocker = null;
+        beforeFlush = null;
+        flushFailuresToInject.set(0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        CountDownLatch blocker = flushBlocker;
+        if (blocker != null) {
+            blocker.countDown();
+        }
+        beforeFlush = null;
+        if (bookie != null) {
+            bookie.getLedgerStorage().shutdown();
+        }
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    private DbLedgerStorage newStorage(Class<? extends DbLedgerStorage> storageClass) throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setLedgerStorageClass(storageClass.getName());
+        conf.setJournalDirName(tmpDir.toString());
+        conf.setLedgerDirNames(new String[] { tmpDir.toString() });
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_MAX_SIZE_MB, 1);
+        conf.setProperty(DbLedgerStorage.READ_AHEAD_CACHE_MAX_SIZE_MB, 1);
+        conf.setProperty(DbLedgerStorage.WRITE_CACHE_GENERATIONS, 3);
+        bookie = new TestBookieImpl(conf);
+        DbLedgerStorage storage = (DbLedgerStorage) bookie.getLedgerStorage();
+        storage.setMasterKey(1, "key".getBytes(UTF_8));
+        storage.setMasterKey(2, "key".getBytes(UTF_8));
+        return storage;
+    }
+
+    private static SingleDirectoryDbLedgerStorage single(DbLedgerStorage storage) {
+        return storage.getLedgerStorageList().get(0);
+    }
+
+    private static ByteBuf makeEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE, ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId + entryId + entry.writerIndex()));
+        }
+        return entry;
+    }
+
+    private static void assertEntry(DbLedgerStorage storage, long ledgerId, long entryId) throws Exception {
+        ByteBuf res = storage.getEntry(ledgerId, entryId);
+        try {
+            assertEquals(makeEntry(ledgerId, entryId), res);
+        } finally {
+            res.release();
+        }
+    }
+
+    /**
+     * Add entries until {@code generations} write caches are being flushed.
+     *
+     * @return the number of entries added
+     */
+    private static int addUntilFlushing(DbLedgerStorage storage, long ledgerId, int generations)
+            throws Exception {
+        int entryId = 0;
+        while (single(storage).writeCachesBeingFlushed.length < generations) {
+            assertTrue("The write cache was never rotated", entryId < 1000);
+            storage.addEntry(makeEntry(ledgerId, entryId++));
+        }
+        return entryId;
+    }
+
+    @Test
+    public void testEntriesReadableWhileFlushing() throws Exception {
+        flushBlocker = new CountDownLatch(1);
+        DbLedgerStorage storage = newStorage(HookedDbLedgerStorage.class);
+
+        // two generations wait for the entry logger, while the third write cache takes new entries
+        int numEntries = addUntilFlushing(storage, 1, 2);
+        storage.addEntry(makeEntry(1, numEntries++));
+        assertEquals(2, single(storage).writeCachesBeingFlushed.length);
+
+        for (int i = 0; i < numEntries; i++) {
+            assertEntry(storage, 1, i);
+        }
+
+        flushBlocker.countDown();
+        storage.flush();
+
+        assertEquals(0, single(storage).writeCachesBeingFlushed.length);
+        assertTrue(single(storage).writeCache.isEmpty());
+        for (int i = 0; i < numEntries; i++) {
+            assertEntry(storage, 1, i);
+        }
+    }
+
+    @Test
+    public void testFailedFlushIsRetried() throws Exception {
+        DbLedgerStorage storage = newStorage(HookedDbLedgerStorage.class);
+        for (int i = 0; i < 10; i++) {
+            storage.addEntry(makeEntry(1, i));
+        }
+
+        flushFailuresToInject.set(1);
+        try {
+            storage.flush();
+            fail("The flush should have failed");
+        } catch (IOException e) {
+            // expected
+        }
+
+        // the failed generation stays readable until it's flushed
+        assertEquals(1, single(storage).writeCachesBeingFlushed.length);
+        for (int i = 0; i < 10; i++) {
+            assertEntry(storage, 1, i);
+        }
+
+        storage.flush();
+        assertEquals(0, single(storage).writeCachesBeingFlushed.length);
+        for (int i = 0; i < 10; i++) {
+            assertEntry(storage, 1, i);
+        }
+    }
+
+    @Test
+    public void testShutdownDuringFlush() throws Exception {
+        DbLedgerStorage storage = newStorage(HookedDbLedgerStorage.class);
+        storage.addEntry(makeEntry(1, 0));
+
+        // While the shutdown flushes the write cache, rotate the next one, which the shutdown doesn't wait for,
+        // and make its flush slow, so that it's still going on once the shutdown is done with its own flush
+        CountDownLatch rotated = new CountDownLatch(1);
+        int[] flushedEntries = new int[1];
+        beforeFlush = () -> {
+            beforeFlush = () -> {
+                try {
+                    Thread.sleep(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            try {
+                // the entry which triggers the rotation goes in the new write cache, which is not flushed
+                flushedEntries[0] = addUntilFlushing(storage, 2, 2) - 1;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            rotated.countDown();
+        };
+
+        storage.shutdown();
+        bookie = null;
+        assertTrue(rotated.await(0, TimeUnit.SECONDS));
+        assertTrue(flushedEntries[0] > 0);
+
+        // the generation rotated during the shutdown was persisted before the entry logger and the indexes
+        // were closed
+        storage = newStorage(DbLedgerStorage.class);
+        assertEntry(storage, 1, 0);
+        for (int i = 0; i < flushedEntries[0]; i++) {
+            assertEntry(storage, 2, i);
+        }
+    }
+}
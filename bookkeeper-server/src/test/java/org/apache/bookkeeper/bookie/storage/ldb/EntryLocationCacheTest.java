@@ -0,0 +1,178 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.apache.bookkeeper.bookie.storage.ldb.EntryLocationCache.NOT_FOUND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link EntryLocationCache}.
+ */
+public class EntryLocationCacheTest {
+
+    // 16 sections of 1024 slots, each generation of a section holding up to 512 records
+    private static final long SMALL_CACHE_SIZE = 1024;
+    private static final int SMALL_CACHE_RECORDS = 16 * 1024;
+
+    // 16 sections of 16384 slots, scanned in several chunks by the ledgers removals
+    private static final long LARGE_CACHE_SIZE = 16 * 1024 * 1024;
+
+    private EntryLocationCache cache;
+
+    @After
+    public void tearDown() {
+        if (cache != null) {
+            cache.close();
+        }
+    }
+
+    private static long location(long ledgerId, long entryId) {
+        return (ledgerId << 32) + entryId + 1;
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        cache = new EntryLocationCache(UnpooledByteBufAllocator.DEFAULT, SMALL_CACHE_SIZE);
+        assertEquals(0, cache.count());
+        assertEquals(NOT_FOUND, cache.get(1, 0));
+
+        for (long entryId = 0; entryId < 100; entryId++) {
+            cache.put(1, entryId, location(1, entryId));
+        }
+        assertEquals(100, cache.count());
+        for (long entryId = 0; entryId < 100; entryId++) {
+            assertEquals(location(1, entryId), cache.get(1, entryId));
+        }
+        assertEquals(NOT_FOUND, cache.get(1, 100));
+        assertEquals(NOT_FOUND, cache.get(2, 0));
+
+        // an update overwrites the location
+        cache.put(1, 0, location(2, 0));
+        assertEquals(location(2, 0), cache.get(1, 0));
+        assertEquals(100, cache.count());
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        cache = new EntryLocationCache(UnpooledByteBufAllocator.DEFAULT, SMALL_CACHE_SIZE);
+
+        cache.putIfAbsent(1, 0, location(1, 0), cache.getVersion(1, 0));
+        assertEquals(location(1, 0), cache.get(1, 0));
+
+        // a location read from the storage doesn't replace the one of a later update
+        cache.put(1, 1, location(2, 1));
+        cache.putIfAbsent(1, 1, location(1, 1), cache.getVersion(1, 1));
+        assertEquals(location(2, 1), cache.get(1, 1));
+        assertEquals(2, cache.count());
+    }
+
+    @Test
+    public void testGenerationRollover() {
+        cache = new EntryLocationCache(UnpooledByteBufAllocator.DEFAULT, SMALL_CACHE_SIZE);
+
+        // several times the capacity, every section discards its oldest generation more than once
+        int numEntries = 4 * SMALL_CACHE_RECORDS;
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            cache.put(1, entryId, location(1, entryId));
+        }
+        assertTrue(cache.count() <= SMALL_CACHE_RECORDS);
+        assertTrue(cache.count() >= SMALL_CACHE_RECORDS / 4);
+
+        // the oldest locations are gone, the most recent ones are still there
+        for (long entryId = 0; entryId < 1000; entryId++) {
+            assertEquals(NOT_FOUND, cache.get(1, entryId));
+        }
+        for (long entryId = numEntries - 1000; entryId < numEntries; entryId++) {
+            assertEquals(location(1, entryId), cache.get(1, entryId));
+        }
+
+        // a location read again is added back
+        cache.putIfAbsent(1, 0, location(1, 0), cache.getVersion(1, 0));
+        assertEquals(location(1, 0), cache.get(1, 0));
+    }
+
+    @Test
+    public void testStaleLocationAfterRolloverNotAdded() {
+        cache = new EntryLocationCache(UnpooledByteBufAllocator.DEFAULT, SMALL_CACHE_SIZE);
+
+        // a reader misses the entry and takes the version before reading the old location from the storage
+        long version = cache.getVersion(1, 0);
+
+        // meanwhile the compaction moves the entry, and its new location is pushed out of the cache
+        cache.put(1, 0, location(2, 0));
+        for (long entryId = 0; entryId < 4 * SMALL_CACHE_RECORDS; entryId++) {
+            cache.put(3, entryId, location(3, entryId));
+        }
+        assertEquals(NOT_FOUND, cache.get(1, 0));
+
+        // the old location is not cached, the next lookup goes to the storage again
+        cache.putIfAbsent(1, 0, location(1, 0), version);
+        assertEquals(NOT_FOUND, cache.get(1, 0));
+
+        cache.putIfAbsent(1, 0, location(2, 0), cache.getVersion(1, 0));
+        assertEquals(location(2, 0), cache.get(1, 0));
+    }
+
+    @Test
+    public void testRemoveLedgers() {
+        cache = new EntryLocationCache(UnpooledByteBufAllocator.DEFAULT, LARGE_CACHE_SIZE);
+        int numEntries = 30000;
+        for (long ledgerId = 1; ledgerId <= 3; ledgerId++) {
+            for (long entryId = 0; entryId < numEntries; entryId++) {
+                cache.put(ledgerId, entryId, location(ledgerId, entryId));
+            }
+        }
+        assertEquals(3 * numEntries, cache.count());
+
+        cache.removeLedgers(ledgerId -> ledgerId == 1 || ledgerId == 3);
+        assertEquals(numEntries, cache.count());
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            assertEquals(NOT_FOUND, cache.get(1, entryId));
+            assertEquals(location(2, entryId), cache.get(2, entryId));
+            assertEquals(NOT_FOUND, cache.get(3, entryId));
+        }
+
+        // the removed records still let the probing reach the records after them
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            cache.put(4, entryId, location(4, entryId));
+        }
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            assertEquals(location(2, entryId), cache.get(2, entryId));
+            assertEquals(location(4, entryId), cache.get(4, entryId));
+        }
+    }
+
+    @Test
+    public void testLocationReadBeforeRemovalNotAdded() {
+        cache = new EntryLocationCache(UnpooledByteBufAllocator.DEFAULT, SMALL_CACHE_SIZE);
+        long version = cache.getVersion(1, 0);
+
+        cache.removeLedgers(ledgerId -> ledgerId == 1);
+        cache.putIfAbsent(1, 0, location(1, 0), version);
+        assertEquals(NOT_FOUND, cache.get(1, 0));
+        assertEquals(0, cache.count());
+    }
+}
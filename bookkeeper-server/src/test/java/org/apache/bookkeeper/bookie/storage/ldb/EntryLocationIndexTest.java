@@ -0,0 +1,197 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.apache.bookkeeper.bookie.EntryLocation;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the location cache of {@link EntryLocationIndex}, in front of the RocksDB storage.
+ */
+public class EntryLocationIndexTest {
+
+    private static final long LOCATION_CACHE_SIZE = 1024 * 1024;
+
+    private final ServerConfiguration conf = new ServerConfiguration();
+    private File tmpDir;
+    private KeyValueStorage locationsDb;
+    private EntryLocationIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("bkTest").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (index != null) {
+            index.close();
+        }
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    private EntryLocationIndex openIndex(long locationCacheSize) throws Exception {
+        if (index != null) {
+            index.close();
+        }
+        KeyValueStorageFactory storageFactory = (basePath, subPath, dbConfigType, dbConf) -> {
+            locationsDb = spy(KeyValueStorageRocksDB.factory.newKeyValueStorage(basePath, subPath, dbConfigType,
+                    dbConf));
+            return locationsDb;
+        };
+        index = new EntryLocationIndex(conf, storageFactory, tmpDir.getAbsolutePath(), NullStatsLogger.INSTANCE,
+                UnpooledByteBufAllocator.DEFAULT, locationCacheSize);
+        return index;
+    }
+
+    private void verifyStorageLookups(int lookups) throws Exception {
+        verify(locationsDb, times(lookups)).get(any(ByteBuffer.class), any(ByteBuffer.class));
+        clearInvocations(locationsDb);
+    }
+
+    @Test
+    public void testAddedLocationsHit() throws Exception {
+        openIndex(LOCATION_CACHE_SIZE);
+        for (long entryId = 0; entryId < 10; entryId++) {
+            index.addLocation(1, entryId, 100 + entryId);
+        }
+
+        for (long entryId = 0; entryId < 10; entryId++) {
+            assertEquals(100 + entryId, index.getLocation(1, entryId));
+        }
+        verifyStorageLookups(0);
+
+        // missing entries are looked up every time
+        assertEquals(0, index.getLocation(1, 10));
+        assertEquals(0, index.getLocation(1, 10));
+        verifyStorageLookups(2);
+    }
+
+    @Test
+    public void testStoredLocationsCachedOnFirstRead() throws Exception {
+        openIndex(LOCATION_CACHE_SIZE);
+        for (long entryId = 0; entryId < 10; entryId++) {
+            index.addLocation(1, entryId, 100 + entryId);
+        }
+
+        // the reopened index starts with an empty cache
+        openIndex(LOCATION_CACHE_SIZE);
+        for (long entryId = 0; entryId < 10; entryId++) {
+            assertEquals(100 + entryId, index.getLocation(1, entryId));
+        }
+        verifyStorageLookups(10);
+
+        for (long entryId = 0; entryId < 10; entryId++) {
+            assertEquals(100 + entryId, index.getLocation(1, entryId));
+        }
+        verifyStorageLookups(0);
+    }
+
+    @Test
+    public void testCacheDisabled() throws Exception {
+        openIndex(0);
+        index.addLocation(1, 0, 100);
+        assertEquals(100, index.getLocation(1, 0));
+        assertEquals(100, index.getLocation(1, 0));
+        verifyStorageLookups(2);
+    }
+
+    @Test
+    public void testUpdatedLocations() throws Exception {
+        openIndex(LOCATION_CACHE_SIZE);
+        index.addLocation(1, 0, 100);
+        index.addLocation(1, 1, 101);
+
+        // read from the storage, then moved by the compaction
+        openIndex(LOCATION_CACHE_SIZE);
+        assertEquals(100, index.getLocation(1, 0));
+        index.updateLocations(Collections.singletonList(new EntryLocation(1, 0, 200)));
+        index.updateLocations(Collections.singletonList(new EntryLocation(1, 1, 201)));
+        clearInvocations(locationsDb);
+
+        // the new locations replace the cached ones, and are cached themselves
+        assertEquals(200, index.getLocation(1, 0));
+        assertEquals(201, index.getLocation(1, 1));
+        verifyStorageLookups(0);
+
+        // and were written through to the storage
+        openIndex(LOCATION_CACHE_SIZE);
+        assertEquals(200, index.getLocation(1, 0));
+        assertEquals(201, index.getLocation(1, 1));
+    }
+
+    @Test
+    public void testDeletedLedgers() throws Exception {
+        openIndex(LOCATION_CACHE_SIZE);
+        for (long ledgerId = 1; ledgerId <= 2; ledgerId++) {
+            for (long entryId = 0; entryId < 10; entryId++) {
+                index.addLocation(ledgerId, entryId, ledgerId * 100 + entryId);
+            }
+        }
+
+        openIndex(LOCATION_CACHE_SIZE);
+        assertEquals(100, index.getLocation(1, 0));
+        index.delete(1);
+
+        // a location read between the deletion and the removal of the index is not cached
+        assertEquals(101, index.getLocation(1, 1));
+        verifyStorageLookups(2);
+
+        index.removeOffsetFromDeletedLedgers();
+        for (long entryId = 0; entryId < 10; entryId++) {
+            assertEquals(0, index.getLocation(1, entryId));
+        }
+        verifyStorageLookups(10);
+
+        for (long entryId = 0; entryId < 10; entryId++) {
+            assertEquals(200 + entryId, index.getLocation(2, entryId));
+        }
+    }
+
+    @Test
+    public void testCacheNotFilledWhileDeleted() throws Exception {
+        openIndex(LOCATION_CACHE_SIZE);
+        index.addLocation(1, 0, 100);
+
+        openIndex(LOCATION_CACHE_SIZE);
+        index.delete(1);
+        assertEquals(100, index.getLocation(1, 0));
+        assertEquals(100, index.getLocation(1, 0));
+        verifyStorageLookups(2);
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests the {@link ByteBuffer} methods of {@link KeyValueStorageRocksDB}, with direct and heap buffers.
+ */
+@RunWith(Parameterized.class)
+public class KeyValueStorageRocksDBTest {
+
+    // the keys and values are written in the middle of their buffers, between these filler bytes
+    private static final int PADDING = 5;
+    private static final byte FILLER = (byte) 0xAB;
+
+    @Parameters(name = "direct={0}")
+    public static Collection<Object[]> configs() {
+        return Arrays.asList(new Object[][] { { true }, { false } });
+    }
+
+    private final boolean direct;
+    private File tmpDir;
+    private KeyValueStorage db;
+
+    public KeyValueStorageRocksDBTest(boolean direct) {
+        this.direct = direct;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        tmpDir = Files.createTempDirectory("bkTest").toFile();
+        db = KeyValueStorageRocksDB.factory.newKeyValueStorage(tmpDir.getAbsolutePath(), "subDir",
+                DbConfigType.Default, new ServerConfiguration());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.close();
+        FileUtils.deleteDirectory(tmpDir);
+    }
+
+    /**
+     * Allocates a buffer of {@code size} bytes between its position and limit, surrounded with filler bytes.
+     */
+    private ByteBuffer buffer(int size) {
+        int capacity = PADDING + size + PADDING;
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        for (int i = 0; i < capacity; i++) {
+            buffer.put(i, FILLER);
+        }
+        buffer.position(PADDING).limit(PADDING + size);
+        return buffer;
+    }
+
+    private ByteBuffer toBuffer(long... values) {
+        ByteBuffer buffer = buffer(values.length * Long.BYTES);
+        for (int i = 0; i < values.length; i++) {
+            buffer.putLong(PADDING + i * Long.BYTES, values[i]);
+        }
+        return buffer;
+    }
+
+    private static byte[] toArray(long... values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Long.BYTES);
+        for (long value : values) {
+            buffer.putLong(value);
+        }
+        return buffer.array();
+    }
+
+    private static void assertFillerKept(ByteBuffer buffer, int size) {
+        for (int i = 0; i < PADDING; i++) {
+            assertEquals(FILLER, buffer.get(i));
+            assertEquals(FILLER, buffer.get(PADDING + size + i));
+        }
+    }
+
+    private long getLong(long key) throws Exception {
+        ByteBuffer value = buffer(Long.BYTES);
+        int res = db.get(toBuffer(key), value);
+        if (res < 0) {
+            return -1;
+        }
+        assertEquals(Long.BYTES, res);
+        assertEquals(PADDING, value.position());
+        assertEquals(PADDING + Long.BYTES, value.limit());
+        assertFillerKept(value, Long.BYTES);
+        return value.getLong(PADDING);
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        ByteBuffer key = toBuffer(1);
+        ByteBuffer value = toBuffer(100);
+        db.put(key, value);
+        assertFillerKept(key, Long.BYTES);
+        assertFillerKept(value, Long.BYTES);
+
+        assertEquals(100, getLong(1));
+        assertEquals(-1, getLong(2));
+
+        // the same records through the array methods
+        assertArrayEquals(toArray(100), db.get(toArray(1)));
+        db.put(toArray(2), toArray(200));
+        assertEquals(200, getLong(2));
+    }
+
+    @Test
+    public void testOverwrite() throws Exception {
+        db.put(toBuffer(1), toBuffer(100));
+        db.put(toBuffer(1), toBuffer(101));
+        assertEquals(101, getLong(1));
+    }
+
+    @Test
+    public void testGetIntoSmallerBuffer() throws Exception {
+        db.put(toBuffer(1), toBuffer(100, 200));
+
+        // only what fits is copied, the full length is returned
+        ByteBuffer value = buffer(Long.BYTES);
+        assertEquals(2 * Long.BYTES, db.get(toBuffer(1), value));
+        assertEquals(PADDING, value.position());
+        assertEquals(PADDING + Long.BYTES, value.limit());
+        assertEquals(100, value.getLong(PADDING));
+        assertFillerKept(value, Long.BYTES);
+
+        ByteBuffer largeValue = buffer(3 * Long.BYTES);
+        assertEquals(2 * Long.BYTES, db.get(toBuffer(1), largeValue));
+        assertEquals(PADDING, largeValue.position());
+        assertEquals(PADDING + 2 * Long.BYTES, largeValue.limit());
+        assertEquals(100, largeValue.getLong(PADDING));
+        assertEquals(200, largeValue.getLong(PADDING + Long.BYTES));
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        db.put(toBuffer(1), toBuffer(100));
+        db.put(toBuffer(2), toBuffer(200));
+
+        ByteBuffer key = toBuffer(1);
+        db.delete(key);
+        assertFillerKept(key, Long.BYTES);
+        assertEquals(-1, getLong(1));
+        assertNull(db.get(toArray(1)));
+        assertEquals(200, getLong(2));
+
+        // deleting a missing key is a no-op
+        db.delete(toBuffer(3));
+        assertEquals(200, getLong(2));
+    }
+
+    @Test
+    public void testFloorAndCeilKeys() throws Exception {
+        for (long key = 10; key <= 30; key += 10) {
+            db.put(toBuffer(key), toBuffer(key * 10));
+        }
+
+        ByteBuffer floorKey = buffer(Long.BYTES);
+        assertEquals(Long.BYTES, db.getFloorKey(toBuffer(25), floorKey));
+        assertEquals(20, floorKey.getLong(PADDING));
+        assertFillerKept(floorKey, Long.BYTES);
+
+        // the supplied key is excluded
+        floorKey = buffer(Long.BYTES);
+        assertEquals(Long.BYTES, db.getFloorKey(toBuffer(20), floorKey));
+        assertEquals(PADDING, floorKey.position());
+        assertEquals(10, floorKey.getLong(PADDING));
+        assertEquals(-1, db.getFloorKey(toBuffer(10), buffer(Long.BYTES)));
+
+        ByteBuffer ceilKey = buffer(Long.BYTES);
+        assertEquals(Long.BYTES, db.getCeilKey(toBuffer(20), ceilKey));
+        assertEquals(20, ceilKey.getLong(PADDING));
+        ceilKey = buffer(Long.BYTES);
+        assertEquals(Long.BYTES, db.getCeilKey(toBuffer(21), ceilKey));
+        assertEquals(PADDING, ceilKey.position());
+        assertEquals(30, ceilKey.getLong(PADDING));
+        assertFillerKept(ceilKey, Long.BYTES);
+        assertEquals(-1, db.getCeilKey(toBuffer(31), buffer(Long.BYTES)));
+    }
+
+    @Test
+    public void testBatch() throws Exception {
+        db.put(toBuffer(1), toBuffer(100));
+
+        try (KeyValueStorage.Batch batch = db.newBatch()) {
+            batch.put(toBuffer(2), toBuffer(200));
+            batch.put(toBuffer(3), toBuffer(300));
+            batch.remove(toBuffer(1));
+            assertEquals(100, getLong(1));
+            batch.flush();
+        }
+
+        assertEquals(-1, getLong(1));
+        assertEquals(200, getLong(2));
+        assertEquals(300, getLong(3));
+    }
+}
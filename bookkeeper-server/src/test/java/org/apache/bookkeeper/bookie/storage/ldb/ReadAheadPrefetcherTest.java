@@ -0,0 +1,285 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.TestBookieImpl;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.Counter;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ReadAheadPrefetcher}.
+ */
+public class ReadAheadPrefetcherTest {
+
+    private static class TestCounter implements Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        @Override
+        public void clear() {
+            value.set(0);
+        }
+
+        @Override
+        public void inc() {
+            value.incrementAndGet();
+        }
+
+        @Override
+        public void dec() {
+            value.decrementAndGet();
+        }
+
+        @Override
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        @Override
+        public Long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Records the read-aheads, each of them blocking until it is released.
+     */
+    private static class BlockingTask implements ReadAheadPrefetcher.Task {
+        final List<Long> ledgers = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        volatile CountDownLatch started = new CountDownLatch(1);
+
+        @Override
+        public void readAhead(long ledgerId, long firstEntryId, long firstEntryLocation, int maxCount) {
+            ledgers.add(ledgerId);
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final TestCounter dropped = new TestCounter();
+    private final TestCounter deduplicated = new TestCounter();
+    private DbLedgerStorageStats stats;
+    private File tmpDir;
+    private BookieImpl bookie;
+
+    @Before
+    public void setUp() throws Exception {
+        stats = mock(DbLedgerStorageStats.class);
+        when(stats.getReadAheadDroppedCounter()).thenReturn(dropped);
+        when(stats.getReadAheadDeduplicatedCounter()).thenReturn(deduplicated);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (bookie != null) {
+            bookie.getLedgerStorage().shutdown();
+        }
+        if (tmpDir != null) {
+            FileUtils.deleteDirectory(tmpDir);
+        }
+    }
+
+    @Test
+    public void testReadAheadOnCallerThread() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(0, 0,
+                (ledgerId, firstEntryId, firstEntryLocation, maxCount) -> threads.add(Thread.currentThread()),
+                stats);
+        prefetcher.readAhead(1, 1, 0, 10);
+        prefetcher.readAhead(1, 1, 0, 10);
+        assertEquals(Arrays.asList(Thread.currentThread(), Thread.currentThread()), threads);
+        assertEquals(0L, (long) deduplicated.get());
+        prefetcher.shutdown();
+    }
+
+    @Test
+    public void testReadAheadFillsCache() throws Exception {
+        ReadCache readCache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 1024 * 1024);
+        CountDownLatch done = new CountDownLatch(1);
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(1, 16,
+                (ledgerId, firstEntryId, firstEntryLocation, maxCount) -> {
+                    for (long entryId = firstEntryId; entryId < firstEntryId + maxCount; entryId++) {
+                        ByteBuf entry = Unpooled.buffer(64);
+                        entry.writeLong(ledgerId).writeLong(entryId).writeZero(48);
+                        readCache.put(ledgerId, entryId, entry);
+                        entry.release();
+                    }
+                    done.countDown();
+                }, stats);
+        try {
+            prefetcher.readAhead(1, 1, 0, 10);
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            for (long entryId = 1; entryId <= 10; entryId++) {
+                assertTrue(readCache.hasEntry(1, entryId));
+            }
+            assertFalse(readCache.hasEntry(1, 11));
+        } finally {
+            prefetcher.shutdown();
+            readCache.close();
+        }
+    }
+
+    @Test
+    public void testDuplicateReadAheadsSkipped() throws Exception {
+        BlockingTask task = new BlockingTask();
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(2, 16, task, stats);
+        try {
+            prefetcher.readAhead(1, 1, 0, 10);
+            assertTrue(task.started.await(10, TimeUnit.SECONDS));
+
+            // the ledger 1 already has a read-ahead running
+            prefetcher.readAhead(1, 11, 0, 10);
+            prefetcher.readAhead(1, 21, 0, 10);
+            assertEquals(2L, (long) deduplicated.get());
+
+            task.started = new CountDownLatch(1);
+            prefetcher.readAhead(2, 1, 0, 10);
+            assertTrue(task.started.await(10, TimeUnit.SECONDS));
+            assertEquals(2L, (long) deduplicated.get());
+        } finally {
+            task.release.countDown();
+            prefetcher.shutdown();
+        }
+        assertEquals(Arrays.asList(1L, 2L), task.ledgers);
+    }
+
+    @Test
+    public void testReadAheadDroppedWhenQueueFull() throws Exception {
+        BlockingTask task = new BlockingTask();
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(1, 1, task, stats);
+        prefetcher.readAhead(1, 1, 0, 10);
+        assertTrue(task.started.await(10, TimeUnit.SECONDS));
+        prefetcher.readAhead(2, 1, 0, 10);
+        prefetcher.readAhead(3, 1, 0, 10);
+        assertEquals(1L, (long) dropped.get());
+
+        task.release.countDown();
+        while (task.ledgers.size() < 2) {
+            Thread.sleep(1);
+        }
+        // the dropped ledger is not left as pending
+        prefetcher.readAhead(3, 1, 0, 10);
+        while (task.ledgers.size() < 3) {
+            Thread.sleep(1);
+        }
+        prefetcher.shutdown();
+        assertEquals(Arrays.asList(1L, 2L, 3L), task.ledgers);
+        assertEquals(0L, (long) deduplicated.get());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        BlockingTask task = new BlockingTask();
+        ReadAheadPrefetcher prefetcher = new ReadAheadPrefetcher(1, 16, task, stats);
+        prefetcher.readAhead(1, 1, 0, 10);
+        assertTrue(task.started.await(10, TimeUnit.SECONDS));
+        prefetcher.readAhead(2, 1, 0, 10);
+
+        CountDownLatch shutdown = new CountDownLatch(1);
+        Thread shutdownThread = new Thread(() -> {
+            try {
+                prefetcher.shutdown();
+                shutdown.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "readahead-shutdown");
+        shutdownThread.start();
+
+        // the running read-ahead is waited for, rather than interrupted
+        assertFalse(shutdown.await(2, TimeUnit.SECONDS));
+        task.release.countDown();
+        assertTrue(shutdown.await(10, TimeUnit.SECONDS));
+        shutdownThread.join();
+        assertFalse(task.interrupted.get());
+
+        // the pending read-ahead was dropped, and no more are run
+        prefetcher.readAhead(3, 1, 0, 10);
+        assertEquals(Collections.singletonList(1L), task.ledgers);
+        assertEquals(1L, (long) dropped.get());
+    }
+
+    @Test
+    public void testReadAheadFillsStorageReadCache() throws Exception {
+        tmpDir = Files.createTempDirectory("bkTest").toFile();
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(tmpDir));
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setLedgerStorageClass(DbLedgerStorage.class.getName());
+        conf.setJournalDirName(tmpDir.toString());
+        conf.setLedgerDirNames(new String[] { tmpDir.toString() });
+        bookie = new TestBookieImpl(conf);
+        DbLedgerStorage storage = (DbLedgerStorage) bookie.getLedgerStorage();
+
+        int numEntries = 20;
+        storage.setMasterKey(4, "key".getBytes(UTF_8));
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            ByteBuf entry = Unpooled.buffer(1024);
+            entry.writeLong(4); // ledger id
+            entry.writeLong(entryId);
+            entry.writeBytes(("entry-" + entryId).getBytes(UTF_8));
+            storage.addEntry(entry);
+        }
+        storage.flush();
+
+        // the first read misses the read cache, the following entries are read ahead in the background
+        storage.getEntry(4, 0).release();
+        ReadCachePolicy readCache = storage.getLedgerStorageList().get(0).getReadCache();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!readCache.hasEntry(4, numEntries - 1) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        for (long entryId = 1; entryId < numEntries; entryId++) {
+            assertTrue(readCache.hasEntry(4, entryId));
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ReadCache}.
+ */
+public class ReadCacheTest {
+
+    // ledgerId, entryId and entry length stored in front of each entry
+    private static final int ENTRY_HEADER_SIZE = 20;
+
+    private static ByteBuf makeEntry(long ledgerId, long entryId, int size) {
+        ByteBuf entry = Unpooled.buffer(size, size);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId * 31 + entryId + entry.writerIndex()));
+        }
+        return entry;
+    }
+
+    private static int cachedSize(int entrySize) {
+        return WriteCache.align64(ENTRY_HEADER_SIZE + entrySize);
+    }
+
+    @Test
+    public void simple() {
+        ReadCache cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 10 * 1024);
+
+        assertEquals(0, cache.count());
+        assertEquals(0, cache.size());
+
+        ByteBuf entry = makeEntry(1, 0, 1024);
+        assertTrue(cache.put(1, 0, entry));
+
+        assertEquals(1, cache.count());
+        assertEquals(cachedSize(1024), cache.size());
+
+        assertEquals(entry, cache.get(1, 0));
+        assertTrue(cache.hasEntry(1, 0));
+        assertNull(cache.get(1, 1));
+        assertFalse(cache.hasEntry(1, 1));
+        assertNull(cache.get(2, 0));
+
+        for (int i = 1; i < 4; i++) {
+            cache.put(1, i, makeEntry(1, i, 1024));
+        }
+
+        assertEquals(4, cache.count());
+        assertEquals(4 * cachedSize(1024), cache.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(makeEntry(1, i, 1024), cache.get(1, i));
+        }
+
+        cache.close();
+    }
+
+    @Test
+    public void emptyCache() {
+        ReadCache cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 10 * 1024);
+
+        assertEquals(0, cache.count());
+        assertEquals(0, cache.size());
+        assertNull(cache.get(0, 0));
+        assertFalse(cache.hasEntry(0, 0));
+
+        cache.close();
+    }
+
+    @Test
+    public void entryTooBig() {
+        ReadCache cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 8 * 1024, 4 * 1024, 1);
+
+        // the header of the entry doesn't fit in the segment with it
+        assertFalse(cache.put(1, 0, makeEntry(1, 0, 4 * 1024)));
+        assertEquals(0, cache.count());
+        assertNull(cache.get(1, 0));
+
+        assertTrue(cache.put(1, 1, makeEntry(1, 1, 4 * 1024 - 64)));
+        assertEquals(1, cache.count());
+
+        cache.close();
+    }
+
+    @Test
+    public void rolloverEvictsOldestSegment() {
+        // 2 segments of 4 entries each
+        ReadCache cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 8 * 1024, 4 * 1024, 1);
+        int entrySize = 1024 - ENTRY_HEADER_SIZE;
+
+        for (int i = 0; i < 8; i++) {
+            assertTrue(cache.put(1, i, makeEntry(1, i, entrySize)));
+        }
+        assertEquals(8, cache.count());
+        assertEquals(8 * 1024, cache.size());
+
+        // the first segment is reused, its entries go away
+        assertTrue(cache.put(1, 8, makeEntry(1, 8, entrySize)));
+        assertEquals(5, cache.count());
+        for (int i = 0; i < 4; i++) {
+            assertNull(cache.get(1, i));
+            assertFalse(cache.hasEntry(1, i));
+        }
+        for (int i = 4; i < 9; i++) {
+            assertEquals(makeEntry(1, i, entrySize), cache.get(1, i));
+        }
+
+        // then the second one
+        for (int i = 9; i < 13; i++) {
+            assertTrue(cache.put(1, i, makeEntry(1, i, entrySize)));
+        }
+        assertEquals(5, cache.count());
+        for (int i = 0; i < 8; i++) {
+            assertNull(cache.get(1, i));
+        }
+        for (int i = 8; i < 13; i++) {
+            assertEquals(makeEntry(1, i, entrySize), cache.get(1, i));
+        }
+
+        cache.close();
+    }
+
+    @Test
+    public void reinsertAfterEviction() {
+        ReadCache cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 8 * 1024, 4 * 1024, 1);
+        int entrySize = 1024 - ENTRY_HEADER_SIZE;
+
+        for (int i = 0; i < 9; i++) {
+            cache.put(1, i, makeEntry(1, i, entrySize));
+        }
+        assertNull(cache.get(1, 0));
+
+        // an entry cached again points to its new copy, which must survive the eviction of its old segment
+        cache.put(1, 4, makeEntry(1, 4, entrySize));
+        for (int i = 9; i < 12; i++) {
+            cache.put(1, i, makeEntry(1, i, entrySize));
+        }
+        assertEquals(makeEntry(1, 4, entrySize), cache.get(1, 4));
+
+        cache.close();
+    }
+
+    @Test
+    public void markAccessed() {
+        ReadCache cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 8 * 1024, 4 * 1024, 1);
+        int entrySize = 1024 - ENTRY_HEADER_SIZE;
+
+        assertFalse(cache.markAccessed(1, 0));
+        cache.put(1, 0, makeEntry(1, 0, entrySize));
+        assertFalse(cache.markAccessed(1, 0));
+        assertTrue(cache.markAccessed(1, 0));
+        assertTrue(cache.markAccessed(1, 0));
+        assertEquals(makeEntry(1, 0, entrySize), cache.get(1, 0));
+
+        // an entry cached again starts unmarked
+        cache.put(1, 0, makeEntry(1, 0, entrySize));
+        assertFalse(cache.markAccessed(1, 0));
+
+        // marked entries are evicted with their segment
+        cache.put(1, 1, makeEntry(1, 1, entrySize));
+        cache.markAccessed(1, 1);
+        for (int i = 2; i < 9; i++) {
+            cache.put(1, i, makeEntry(1, i, entrySize));
+        }
+        assertNull(cache.get(1, 0));
+        assertNull(cache.get(1, 1));
+        assertFalse(cache.markAccessed(1, 1));
+        assertEquals(6, cache.count());
+
+        cache.close();
+    }
+
+    @Test
+    public void remove() {
+        ReadCache cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 8 * 1024, 4 * 1024, 1);
+        int entrySize = 1024 - ENTRY_HEADER_SIZE;
+
+        for (int i = 0; i < 4; i++) {
+            cache.put(1, i, makeEntry(1, i, entrySize));
+        }
+        assertTrue(cache.remove(1, 1));
+        assertFalse(cache.remove(1, 1));
+        assertFalse(cache.remove(2, 0));
+        assertNull(cache.get(1, 1));
+        assertFalse(cache.hasEntry(1, 1));
+        assertEquals(3, cache.count());
+
+        // the segment still goes away as a whole
+        for (int i = 4; i < 9; i++) {
+            cache.put(1, i, makeEntry(1, i, entrySize));
+        }
+        assertEquals(5, cache.count());
+
+        cache.close();
+    }
+
+    @Test
+    public void multipleShards() {
+        ReadCache cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 64 * 1024, 4 * 1024, 4);
+
+        for (long ledgerId = 0; ledgerId < 8; ledgerId++) {
+            for (long entryId = 0; entryId < 4; entryId++) {
+                assertTrue(cache.put(ledgerId, entryId, makeEntry(ledgerId, entryId, 100)));
+            }
+        }
+
+        assertEquals(32, cache.count());
+        assertEquals(32 * cachedSize(100), cache.size());
+        for (long ledgerId = 0; ledgerId < 8; ledgerId++) {
+            for (long entryId = 0; entryId < 4; entryId++) {
+                assertEquals(makeEntry(ledgerId, entryId, 100), cache.get(ledgerId, entryId));
+            }
+        }
+
+        cache.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shardsCountMustBePowerOfTwo() {
+        new ReadCache(UnpooledByteBufAllocator.DEFAULT, 64 * 1024, 4 * 1024, 3);
+    }
+
+    @Test
+    public void concurrentWriters() throws Exception {
+        int numThreads = 8;
+        int entriesPerThread = 1000;
+        // large enough to hold all the entries, so that none is evicted
+        ReadCache cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 8 * 1024 * 1024, 1024 * 1024, 2);
+
+        CyclicBarrier barrier = new CyclicBarrier(numThreads);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final long ledgerId = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    barrier.await();
+                    for (int i = 0; i < entriesPerThread; i++) {
+                        assertTrue(cache.put(ledgerId, i, makeEntry(ledgerId, i, 100 + i % 200)));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+
+        assertEquals(numThreads * entriesPerThread, cache.count());
+        for (long ledgerId = 0; ledgerId < numThreads; ledgerId++) {
+            for (int i = 0; i < entriesPerThread; i++) {
+                assertEquals(makeEntry(ledgerId, i, 100 + i % 200), cache.get(ledgerId, i));
+            }
+        }
+
+        cache.close();
+    }
+
+    @Test
+    public void concurrentReadsDuringRollover() throws Exception {
+        // small segments, so that the writers keep recycling the segments the readers are reading from
+        ReadCache cache = new ReadCache(UnpooledByteBufAllocator.DEFAULT, 64 * 1024, 16 * 1024, 1);
+        int numWriters = 2;
+        int numReaders = 4;
+        int entriesPerWriter = 20000;
+        int entrySize = 200;
+
+        AtomicBoolean writersDone = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicLong hits = new AtomicLong();
+        AtomicLong[] lastWritten = new AtomicLong[numWriters];
+        List<Thread> writers = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+
+        for (int w = 0; w < numWriters; w++) {
+            final long ledgerId = w;
+            lastWritten[w] = new AtomicLong(-1);
+            writers.add(new Thread(() -> {
+                try {
+                    for (long entryId = 0; entryId < entriesPerWriter; entryId++) {
+                        cache.put(ledgerId, entryId, makeEntry(ledgerId, entryId, entrySize));
+                        lastWritten[(int) ledgerId].set(entryId);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+
+        for (int r = 0; r < numReaders; r++) {
+            readers.add(new Thread(() -> {
+                try {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (!writersDone.get()) {
+                        long ledgerId = random.nextInt(numWriters);
+                        long last = lastWritten[(int) ledgerId].get();
+                        if (last < 0) {
+                            continue;
+                        }
+                        // mostly read entries which are about to be evicted
+                        long entryId = Math.max(0, last - random.nextInt(200));
+                        ByteBuf entry = cache.get(ledgerId, entryId);
+                        if (entry != null) {
+                            // a reader may miss an entry, but never see the content of another one
+                            assertEquals(makeEntry(ledgerId, entryId, entrySize), entry);
+                            entry.release();
+                            hits.incrementAndGet();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }));
+        }
+
+        readers.forEach(Thread::start);
+        writers.forEach(Thread::start);
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        writersDone.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        if (failure.get() != null) {
+            throw new AssertionError("Failure in concurrent access", failure.get());
+        }
+        assertTrue(hits.get() > 0);
+
+        // the index only points to entries which are still in the cache
+        assertTrue(cache.size() <= 64 * 1024);
+        for (int w = 0; w < numWriters; w++) {
+            long last = entriesPerWriter - 1;
+            ByteBuf entry = cache.get(w, last);
+            assertNotNull(entry);
+            assertEquals(makeEntry(w, last, entrySize), entry);
+        }
+        assertEquals(countCached(cache, numWriters, entriesPerWriter), cache.count());
+
+        cache.close();
+    }
+
+    private static long countCached(ReadCache cache, int numLedgers, int numEntries) {
+        long count = 0;
+        for (long ledgerId = 0; ledgerId < numLedgers; ledgerId++) {
+            for (long entryId = 0; entryId < numEntries; entryId++) {
+                if (cache.hasEntry(ledgerId, entryId)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.Counter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ScanResistantReadCachePolicy}.
+ */
+public class ScanResistantReadCachePolicyTest {
+
+    // cached with its header in 1088 bytes: 4 entries per segment of the read-ahead cache, 14 in the main cache
+    private static final int ENTRY_SIZE = 1024;
+    private static final long CACHE_SIZE = 40 * 1024;
+
+    // entries loaded on each miss, only the requested one goes to the main cache
+    private static final int READ_AHEAD_BATCH = 100;
+
+    private static final long HOT_LEDGER = 1;
+    private static final long SCANNED_LEDGER = 2;
+
+    private static class TestCounter implements Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        @Override
+        public void clear() {
+            value.set(0);
+        }
+
+        @Override
+        public void inc() {
+            value.incrementAndGet();
+        }
+
+        @Override
+        public void dec() {
+            value.decrementAndGet();
+        }
+
+        @Override
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        @Override
+        public Long get() {
+            return value.get();
+        }
+    }
+
+    private static class TestStats implements ReadCachePolicy.Stats {
+        final TestCounter admitted = new TestCounter();
+        final TestCounter rejected = new TestCounter();
+        final TestCounter evicted = new TestCounter();
+        final TestCounter promoted = new TestCounter();
+        final TestCounter readAheadHits = new TestCounter();
+
+        @Override
+        public Counter getReadCacheAdmittedCounter() {
+            return admitted;
+        }
+
+        @Override
+        public Counter getReadCacheRejectedCounter() {
+            return rejected;
+        }
+
+        @Override
+        public Counter getReadCacheEvictedCounter() {
+            return evicted;
+        }
+
+        @Override
+        public Counter getReadCachePromotedCounter() {
+            return promoted;
+        }
+
+        @Override
+        public Counter getReadAheadCacheHitCounter() {
+            return readAheadHits;
+        }
+    }
+
+    private TestStats stats;
+    private ScanResistantReadCachePolicy cache;
+
+    private static ByteBuf makeEntry(long ledgerId, long entryId) {
+        ByteBuf entry = Unpooled.buffer(ENTRY_SIZE, ENTRY_SIZE);
+        entry.writeLong(ledgerId);
+        entry.writeLong(entryId);
+        while (entry.isWritable()) {
+            entry.writeByte((int) (ledgerId * 31 + entryId + entry.writerIndex()));
+        }
+        return entry;
+    }
+
+    @Before
+    public void setup() {
+        stats = new TestStats();
+        cache = new ScanResistantReadCachePolicy();
+        cache.initialize(new ServerConfiguration(), UnpooledByteBufAllocator.DEFAULT, CACHE_SIZE, stats);
+    }
+
+    @After
+    public void teardown() {
+        cache.close();
+    }
+
+    /**
+     * Reads each entry of a ledger once, as a catch-up reader does.
+     */
+    private void scan(long ledgerId, int numEntries) {
+        for (int entryId = 0; entryId < numEntries; entryId++) {
+            if (!cache.hasEntry(ledgerId, entryId)) {
+                boolean readAhead = entryId % READ_AHEAD_BATCH != 0;
+                assertTrue(cache.put(ledgerId, entryId, makeEntry(ledgerId, entryId), readAhead));
+            }
+            assertEquals(makeEntry(ledgerId, entryId), cache.get(ledgerId, entryId));
+        }
+    }
+
+    @Test
+    public void testScanDoesNotEvictHotSet() {
+        for (int entryId = 0; entryId < 10; entryId++) {
+            cache.put(HOT_LEDGER, entryId, makeEntry(HOT_LEDGER, entryId), false);
+        }
+
+        // the scanned entries are read once, they stay in the read-ahead cache and are evicted from it
+        scan(SCANNED_LEDGER, 1000);
+        assertEquals(1000 - 1000 / READ_AHEAD_BATCH, stats.readAheadHits.get().longValue());
+        assertEquals(0, stats.promoted.get().longValue());
+        assertTrue(stats.evicted.get() > 0);
+        assertFalse(cache.hasEntry(SCANNED_LEDGER, 1));
+
+        // served by the main cache
+        for (int entryId = 0; entryId < 10; entryId++) {
+            assertEquals(makeEntry(HOT_LEDGER, entryId), cache.get(HOT_LEDGER, entryId));
+        }
+        assertEquals(1000 - 1000 / READ_AHEAD_BATCH, stats.readAheadHits.get().longValue());
+    }
+
+    @Test
+    public void testPromotedOnSecondAccess() {
+        ByteBuf entry = makeEntry(HOT_LEDGER, 0);
+        cache.put(HOT_LEDGER, 0, entry, true);
+        assertEquals(1, cache.count());
+
+        assertEquals(entry, cache.get(HOT_LEDGER, 0));
+        assertEquals(1, stats.readAheadHits.get().longValue());
+        assertEquals(0, stats.promoted.get().longValue());
+
+        // moved to the main cache, rather than copied
+        assertEquals(entry, cache.get(HOT_LEDGER, 0));
+        assertEquals(2, stats.readAheadHits.get().longValue());
+        assertEquals(1, stats.promoted.get().longValue());
+        assertEquals(1, cache.count());
+
+        assertEquals(entry, cache.get(HOT_LEDGER, 0));
+        assertEquals(2, stats.readAheadHits.get().longValue());
+        assertEquals(1, stats.promoted.get().longValue());
+
+        // the promoted entry outlives a scan
+        scan(SCANNED_LEDGER, 200);
+        assertEquals(entry, cache.get(HOT_LEDGER, 0));
+    }
+
+    @Test
+    public void testScanReadTwiceIsPromoted() {
+        // a ledger read again while its entries are still in the read-ahead cache
+        for (int entryId = 0; entryId < 4; entryId++) {
+            cache.put(SCANNED_LEDGER, entryId, makeEntry(SCANNED_LEDGER, entryId), true);
+            cache.get(SCANNED_LEDGER, entryId);
+        }
+        for (int entryId = 0; entryId < 4; entryId++) {
+            assertNotNull(cache.get(SCANNED_LEDGER, entryId));
+        }
+        assertEquals(4, stats.promoted.get().longValue());
+
+        scan(SCANNED_LEDGER + 1, 200);
+        for (int entryId = 0; entryId < 4; entryId++) {
+            assertEquals(makeEntry(SCANNED_LEDGER, entryId), cache.get(SCANNED_LEDGER, entryId));
+        }
+    }
+
+    @Test
+    public void testEntryTooBigForMainCacheStaysInReadAheadCache() {
+        ScanResistantReadCachePolicy smallCache = new ScanResistantReadCachePolicy();
+        ServerConfiguration conf = new ServerConfiguration();
+        conf.setProperty(DbLedgerStorage.READ_CACHE_READ_AHEAD_FRACTION, 0.75);
+        smallCache.initialize(conf, UnpooledByteBufAllocator.DEFAULT, 8 * 1024, new TestStats());
+        try {
+            // the main cache has segments of 1 KB, the read-ahead cache of 3 KB
+            ByteBuf entry = Unpooled.wrappedBuffer(new byte[2000]);
+            assertTrue(smallCache.put(HOT_LEDGER, 0, entry, true));
+            assertEquals(entry, smallCache.get(HOT_LEDGER, 0));
+            assertEquals(entry, smallCache.get(HOT_LEDGER, 0));
+            assertEquals(entry, smallCache.get(HOT_LEDGER, 0));
+            assertTrue(smallCache.hasEntry(HOT_LEDGER, 0));
+        } finally {
+            smallCache.close();
+        }
+    }
+}
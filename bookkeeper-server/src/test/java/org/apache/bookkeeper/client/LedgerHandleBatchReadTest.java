@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.client;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.client.api.LedgerEntries;
+import org.apache.bookkeeper.client.api.LedgerEntry;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieClient;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.BatchedReadEntryCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Tests which reads of a {@link LedgerHandle} go through batched reads, and the fallback to regular reads when the
+ * bookies can't serve them.
+ */
+public class LedgerHandleBatchReadTest {
+
+    private static final long LEDGER_ID = 1L;
+    private static final byte[] PASSWORD = new byte[0];
+    private static final int NUM_ENTRIES = 5;
+
+    private OrderedExecutor mainWorkerPool;
+    private OrderedScheduler scheduler;
+    private BookieClient bookieClient;
+    // the number of entries the bookies return to each batched read, and the first entry they fail to batch read
+    private volatile int batchSize = NUM_ENTRIES;
+    private volatile long failBatchedReadsFrom = Long.MAX_VALUE;
+    private final AtomicInteger numBatchedReads = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        mainWorkerPool = OrderedExecutor.newBuilder().name("test-worker").numThreads(1).build();
+        scheduler = OrderedScheduler.newSchedulerBuilder().name("test-scheduler").numThreads(1).build();
+        bookieClient = mock(BookieClient.class);
+    }
+
+    @After
+    public void tearDown() {
+        mainWorkerPool.shutdown();
+        scheduler.shutdown();
+    }
+
+    private static byte[] data(long entryId) {
+        return ("entry-" + entryId).getBytes(UTF_8);
+    }
+
+    private LedgerHandle createHandle(ClientConfiguration conf, int ensembleSize, int writeQuorumSize)
+            throws Exception {
+        ClientContext clientCtx = mock(ClientContext.class);
+        when(clientCtx.getConf()).thenReturn(ClientInternalConf.fromConfig(conf.setThrottleValue(0)));
+        when(clientCtx.getBookieClient()).thenReturn(bookieClient);
+        when(clientCtx.getLedgerManager()).thenReturn(mock(LedgerManager.class));
+        when(clientCtx.getByteBufAllocator()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+        when(clientCtx.getMainWorkerPool()).thenReturn(mainWorkerPool);
+        when(clientCtx.getScheduler()).thenReturn(scheduler);
+        when(clientCtx.getClientStats()).thenReturn(BookKeeperClientStats.newInstance(NullStatsLogger.INSTANCE));
+
+        List<BookieId> ensemble = new ArrayList<>();
+        for (int i = 0; i < ensembleSize; i++) {
+            ensemble.add(BookieId.parse("bookie-" + i + ":3181"));
+        }
+        LedgerMetadata metadata = LedgerMetadataBuilder.create()
+                .withId(LEDGER_ID)
+                .withEnsembleSize(ensembleSize).withWriteQuorumSize(writeQuorumSize).withAckQuorumSize(2)
+                .withPassword(PASSWORD)
+                .withDigestType(BookKeeper.DigestType.CRC32C.toApiDigestType())
+                .newEnsembleEntry(0L, ensemble)
+                .build();
+        LedgerHandle lh = new LedgerHandle(clientCtx, LEDGER_ID, new Versioned<>(metadata, new LongVersion(0L)),
+                BookKeeper.DigestType.CRC32C, PASSWORD, WriteFlag.NONE);
+        mockBookies(lh);
+        return lh;
+    }
+
+    private ByteBuf packageEntry(LedgerHandle lh, long entryId) {
+        byte[] data = data(entryId);
+        ByteBufList packaged = lh.macManager.computeDigestAndPackageForSending(entryId, NUM_ENTRIES - 1,
+                data.length, Unpooled.wrappedBuffer(data));
+        ByteBuf entry = ByteBufList.coalesce(packaged);
+        packaged.release();
+        return entry;
+    }
+
+    private void mockBookies(LedgerHandle lh) {
+        // regular reads, with and without the master key of recovery reads
+        Answer<Void> readEntry = invocation -> {
+            long entryId = invocation.getArgument(2);
+            ReadEntryCallback cb = invocation.getArgument(3);
+            Object ctx = invocation.getArgument(4);
+            mainWorkerPool.executeOrdered(LEDGER_ID, () -> {
+                ByteBuf entry = packageEntry(lh, entryId);
+                cb.readEntryComplete(BKException.Code.OK, LEDGER_ID, entryId, entry, ctx);
+                entry.release();
+            });
+            return null;
+        };
+        doAnswer(readEntry).when(bookieClient).readEntry(any(), eq(LEDGER_ID), anyLong(), any(), any(), anyInt());
+        doAnswer(readEntry).when(bookieClient).readEntry(any(), eq(LEDGER_ID), anyLong(), any(), any(), anyInt(),
+                any());
+
+        doAnswer(invocation -> {
+            long startEntryId = invocation.getArgument(2);
+            int maxCount = invocation.getArgument(3);
+            BatchedReadEntryCallback cb = invocation.getArgument(5);
+            Object ctx = invocation.getArgument(6);
+            numBatchedReads.incrementAndGet();
+            mainWorkerPool.executeOrdered(LEDGER_ID, () -> {
+                if (startEntryId >= failBatchedReadsFrom) {
+                    // as when the bookie doesn't know batched reads and drops the connection
+                    cb.readEntriesComplete(BKException.Code.BookieHandleNotAvailableException, LEDGER_ID,
+                            startEntryId, null, ctx);
+                    return;
+                }
+                long lastEntryId = Math.min(NUM_ENTRIES - 1, startEntryId + Math.min(maxCount, batchSize) - 1);
+                ByteBufList entries = ByteBufList.get(packageEntry(lh, startEntryId));
+                for (long entryId = startEntryId + 1; entryId <= lastEntryId; entryId++) {
+                    entries.add(packageEntry(lh, entryId));
+                }
+                cb.readEntriesComplete(BKException.Code.OK, LEDGER_ID, startEntryId, entries, ctx);
+                entries.release();
+            });
+            return null;
+        }).when(bookieClient).batchReadEntries(any(), eq(LEDGER_ID), anyLong(), anyInt(), anyLong(), any(), any(),
+                anyInt());
+    }
+
+    private static void assertEntries(long firstEntryId, long lastEntryId, LedgerEntries entries) {
+        try {
+            long expectedEntryId = firstEntryId;
+            for (LedgerEntry entry : entries) {
+                assertEquals(expectedEntryId, entry.getEntryId());
+                assertArrayEquals(data(expectedEntryId), entry.getEntryBytes());
+                expectedEntryId++;
+            }
+            assertEquals(lastEntryId + 1, expectedEntryId);
+        } finally {
+            entries.close();
+        }
+    }
+
+    private void verifyRegularReadsOnly() {
+        verify(bookieClient, never()).batchReadEntries(any(), anyLong(), anyLong(), anyInt(), anyLong(), any(),
+                any(), anyInt());
+    }
+
+    private void verifyBatchedReadsOnly() {
+        verify(bookieClient, never()).readEntry(any(), anyLong(), anyLong(), any(), any(), anyInt());
+        verify(bookieClient, never()).readEntry(any(), anyLong(), anyLong(), any(), any(), anyInt(), any());
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        // bookies not knowing batched reads would close the connection on them, so they are opted into
+        assertFalse(new ClientConfiguration().isBatchReadEnabled());
+
+        LedgerHandle lh = createHandle(new ClientConfiguration().setUseV2WireProtocol(true), 3, 3);
+        assertFalse(lh.isBatchReadEligible());
+        assertEntries(0, NUM_ENTRIES - 1, lh.readUnconfirmedAsync(0, NUM_ENTRIES - 1).get(10, TimeUnit.SECONDS));
+        verifyRegularReadsOnly();
+    }
+
+    @Test
+    public void testBatchedReadWhenEnabled() throws Exception {
+        LedgerHandle lh = createHandle(new ClientConfiguration().setUseV2WireProtocol(true)
+                .setBatchReadEnabled(true), 3, 3);
+        assertTrue(lh.isBatchReadEligible());
+        assertEntries(0, NUM_ENTRIES - 1, lh.readUnconfirmedAsync(0, NUM_ENTRIES - 1).get(10, TimeUnit.SECONDS));
+        assertEquals(1, numBatchedReads.get());
+        verifyBatchedReadsOnly();
+    }
+
+    @Test
+    public void testBatchedReadsUntilRangeRead() throws Exception {
+        // the bookies return fewer entries than asked for, the rest of the range is read with more batched reads
+        batchSize = 2;
+        LedgerHandle lh = createHandle(new ClientConfiguration().setUseV2WireProtocol(true)
+                .setBatchReadEnabled(true), 3, 3);
+        assertEntries(1, NUM_ENTRIES - 1, lh.readUnconfirmedAsync(1, NUM_ENTRIES - 1).get(10, TimeUnit.SECONDS));
+        assertEquals(2, numBatchedReads.get());
+        verifyBatchedReadsOnly();
+    }
+
+    @Test
+    public void testRegularReadWhenEnsembleLargerThanWriteQuorum() throws Exception {
+        // the bookies don't store all the entries, so a single bookie can't serve a run of them
+        LedgerHandle lh = createHandle(new ClientConfiguration().setUseV2WireProtocol(true)
+                .setBatchReadEnabled(true), 3, 2);
+        assertFalse(lh.isBatchReadEligible());
+        assertEntries(0, NUM_ENTRIES - 1, lh.readUnconfirmedAsync(0, NUM_ENTRIES - 1).get(10, TimeUnit.SECONDS));
+        verifyRegularReadsOnly();
+    }
+
+    @Test
+    public void testRegularReadWithV3Protocol() throws Exception {
+        LedgerHandle lh = createHandle(new ClientConfiguration().setUseV2WireProtocol(false)
+                .setBatchReadEnabled(true), 3, 3);
+        assertFalse(lh.isBatchReadEligible());
+        assertEntries(0, NUM_ENTRIES - 1, lh.readUnconfirmedAsync(0, NUM_ENTRIES - 1).get(10, TimeUnit.SECONDS));
+        verifyRegularReadsOnly();
+    }
+
+    @Test
+    public void testRegularReadForRecovery() throws Exception {
+        LedgerHandle lh = createHandle(new ClientConfiguration().setUseV2WireProtocol(true)
+                .setBatchReadEnabled(true), 3, 3);
+        assertTrue(lh.isBatchReadEligible());
+        assertEntries(0, NUM_ENTRIES - 1, lh.readEntriesInternalAsync(0, NUM_ENTRIES - 1, true)
+                .get(10, TimeUnit.SECONDS));
+        verifyRegularReadsOnly();
+    }
+
+    @Test
+    public void testFallbackWhenBookiesRejectBatchedRead() throws Exception {
+        failBatchedReadsFrom = 0;
+        LedgerHandle lh = createHandle(new ClientConfiguration().setUseV2WireProtocol(true)
+                .setBatchReadEnabled(true), 3, 3);
+        assertEntries(0, NUM_ENTRIES - 1, lh.readUnconfirmedAsync(0, NUM_ENTRIES - 1).get(10, TimeUnit.SECONDS));
+
+        // each bookie of the write set was tried once, then the range was read with regular reads
+        assertEquals(3, numBatchedReads.get());
+        verify(bookieClient, times(NUM_ENTRIES)).readEntry(any(), eq(LEDGER_ID), anyLong(), any(), any(), anyInt());
+    }
+
+    @Test
+    public void testFallbackAfterPartialBatchedRead() throws Exception {
+        // the first batched read succeeds, the next one fails on every bookie
+        batchSize = 2;
+        failBatchedReadsFrom = 2;
+        LedgerHandle lh = createHandle(new ClientConfiguration().setUseV2WireProtocol(true)
+                .setBatchReadEnabled(true), 3, 3);
+        assertEntries(0, NUM_ENTRIES - 1, lh.readUnconfirmedAsync(0, NUM_ENTRIES - 1).get(10, TimeUnit.SECONDS));
+
+        // the whole range was read again with regular reads, not only the entries after the failed batch
+        assertEquals(1 + 3, numBatchedReads.get());
+        verify(bookieClient, times(NUM_ENTRIES)).readEntry(any(), eq(LEDGER_ID), anyLong(), any(), any(), anyInt());
+    }
+}
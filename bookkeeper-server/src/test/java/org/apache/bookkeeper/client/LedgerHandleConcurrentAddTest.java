@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieClient;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Version;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests concurrent adds to a single {@link LedgerHandle}, whose adders take their entryIds without locking it.
+ */
+public class LedgerHandleConcurrentAddTest {
+
+    private static final long LEDGER_ID = 1L;
+    private static final byte[] PASSWORD = new byte[0];
+    private static final int NUM_ADDERS = 8;
+    private static final int ENTRIES_PER_ADDER = 500;
+    private static final byte[] ENTRY = new byte[100];
+
+    private OrderedExecutor mainWorkerPool;
+    private OrderedScheduler scheduler;
+    private LedgerHandle lh;
+
+    @Before
+    public void setUp() throws Exception {
+        mainWorkerPool = OrderedExecutor.newBuilder().name("test-worker").numThreads(1).build();
+        scheduler = OrderedScheduler.newSchedulerBuilder().name("test-scheduler").numThreads(1).build();
+
+        // bookies acknowledge all the writes right away
+        BookieClient bookieClient = mock(BookieClient.class);
+        when(bookieClient.isWritable(any(), anyLong())).thenReturn(true);
+        doAnswer(invocation -> {
+            BookieId addr = invocation.getArgument(0);
+            long entryId = invocation.getArgument(3);
+            WriteCallback cb = invocation.getArgument(5);
+            Object ctx = invocation.getArgument(6);
+            mainWorkerPool.executeOrdered(LEDGER_ID,
+                    () -> cb.writeComplete(BKException.Code.OK, LEDGER_ID, entryId, addr, ctx));
+            return null;
+        }).when(bookieClient).addEntry(any(), eq(LEDGER_ID), any(), anyLong(), any(), any(), any(), anyInt(),
+                anyBoolean(), any());
+
+        LedgerManager ledgerManager = mock(LedgerManager.class);
+        when(ledgerManager.writeLedgerMetadata(eq(LEDGER_ID), any(), any())).thenAnswer(invocation -> {
+            LedgerMetadata metadata = invocation.getArgument(1);
+            Version version = invocation.getArgument(2);
+            return CompletableFuture.completedFuture(
+                    new Versioned<>(metadata, new LongVersion(((LongVersion) version).getLongVersion() + 1)));
+        });
+
+        ClientContext clientCtx = mock(ClientContext.class);
+        when(clientCtx.getConf()).thenReturn(ClientInternalConf.fromConfig(new ClientConfiguration()
+                .setThrottleValue(0)));
+        when(clientCtx.getBookieClient()).thenReturn(bookieClient);
+        when(clientCtx.getLedgerManager()).thenReturn(ledgerManager);
+        when(clientCtx.getByteBufAllocator()).thenReturn(UnpooledByteBufAllocator.DEFAULT);
+        when(clientCtx.getMainWorkerPool()).thenReturn(mainWorkerPool);
+        when(clientCtx.getScheduler()).thenReturn(scheduler);
+        when(clientCtx.getClientStats()).thenReturn(BookKeeperClientStats.newInstance(NullStatsLogger.INSTANCE));
+
+        List<BookieId> ensemble = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            ensemble.add(BookieId.parse("bookie-" + i + ":3181"));
+        }
+        LedgerMetadata metadata = LedgerMetadataBuilder.create()
+                .withId(LEDGER_ID)
+                .withEnsembleSize(3).withWriteQuorumSize(3).withAckQuorumSize(2)
+                .withPassword(PASSWORD)
+                .withDigestType(BookKeeper.DigestType.CRC32C.toApiDigestType())
+                .newEnsembleEntry(0L, ensemble)
+                .build();
+        lh = new LedgerHandle(clientCtx, LEDGER_ID, new Versioned<>(metadata, new LongVersion(0L)),
+                BookKeeper.DigestType.CRC32C, PASSWORD, WriteFlag.NONE);
+    }
+
+    @After
+    public void tearDown() {
+        mainWorkerPool.shutdown();
+        scheduler.shutdown();
+    }
+
+    private List<Thread> startAdders(AsyncCallback.AddCallback cb) {
+        List<Thread> adders = new ArrayList<>();
+        for (int i = 0; i < NUM_ADDERS; i++) {
+            final int adderId = i;
+            Thread adder = new Thread(() -> {
+                for (int j = 0; j < ENTRIES_PER_ADDER; j++) {
+                    lh.asyncAddEntry(ENTRY, cb, adderId);
+                }
+            });
+            adder.start();
+            adders.add(adder);
+        }
+        return adders;
+    }
+
+    /**
+     * Check from another thread that the last add confirmed never moves backward, until stopped.
+     */
+    private Thread startLacChecker(AtomicReference<String> failure, CountDownLatch stop) {
+        Thread checker = new Thread(() -> {
+            long previous = lh.getLastAddConfirmed();
+            while (stop.getCount() > 0) {
+                long lac = lh.getLastAddConfirmed();
+                if (lac < previous) {
+                    failure.compareAndSet(null, "LAC moved back from " + previous + " to " + lac);
+                }
+                previous = lac;
+            }
+        });
+        checker.start();
+        return checker;
+    }
+
+    @Test
+    public void testConcurrentAdds() throws Exception {
+        int numEntries = NUM_ADDERS * ENTRIES_PER_ADDER;
+        List<Long> completed = Collections.synchronizedList(new ArrayList<>());
+        List<List<Long>> entriesOfAdders = new ArrayList<>();
+        for (int i = 0; i < NUM_ADDERS; i++) {
+            entriesOfAdders.add(Collections.synchronizedList(new ArrayList<>()));
+        }
+        AtomicReference<String> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(numEntries);
+
+        CountDownLatch stopChecker = new CountDownLatch(1);
+        Thread checker = startLacChecker(failure, stopChecker);
+        List<Thread> adders = startAdders((rc, handle, entryId, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                failure.compareAndSet(null, "Add failed with " + rc);
+            } else if (handle.getLastAddConfirmed() < entryId) {
+                failure.compareAndSet(null, "Entry " + entryId + " completed before the LAC covers it");
+            }
+            completed.add(entryId);
+            entriesOfAdders.get((Integer) ctx).add(entryId);
+            done.countDown();
+        });
+        for (Thread adder : adders) {
+            adder.join();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        stopChecker.countDown();
+        checker.join();
+        assertNull(failure.get());
+
+        // the entryIds are dense, and the adds complete in entryId order
+        assertEquals(numEntries, completed.size());
+        for (int i = 0; i < numEntries; i++) {
+            assertEquals(i, (long) completed.get(i));
+        }
+        // each adder got increasing entryIds, in the order of its adds
+        for (List<Long> entries : entriesOfAdders) {
+            assertEquals(ENTRIES_PER_ADDER, entries.size());
+            for (int i = 1; i < entries.size(); i++) {
+                assertTrue(entries.get(i) > entries.get(i - 1));
+            }
+        }
+        assertEquals(numEntries - 1, lh.getLastAddConfirmed());
+        assertEquals(numEntries - 1, lh.getLastAddPushed());
+        assertEquals((long) numEntries * ENTRY.length, lh.getLength());
+    }
+
+    @Test
+    public void testLastAddConfirmedOnlyMovesForward() throws Exception {
+        int numUpdaters = 4;
+        int updatesPerThread = 10000;
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicLong maxLac = new AtomicLong(LedgerHandle.INVALID_ENTRY_ID);
+
+        CountDownLatch stopChecker = new CountDownLatch(1);
+        Thread checker = startLacChecker(failure, stopChecker);
+        List<Thread> updaters = new ArrayList<>();
+        for (int i = 0; i < numUpdaters; i++) {
+            final long seed = i;
+            Thread updater = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int j = 0; j < updatesPerThread; j++) {
+                    long lac = random.nextInt(updatesPerThread);
+                    lh.updateLastConfirmed(lac, lac * ENTRY.length);
+                    maxLac.accumulateAndGet(lac, Math::max);
+                }
+            });
+            updater.start();
+            updaters.add(updater);
+        }
+        for (Thread updater : updaters) {
+            updater.join();
+        }
+        stopChecker.countDown();
+        checker.join();
+        assertNull(failure.get());
+
+        // the LAC, the last pushed entry and the length are the highest ones seen
+        assertEquals(maxLac.get(), lh.getLastAddConfirmed());
+        assertEquals(maxLac.get(), lh.getLastAddPushed());
+        assertEquals(maxLac.get() * ENTRY.length, lh.getLength());
+
+        // an older LAC doesn't move them back
+        lh.updateLastConfirmed(0, 0);
+        assertEquals(maxLac.get(), lh.getLastAddConfirmed());
+        assertEquals(maxLac.get() * ENTRY.length, lh.getLength());
+    }
+
+    @Test
+    public void testCloseWhileAdding() throws Exception {
+        int numEntries = NUM_ADDERS * ENTRIES_PER_ADDER;
+        List<Long> succeeded = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger callbacks = new AtomicInteger();
+        AtomicReference<String> failure = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(numEntries);
+        CountDownLatch someAdded = new CountDownLatch(numEntries / 10);
+
+        List<Thread> adders = startAdders((rc, handle, entryId, ctx) -> {
+            if (rc == BKException.Code.OK) {
+                succeeded.add(entryId);
+                someAdded.countDown();
+            } else if (rc != BKException.Code.LedgerClosedException) {
+                failure.compareAndSet(null, "Add failed with " + rc);
+            }
+            callbacks.incrementAndGet();
+            done.countDown();
+        });
+
+        // close while the adders are still going
+        assertTrue(someAdded.await(30, TimeUnit.SECONDS));
+        CompletableFuture<Integer> closed = new CompletableFuture<>();
+        lh.asyncClose((rc, handle, ctx) -> closed.complete(rc), null);
+        assertEquals(BKException.Code.OK, (int) closed.get(30, TimeUnit.SECONDS));
+
+        for (Thread adder : adders) {
+            adder.join();
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        assertNull(failure.get());
+        // each add completed once, either before the close or failed by it
+        assertEquals(numEntries, callbacks.get());
+
+        // the ledger is closed right after the last successful add, and no add succeeded after it
+        long lastEntry = lh.getLedgerMetadata().getLastEntryId();
+        assertTrue(lh.isClosed());
+        assertEquals(lastEntry, lh.getLastAddConfirmed());
+        assertEquals(lastEntry + 1, succeeded.size());
+        for (int i = 0; i < succeeded.size(); i++) {
+            assertEquals(i, (long) succeeded.get(i));
+        }
+        assertEquals((lastEntry + 1) * ENTRY.length, lh.getLedgerMetadata().getLength());
+        assertEquals((lastEntry + 1) * ENTRY.length, lh.getLength());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link PendingAddOpsQueue}.
+ */
+public class PendingAddOpsQueueTest {
+
+    private static PendingAddOp newOp(long entryId) {
+        PendingAddOp op = mock(PendingAddOp.class);
+        op.entryId = entryId;
+        return op;
+    }
+
+    @Test
+    public void testOrderedByEntryId() {
+        PendingAddOpsQueue queue = new PendingAddOpsQueue();
+        assertTrue(queue.isEmpty());
+        assertNull(queue.peek());
+        assertNull(queue.poll());
+
+        PendingAddOp op0 = newOp(0);
+        PendingAddOp op1 = newOp(1);
+        PendingAddOp op2 = newOp(2);
+        assertTrue(queue.offer(op2));
+        assertTrue(queue.offer(op0));
+        assertTrue(queue.offer(op1));
+        assertEquals(3, queue.size());
+
+        // the head is the op with the lowest entryId, whatever the order they were queued in
+        assertSame(op0, queue.peek());
+        assertSame(op0, queue.poll());
+        assertSame(op1, queue.poll());
+        assertSame(op2, queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testRemoveAndContains() {
+        PendingAddOpsQueue queue = new PendingAddOpsQueue();
+        PendingAddOp op0 = newOp(0);
+        PendingAddOp op1 = newOp(1);
+        queue.add(op0);
+        queue.add(op1);
+
+        // an op is only matched by its own instance, not by another op with the same entryId
+        PendingAddOp other = newOp(1);
+        assertFalse(queue.offer(other));
+        assertFalse(queue.contains(other));
+        assertFalse(queue.remove(other));
+        assertFalse(queue.remove("not an op"));
+        assertTrue(queue.contains(op1));
+
+        assertTrue(queue.remove(op1));
+        assertFalse(queue.contains(op1));
+        assertEquals(1, queue.size());
+
+        List<PendingAddOp> remaining = new ArrayList<>(queue);
+        assertEquals(Collections.singletonList(op0), remaining);
+    }
+
+    @Test
+    public void testConcurrentAdders() throws Exception {
+        int numAdders = 4;
+        int opsPerAdder = 1000;
+        PendingAddOpsQueue queue = new PendingAddOpsQueue();
+
+        // each adder queues its share of the entryIds in a random order
+        List<Thread> adders = new ArrayList<>();
+        for (int i = 0; i < numAdders; i++) {
+            List<Long> entryIds = new ArrayList<>();
+            for (long entryId = i; entryId < numAdders * opsPerAdder; entryId += numAdders) {
+                entryIds.add(entryId);
+            }
+            Collections.shuffle(entryIds, new Random(i));
+            Thread adder = new Thread(() -> {
+                for (long entryId : entryIds) {
+                    queue.add(newOp(entryId));
+                }
+            });
+            adder.start();
+            adders.add(adder);
+        }
+        for (Thread adder : adders) {
+            adder.join();
+        }
+
+        assertEquals(numAdders * opsPerAdder, queue.size());
+        for (long entryId = 0; entryId < numAdders * opsPerAdder; entryId++) {
+            assertEquals(entryId, queue.poll().entryId);
+        }
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.client.impl;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.BatchedLedgerEntry;
+import org.apache.bookkeeper.client.api.RecordPosition;
+import org.apache.bookkeeper.client.api.WriteHandle;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.common.util.SafeRunnable;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Unit test of {@link BatchedWriteHandleImpl} over a mocked write handle, and of the entries it writes as read by
+ * {@link BatchedLedgerEntryImpl}.
+ */
+public class BatchedWriteHandleImplTest {
+
+    private static final long LEDGER_ID = 1234L;
+    private static final int RECORD_SIZE = 10;
+    // three records of RECORD_SIZE fill a batch
+    private static final int MAX_BATCH_SIZE = 3 * (BatchedLedgerEntryImpl.RECORD_HEADER_SIZE + RECORD_SIZE);
+    private static final long MAX_BATCH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private WriteHandle handle;
+    private OrderedScheduler scheduler;
+    private ScheduledFuture<?> flushTask;
+    private final List<SafeRunnable> scheduledFlushes = new ArrayList<>();
+    // the entries written to the underlying handle, and the futures of their writes
+    private final List<ByteBuf> entries = Collections.synchronizedList(new ArrayList<>());
+    private final List<CompletableFuture<Long>> entryFutures = Collections.synchronizedList(new ArrayList<>());
+    private BatchedWriteHandleImpl batchedHandle;
+
+    @Before
+    public void setUp() {
+        handle = mock(WriteHandle.class);
+        when(handle.getId()).thenReturn(LEDGER_ID);
+        when(handle.appendAsync(any(ByteBuf.class))).thenAnswer(invocation -> {
+            // the batches are written outside of the lock of the batched handle
+            assertFalse(Thread.holdsLock(batchedHandle));
+            CompletableFuture<Long> future = new CompletableFuture<>();
+            entries.add(invocation.getArgument(0));
+            entryFutures.add(future);
+            return future;
+        });
+        when(handle.closeAsync()).thenReturn(CompletableFuture.completedFuture(null));
+
+        flushTask = mock(ScheduledFuture.class);
+        scheduler = mock(OrderedScheduler.class);
+        when(scheduler.scheduleOrdered(any(), any(SafeRunnable.class), anyLong(), any(TimeUnit.class)))
+                .thenAnswer(invocation -> {
+                    scheduledFlushes.add(invocation.getArgument(1));
+                    return flushTask;
+                });
+
+        batchedHandle = new BatchedWriteHandleImpl(handle, MAX_BATCH_SIZE, MAX_BATCH_DELAY_NANOS, scheduler,
+                UnpooledByteBufAllocator.DEFAULT);
+    }
+
+    private static ByteBuf record(int i) {
+        byte[] data = new byte[RECORD_SIZE];
+        byte[] prefix = ("record-" + i).getBytes(UTF_8);
+        System.arraycopy(prefix, 0, data, 0, Math.min(prefix.length, RECORD_SIZE));
+        return Unpooled.wrappedBuffer(data);
+    }
+
+    private static BatchedLedgerEntry decode(long entryId, ByteBuf entry) {
+        return BatchedLedgerEntry.of(LedgerEntryImpl.create(LEDGER_ID, entryId, entry.readableBytes(), entry));
+    }
+
+    @Test
+    public void testCountTriggeredFlush() {
+        batchedHandle.appendRecordAsync(record(0));
+        batchedHandle.appendRecordAsync(record(1));
+        assertTrue(entries.isEmpty());
+        // the first record started the delay of the batch
+        verify(scheduler).scheduleOrdered(eq(LEDGER_ID), any(SafeRunnable.class), eq(MAX_BATCH_DELAY_NANOS),
+                eq(TimeUnit.NANOSECONDS));
+
+        // the third record fills the batch, which is written without waiting for its delay
+        batchedHandle.appendRecordAsync(record(2));
+        assertEquals(1, entries.size());
+        verify(flushTask).cancel(false);
+        assertEquals(3, decode(0, entries.get(0)).getNumRecords());
+    }
+
+    @Test
+    public void testRecordOverflowingBatch() {
+        batchedHandle.appendRecordAsync(record(0));
+        batchedHandle.appendRecordAsync(record(1));
+
+        // a record which doesn't fit in the current batch goes to the next one
+        ByteBuf large = Unpooled.wrappedBuffer(new byte[2 * RECORD_SIZE]);
+        batchedHandle.appendRecordAsync(large);
+        assertEquals(1, entries.size());
+        assertEquals(2, decode(0, entries.get(0)).getNumRecords());
+
+        batchedHandle.flush();
+        assertEquals(2, entries.size());
+        BatchedLedgerEntry second = decode(1, entries.get(1));
+        assertEquals(1, second.getNumRecords());
+        assertEquals(2 * RECORD_SIZE, second.getRecord(0).readableBytes());
+    }
+
+    @Test
+    public void testTimeTriggeredFlush() throws Exception {
+        CompletableFuture<RecordPosition> first = batchedHandle.appendRecordAsync(record(0));
+        assertTrue(entries.isEmpty());
+        assertEquals(1, scheduledFlushes.size());
+
+        // the delay expires on the scheduler
+        scheduledFlushes.get(0).run();
+        assertEquals(1, entries.size());
+        entryFutures.get(0).complete(0L);
+        assertEquals(new RecordPosition(0, 0), first.get());
+
+        // the next record starts a new delay
+        batchedHandle.appendRecordAsync(record(1));
+        assertEquals(2, scheduledFlushes.size());
+
+        scheduledFlushes.get(1).run();
+        assertEquals(2, entries.size());
+
+        // a delay expiring with no batch pending writes nothing
+        scheduledFlushes.get(0).run();
+        scheduledFlushes.get(1).run();
+        assertEquals(2, entries.size());
+        entryFutures.get(1).complete(1L);
+        entries.forEach(ByteBuf::release);
+    }
+
+    @Test
+    public void testEncodeDecodeRoundTrip() {
+        List<ByteBuf> records = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            records.add(record(i));
+            batchedHandle.appendRecordAsync(record(i));
+        }
+        assertEquals(1, entries.size());
+
+        ByteBuf entry = entries.get(0);
+        assertEquals(BatchedLedgerEntryImpl.BATCH_HEADER_SIZE + MAX_BATCH_SIZE, entry.readableBytes());
+        assertEquals(0x42415443, entry.getInt(entry.readerIndex()));
+        assertEquals(3, entry.getInt(entry.readerIndex() + Integer.BYTES));
+        int offset = entry.readerIndex() + BatchedLedgerEntryImpl.BATCH_HEADER_SIZE;
+        for (ByteBuf record : records) {
+            assertEquals(RECORD_SIZE, entry.getInt(offset));
+            assertEquals(record, entry.slice(offset + Integer.BYTES, RECORD_SIZE));
+            offset += Integer.BYTES + RECORD_SIZE;
+        }
+
+        BatchedLedgerEntry decoded = decode(5, entry.retainedDuplicate());
+        assertEquals(LEDGER_ID, decoded.getLedgerId());
+        assertEquals(5, decoded.getEntryId());
+        assertEquals(records.size(), decoded.getNumRecords());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals(records.get(i), decoded.getRecord(i));
+        }
+        // the duplicate keeps the records, whatever the reader index of its buffer
+        BatchedLedgerEntry duplicate = decoded.duplicate();
+        decoded.getEntryBuffer().skipBytes(Integer.BYTES);
+        assertEquals(records.get(2), duplicate.getRecord(2));
+        duplicate.close();
+        decoded.close();
+        entry.release();
+    }
+
+    @Test
+    public void testDecodeInvalidEntries() {
+        // not a batch
+        assertInvalid(Unpooled.wrappedBuffer("not a batch".getBytes(UTF_8)));
+        // record count larger than the entry
+        assertInvalid(Unpooled.buffer().writeInt(BatchedLedgerEntryImpl.BATCH_MAGIC).writeInt(2).writeInt(0));
+        // record length past the end of the entry
+        assertInvalid(Unpooled.buffer().writeInt(BatchedLedgerEntryImpl.BATCH_MAGIC).writeInt(1).writeInt(5)
+                .writeByte(1));
+
+        // an empty record is valid
+        BatchedLedgerEntry entry = decode(0, Unpooled.buffer().writeInt(BatchedLedgerEntryImpl.BATCH_MAGIC)
+                .writeInt(1).writeInt(0));
+        assertEquals(1, entry.getNumRecords());
+        assertEquals(0, entry.getRecord(0).readableBytes());
+        entry.close();
+    }
+
+    private static void assertInvalid(ByteBuf buf) {
+        try {
+            decode(0, buf);
+            fail("Should have failed to decode the entry");
+        } catch (IllegalArgumentException e) {
+            // expected
+        } finally {
+            buf.release();
+        }
+    }
+
+    @Test
+    public void testRecordPositions() throws Exception {
+        List<CompletableFuture<RecordPosition>> positions = new ArrayList<>();
+        List<CompletableFuture<Long>> entryIds = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            positions.add(batchedHandle.appendRecordAsync(record(i)));
+        }
+        for (int i = 3; i < 5; i++) {
+            entryIds.add(batchedHandle.appendAsync(record(i)));
+        }
+        batchedHandle.flush();
+        assertEquals(2, entries.size());
+        entryFutures.get(0).complete(7L);
+        entryFutures.get(1).complete(8L);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(new RecordPosition(7, i), positions.get(i).get());
+        }
+        for (CompletableFuture<Long> entryId : entryIds) {
+            assertEquals(8L, entryId.get().longValue());
+        }
+
+        // the positions resolve to the records in the entries read back
+        BatchedLedgerEntry entry = decode(7, entries.get(0));
+        for (int i = 0; i < 3; i++) {
+            RecordPosition position = positions.get(i).get();
+            assertEquals(position, entry.getRecordPosition(position.getIndex()));
+            assertEquals(record(i), entry.getRecord(position.getIndex()));
+        }
+        entry.close();
+        entries.get(1).release();
+    }
+
+    @Test
+    public void testFailurePropagatedToEveryRecord() throws Exception {
+        List<CompletableFuture<RecordPosition>> positions = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            positions.add(batchedHandle.appendRecordAsync(record(i)));
+        }
+        CompletableFuture<RecordPosition> nextBatch = batchedHandle.appendRecordAsync(record(3));
+        BKException cause = BKException.create(BKException.Code.NotEnoughBookiesException);
+        entryFutures.get(0).completeExceptionally(cause);
+
+        for (CompletableFuture<RecordPosition> position : positions) {
+            try {
+                position.get();
+                fail("The record should have failed with its batch");
+            } catch (ExecutionException e) {
+                assertSame(cause, e.getCause());
+            }
+        }
+
+        // the failure of a batch doesn't touch the records of the next one
+        assertFalse(nextBatch.isDone());
+        batchedHandle.flush();
+        entryFutures.get(1).complete(1L);
+        assertEquals(new RecordPosition(1, 0), nextBatch.get());
+        entries.forEach(ByteBuf::release);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        CompletableFuture<RecordPosition> pending = batchedHandle.appendRecordAsync(record(0));
+        CompletableFuture<Void> closed = batchedHandle.closeAsync();
+
+        // the current batch is written, and the underlying handle is closed once it completes
+        assertEquals(1, entries.size());
+        assertFalse(closed.isDone());
+        entryFutures.get(0).complete(0L);
+        closed.get();
+        verify(handle).closeAsync();
+        assertEquals(new RecordPosition(0, 0), pending.get());
+
+        ByteBuf late = record(1);
+        try {
+            batchedHandle.appendRecordAsync(late).get();
+            fail("Should not append to a closed handle");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof BKException.BKLedgerClosedException);
+        }
+        assertEquals(0, late.refCnt());
+        entries.forEach(ByteBuf::release);
+    }
+
+    @Test
+    public void testConcurrentAppendsKeepOrder() throws Exception {
+        int numThreads = 4;
+        int numRecords = 1000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < numThreads; t++) {
+            final int thread = t;
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < numRecords; i++) {
+                    batchedHandle.appendRecordAsync(Unpooled.buffer(RECORD_SIZE).writeInt(thread).writeInt(i)
+                            .writeZero(RECORD_SIZE - 2 * Integer.BYTES));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        batchedHandle.flush();
+
+        // the records of each thread are in the entries in the order of their appends
+        int[] next = new int[numThreads];
+        for (int entryId = 0; entryId < entries.size(); entryId++) {
+            BatchedLedgerEntry entry = decode(entryId, entries.get(entryId));
+            for (int i = 0; i < entry.getNumRecords(); i++) {
+                ByteBuf record = entry.getRecord(i);
+                int thread = record.getInt(0);
+                assertEquals(next[thread]++, record.getInt(Integer.BYTES));
+            }
+            entry.close();
+        }
+        for (int t = 0; t < numThreads; t++) {
+            assertEquals(numRecords, next[t]);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bookkeeper.common.collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ParkingMpscQueue}.
+ */
+public class ParkingMpscQueueTest {
+
+    @Test
+    public void testTakeAllInOrder() throws Exception {
+        ParkingMpscQueue<Integer> queue = new ParkingMpscQueue<>(16);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(queue.offer(i));
+        }
+
+        // the items are moved up to the array length, in the order they were added
+        Integer[] items = new Integer[4];
+        assertEquals(4, queue.takeAll(items));
+        assertArrayEquals(new Integer[] { 0, 1, 2, 3 }, items);
+
+        items = new Integer[16];
+        assertEquals(6, queue.takeAll(items));
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i + 4, (int) items[i]);
+        }
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testPollAllTimeout() throws Exception {
+        ParkingMpscQueue<Integer> queue = new ParkingMpscQueue<>(16);
+
+        long start = System.nanoTime();
+        assertEquals(0, queue.pollAll(new Integer[4], 100, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        start = System.nanoTime();
+        assertNull(queue.poll(100, TimeUnit.MILLISECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        queue.offer(1);
+        Integer[] items = new Integer[4];
+        assertEquals(1, queue.pollAll(items, 100, TimeUnit.MILLISECONDS));
+        assertEquals(1, (int) items[0]);
+    }
+
+    @Test
+    public void testParkedConsumerIsWokenUp() throws Exception {
+        ParkingMpscQueue<Integer> queue = new ParkingMpscQueue<>(16);
+        AtomicReference<Integer> taken = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+
+        Thread consumer = new Thread(() -> {
+            try {
+                Integer[] items = new Integer[4];
+                int n = queue.takeAll(items);
+                if (n == 1) {
+                    taken.set(items[0]);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        consumer.start();
+
+        // wait for the consumer to park
+        while (consumer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        queue.offer(42);
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(42, (int) taken.get());
+    }
+
+    @Test
+    public void testPollIsWokenUpBeforeTimeout() throws Exception {
+        ParkingMpscQueue<Integer> queue = new ParkingMpscQueue<>(16);
+
+        Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            queue.offer(1);
+        });
+        producer.start();
+
+        long start = System.nanoTime();
+        assertEquals(1, (int) queue.poll(30, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+        producer.join();
+    }
+
+    @Test
+    public void testInterruptParkedConsumer() throws Exception {
+        ParkingMpscQueue<Integer> queue = new ParkingMpscQueue<>(16);
+        CountDownLatch interrupted = new CountDownLatch(1);
+
+        Thread consumer = new Thread(() -> {
+            try {
+                queue.take();
+                fail("The consumer should have been interrupted");
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        });
+        consumer.start();
+        while (consumer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        consumer.interrupt();
+
+        assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testFullQueue() throws Exception {
+        ParkingMpscQueue<Integer> queue = new ParkingMpscQueue<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertEquals(0, queue.remainingCapacity());
+        assertFalse(queue.offer(4));
+        assertFalse(queue.offer(4, 10, TimeUnit.MILLISECONDS));
+
+        // put waits for the consumer to make space
+        CountDownLatch putDone = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(4);
+                putDone.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        assertFalse(putDone.await(100, TimeUnit.MILLISECONDS));
+
+        assertEquals(0, (int) queue.take());
+        assertTrue(putDone.await(10, TimeUnit.SECONDS));
+
+        List<Integer> drained = new ArrayList<>();
+        assertEquals(4, queue.drainTo(drained));
+        assertEquals(Arrays.asList(1, 2, 3, 4), drained);
+        assertEquals(4, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testMultipleProducers() throws Exception {
+        int numProducers = 4;
+        int itemsPerProducer = 100_000;
+        // smaller than the number of items, so that producers have to wait for the consumer
+        ParkingMpscQueue<Long> queue = new ParkingMpscQueue<>(1024);
+
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < numProducers; p++) {
+            final long producerId = p;
+            Thread producer = new Thread(() -> {
+                try {
+                    for (long i = 0; i < itemsPerProducer; i++) {
+                        queue.put(producerId << 32 | i);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+
+        // the items of each producer are taken in the order they were added
+        long[] nextItem = new long[numProducers];
+        Long[] items = new Long[64];
+        int received = 0;
+        while (received < numProducers * itemsPerProducer) {
+            int n = queue.pollAll(items, 10, TimeUnit.SECONDS);
+            assertTrue("Timed out waiting for items", n > 0);
+            for (int i = 0; i < n; i++) {
+                int producerId = (int) (items[i] >>> 32);
+                assertEquals(nextItem[producerId]++, items[i] & 0xFFFFFFFFL);
+            }
+            received += n;
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertTrue(queue.isEmpty());
+        for (int p = 0; p < numProducers; p++) {
+            assertEquals(itemsPerProducer, nextItem[p]);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link BatchedChannelFlusher}.
+ */
+public class BatchedChannelFlusherTest {
+
+    private static final class FlushCounter extends ChannelOutboundHandlerAdapter {
+        private int flushes = 0;
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) throws Exception {
+            flushes++;
+            super.flush(ctx);
+        }
+    }
+
+    private final FlushCounter counter1 = new FlushCounter();
+    private final FlushCounter counter2 = new FlushCounter();
+    private final EmbeddedChannel channel1 = new EmbeddedChannel(counter1);
+    private final EmbeddedChannel channel2 = new EmbeddedChannel(counter2);
+
+    @After
+    public void tearDown() {
+        BatchedChannelFlusher.endBatch();
+        channel1.finishAndReleaseAll();
+        channel2.finishAndReleaseAll();
+    }
+
+    private static void write(EmbeddedChannel channel, String response) {
+        BatchedChannelFlusher.writeAndFlush(channel, response, channel.newPromise());
+    }
+
+    @Test
+    public void testFlushedWithoutBatch() {
+        write(channel1, "r1");
+        assertEquals(1, channel1.outboundMessages().size());
+        write(channel1, "r2");
+        assertEquals(2, channel1.outboundMessages().size());
+        assertEquals(2, counter1.flushes);
+
+        // ending a batch which wasn't started does nothing
+        BatchedChannelFlusher.endBatch();
+        assertEquals(2, counter1.flushes);
+    }
+
+    @Test
+    public void testEachChannelFlushedOncePerBatch() {
+        BatchedChannelFlusher.startBatch();
+        write(channel1, "r1");
+        write(channel2, "r2");
+        write(channel1, "r3");
+        write(channel1, "r4");
+        write(channel2, "r5");
+
+        // written, but not sent until flushed
+        assertEquals(0, channel1.outboundMessages().size());
+        assertEquals(0, channel2.outboundMessages().size());
+        assertEquals(0, counter1.flushes);
+        assertEquals(0, counter2.flushes);
+
+        BatchedChannelFlusher.endBatch();
+        assertEquals(1, counter1.flushes);
+        assertEquals(1, counter2.flushes);
+        assertEquals("r1", channel1.readOutbound());
+        assertEquals("r3", channel1.readOutbound());
+        assertEquals("r4", channel1.readOutbound());
+        assertEquals("r2", channel2.readOutbound());
+        assertEquals("r5", channel2.readOutbound());
+
+        // the flushes are no longer deferred, and the next batch doesn't flush the channels of the previous one
+        write(channel1, "r6");
+        assertEquals(2, counter1.flushes);
+
+        BatchedChannelFlusher.startBatch();
+        write(channel2, "r7");
+        BatchedChannelFlusher.endBatch();
+        assertEquals(2, counter1.flushes);
+        assertEquals(2, counter2.flushes);
+    }
+
+    @Test
+    public void testBatchIsPerThread() throws Exception {
+        BatchedChannelFlusher.startBatch();
+        write(channel1, "r1");
+
+        Thread other = new Thread(() -> write(channel2, "r2"));
+        other.start();
+        other.join();
+
+        // only the writes of the thread which started the batch are deferred
+        assertEquals(0, counter1.flushes);
+        assertEquals(1, counter2.flushes);
+
+        BatchedChannelFlusher.endBatch();
+        assertEquals(1, counter1.flushes);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.protobuf.ExtensionRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.LengthFieldPrepender;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.Random;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the frames of the read responses carrying a region of an entry log, through the response encoders of the
+ * bookie pipeline.
+ */
+public class BookieProtoEncodingFileRegionTest {
+
+    private static final long LEDGER_ID = 1234L;
+    private static final long ENTRY_ID = 56L;
+    // the entry is stored in the middle of the file, as in an entry log
+    private static final int ENTRY_OFFSET = 1024;
+    private static final int ENTRY_SIZE = 64 * 1024 + 3;
+
+    private File file;
+    private FileChannel fileChannel;
+    private byte[] entry;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("entrylog", ".log");
+        byte[] content = new byte[ENTRY_OFFSET + ENTRY_SIZE + 512];
+        new Random(1).nextBytes(content);
+        Files.write(file.toPath(), content);
+        entry = new byte[ENTRY_SIZE];
+        System.arraycopy(content, ENTRY_OFFSET, entry, 0, ENTRY_SIZE);
+        fileChannel = new RandomAccessFile(file, "r").getChannel();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fileChannel.close();
+        file.delete();
+    }
+
+    /**
+     * The outbound part of the bookie pipeline, from the response encoder down to the socket.
+     */
+    private static EmbeddedChannel newChannel() {
+        return new EmbeddedChannel(ByteBufList.ENCODER_WITH_SIZE, new LengthFieldPrepender(4),
+                new BookieProtoEncoding.ResponseEncoder(ExtensionRegistry.newInstance()));
+    }
+
+    /**
+     * Write a response, and get the bytes sent on the socket.
+     */
+    private static byte[] writeResponse(Object response) throws Exception {
+        EmbeddedChannel channel = newChannel();
+        assertTrue(channel.writeOutbound(response));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        WritableByteChannel target = Channels.newChannel(out);
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            if (msg instanceof ByteBuf) {
+                ByteBuf buf = (ByteBuf) msg;
+                buf.readBytes(out, buf.readableBytes());
+                buf.release();
+            } else if (msg instanceof FileRegion) {
+                FileRegion region = (FileRegion) msg;
+                while (region.transferred() < region.count()) {
+                    region.transferTo(target, region.transferred());
+                }
+                region.release();
+            } else {
+                fail("Unexpected message written to the socket: " + msg);
+            }
+        }
+        channel.finishAndReleaseAll();
+        return out.toByteArray();
+    }
+
+    private BookieProtocol.FileRegionReadResponse newFileRegionResponse() {
+        return new BookieProtocol.FileRegionReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.EOK,
+                LEDGER_ID, ENTRY_ID, new DefaultFileRegion(fileChannel, ENTRY_OFFSET, ENTRY_SIZE));
+    }
+
+    @Test
+    public void testFileRegionFrameDecodedAsReadResponse() throws Exception {
+        byte[] sent = writeResponse(newFileRegionResponse());
+
+        // a single frame, whose size covers the header and the region
+        ByteBuf frame = Unpooled.wrappedBuffer(sent);
+        assertEquals(sent.length - 4, frame.readInt());
+        assertEquals(24 + ENTRY_SIZE, frame.readableBytes());
+
+        Object decoded = new BookieProtoEncoding.ResponseEnDeCoderPreV3(ExtensionRegistry.newInstance())
+                .decode(frame);
+        assertTrue(decoded instanceof BookieProtocol.ReadResponse);
+        BookieProtocol.ReadResponse response = (BookieProtocol.ReadResponse) decoded;
+        assertEquals(BookieProtocol.CURRENT_PROTOCOL_VERSION, response.getProtocolVersion());
+        assertEquals(BookieProtocol.READENTRY, response.getOpCode());
+        assertEquals(BookieProtocol.EOK, response.getErrorCode());
+        assertEquals(LEDGER_ID, response.getLedgerId());
+        assertEquals(ENTRY_ID, response.getEntryId());
+        ByteBuf data = response.getData();
+        byte[] read = new byte[data.readableBytes()];
+        data.getBytes(data.readerIndex(), read);
+        assertArrayEquals(entry, read);
+        response.release();
+        frame.release();
+    }
+
+    @Test
+    public void testFileRegionFrameSameAsReadResponseFrame() throws Exception {
+        // the client can't tell an entry sent from a file region from an entry sent from memory
+        byte[] fromRegion = writeResponse(newFileRegionResponse());
+        byte[] fromMemory = writeResponse(new BookieProtocol.ReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                BookieProtocol.EOK, LEDGER_ID, ENTRY_ID, Unpooled.wrappedBuffer(entry)));
+        assertArrayEquals(fromMemory, fromRegion);
+    }
+
+    @Test
+    public void testSizedFrameOfRecycledList() throws Exception {
+        // a list taken from the pool after a file region header doesn't carry the size of the region anymore
+        writeResponse(newFileRegionResponse());
+        byte[] sent = writeResponse(new BookieProtocol.ReadResponse(BookieProtocol.CURRENT_PROTOCOL_VERSION,
+                BookieProtocol.EOK, LEDGER_ID, ENTRY_ID, Unpooled.wrappedBuffer(new byte[10])));
+        assertEquals(4 + 24 + 10, sent.length);
+        assertEquals(24 + 10, ByteBuffer.wrap(sent).getInt());
+    }
+}
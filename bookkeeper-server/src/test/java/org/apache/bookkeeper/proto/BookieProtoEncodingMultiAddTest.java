@@ -0,0 +1,156 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.protobuf.ExtensionRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.Test;
+
+/**
+ * Round-trip tests of the {@code MULTI_ADD_ENTRY} requests and responses through the pre-v3 codecs.
+ */
+public class BookieProtoEncodingMultiAddTest {
+
+    private static final long LEDGER_ID = 1234L;
+    private static final long FIRST_ENTRY_ID = 56L;
+
+    private final BookieProtoEncoding.RequestEnDeCoderPreV3 requestCodec =
+            new BookieProtoEncoding.RequestEnDeCoderPreV3(ExtensionRegistry.newInstance());
+    private final BookieProtoEncoding.ResponseEnDeCoderPreV3 responseCodec =
+            new BookieProtoEncoding.ResponseEnDeCoderPreV3(ExtensionRegistry.newInstance());
+
+    private static byte[] masterKey() {
+        byte[] masterKey = new byte[BookieProtocol.MASTER_KEY_LENGTH];
+        for (int i = 0; i < masterKey.length; i++) {
+            masterKey[i] = (byte) (i + 1);
+        }
+        return masterKey;
+    }
+
+    private static ByteBuf buffer(String content) {
+        return Unpooled.wrappedBuffer(content.getBytes(UTF_8));
+    }
+
+    private static String content(ByteBuf buf) {
+        return buf.toString(buf.readerIndex(), buf.readableBytes(), UTF_8);
+    }
+
+    private static ByteBuf encodeToBuffer(Object encoded) {
+        if (encoded instanceof ByteBufList) {
+            ByteBufList list = (ByteBufList) encoded;
+            ByteBuf buf = ByteBufList.coalesce(list);
+            list.release();
+            return buf;
+        }
+        return (ByteBuf) encoded;
+    }
+
+    @Test
+    public void testRequestRoundTrip() throws Exception {
+        // the first entry is made of a digest header and a payload in separate buffers, as the client sends it
+        ByteBufList entry0 = ByteBufList.get(buffer("digest-0|"), buffer("payload-0"));
+        ByteBufList entry1 = ByteBufList.get(buffer("entry-1"));
+        ByteBufList entry2 = ByteBufList.get(buffer(""));
+        List<ByteBufList> entries = Arrays.asList(entry0, entry1, entry2);
+        short flags = BookieProtocol.FLAG_HIGH_PRIORITY;
+
+        BookieProtocol.MultiAddRequest request = new BookieProtocol.MultiAddRequest(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, LEDGER_ID, FIRST_ENTRY_ID, flags, masterKey(), entries);
+        ByteBuf packet = encodeToBuffer(requestCodec.encode(request, ByteBufAllocator.DEFAULT));
+
+        Object decoded = requestCodec.decode(packet);
+        packet.release();
+        assertTrue(decoded instanceof BookieProtocol.ParsedMultiAddRequest);
+        BookieProtocol.ParsedMultiAddRequest parsed = (BookieProtocol.ParsedMultiAddRequest) decoded;
+        assertEquals(BookieProtocol.CURRENT_PROTOCOL_VERSION, parsed.getProtocolVersion());
+        assertEquals(BookieProtocol.MULTI_ADD_ENTRY, parsed.getOpCode());
+        assertEquals(flags, parsed.getFlags());
+        assertTrue(parsed.isHighPriority());
+        assertEquals(LEDGER_ID, parsed.getLedgerId());
+        assertEquals(FIRST_ENTRY_ID, parsed.getEntryId());
+        assertArrayEquals(masterKey(), parsed.getMasterKey());
+        assertEquals(3, parsed.getNumEntries());
+        assertEquals("digest-0|payload-0", content(parsed.getData().get(0)));
+        assertEquals("entry-1", content(parsed.getData().get(1)));
+        assertEquals("", content(parsed.getData().get(2)));
+        parsed.release();
+
+        // the encoder gave back all the references it took on the entries of the request
+        for (ByteBufList entry : entries) {
+            assertEquals(1, entry.refCnt());
+            for (int i = 0; i < entry.size(); i++) {
+                assertEquals(1, entry.getBuffer(i).refCnt());
+            }
+            entry.release();
+        }
+    }
+
+    @Test
+    public void testResponseRoundTrip() throws Exception {
+        int[] entryErrorCodes = { BookieProtocol.EOK, BookieProtocol.EOK, BookieProtocol.EIO, BookieProtocol.EIO };
+        BookieProtocol.MultiAddResponse response = new BookieProtocol.MultiAddResponse(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, BookieProtocol.EOK, LEDGER_ID, FIRST_ENTRY_ID,
+                entryErrorCodes);
+        ByteBuf packet = encodeToBuffer(responseCodec.encode(response, ByteBufAllocator.DEFAULT));
+
+        Object decoded = responseCodec.decode(packet);
+        packet.release();
+        assertTrue(decoded instanceof BookieProtocol.MultiAddResponse);
+        BookieProtocol.MultiAddResponse parsed = (BookieProtocol.MultiAddResponse) decoded;
+        assertEquals(BookieProtocol.CURRENT_PROTOCOL_VERSION, parsed.getProtocolVersion());
+        assertEquals(BookieProtocol.MULTI_ADD_ENTRY, parsed.getOpCode());
+        assertEquals(BookieProtocol.EOK, parsed.getErrorCode());
+        assertEquals(LEDGER_ID, parsed.getLedgerId());
+        assertEquals(FIRST_ENTRY_ID, parsed.getEntryId());
+        assertEquals(entryErrorCodes.length, parsed.getNumEntries());
+        for (int i = 0; i < entryErrorCodes.length; i++) {
+            assertEquals(entryErrorCodes[i], parsed.getEntryErrorCode(i));
+        }
+    }
+
+    @Test
+    public void testErrorResponseRoundTrip() throws Exception {
+        // a request rejected as a whole reports the error for each of its entries
+        BookieProtocol.ParsedMultiAddRequest request = new BookieProtocol.ParsedMultiAddRequest(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, LEDGER_ID, FIRST_ENTRY_ID, BookieProtocol.FLAG_NONE,
+                masterKey(), Arrays.asList(buffer("a"), buffer("b")));
+        ByteBuf packet = encodeToBuffer(responseCodec.encode(
+                ResponseBuilder.buildErrorResponse(BookieProtocol.EREADONLY, request), ByteBufAllocator.DEFAULT));
+        request.release();
+
+        BookieProtocol.MultiAddResponse parsed = (BookieProtocol.MultiAddResponse) responseCodec.decode(packet);
+        packet.release();
+        assertEquals(BookieProtocol.EREADONLY, parsed.getErrorCode());
+        assertEquals(2, parsed.getNumEntries());
+        assertEquals(BookieProtocol.EREADONLY, parsed.getEntryErrorCode(0));
+        assertEquals(BookieProtocol.EREADONLY, parsed.getEntryErrorCode(1));
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.TestBookieImpl;
+import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests a multi add whose run of entries is cut short by an entry failing in the middle.
+ */
+public class MultiWriteEntryProcessorTest {
+
+    private static final long LEDGER_ID = 1;
+    private static final byte[] MASTER_KEY = "master-key".getBytes(UTF_8);
+
+    // id of the entry the ledger storage fails to add, -1 for none
+    private static volatile long failingEntryId = -1;
+
+    /**
+     * DbLedgerStorage failing to add the entry with id {@link #failingEntryId}.
+     */
+    public static class FailingDbLedgerStorage extends DbLedgerStorage {
+        @Override
+        public long addEntry(ByteBuf entry) throws IOException, BookieException {
+            if (entry.getLong(entry.readerIndex() + 8) == failingEntryId) {
+                throw new IOException("Injected failure of entry " + failingEntryId);
+            }
+            return super.addEntry(entry);
+        }
+    }
+
+    private File journalDir;
+    private File ledgerDir;
+    private BookieImpl bookie;
+
+    @Before
+    public void setUp() throws Exception {
+        journalDir = Files.createTempDirectory("journal").toFile();
+        ledgerDir = Files.createTempDirectory("ledger").toFile();
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(journalDir));
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setJournalDirName(journalDir.getPath())
+                .setLedgerDirNames(new String[] { ledgerDir.getPath() })
+                .setLedgerStorageClass(FailingDbLedgerStorage.class.getName())
+                .setMetadataServiceUri(null);
+        failingEntryId = 1;
+        bookie = new TestBookieImpl(conf);
+        bookie.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        failingEntryId = -1;
+        if (bookie != null) {
+            bookie.shutdown();
+        }
+        FileUtils.deleteDirectory(journalDir);
+        FileUtils.deleteDirectory(ledgerDir);
+    }
+
+    private static ByteBuf makeEntry(long entryId) {
+        ByteBuf entry = Unpooled.buffer();
+        entry.writeLong(LEDGER_ID);
+        entry.writeLong(entryId);
+        entry.writeLong(entryId - 1); // lac
+        entry.writeBytes(("entry-" + entryId).getBytes(UTF_8));
+        return entry;
+    }
+
+    private static List<ByteBuf> makeEntries(int numEntries) {
+        List<ByteBuf> entries = new ArrayList<>();
+        for (long entryId = 0; entryId < numEntries; entryId++) {
+            entries.add(makeEntry(entryId));
+        }
+        return entries;
+    }
+
+    @Test
+    public void testBookieStopsAtFailedEntry() throws Exception {
+        Map<Long, Integer> results = new ConcurrentHashMap<>();
+        CompletableFuture<Void> firstWritten = new CompletableFuture<>();
+        int added = bookie.addEntries(makeEntries(3), false, (rc, ledgerId, entryId, addr, ctx) -> {
+            results.put(entryId, rc);
+            firstWritten.complete(null);
+        }, null, MASTER_KEY);
+
+        // only the entry before the failed one is added and acknowledged
+        assertEquals(1, added);
+        firstWritten.get(10, TimeUnit.SECONDS);
+        assertEquals(1, results.size());
+        assertEquals(BookieException.Code.OK, (int) results.get(0L));
+
+        ByteBuf entry = bookie.readEntry(LEDGER_ID, 0);
+        assertEquals(makeEntry(0), entry);
+        entry.release();
+        try {
+            bookie.readEntry(LEDGER_ID, 1).release();
+            fail("The failed entry should not have been added");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testEntriesAfterFailedEntryReportEIO() throws Exception {
+        BookieRequestProcessor requestProcessor = mock(BookieRequestProcessor.class);
+        when(requestProcessor.getBookie()).thenReturn(bookie);
+        when(requestProcessor.getRequestStats()).thenReturn(new RequestStats(NullStatsLogger.INSTANCE));
+
+        CompletableFuture<Object> response = new CompletableFuture<>();
+        Channel channel = mock(Channel.class);
+        when(channel.isActive()).thenReturn(true);
+        when(channel.voidPromise()).thenReturn(mock(ChannelPromise.class));
+        when(channel.writeAndFlush(any(), any())).thenAnswer(invocation -> {
+            response.complete(invocation.getArgument(0));
+            return null;
+        });
+
+        BookieProtocol.ParsedMultiAddRequest request = new BookieProtocol.ParsedMultiAddRequest(
+                BookieProtocol.CURRENT_PROTOCOL_VERSION, LEDGER_ID, 0L, BookieProtocol.FLAG_NONE, MASTER_KEY,
+                makeEntries(3));
+        MultiWriteEntryProcessor.create(request, channel, requestProcessor).run();
+
+        // a single response, once the entry before the failed one is written, telling to retry the others
+        BookieProtocol.MultiAddResponse multiAddResponse =
+                (BookieProtocol.MultiAddResponse) response.get(10, TimeUnit.SECONDS);
+        assertEquals(LEDGER_ID, multiAddResponse.getLedgerId());
+        assertEquals(0L, multiAddResponse.getEntryId());
+        assertEquals(3, multiAddResponse.getNumEntries());
+        assertEquals(BookieProtocol.EOK, multiAddResponse.getEntryErrorCode(0));
+        assertEquals(BookieProtocol.EIO, multiAddResponse.getEntryErrorCode(1));
+        assertEquals(BookieProtocol.EIO, multiAddResponse.getEntryErrorCode(2));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the write flags of the adds sent by {@link PerChannelBookieClient}.
+ */
+public class PerChannelBookieClientWriteFlagsTest {
+
+    private static final byte[] MASTER_KEY = new byte[0];
+
+    private OrderedExecutor executor;
+    private EventLoopGroup eventLoopGroup;
+
+    @Before
+    public void setUp() {
+        executor = OrderedExecutor.newBuilder().name("pcbc-write-flags-test").numThreads(1).build();
+        eventLoopGroup = new NioEventLoopGroup(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        eventLoopGroup.shutdownGracefully();
+        executor.shutdown();
+    }
+
+    private int addEntryV2(EnumSet<WriteFlag> writeFlags) throws Exception {
+        ClientConfiguration conf = new ClientConfiguration();
+        conf.setUseV2WireProtocol(true);
+        PerChannelBookieClient client = new PerChannelBookieClient(conf, executor, eventLoopGroup,
+                BookieId.parse("127.0.0.1:3181"), NullStatsLogger.INSTANCE, null, null, null,
+                BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+        try {
+            CompletableFuture<Integer> result = new CompletableFuture<>();
+            client.addEntry(1L, MASTER_KEY, 0L, ByteBufList.get(Unpooled.wrappedBuffer(new byte[16])),
+                    (rc, ledgerId, entryId, addr, ctx) -> result.complete(rc), null, 0, false, writeFlags);
+            return result.get(10, TimeUnit.SECONDS);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testV2RejectsSkipJournal() throws Exception {
+        // v2 requests can't carry write flags, so the add fails rather than silently dropping the flag
+        assertEquals(BKException.Code.IllegalOpException, addEntryV2(EnumSet.of(WriteFlag.SKIP_JOURNAL)));
+    }
+
+    @Test
+    public void testV2RejectsDeferredSync() throws Exception {
+        assertEquals(BKException.Code.IllegalOpException, addEntryV2(EnumSet.of(WriteFlag.DEFERRED_SYNC)));
+        assertEquals(BKException.Code.IllegalOpException,
+                addEntryV2(EnumSet.of(WriteFlag.DEFERRED_SYNC, WriteFlag.SKIP_JOURNAL)));
+    }
+
+    @Test
+    public void testWriteFlagsValue() {
+        // the binary value sent in v3 requests, and read back by the bookies
+        for (EnumSet<WriteFlag> flags : Arrays.asList(WriteFlag.NONE, EnumSet.of(WriteFlag.DEFERRED_SYNC),
+                EnumSet.of(WriteFlag.SKIP_JOURNAL), EnumSet.of(WriteFlag.DEFERRED_SYNC, WriteFlag.SKIP_JOURNAL))) {
+            assertEquals(flags, WriteFlag.getWriteFlags(WriteFlag.getWriteFlagsValue(flags)));
+        }
+        assertEquals(2, WriteFlag.getWriteFlagsValue(EnumSet.of(WriteFlag.SKIP_JOURNAL)));
+        // the bits of flags unknown to the bookie are ignored
+        assertEquals(EnumSet.of(WriteFlag.SKIP_JOURNAL), WriteFlag.getWriteFlags(0x2 | 0x8));
+    }
+}
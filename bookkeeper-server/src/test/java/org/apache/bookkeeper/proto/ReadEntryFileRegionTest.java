@@ -0,0 +1,244 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.FileRegion;
+import io.netty.channel.nio.NioEventLoopGroup;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.bookkeeper.bookie.BookieException;
+import org.apache.bookkeeper.bookie.BookieImpl;
+import org.apache.bookkeeper.bookie.TestBookieImpl;
+import org.apache.bookkeeper.bookie.UncleanShutdownDetection;
+import org.apache.bookkeeper.bookie.storage.ldb.DbLedgerStorage;
+import org.apache.bookkeeper.client.BKException;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.conf.ClientConfiguration;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.bookkeeper.net.BookieSocketAddress;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.tls.SecurityHandlerFactory;
+import org.apache.bookkeeper.tls.SecurityProviderFactoryFactory;
+import org.apache.bookkeeper.tls.TLSContextFactory;
+import org.apache.bookkeeper.utils.TestBKConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Reads entries through a bookie server which sends the entries of its entry logs with sendfile, on plain TCP
+ * connections only.
+ */
+public class ReadEntryFileRegionTest {
+
+    private static final long LEDGER_ID = 1;
+    private static final byte[] MASTER_KEY = "master-key".getBytes(UTF_8);
+    private static final int ZERO_COPY_MIN_SIZE = 1024;
+    private static final int LARGE_ENTRY_SIZE = 256 * 1024;
+    private static final int SMALL_ENTRY_SIZE = 100;
+    private static final int NUM_ENTRIES = 10;
+
+    // the number of entries the ledger storage returned as regions of their entry log
+    private static final AtomicInteger regionsRead = new AtomicInteger();
+
+    /**
+     * DbLedgerStorage counting the entries it returns as file regions.
+     */
+    public static class RegionCountingDbLedgerStorage extends DbLedgerStorage {
+        @Override
+        public FileRegion getEntryRegion(long ledgerId, long entryId, int minEntrySize)
+                throws IOException, BookieException {
+            FileRegion region = super.getEntryRegion(ledgerId, entryId, minEntrySize);
+            if (region != null) {
+                regionsRead.incrementAndGet();
+            }
+            return region;
+        }
+    }
+
+    private File journalDir;
+    private File ledgerDir;
+    private BookieServer server;
+    private OrderedExecutor executor;
+    private EventLoopGroup eventLoopGroup;
+    private PerChannelBookieClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        journalDir = Files.createTempDirectory("journal").toFile();
+        ledgerDir = Files.createTempDirectory("ledger").toFile();
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(journalDir));
+        BookieImpl.checkDirectoryStructure(BookieImpl.getCurrentDirectory(ledgerDir));
+        regionsRead.set(0);
+        executor = OrderedExecutor.newBuilder().name("read-region-test").numThreads(1).build();
+        eventLoopGroup = new NioEventLoopGroup(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+        if (server != null) {
+            server.shutdown();
+        }
+        eventLoopGroup.shutdownGracefully();
+        executor.shutdown();
+        FileUtils.deleteDirectory(journalDir);
+        FileUtils.deleteDirectory(ledgerDir);
+    }
+
+    private static String resource(String name) {
+        return ReadEntryFileRegionTest.class.getClassLoader().getResource(name).getPath();
+    }
+
+    private void startServerAndClient(boolean tls) throws Exception {
+        ServerConfiguration conf = TestBKConfiguration.newServerConfiguration();
+        conf.setJournalDirName(journalDir.getPath())
+                .setLedgerDirNames(new String[] { ledgerDir.getPath() })
+                .setLedgerStorageClass(RegionCountingDbLedgerStorage.class.getName())
+                .setMetadataServiceUri(null);
+        conf.setDisableServerSocketBind(false);
+        conf.setReadEntryZeroCopyMinSize(ZERO_COPY_MIN_SIZE);
+        // no read-ahead, which would read the next entries into the read cache rather than send them from the logs
+        conf.setProperty("dbStorage_readAheadCacheBatchSize", 0);
+        conf.setProperty("dbStorage_readAheadAdaptive", false);
+
+        ClientConfiguration clientConf = TestBKConfiguration.newClientConfiguration();
+        clientConf.setUseV2WireProtocol(true);
+        SecurityHandlerFactory shFactory = null;
+        if (tls) {
+            conf.setTLSProviderFactoryClass(TLSContextFactory.class.getName());
+            conf.setTLSKeyStoreType("JKS")
+                    .setTLSKeyStore(resource("server-key.jks"))
+                    .setTLSKeyStorePasswordPath(resource("keyStoreServerPassword.txt"))
+                    .setTLSTrustStoreType("JKS")
+                    .setTLSTrustStore(resource("client-key.jks"))
+                    .setTLSTrustStorePasswordPath(resource("keyStoreClientPassword.txt"));
+
+            clientConf.setTLSProviderFactoryClass(TLSContextFactory.class.getName());
+            clientConf.setTLSKeyStoreType("JKS")
+                    .setTLSKeyStore(resource("client-key.jks"))
+                    .setTLSKeyStorePasswordPath(resource("keyStoreClientPassword.txt"))
+                    .setTLSTrustStoreType("JKS")
+                    .setTLSTrustStore(resource("server-key.jks"))
+                    .setTLSTrustStorePasswordPath(resource("keyStoreServerPassword.txt"));
+            shFactory = SecurityProviderFactoryFactory.getSecurityProviderFactory(
+                    clientConf.getTLSProviderFactoryClass());
+        }
+
+        server = new BookieServer(conf, new TestBookieImpl(conf), NullStatsLogger.INSTANCE,
+                UnpooledByteBufAllocator.DEFAULT, mock(UncleanShutdownDetection.class));
+        server.start();
+        client = new PerChannelBookieClient(clientConf, executor, eventLoopGroup, UnpooledByteBufAllocator.DEFAULT,
+                server.getBookieId(), NullStatsLogger.INSTANCE, null, null, null, shFactory,
+                BookieSocketAddress.LEGACY_BOOKIEID_RESOLVER);
+    }
+
+    private static ByteBuf makeEntry(long entryId) {
+        int size = entryId % 2 == 0 ? LARGE_ENTRY_SIZE : SMALL_ENTRY_SIZE;
+        byte[] data = new byte[size];
+        new Random(entryId).nextBytes(data);
+        ByteBuf entry = Unpooled.buffer();
+        entry.writeLong(LEDGER_ID);
+        entry.writeLong(entryId);
+        entry.writeLong(entryId - 1); // lac
+        entry.writeBytes(data);
+        return entry;
+    }
+
+    /**
+     * Add entries, large and small in turn, and flush them to the entry logs so that they're no longer cached.
+     */
+    private void addAndFlushEntries() throws Exception {
+        CompletableFuture<Void> lastWritten = new CompletableFuture<>();
+        for (long entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+            server.getBookie().addEntry(makeEntry(entryId), false, (rc, ledgerId, addedEntryId, addr, ctx) -> {
+                if (rc != BookieException.Code.OK) {
+                    lastWritten.completeExceptionally(BookieException.create(rc));
+                } else if (addedEntryId == NUM_ENTRIES - 1) {
+                    lastWritten.complete(null);
+                }
+            }, null, MASTER_KEY);
+        }
+        lastWritten.get(10, TimeUnit.SECONDS);
+        server.getBookie().getLedgerStorage().flush();
+    }
+
+    private byte[] readEntry(long entryId) throws Exception {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        client.readEntry(LEDGER_ID, entryId, (rc, ledgerId, readEntryId, buffer, ctx) -> {
+            if (rc != BKException.Code.OK) {
+                result.completeExceptionally(BKException.create(rc));
+                return;
+            }
+            byte[] data = new byte[buffer.readableBytes()];
+            buffer.getBytes(buffer.readerIndex(), data);
+            result.complete(data);
+        }, null, BookieProtocol.FLAG_NONE, null, false);
+        return result.get(10, TimeUnit.SECONDS);
+    }
+
+    private void readAndCheckEntries() throws Exception {
+        for (long entryId = 0; entryId < NUM_ENTRIES; entryId++) {
+            ByteBuf expected = makeEntry(entryId);
+            byte[] expectedBytes = new byte[expected.readableBytes()];
+            expected.readBytes(expectedBytes);
+            expected.release();
+            assertArrayEquals("entry " + entryId, expectedBytes, readEntry(entryId));
+        }
+    }
+
+    @Test
+    public void testReadOverSendfile() throws Exception {
+        startServerAndClient(false);
+        addAndFlushEntries();
+        readAndCheckEntries();
+
+        // the large entries were sent from their entry log, the small ones were read into memory
+        assertEquals(NUM_ENTRIES / 2, regionsRead.get());
+    }
+
+    @Test
+    public void testReadOverTls() throws Exception {
+        startServerAndClient(true);
+        addAndFlushEntries();
+        readAndCheckEntries();
+
+        // the entries must go through the TLS handler, so none is sent with sendfile
+        assertEquals(0, regionsRead.get());
+    }
+}
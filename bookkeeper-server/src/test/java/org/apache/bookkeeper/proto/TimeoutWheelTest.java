@@ -0,0 +1,222 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link TimeoutWheel}.
+ */
+public class TimeoutWheelTest {
+
+    private static final long TICK = 100;
+    private static final int SLOTS = 8;
+
+    private static class TestNode extends TimeoutWheel.Node {
+        final long id;
+        final AtomicInteger callbacks = new AtomicInteger();
+
+        TestNode(long id) {
+            this.id = id;
+        }
+    }
+
+    private static List<TestNode> expire(TimeoutWheel<TestNode> wheel, long nowNanos) {
+        List<TestNode> expired = new ArrayList<>();
+        assertEquals(wheel.expire(nowNanos, node -> true, expired::add), expired.size());
+        return expired;
+    }
+
+    private static TestNode add(TimeoutWheel<TestNode> wheel, long deadlineNanos) {
+        TestNode node = new TestNode(deadlineNanos);
+        wheel.add(node, deadlineNanos);
+        return node;
+    }
+
+    @Test
+    public void testExpireAtDeadline() {
+        TimeoutWheel<TestNode> wheel = new TimeoutWheel<>(TICK, SLOTS, 0);
+        TestNode node = add(wheel, 250);
+
+        // the slot of the current tick is walked again on the next run, until its tick is over
+        assertTrue(expire(wheel, 249).isEmpty());
+        assertEquals(1, expire(wheel, 250).size());
+        assertTrue(expire(wheel, 1000).isEmpty());
+
+        // a node can be added again once expired
+        wheel.add(node, 1050);
+        assertTrue(expire(wheel, 1049).isEmpty());
+        assertEquals(1, expire(wheel, 1050).size());
+    }
+
+    @Test
+    public void testExpireAtTickBoundaries() {
+        TimeoutWheel<TestNode> wheel = new TimeoutWheel<>(TICK, SLOTS, 0);
+        TestNode lastOfTick = add(wheel, 299);
+        TestNode firstOfNextTick = add(wheel, 300);
+
+        List<TestNode> expired = expire(wheel, 299);
+        assertEquals(1, expired.size());
+        assertEquals(lastOfTick, expired.get(0));
+
+        expired = expire(wheel, 300);
+        assertEquals(1, expired.size());
+        assertEquals(firstOfNextTick, expired.get(0));
+    }
+
+    @Test
+    public void testExpireAtSlotBoundaries() {
+        TimeoutWheel<TestNode> wheel = new TimeoutWheel<>(TICK, SLOTS, 0);
+        // the last slot of the wheel, and the first slot of its next round
+        TestNode lastSlot = add(wheel, (SLOTS - 1) * TICK);
+        TestNode firstSlotNextRound = add(wheel, SLOTS * TICK);
+        // a deadline more than a whole round ahead, in the same slot as the first node
+        TestNode nextRound = add(wheel, (2 * SLOTS - 1) * TICK);
+
+        List<TestNode> expired = expire(wheel, (SLOTS - 1) * TICK);
+        assertEquals(1, expired.size());
+        assertEquals(lastSlot, expired.get(0));
+
+        expired = expire(wheel, SLOTS * TICK);
+        assertEquals(1, expired.size());
+        assertEquals(firstSlotNextRound, expired.get(0));
+
+        // the node of the next round was left in its slot when the first node expired, until its own deadline
+        assertTrue(expire(wheel, (2 * SLOTS - 1) * TICK - 1).isEmpty());
+        expired = expire(wheel, (2 * SLOTS - 1) * TICK);
+        assertEquals(1, expired.size());
+        assertEquals(nextRound, expired.get(0));
+    }
+
+    @Test
+    public void testDeadlineAlreadyWalked() {
+        TimeoutWheel<TestNode> wheel = new TimeoutWheel<>(TICK, SLOTS, 0);
+        assertTrue(expire(wheel, 550).isEmpty());
+
+        // a deadline in a tick walked already goes to the current tick, rather than waiting for a whole round
+        TestNode late = add(wheel, 100);
+        List<TestNode> expired = expire(wheel, 550);
+        assertEquals(1, expired.size());
+        assertEquals(late, expired.get(0));
+    }
+
+    @Test
+    public void testLongPauseBetweenRuns() {
+        TimeoutWheel<TestNode> wheel = new TimeoutWheel<>(TICK, SLOTS, 0);
+        int numNodes = 4 * SLOTS;
+        for (int i = 0; i < numNodes; i++) {
+            add(wheel, i * TICK);
+        }
+
+        // the wheel went round several times since it was created, all the nodes are expired with a single walk
+        assertEquals(numNodes, expire(wheel, numNodes * TICK).size());
+        assertTrue(expire(wheel, 2 * numNodes * TICK).isEmpty());
+    }
+
+    @Test
+    public void testRemove() {
+        TimeoutWheel<TestNode> wheel = new TimeoutWheel<>(TICK, SLOTS, 0);
+        TestNode first = add(wheel, 100);
+        TestNode second = add(wheel, 100);
+        TestNode third = add(wheel, 100);
+
+        // unlinking a node in the middle of its slot keeps the others
+        wheel.remove(second);
+        wheel.remove(second);
+        List<TestNode> expired = expire(wheel, 100);
+        assertEquals(2, expired.size());
+        assertTrue(expired.contains(first));
+        assertTrue(expired.contains(third));
+
+        // removing a node expired already does nothing
+        wheel.remove(first);
+        assertTrue(expire(wheel, 1000).isEmpty());
+    }
+
+    @Test
+    public void testUnclaimedNodeStays() {
+        TimeoutWheel<TestNode> wheel = new TimeoutWheel<>(TICK, SLOTS, 0);
+        TestNode node = add(wheel, 100);
+
+        List<TestNode> expired = new ArrayList<>();
+        assertEquals(0, wheel.expire(100, n -> false, expired::add));
+        assertTrue(expired.isEmpty());
+
+        // the node wasn't claimed, so it's still in the wheel on the next run of its slot
+        assertEquals(1, wheel.expire(150, n -> true, expired::add));
+        assertEquals(node, expired.get(0));
+    }
+
+    @Test
+    public void testCompletionRacingTimeout() throws Exception {
+        // the requests in flight are claimed either by their response or by their timeout, like in the channel
+        V2CompletionTable<TestNode> inFlight = new V2CompletionTable<>();
+        TimeoutWheel<TestNode> wheel = new TimeoutWheel<>(TICK, SLOTS, 0);
+
+        for (int round = 0; round < 20; round++) {
+            int numNodes = 10_000;
+            List<TestNode> nodes = new ArrayList<>();
+            for (int i = 0; i < numNodes; i++) {
+                TestNode node = new TestNode(i);
+                wheel.add(node, 0);
+                inFlight.put(round, i, 0, node);
+                nodes.add(node);
+            }
+
+            long now = (round + 1) * TICK;
+            final long ledgerId = round;
+            CyclicBarrier barrier = new CyclicBarrier(2);
+            Thread completer = new Thread(() -> {
+                try {
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                for (int i = 0; i < numNodes; i++) {
+                    TestNode node = inFlight.remove(ledgerId, i, 0);
+                    if (node != null) {
+                        wheel.remove(node);
+                        node.callbacks.incrementAndGet();
+                    }
+                }
+            });
+            completer.start();
+            barrier.await();
+            wheel.expire(now, node -> inFlight.remove(ledgerId, node.id, 0, node),
+                    node -> node.callbacks.incrementAndGet());
+            completer.join();
+
+            // every request is completed exactly once, whichever of its response or its timeout came first
+            for (TestNode node : nodes) {
+                assertEquals(1, node.callbacks.get());
+            }
+            assertEquals(0, inFlight.size());
+            assertTrue(expire(wheel, now).isEmpty());
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link V2CompletionTable}.
+ */
+public class V2CompletionTableTest {
+
+    private static final int ADD = 1;
+    private static final int READ = 2;
+
+    @Test
+    public void testPutGetRemove() {
+        V2CompletionTable<String> table = new V2CompletionTable<>();
+        assertEquals(0, table.size());
+        assertNull(table.get(1, 0, ADD));
+        assertNull(table.remove(1, 0, ADD));
+
+        table.put(1, 0, ADD, "add-1-0");
+        table.put(1, 0, READ, "read-1-0");
+        table.put(1, 1, ADD, "add-1-1");
+        table.put(2, 0, ADD, "add-2-0");
+        assertEquals(4, table.size());
+
+        // the three fields of the key are matched
+        assertEquals("add-1-0", table.get(1, 0, ADD));
+        assertEquals("read-1-0", table.get(1, 0, READ));
+        assertEquals("add-1-1", table.get(1, 1, ADD));
+        assertEquals("add-2-0", table.get(2, 0, ADD));
+        assertNull(table.get(2, 1, ADD));
+
+        assertEquals("add-1-0", table.remove(1, 0, ADD));
+        assertNull(table.get(1, 0, ADD));
+        assertNull(table.remove(1, 0, ADD));
+        assertEquals(3, table.size());
+    }
+
+    @Test
+    public void testSameKeyClaimedInFifoOrder() {
+        V2CompletionTable<String> table = new V2CompletionTable<>();
+        for (int i = 0; i < 5; i++) {
+            table.put(1, 0, READ, "read-" + i);
+        }
+        assertEquals(5, table.size());
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("read-" + i, table.get(1, 0, READ));
+            assertEquals("read-" + i, table.remove(1, 0, READ));
+        }
+        assertNull(table.remove(1, 0, READ));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testFifoOrderWithReusedBucket() {
+        // a single section with room enough to never resize
+        V2CompletionTable<String> table = new V2CompletionTable<>(16, 1);
+        String first = "read-0";
+        table.put(1, 0, READ, first);
+        table.put(1, 0, READ, "read-1");
+
+        // removing the first value leaves a deleted bucket ahead of the second one, which the next put reuses,
+        // so the newest value comes first in probe order
+        assertTrue(table.remove(1, 0, READ, first));
+        table.put(1, 0, READ, "read-2");
+
+        assertEquals("read-1", table.get(1, 0, READ));
+        assertEquals("read-1", table.remove(1, 0, READ));
+        assertEquals("read-2", table.remove(1, 0, READ));
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testRemoveValue() {
+        V2CompletionTable<String> table = new V2CompletionTable<>();
+        String value1 = new String("read");
+        String value2 = new String("read");
+        table.put(1, 0, READ, value1);
+        table.put(1, 0, READ, value2);
+
+        // the value is matched by identity, and only with its own key
+        assertFalse(table.remove(1, 0, READ, new String("read")));
+        assertFalse(table.remove(1, 1, READ, value2));
+        assertFalse(table.remove(1, 0, ADD, value2));
+        assertTrue(table.remove(1, 0, READ, value2));
+        assertFalse(table.remove(1, 0, READ, value2));
+        assertEquals(1, table.size());
+        assertSame(value1, table.get(1, 0, READ));
+    }
+
+    @Test
+    public void testDeletedBucketsReused() {
+        // a small table going through many more keys than its capacity, with a sliding window of keys in flight
+        V2CompletionTable<Long> table = new V2CompletionTable<>(16, 1);
+        Deque<Long> inFlight = new ArrayDeque<>();
+        Random random = new Random(1);
+        for (long entryId = 0; entryId < 100_000; entryId++) {
+            table.put(1, entryId, ADD, entryId);
+            inFlight.addLast(entryId);
+            if (inFlight.size() > 8) {
+                // the responses don't all come back in order
+                long completed = random.nextBoolean() ? inFlight.pollFirst() : inFlight.pollLast();
+                assertEquals(completed, (long) table.remove(1, completed, ADD));
+            }
+        }
+
+        assertEquals(inFlight.size(), table.size());
+        for (long entryId : inFlight) {
+            assertEquals(entryId, (long) table.get(1, entryId, ADD));
+        }
+        List<Long> expected = new ArrayList<>(inFlight);
+        Collections.sort(expected);
+        List<Long> values = table.values();
+        Collections.sort(values);
+        assertEquals(expected, values);
+    }
+
+    @Test
+    public void testResize() {
+        V2CompletionTable<String> table = new V2CompletionTable<>(2, 1);
+        int numKeys = 2_000;
+        for (int i = 0; i < numKeys; i++) {
+            table.put(i % 10, i, ADD, "add-" + i);
+            // a duplicated key, whose order must survive the resizes
+            table.put(0, 0, READ, "read-" + i);
+        }
+        assertEquals(2 * numKeys, table.size());
+        assertEquals(2 * numKeys, table.values().size());
+
+        for (int i = 0; i < numKeys; i++) {
+            assertEquals("add-" + i, table.get(i % 10, i, ADD));
+        }
+        for (int i = 0; i < numKeys; i++) {
+            assertEquals("read-" + i, table.remove(0, 0, READ));
+        }
+        assertEquals(numKeys, table.size());
+    }
+
+    @Test
+    public void testResizeUnderConcurrentPutAndClaim() throws Exception {
+        int numThreads = 8;
+        int numKeys = 20_000;
+        // start small, so that the table resizes while the other threads put and claim values
+        V2CompletionTable<String> table = new V2CompletionTable<>(numThreads, numThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CyclicBarrier barrier = new CyclicBarrier(numThreads);
+        try {
+            List<Future<Map<String, String>>> futures = new ArrayList<>();
+            for (int t = 0; t < numThreads; t++) {
+                final long ledgerId = t;
+                futures.add(executor.submit(() -> {
+                    // the values claimed which aren't the expected ones, by expected value
+                    Map<String, String> errors = new HashMap<>();
+                    barrier.await();
+                    for (int i = 0; i < numKeys; i++) {
+                        table.put(ledgerId, i, ADD, ledgerId + "-" + i);
+                        // the read is put twice, and its values must come back in order
+                        table.put(ledgerId, i, READ, ledgerId + "-" + i + "-a");
+                        table.put(ledgerId, i, READ, ledgerId + "-" + i + "-b");
+                        if (i % 2 == 1) {
+                            // claim the previous key, whose bucket may have moved meanwhile
+                            check(errors, ledgerId + "-" + (i - 1), table.get(ledgerId, i - 1, ADD));
+                            check(errors, ledgerId + "-" + (i - 1), table.remove(ledgerId, i - 1, ADD));
+                            check(errors, ledgerId + "-" + i, table.remove(ledgerId, i, ADD));
+                        }
+                    }
+                    for (int i = 0; i < numKeys; i++) {
+                        check(errors, ledgerId + "-" + i + "-a", table.remove(ledgerId, i, READ));
+                        check(errors, ledgerId + "-" + i + "-b", table.remove(ledgerId, i, READ));
+                    }
+                    return errors;
+                }));
+            }
+            for (Future<Map<String, String>> future : futures) {
+                assertEquals(new HashMap<>(), future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(0, table.size());
+        assertTrue(table.values().isEmpty());
+    }
+
+    private static void check(Map<String, String> errors, String expected, String actual) {
+        if (!expected.equals(actual)) {
+            errors.put(expected, actual);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *
+ */
+package org.apache.bookkeeper.proto.checksum;
+
+import static org.apache.bookkeeper.proto.checksum.DigestManager.PARALLEL_DIGEST_CHUNK_SIZE;
+import static org.apache.bookkeeper.proto.checksum.DigestManager.PARALLEL_DIGEST_MIN_SIZE;
+import static org.apache.bookkeeper.proto.checksum.DigestManager.PARALLEL_DIGEST_THREADS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.scurrilous.circe.checksum.Crc32cIntChecksum;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import org.apache.bookkeeper.client.BKException.BKDigestMatchException;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.junit.Test;
+
+/**
+ * Tests that the digests of large payloads, checksummed in chunks on several threads and combined, are the digests
+ * computed serially.
+ */
+public class DigestManagerParallelTest {
+
+    private static final long LEDGER_ID = 1234L;
+    private static final long ENTRY_ID = 5L;
+    private static final long LAC = 4L;
+
+    // payloads with a single chunk short of the parallel path, exactly 4 chunks, and chunks not dividing them
+    private static final int[] PAYLOAD_SIZES = {
+        PARALLEL_DIGEST_MIN_SIZE - 1,
+        PARALLEL_DIGEST_MIN_SIZE,
+        PARALLEL_DIGEST_MIN_SIZE + 17,
+        9 * PARALLEL_DIGEST_CHUNK_SIZE + 3
+    };
+
+    /**
+     * CRC32C digest manager recording the chunks it checksums, and the threads checksumming them.
+     */
+    private static class CountingCRC32CDigestManager extends CRC32CDigestManager {
+        final AtomicInteger chunks = new AtomicInteger();
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        volatile RuntimeException failure = null;
+
+        CountingCRC32CDigestManager() {
+            super(LEDGER_ID, true, UnpooledByteBufAllocator.DEFAULT);
+        }
+
+        @Override
+        public long checksumChunk(ByteBuf chunk) {
+            chunks.incrementAndGet();
+            threads.add(Thread.currentThread());
+            if (failure != null) {
+                throw failure;
+            }
+            return super.checksumChunk(chunk);
+        }
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static ByteBuf header(long length) {
+        ByteBuf header = Unpooled.buffer(DigestManager.METADATA_LENGTH);
+        header.writeLong(LEDGER_ID);
+        header.writeLong(ENTRY_ID);
+        header.writeLong(LAC);
+        header.writeLong(length);
+        return header;
+    }
+
+    /**
+     * The digest of the header and the payload, both taken as a whole by the serial path.
+     */
+    private static ByteBuf serialDigest(DigestManager digestManager, ByteBuf payload) {
+        ByteBuf digest = Unpooled.buffer(digestManager.getMacCodeLength());
+        digestManager.update(header(payload.readableBytes()));
+        digestManager.update(payload.duplicate());
+        digestManager.populateValueAndReset(digest);
+        return digest;
+    }
+
+    private static ByteBuf sentDigest(DigestManager digestManager, ByteBuf payload) {
+        ByteBufList packet = digestManager.computeDigestAndPackageForSending(ENTRY_ID, LAC, payload.readableBytes(),
+                payload.retainedDuplicate());
+        ByteBuf headers = packet.getBuffer(0);
+        ByteBuf digest = headers.slice(DigestManager.METADATA_LENGTH, digestManager.getMacCodeLength()).copy();
+        packet.release();
+        return digest;
+    }
+
+    private static CompositeByteBuf composite(byte[] data, int componentSize) {
+        CompositeByteBuf composite = Unpooled.compositeBuffer(Integer.MAX_VALUE);
+        for (int offset = 0; offset < data.length; offset += componentSize) {
+            composite.addComponent(true, Unpooled.wrappedBuffer(data, offset,
+                    Math.min(componentSize, data.length - offset)));
+        }
+        return composite;
+    }
+
+    private void testDigest(DigestManager digestManager, ByteBuf expectedDigest, ByteBuf payload) {
+        assertEquals(expectedDigest, serialDigest(digestManager, payload));
+        assertEquals(expectedDigest, sentDigest(digestManager, payload));
+    }
+
+    @Test
+    public void testCRC32C() {
+        DigestManager digestManager = new CRC32CDigestManager(LEDGER_ID, true, UnpooledByteBufAllocator.DEFAULT);
+        for (int size : PAYLOAD_SIZES) {
+            byte[] data = randomBytes(size);
+            ByteBuf expected = Unpooled.buffer(4).writeInt(Crc32cIntChecksum.computeChecksum(
+                    Unpooled.wrappedBuffer(header(size), Unpooled.wrappedBuffer(data))));
+
+            testDigest(digestManager, expected, Unpooled.wrappedBuffer(data));
+            ByteBuf direct = Unpooled.directBuffer(size).writeBytes(data);
+            testDigest(digestManager, expected, direct);
+            direct.release();
+        }
+    }
+
+    @Test
+    public void testCRC32() {
+        DigestManager digestManager = new CRC32DigestManager(LEDGER_ID, true, UnpooledByteBufAllocator.DEFAULT);
+        for (int size : PAYLOAD_SIZES) {
+            byte[] data = randomBytes(size);
+            CRC32 crc = new CRC32();
+            crc.update(header(size).nioBuffer());
+            crc.update(data);
+            ByteBuf expected = Unpooled.buffer(8).writeLong(crc.getValue());
+
+            testDigest(digestManager, expected, Unpooled.wrappedBuffer(data));
+            ByteBuf direct = Unpooled.directBuffer(size).writeBytes(data);
+            testDigest(digestManager, expected, direct);
+            direct.release();
+        }
+    }
+
+    @Test
+    public void testParallelPathTaken() {
+        CountingCRC32CDigestManager digestManager = new CountingCRC32CDigestManager();
+        ByteBuf small = Unpooled.wrappedBuffer(randomBytes(PARALLEL_DIGEST_MIN_SIZE - 1));
+        sentDigest(digestManager, small);
+        assertEquals(0, digestManager.chunks.get());
+
+        ByteBuf large = Unpooled.wrappedBuffer(randomBytes(9 * PARALLEL_DIGEST_CHUNK_SIZE + 3));
+        sentDigest(digestManager, large);
+        assertEquals(10, digestManager.chunks.get());
+    }
+
+    @Test
+    public void testCompositePayloads() throws Exception {
+        // components crossing the chunk boundaries, smaller and larger than the chunks
+        for (int componentSize : new int[] { 700 * 1024, 3 * PARALLEL_DIGEST_CHUNK_SIZE / 2,
+                5 * PARALLEL_DIGEST_CHUNK_SIZE }) {
+            for (DigestManager digestManager : new DigestManager[] {
+                    new CRC32CDigestManager(LEDGER_ID, true, UnpooledByteBufAllocator.DEFAULT),
+                    new CRC32DigestManager(LEDGER_ID, true, UnpooledByteBufAllocator.DEFAULT) }) {
+                byte[] data = randomBytes(9 * PARALLEL_DIGEST_CHUNK_SIZE + 3);
+                ByteBuf expected = serialDigest(digestManager, Unpooled.wrappedBuffer(data));
+
+                // sent as a composite, whose components are digested in turn
+                assertEquals(expected, sentDigest(digestManager, composite(data, componentSize)));
+
+                // received as a composite, whose chunks are slices over several components
+                CompositeByteBuf received = composite(data, componentSize);
+                received.addComponent(true, 0, Unpooled.wrappedBuffer(header(data.length), expected));
+                ByteBuf payload = digestManager.verifyDigestAndReturnData(ENTRY_ID, received);
+                assertEquals(Unpooled.wrappedBuffer(data), payload);
+
+                // a corrupted byte in the last chunk is still detected
+                CompositeByteBuf corrupted = composite(data, componentSize);
+                corrupted.addComponent(true, 0, Unpooled.wrappedBuffer(header(data.length), expected));
+                int last = corrupted.writerIndex() - 1;
+                corrupted.setByte(last, corrupted.getByte(last) ^ 1);
+                try {
+                    digestManager.verifyDigestAndReturnData(ENTRY_ID, corrupted);
+                    fail("The digest should not match");
+                } catch (BKDigestMatchException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testHelpersRejected() throws Exception {
+        // keep all the helpers busy and their queue full, so that the helpers of the next payload are discarded
+        CountDownLatch running = new CountDownLatch(PARALLEL_DIGEST_THREADS);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = () -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        try {
+            for (int i = 0; i < PARALLEL_DIGEST_THREADS; i++) {
+                DigestManager.ChunkHelpers.EXECUTOR.execute(blocker);
+            }
+            assertTrue(running.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < PARALLEL_DIGEST_THREADS; i++) {
+                DigestManager.ChunkHelpers.EXECUTOR.execute(blocker);
+            }
+            assertEquals(0, DigestManager.ChunkHelpers.EXECUTOR.getQueue().remainingCapacity());
+
+            // the calling thread takes every chunk, without waiting for the helpers
+            CountingCRC32CDigestManager digestManager = new CountingCRC32CDigestManager();
+            byte[] data = randomBytes(9 * PARALLEL_DIGEST_CHUNK_SIZE + 3);
+            ByteBuf expected = serialDigest(digestManager, Unpooled.wrappedBuffer(data));
+            assertEquals(expected, sentDigest(digestManager, Unpooled.wrappedBuffer(data)));
+            assertEquals(10, digestManager.chunks.get());
+            assertEquals(1, digestManager.threads.size());
+            assertTrue(digestManager.threads.contains(Thread.currentThread()));
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testChunkFailure() {
+        CountingCRC32CDigestManager digestManager = new CountingCRC32CDigestManager();
+        digestManager.failure = new IllegalStateException("chunk failure");
+        try {
+            sentDigest(digestManager, Unpooled.wrappedBuffer(randomBytes(PARALLEL_DIGEST_MIN_SIZE)));
+            fail("The failure of a chunk should fail the digest");
+        } catch (IllegalStateException e) {
+            assertSame(digestManager.failure, e);
+        }
+        // every chunk was taken, whichever thread failed
+        assertEquals(PARALLEL_DIGEST_MIN_SIZE / PARALLEL_DIGEST_CHUNK_SIZE, digestManager.chunks.get());
+
+        // the digest of the next entry doesn't start from the header of the failed one
+        digestManager.failure = null;
+        byte[] data = randomBytes(PARALLEL_DIGEST_MIN_SIZE + 17);
+        ByteBuf expected = Unpooled.buffer(4).writeInt(Crc32cIntChecksum.computeChecksum(
+                Unpooled.wrappedBuffer(header(data.length), Unpooled.wrappedBuffer(data))));
+        assertEquals(expected, sentDigest(digestManager, Unpooled.wrappedBuffer(data)));
+    }
+}
@@ -57,4 +57,17 @@ public class Crc32cIntChecksum {
         return CRC32C_HASH.resume(previousChecksum, payload);
     }
 
+    /**
+     * Computes the checksum of two consecutive payloads from their own checksums, so that the payloads can be
+     * checksummed independently
+     *
+     * @param checksum1 : checksum of the first payload
+     * @param checksum2 : checksum of the second payload
+     * @param length2 : length of the second payload
+     * @return the checksum of the first payload followed by the second payload
+     */
+    public static int combineChecksums(int checksum1, int checksum2, long length2) {
+        return CrcCombine.combine(CrcCombine.CRC32C_POLYNOMIAL, checksum1, checksum2, length2);
+    }
+
 }
@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.scurrilous.circe.checksum;
+
+/**
+ * Combines the checksums of two consecutive blocks of data into the checksum of their concatenation, for the
+ * reflected 32 bits CRCs, as zlib's {@code crc32_combine}. This allows to checksum the blocks of a large payload
+ * independently, e.g. in parallel.
+ */
+public class CrcCombine {
+
+    /**
+     * Reflected polynomial of CRC-32.
+     */
+    public static final int CRC32_POLYNOMIAL = 0xedb88320;
+
+    /**
+     * Reflected polynomial of CRC-32C (Castagnoli).
+     */
+    public static final int CRC32C_POLYNOMIAL = 0x82f63b78;
+
+    private static final int GF2_DIM = 32;
+
+    /**
+     * Computes the checksum of the concatenation of two blocks of data.
+     *
+     * @param polynomial : reflected polynomial of the crc
+     * @param crc1 : checksum of the first block
+     * @param crc2 : checksum of the second block
+     * @param length2 : length of the second block, in bytes
+     * @return the checksum of the first block followed by the second block
+     */
+    public static int combine(int polynomial, int crc1, int crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+
+        int[] even = new int[GF2_DIM]; // even-power-of-two zeros operator
+        int[] odd = new int[GF2_DIM]; // odd-power-of-two zeros operator
+
+        // put operator for one zero bit in odd
+        odd[0] = polynomial;
+        int row = 1;
+        for (int n = 1; n < GF2_DIM; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+
+        // put operator for two zero bits in even, then for four zero bits in odd
+        gf2MatrixSquare(even, odd);
+        gf2MatrixSquare(odd, even);
+
+        // apply len2 zeros to crc1, the first square puts the operator for one zero byte, eight zero bits, in even
+        do {
+            gf2MatrixSquare(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+
+            gf2MatrixSquare(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = gf2MatrixTimes(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+
+        return crc1 ^ crc2;
+    }
+
+    private static int gf2MatrixTimes(int[] matrix, int vector) {
+        int sum = 0;
+        int i = 0;
+        while (vector != 0) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+            vector >>>= 1;
+            i++;
+        }
+        return sum;
+    }
+
+    private static void gf2MatrixSquare(int[] square, int[] matrix) {
+        for (int n = 0; n < GF2_DIM; n++) {
+            square[n] = gf2MatrixTimes(matrix, matrix[n]);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package com.scurrilous.circe.checksum;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.util.Random;
+import java.util.zip.CRC32;
+import org.junit.Test;
+
+/**
+ * Known-answer tests of {@link CrcCombine}: the combined checksums of the chunks of a payload must be the checksum
+ * of the whole payload.
+ */
+public class CrcCombineTest {
+
+    private static final byte[] CHECK_INPUT = "123456789".getBytes(US_ASCII);
+    // the standard check values of both CRCs, for the input above
+    private static final int CRC32_CHECK = 0xcbf43926;
+    private static final int CRC32C_CHECK = 0xe3069283;
+
+    private static int crc32(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int crc32c(byte[] data, int offset, int length) {
+        ByteBuf buf = Unpooled.wrappedBuffer(data, offset, length);
+        return Crc32cIntChecksum.computeChecksum(buf);
+    }
+
+    @Test
+    public void testOneShotCheckValues() {
+        assertEquals(CRC32_CHECK, crc32(CHECK_INPUT, 0, CHECK_INPUT.length));
+        assertEquals(CRC32C_CHECK, crc32c(CHECK_INPUT, 0, CHECK_INPUT.length));
+    }
+
+    @Test
+    public void testCombineCheckValuesAtEverySplit() {
+        int length = CHECK_INPUT.length;
+        for (int split = 0; split <= length; split++) {
+            assertEquals("split at " + split, CRC32_CHECK, CrcCombine.combine(CrcCombine.CRC32_POLYNOMIAL,
+                    crc32(CHECK_INPUT, 0, split), crc32(CHECK_INPUT, split, length - split), length - split));
+            assertEquals("split at " + split, CRC32C_CHECK, Crc32cIntChecksum.combineChecksums(
+                    crc32c(CHECK_INPUT, 0, split), crc32c(CHECK_INPUT, split, length - split), length - split));
+        }
+    }
+
+    @Test
+    public void testCombineEmptyBlock() {
+        int crc = crc32(CHECK_INPUT, 0, CHECK_INPUT.length);
+        assertEquals(crc, CrcCombine.combine(CrcCombine.CRC32_POLYNOMIAL, crc, 0, 0));
+        assertEquals(crc, CrcCombine.combine(CrcCombine.CRC32_POLYNOMIAL, crc, crc32(CHECK_INPUT, 0, 0), 0));
+    }
+
+    @Test
+    public void testCombineChunks() {
+        byte[] data = new byte[3 * 1024 * 1024 + 17];
+        new Random(1).nextBytes(data);
+        int crc32 = crc32(data, 0, data.length);
+        int crc32c = crc32c(data, 0, data.length);
+
+        // chunks of 1MB as in the parallel digest, smaller chunks, chunks ending just around a power of two, and
+        // chunks not dividing the payload
+        for (int chunkSize : new int[] { 1024 * 1024, 4096, 4095, 4097, 65536 + 1, 1000003 }) {
+            int combined32 = 0;
+            int combined32c = 0;
+            for (int offset = 0; offset < data.length; offset += chunkSize) {
+                int length = Math.min(chunkSize, data.length - offset);
+                combined32 = CrcCombine.combine(CrcCombine.CRC32_POLYNOMIAL, combined32,
+                        crc32(data, offset, length), length);
+                combined32c = Crc32cIntChecksum.combineChecksums(combined32c,
+                        crc32c(data, offset, length), length);
+            }
+            assertEquals("chunks of " + chunkSize, crc32, combined32);
+            assertEquals("chunks of " + chunkSize, crc32c, combined32c);
+        }
+    }
+
+    @Test
+    public void testCombineResumedChecksum() {
+        // a checksum resumed over the second chunk equals the checksums of both chunks combined
+        byte[] data = new byte[2 * 1024 * 1024 + 5];
+        new Random(2).nextBytes(data);
+        int split = 1024 * 1024 + 3;
+        int first = crc32c(data, 0, split);
+        int resumed = Crc32cIntChecksum.resumeChecksum(first, Unpooled.wrappedBuffer(data, split, data.length - split));
+        assertEquals(resumed, Crc32cIntChecksum.combineChecksums(first, crc32c(data, split, data.length - split),
+                data.length - split));
+        assertEquals(crc32c(data, 0, data.length), resumed);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorage.Batch;
+import org.apache.bookkeeper.bookie.storage.ldb.KeyValueStorageFactory.DbConfigType;
+import org.apache.bookkeeper.conf.ServerConfiguration;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks comparing the {@link KeyValueStorage} methods taking arrays with the ones
+ * taking direct buffers, on the kind of lookups and batched writes done by the entry location index.
+ *
+ * <p>Besides the throughput, the allocation rate reported by the gc profiler
+ * ({@code gc.alloc.rate.norm}) shows the garbage produced per operation.
+ *
+ * <p>To run:
+ * build project from command line.
+ * execute ./run.sh KeyValueStorageBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class KeyValueStorageBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    /**
+     * State holder of the test.
+     */
+    @State(Scope.Benchmark)
+    public static class TestState {
+        @Param({"1000"})
+        private int ledgers;
+
+        @Param({"1000"})
+        private int entriesPerLedger;
+
+        private File dir;
+        private KeyValueStorage storage;
+        private long nextLedgerId;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            dir = Files.createTempDirectory("kv-storage-benchmark").toFile();
+
+            ServerConfiguration conf = new ServerConfiguration();
+            conf.setEntryLocationRocksdbConf(rocksDbConf("entry_location_rocksdb.conf"));
+            conf.setDefaultRocksDBConf(rocksDbConf("default_rocksdb.conf"));
+            storage = new KeyValueStorageRocksDB(dir.toString(), "locations", DbConfigType.EntryLocation, conf);
+
+            LongPairWrapper key = LongPairWrapper.get(0, 0);
+            LongWrapper value = LongWrapper.get();
+            Batch batch = storage.newBatch();
+            for (long ledgerId = 0; ledgerId < ledgers; ledgerId++) {
+                for (long entryId = 0; entryId < entriesPerLedger; entryId++) {
+                    key.set(ledgerId, entryId);
+                    value.set(ledgerId * entriesPerLedger + entryId);
+                    batch.put(key.array, value.array);
+                }
+                batch.flush();
+                batch.clear();
+            }
+            batch.close();
+            key.recycle();
+            value.recycle();
+            nextLedgerId = ledgers;
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() throws IOException {
+            storage.close();
+            FileUtils.deleteDirectory(dir);
+        }
+
+        private static String rocksDbConf(String name) {
+            // Run from either the project root or the microbenchmarks directory
+            File file = new File("conf", name);
+            return file.exists() ? file.getPath() : new File("../conf", name).getPath();
+        }
+    }
+
+    @Benchmark
+    public long getArray(TestState s) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        LongPairWrapper key = LongPairWrapper.get(random.nextInt(s.ledgers), random.nextInt(s.entriesPerLedger));
+        LongWrapper value = LongWrapper.get();
+        try {
+            s.storage.get(key.array, value.array);
+            return value.getValue();
+        } finally {
+            key.recycle();
+            value.recycle();
+        }
+    }
+
+    @Benchmark
+    public long getDirect(TestState s) throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        DirectLongPairWrapper key = DirectLongPairWrapper.get(random.nextInt(s.ledgers),
+                random.nextInt(s.entriesPerLedger));
+        DirectLongWrapper value = DirectLongWrapper.get();
+        try {
+            s.storage.get(key.buffer, value.buffer);
+            return value.getValue();
+        } finally {
+            key.recycle();
+            value.recycle();
+        }
+    }
+
+    @Benchmark
+    public void batchPutArray(TestState s) throws IOException {
+        long ledgerId = s.nextLedgerId++;
+        LongPairWrapper key = LongPairWrapper.get(0, 0);
+        LongWrapper value = LongWrapper.get();
+        try (Batch batch = s.storage.newBatch()) {
+            for (long entryId = 0; entryId < BATCH_SIZE; entryId++) {
+                key.set(ledgerId, entryId);
+                value.set(entryId);
+                batch.put(key.array, value.array);
+            }
+            batch.flush();
+        } finally {
+            key.recycle();
+            value.recycle();
+        }
+    }
+
+    @Benchmark
+    public void batchPutDirect(TestState s) throws IOException {
+        long ledgerId = s.nextLedgerId++;
+        DirectLongPairWrapper key = DirectLongPairWrapper.get();
+        DirectLongWrapper value = DirectLongWrapper.get();
+        try (Batch batch = s.storage.newBatch()) {
+            for (long entryId = 0; entryId < BATCH_SIZE; entryId++) {
+                key.set(ledgerId, entryId);
+                value.set(entryId);
+                batch.put(key.buffer, value.buffer);
+            }
+            batch.flush();
+        } finally {
+            key.recycle();
+            value.recycle();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.bookkeeper.bookie.storage.ldb;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.io.Closeable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks comparing the sharded {@link ReadCache} with the previous
+ * implementation guarded by a global read-write lock ({@link LockedReadCache}).
+ *
+ * <p>{@code get} measures concurrent lookups of cached entries, while {@code mixed}
+ * runs the same lookups while a writer keeps filling the cache and rolling
+ * over segments, as happens on a bookie serving tailing reads.
+ *
+ * <p>To run:
+ * build project from command line.
+ * execute ./run.sh ReadCacheBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-XX:MaxDirectMemorySize=2g")
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class ReadCacheBenchmark {
+
+    /**
+     * Common operations of the two caches.
+     */
+    interface Cache extends Closeable {
+        void put(long ledgerId, long entryId, ByteBuf entry);
+
+        ByteBuf get(long ledgerId, long entryId);
+
+        @Override
+        void close();
+    }
+
+    /**
+     * State holder of the test.
+     */
+    @State(Scope.Benchmark)
+    public static class TestState {
+        @Param({"locked", "sharded"})
+        private String cacheType;
+
+        @Param({"1024"})
+        private int entrySize;
+
+        @Param({"1000"})
+        private int ledgers;
+
+        @Param({"100"})
+        private int entriesPerLedger;
+
+        private final long cacheSize = 512 * 1024 * 1024;
+        private final int segmentSize = 16 * 1024 * 1024;
+
+        private Cache cache;
+        private ByteBuf entry;
+        private final AtomicLong nextEntryId = new AtomicLong();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            ByteBufAllocator allocator = PooledByteBufAllocator.DEFAULT;
+            if ("locked".equals(cacheType)) {
+                LockedReadCache c = new LockedReadCache(allocator, cacheSize, segmentSize);
+                cache = new Cache() {
+                    @Override
+                    public void put(long ledgerId, long entryId, ByteBuf entry) {
+                        c.put(ledgerId, entryId, entry);
+                    }
+
+                    @Override
+                    public ByteBuf get(long ledgerId, long entryId) {
+                        return c.get(ledgerId, entryId);
+                    }
+
+                    @Override
+                    public void close() {
+                        c.close();
+                    }
+                };
+            } else {
+                ReadCache c = new ReadCache(allocator, cacheSize, segmentSize);
+                cache = new Cache() {
+                    @Override
+                    public void put(long ledgerId, long entryId, ByteBuf entry) {
+                        c.put(ledgerId, entryId, entry);
+                    }
+
+                    @Override
+                    public ByteBuf get(long ledgerId, long entryId) {
+                        return c.get(ledgerId, entryId);
+                    }
+
+                    @Override
+                    public void close() {
+                        c.close();
+                    }
+                };
+            }
+
+            byte[] data = new byte[entrySize];
+            ThreadLocalRandom.current().nextBytes(data);
+            entry = Unpooled.directBuffer(entrySize);
+            entry.writeBytes(data);
+
+            for (long ledgerId = 0; ledgerId < ledgers; ledgerId++) {
+                for (long entryId = 0; entryId < entriesPerLedger; entryId++) {
+                    cache.put(ledgerId, entryId, entry);
+                }
+            }
+            nextEntryId.set(entriesPerLedger);
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            cache.close();
+            entry.release();
+        }
+    }
+
+    private static void readRandomEntry(TestState s) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        ByteBuf res = s.cache.get(random.nextInt(s.ledgers), random.nextInt(s.entriesPerLedger));
+        if (res != null) {
+            res.release();
+        }
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void get(TestState s) {
+        readRandomEntry(s);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(15)
+    public void mixedGet(TestState s) {
+        readRandomEntry(s);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public void mixedPut(TestState s) {
+        // New entries on a separate ledger range, to make the cache roll over its segments
+        long entryId = s.nextEntryId.getAndIncrement();
+        s.cache.put(s.ledgers + (entryId % s.ledgers), entryId, s.entry);
+    }
+}
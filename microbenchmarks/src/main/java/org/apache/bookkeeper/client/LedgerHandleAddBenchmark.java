@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.bookkeeper.client;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.bookkeeper.client.api.LedgerMetadata;
+import org.apache.bookkeeper.client.api.WriteFlag;
+import org.apache.bookkeeper.common.util.OrderedExecutor;
+import org.apache.bookkeeper.common.util.OrderedScheduler;
+import org.apache.bookkeeper.meta.LedgerManager;
+import org.apache.bookkeeper.net.BookieId;
+import org.apache.bookkeeper.proto.BookieClient;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ForceLedgerCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.GetBookieInfoCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadEntryCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.ReadLacCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteCallback;
+import org.apache.bookkeeper.proto.BookkeeperInternalCallbacks.WriteLacCallback;
+import org.apache.bookkeeper.stats.NullStatsLogger;
+import org.apache.bookkeeper.util.AvailabilityOfEntriesOfLedger;
+import org.apache.bookkeeper.util.ByteBufList;
+import org.apache.bookkeeper.versioning.LongVersion;
+import org.apache.bookkeeper.versioning.Versioned;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Microbenchmarks for concurrent adds to a single ledger handle.
+ *
+ * <p>The bookie client acknowledges each write right away on the ordered executor, so the benchmark measures the
+ * cost of the handle itself: taking the entryIds, queueing the pending adds and completing them in sequence.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(16)
+@Fork(1)
+@Warmup(iterations = 1, time = 10, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 3, time = 10, timeUnit = TimeUnit.SECONDS)
+public class LedgerHandleAddBenchmark {
+
+    private static final long LEDGER_ID = 1L;
+    private static final byte[] PASSWORD = new byte[0];
+
+    /**
+     * Bookie client which acknowledges all the writes without sending them.
+     */
+    private static class AckingBookieClient implements BookieClient {
+        private final OrderedExecutor executor;
+
+        AckingBookieClient(OrderedExecutor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public List<BookieId> getFaultyBookies() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isWritable(BookieId address, long ledgerId) {
+            return true;
+        }
+
+        @Override
+        public long getNumPendingRequests(BookieId address, long ledgerId) {
+            return 0;
+        }
+
+        @Override
+        public void forceLedger(BookieId address, long ledgerId, ForceLedgerCallback cb, Object ctx) {
+            executor.executeOrdered(ledgerId,
+                    () -> cb.forceLedgerComplete(BKException.Code.OK, ledgerId, address, ctx));
+        }
+
+        @Override
+        public void readLac(BookieId address, long ledgerId, ReadLacCallback cb, Object ctx) {
+            executor.executeOrdered(ledgerId,
+                    () -> cb.readLacComplete(BKException.Code.IllegalOpException, ledgerId, null, null, ctx));
+        }
+
+        @Override
+        public void writeLac(BookieId address, long ledgerId, byte[] masterKey, long lac, ByteBufList toSend,
+                             WriteLacCallback cb, Object ctx) {
+            executor.executeOrdered(ledgerId,
+                    () -> cb.writeLacComplete(BKException.Code.OK, ledgerId, address, ctx));
+        }
+
+        @Override
+        public void addEntry(BookieId address, long ledgerId, byte[] masterKey, long entryId, ByteBufList toSend,
+                             WriteCallback cb, Object ctx, int options, boolean allowFastFail,
+                             EnumSet<WriteFlag> writeFlags) {
+            executor.executeOrdered(ledgerId,
+                    () -> cb.writeComplete(BKException.Code.OK, ledgerId, entryId, address, ctx));
+        }
+
+        @Override
+        public void readEntry(BookieId address, long ledgerId, long entryId, ReadEntryCallback cb, Object ctx,
+                              int flags, byte[] masterKey, boolean allowFastFail) {
+            executor.executeOrdered(ledgerId,
+                    () -> cb.readEntryComplete(BKException.Code.IllegalOpException, ledgerId, entryId, null, ctx));
+        }
+
+        @Override
+        public void readEntryWaitForLACUpdate(BookieId address, long ledgerId, long entryId, long previousLAC,
+                                              long timeOutInMillis, boolean piggyBackEntry, ReadEntryCallback cb,
+                                              Object ctx) {
+            executor.executeOrdered(ledgerId,
+                    () -> cb.readEntryComplete(BKException.Code.IllegalOpException, ledgerId, entryId, null, ctx));
+        }
+
+        @Override
+        public void getBookieInfo(BookieId address, long requested, GetBookieInfoCallback cb, Object ctx) {
+            cb.getBookieInfoComplete(BKException.Code.IllegalOpException, null, ctx);
+        }
+
+        @Override
+        public CompletableFuture<AvailabilityOfEntriesOfLedger> getListOfEntriesOfLedger(BookieId address,
+                                                                                         long ledgerId) {
+            CompletableFuture<AvailabilityOfEntriesOfLedger> future = new CompletableFuture<>();
+            future.completeExceptionally(new BKException.BKIllegalOpException());
+            return future;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Client context of a client without metadata store.
+     */
+    private static class BenchmarkClientContext implements ClientContext {
+        private final ClientInternalConf conf = ClientInternalConf.defaultValues();
+        private final BookKeeperClientStats clientStats = BookKeeperClientStats.newInstance(NullStatsLogger.INSTANCE);
+        private final OrderedExecutor mainWorkerPool;
+        private final OrderedScheduler scheduler;
+        private final BookieClient bookieClient;
+
+        BenchmarkClientContext(int numWorkerThreads) {
+            this.mainWorkerPool = OrderedExecutor.newBuilder()
+                    .name("BenchmarkWorker").numThreads(numWorkerThreads).build();
+            this.scheduler = OrderedScheduler.newSchedulerBuilder()
+                    .name("BenchmarkScheduler").numThreads(1).build();
+            this.bookieClient = new AckingBookieClient(mainWorkerPool);
+        }
+
+        @Override
+        public ClientInternalConf getConf() {
+            return conf;
+        }
+
+        @Override
+        public LedgerManager getLedgerManager() {
+            return null;
+        }
+
+        @Override
+        public BookieWatcher getBookieWatcher() {
+            return null;
+        }
+
+        @Override
+        public EnsemblePlacementPolicy getPlacementPolicy() {
+            return null;
+        }
+
+        @Override
+        public BookieClient getBookieClient() {
+            return bookieClient;
+        }
+
+        @Override
+        public ByteBufAllocator getByteBufAllocator() {
+            return PooledByteBufAllocator.DEFAULT;
+        }
+
+        @Override
+        public OrderedExecutor getMainWorkerPool() {
+            return mainWorkerPool;
+        }
+
+        @Override
+        public OrderedScheduler getScheduler() {
+            return scheduler;
+        }
+
+        @Override
+        public BookKeeperClientStats getClientStats() {
+            return clientStats;
+        }
+
+        @Override
+        public boolean isClientClosed() {
+            return false;
+        }
+
+        void shutdown() {
+            mainWorkerPool.shutdown();
+            scheduler.shutdown();
+        }
+    }
+
+    /**
+     * State holder of the ledger handle shared by all the threads.
+     */
+    @State(Scope.Benchmark)
+    public static class HandleState {
+        @Param({"100", "1024"})
+        private int entrySize;
+
+        private BenchmarkClientContext clientCtx;
+        private LedgerHandle lh;
+        private byte[] entry;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            clientCtx = new BenchmarkClientContext(1);
+            List<BookieId> ensemble = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                ensemble.add(BookieId.parse("bookie-" + i + ":3181"));
+            }
+            LedgerMetadata metadata = LedgerMetadataBuilder.create()
+                    .withId(LEDGER_ID)
+                    .withEnsembleSize(3).withWriteQuorumSize(3).withAckQuorumSize(2)
+                    .withPassword(PASSWORD)
+                    .withDigestType(BookKeeper.DigestType.CRC32C.toApiDigestType())
+                    .newEnsembleEntry(0L, ensemble)
+                    .build();
+            lh = new LedgerHandle(clientCtx, LEDGER_ID, new Versioned<>(metadata, new LongVersion(0L)),
+                    BookKeeper.DigestType.CRC32C, PASSWORD, WriteFlag.NONE);
+            entry = new byte[entrySize];
+        }
+
+        @TearDown(Level.Trial)
+        public void teardown() {
+            clientCtx.shutdown();
+        }
+    }
+
+    /**
+     * Adds still pending for each thread, bounded so that the threads don't outrun the completions.
+     */
+    @State(Scope.Thread)
+    public static class WindowState {
+        private final Semaphore window = new Semaphore(1000);
+        private final AsyncCallback.AddCallback callback = (rc, lh, entryId, ctx) -> window.release();
+    }
+
+    @Benchmark
+    public void asyncAddEntry(HandleState s, WindowState w) throws Exception {
+        w.window.acquire();
+        s.lh.asyncAddEntry(Unpooled.wrappedBuffer(s.entry), w.callback, null);
+    }
+}
@@ -91,7 +91,7 @@ public class DigestTypeBenchmark {
         public BufferType bufferType;
         @Param
         public Digest digest;
-        @Param({"64", "1024", "4086", "8192", "16384", "65536"})
+        @Param({"64", "1024", "4086", "8192", "16384", "65536", "4194304", "16777216"})
         public int entrySize;
 
         private DigestManager crc32;
@@ -174,7 +174,7 @@ public class DigestTypeBenchmark {
     public void digestManager(MyState state) {
         final ByteBuf buff = state.getByteBuff(state.bufferType);
         final DigestManager dm = state.getDigestManager(state.digest);
-        dm.update(buff);
+        dm.updatePayload(buff);
         state.digestBuf.clear();
         dm.populateValueAndReset(state.digestBuf);
     }
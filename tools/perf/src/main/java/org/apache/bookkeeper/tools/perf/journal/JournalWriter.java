@@ -175,6 +175,38 @@ public class JournalWriter implements Runnable {
         )
         public int numJournalCallbackThreads = 8;
 
+        @Parameter(
+            names = {
+                "-dio", "--direct-io"
+            },
+            description = "Write the journal with direct I/O instead of through the page cache"
+        )
+        public boolean directIOEnabled = false;
+
+        @Parameter(
+            names = {
+                "-a", "--journal-alignment-size"
+            },
+            description = "Journal alignment size in bytes, 4096 avoids rewriting partial blocks with direct I/O"
+        )
+        public int journalAlignmentSize = 512;
+
+        @Parameter(
+            names = {
+                "-rb", "--ring-buffer"
+            },
+            description = "Queue entries to the journal in the batched ring buffer instead of the blocking queue"
+        )
+        public boolean ringBufferEnabled = false;
+
+        @Parameter(
+            names = {
+                "-bw", "--busy-wait"
+            },
+            description = "Spin the journal threads while waiting for entries instead of blocking"
+        )
+        public boolean busyWaitEnabled = false;
+
     }
 
 
@@ -448,8 +480,9 @@ public class JournalWriter implements Runnable {
             reportHistogram = recorder.getIntervalHistogram(reportHistogram);
 
             log.info(
-                    "Throughput written : {}  records/s --- {} MB/s --- Latency: mean:"
+                    "[{}] Throughput written : {}  records/s --- {} MB/s --- Latency: mean:"
                         + " {} ms - med: {} - 95pct: {} - 99pct: {} - 99.9pct: {} - 99.99pct: {} - Max: {}",
+                    getMode(flags),
                     throughputFormat.format(rate), throughputFormat.format(throughput),
                     dec.format(reportHistogram.getMean() / 1000.0),
                     dec.format(reportHistogram.getValueAtPercentile(50) / 1000.0),
@@ -474,6 +507,10 @@ public class JournalWriter implements Runnable {
         conf.setNumJournalCallbackThreads(flags.numJournalCallbackThreads);
         conf.setJournalQueueSize(flags.journalQueueSize);
         conf.setJournalSyncData(flags.journalSyncEnabled);
+        conf.setJournalDirectIOEnabled(flags.directIOEnabled);
+        conf.setJournalAlignmentSize(flags.journalAlignmentSize);
+        conf.setJournalRingBufferEnabled(flags.ringBufferEnabled);
+        conf.setBusyWaitEnabled(flags.busyWaitEnabled);
         conf.setLedgerDirNames(flags.journalDirs.toArray(new String[0]));
         conf.setStatsProviderClass(PrometheusMetricsProvider.class);
         File[] currentDirs = BookieImpl.getCurrentDirectories(conf.getLedgerDirs());
@@ -499,11 +536,18 @@ public class JournalWriter implements Runnable {
     private static final DecimalFormat throughputFormat = new PaddingDecimalFormat("0.0", 8);
     private static final DecimalFormat dec = new PaddingDecimalFormat("0.000", 7);
 
-    private static void printAggregatedStats(Recorder recorder) {
+    private static String getMode(Flags flags) {
+        return (flags.directIOEnabled ? "direct-io" : "buffered-io")
+                + (flags.ringBufferEnabled ? ", ring-buffer" : ", blocking-queue")
+                + (flags.busyWaitEnabled ? ", busy-wait" : "");
+    }
+
+    private void printAggregatedStats(Recorder recorder) {
         Histogram reportHistogram = recorder.getIntervalHistogram();
 
-        log.info("Aggregated latency stats --- Latency: mean: {} ms - med: {} - 95pct: {} - 99pct: {}"
+        log.info("[{}] Aggregated latency stats --- Latency: mean: {} ms - med: {} - 95pct: {} - 99pct: {}"
                 + " - 99.9pct: {} - 99.99pct: {} - 99.999pct: {} - Max: {}",
+                getMode(flags),
                 dec.format(reportHistogram.getMean() / 1000.0),
                 dec.format(reportHistogram.getValueAtPercentile(50) / 1000.0),
                 dec.format(reportHistogram.getValueAtPercentile(95) / 1000.0),